@@ -0,0 +1,58 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+
+/**
+ * the commands that the CoffeeMaker can issue to its actuators.
+ * <p/>
+ * The commands issued by a single transition are encoded as a bitmask of ActuatorCommand masks.  A transition never
+ * issues two commands to the same actuator.
+ */
+enum ActuatorCommand {
+
+    BoilerOn,
+
+    BoilerOff,
+
+    PotWarmerOn,
+
+    PotWarmerOff;
+
+    // the commands' masks as constants, so that apply doesn't have to load the ordinal of each command it tests for
+    private static final int BOILER_ON = BoilerOn.mask();
+    private static final int BOILER_OFF = BoilerOff.mask();
+    private static final int POT_WARMER_ON = PotWarmerOn.mask();
+    private static final int POT_WARMER_OFF = PotWarmerOff.mask();
+
+    /**
+     * @return the bit that represents this command in a bitmask of commands
+     */
+    int mask() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * @return true if the specified bitmask of commands contains this command
+     */
+    boolean in(final int commands) {
+        return (commands & mask()) != 0;
+    }
+
+    /**
+     * issues the specified bitmask of commands; Boiler commands are issued before PotWarmer commands.
+     */
+    static void apply(final int commands, final Boiler boiler, final PotWarmer potWarmer) {
+        if ((commands & BOILER_ON) != 0) {
+            boiler.turnOn();
+        } else if ((commands & BOILER_OFF) != 0) {
+            boiler.turnOff();
+        }
+
+        if ((commands & POT_WARMER_ON) != 0) {
+            potWarmer.turnOn();
+        } else if ((commands & POT_WARMER_OFF) != 0) {
+            potWarmer.turnOff();
+        }
+    }
+}
@@ -51,4 +51,16 @@ public class BrewingInterruptedState extends CoffeeMaker.AbstractState {
 
         return this;
     }
-}
\ No newline at end of file
+
+    /**
+     * abandons the brew cycle once the CoffeePot has been gone for too long; the Boiler is already off
+     *
+     * @param components an object that contains all of the Actuators and sensors of the CoffeeMaker
+     *
+     * @return Initial
+     */
+    @Override
+    CoffeeMaker.AbstractState onTimeout(final CoffeeMaker.Components components) {
+        return CoffeeMaker.State.Initial.get();
+    }
+}
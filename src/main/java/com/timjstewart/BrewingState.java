@@ -65,4 +65,15 @@ class BrewingState extends CoffeeMaker.AbstractState {
         return this;
     }
 
-}
\ No newline at end of file
+    /**
+     * turns the Boiler on and the PotWarmer off
+     *
+     * @param components an object that contains all of the Actuators and sensors of the CoffeeMaker
+     */
+    @Override
+    void reconcile(final CoffeeMaker.Components components) {
+        components.getBoiler().turnOn();
+        components.getPotWarmer().turnOff();
+    }
+
+}
@@ -1,19 +1,28 @@
 package com.timjstewart;
 
+import com.timjstewart.actuator.ActuatorFailure;
 import com.timjstewart.actuator.Boiler;
 import com.timjstewart.actuator.PotWarmer;
 import com.timjstewart.sensor.BrewButtonSensor;
 import com.timjstewart.sensor.PotSensor;
 import com.timjstewart.sensor.WaterLevelSensor;
 
+import java.util.ArrayDeque;
+import java.util.Queue;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * The Coffee Maker FSM.  It has references to all of its sensors (so that it can query their respective states) and to
  * all of its actuators so that it can control them.
+ * <p/>
+ * Actuators that carry out their commands asynchronously (see PipelinedActuator) report the commands they fail to carry
+ * out to onActuatorFailed, which the CoffeeMaker has to be added to as a Listener of.  A failure that is reported while
+ * the CoffeeMaker is handling an event (e.g. by an actuator that fails as soon as it's commanded) is handled once the
+ * event has been, so that it isn't undone by the transition that was in progress.
  */
 
-class CoffeeMaker implements BrewButtonSensor.Listener, PotSensor.Listener, WaterLevelSensor.Listener {
+class CoffeeMaker implements SensorListener, ActuatorFailure.Listener {
 
     /**
      * a class that encapsulates all of the Actuators and Sensors the CoffeeMaker interacts with
@@ -81,6 +90,9 @@ class CoffeeMaker implements BrewButtonSensor.Listener, PotSensor.Listener, Wate
      * the base class of all CoffeeMaker states
      * <p/>
      * It never changes state and is useful for deriving state classes that only care about a subset of event sources.
+     * <p/>
+     * A single instance of each derived class is shared by every CoffeeMaker (see State), so derived classes must not
+     * have any fields and must transition by returning State.get() rather than by creating new states.
      */
     abstract static class AbstractState {
 
@@ -109,6 +121,37 @@ class CoffeeMaker implements BrewButtonSensor.Listener, PotSensor.Listener, Wate
         AbstractState onWaterLevelStateChanged(final Components components, final WaterLevelSensor.State newState) {
             return this;
         }
+
+        /**
+         * called whenever an actuator fails to carry out a command
+         * <p/>
+         * Unless a state knows better, the FSM stops safely (see ActuatorFailure.stopSafely) and goes to the Failed
+         * state.
+         */
+        AbstractState onActuatorFailed(final Components components, final ActuatorFailure failure) {
+            failure.stopSafely(components.getBoiler(), components.getPotWarmer());
+            return State.Failed.get();
+        }
+
+        /**
+         * called when the CoffeeMaker has been in this state for as long as it's allowed to be (see TimedCoffeeMaker)
+         * <p/>
+         * A state stays put unless it says otherwise.
+         */
+        AbstractState onTimeout(final Components components) {
+            return this;
+        }
+
+        /**
+         * turns each actuator on or off to match this state, e.g. once the state has been restored from a Snapshot and
+         * nothing is known about what the actuators were last told to do
+         * <p/>
+         * Both actuators are off unless a state says otherwise.
+         */
+        void reconcile(final Components components) {
+            components.getBoiler().turnOff();
+            components.getPotWarmer().turnOff();
+        }
     }
 
     /**
@@ -116,8 +159,8 @@ class CoffeeMaker implements BrewButtonSensor.Listener, PotSensor.Listener, Wate
      * <p/>
      * The state can be interrogated by clients and unit tests (for State Verification).
      * <p/>
-     * Each State enum value owns an instance of AbstractState.  This is purely an optimization to reduce the amount of
-     * garbage that is generated as the state machine is transitioned through.
+     * Each State enum value owns the only instance of its AbstractState class.  States transition by returning one of
+     * these flyweights, so moving through the state machine generates no garbage at all.
      * <p/>
      * For small number of states and event sources, the AbstractState hierarchy can be encoded as methods on the enum
      * and not separate classes.
@@ -132,7 +175,9 @@ class CoffeeMaker implements BrewButtonSensor.Listener, PotSensor.Listener, Wate
 
         BrewingInterrupted(new BrewingInterruptedState()),
 
-        WarmingInterrupted(new WarmingInterruptedState());
+        WarmingInterrupted(new WarmingInterruptedState()),
+
+        Failed(new FailedState());
 
         private final AbstractState state;
 
@@ -151,6 +196,12 @@ class CoffeeMaker implements BrewButtonSensor.Listener, PotSensor.Listener, Wate
     // The components that the coffee maker interacts with
     private final Components components;
 
+    // true while the state is handling an event
+    private boolean transitioning;
+
+    // the actuator failures that were reported while the state was handling an event, created when first needed
+    private Queue<ActuatorFailure> deferredFailures;
+
     /**
      * Creates a CoffeeMaker object
      *
@@ -168,21 +219,30 @@ class CoffeeMaker implements BrewButtonSensor.Listener, PotSensor.Listener, Wate
             final PotSensor potSensor,
             final BrewButtonSensor brewButton
     ) {
-        checkNotNull(boiler, "boiler cannot be null");
-        checkNotNull(potWarmer, "potWarmer cannot be null");
-        checkNotNull(waterLevelSensor, "waterLevelSensor cannot be null");
-        checkNotNull(potSensor, "potSensor cannot be null");
-        checkNotNull(brewButton, "brewButton cannot be null");
-
-        components = new Components(boiler, potWarmer, waterLevelSensor, potSensor, brewButton);
+        this(new Components(
+                checkNotNull(boiler, "boiler cannot be null"),
+                checkNotNull(potWarmer, "potWarmer cannot be null"),
+                checkNotNull(waterLevelSensor, "waterLevelSensor cannot be null"),
+                checkNotNull(potSensor, "potSensor cannot be null"),
+                checkNotNull(brewButton, "brewButton cannot be null")));
 
         // listen for state changes
         components.getWaterLevelSensor().addListener(this);
         components.getPotSensor().addListener(this);
         components.getBrewButton().addListener(this);
+    }
+
+    /**
+     * Creates a CoffeeMaker object that doesn't listen to its sensors.  Whatever creates it is responsible for calling
+     * its Listener methods when the sensors' states change (e.g. an EventMailbox).
+     *
+     * @param components the Actuators and Sensors of the CoffeeMaker
+     */
+    CoffeeMaker(final Components components) {
+        this.components = checkNotNull(components, "components cannot be null");
 
         // immediately go to the initial state
-        state = new InitialState();
+        state = State.Initial.get();
     }
 
     /**
@@ -192,13 +252,67 @@ class CoffeeMaker implements BrewButtonSensor.Listener, PotSensor.Listener, Wate
         return state.getState();
     }
 
+    /**
+     * @return the latest reading of the WaterLevelSensor or null if it hasn't reported anything
+     */
+    WaterLevelSensor.State getWaterLevel() {
+        return components.getWaterLevelSensor().getWaterLevel();
+    }
+
+    /**
+     * @return the latest reading of the PotSensor or null if it hasn't reported anything
+     */
+    PotSensor.State getPot() {
+        return components.getPotSensor().getState();
+    }
+
+    /**
+     * @return the latest reading of the Brew button or null if it hasn't reported anything
+     */
+    BrewButtonSensor.State getBrewButton() {
+        return components.getBrewButton().getBrewButtonState();
+    }
+
+    /**
+     * puts the CoffeeMaker and its sensors back into states they were in before a restart, without telling anyone about
+     * the sensors' readings, and commands the actuators to match the state.
+     *
+     * @param state      the state of the CoffeeMaker
+     * @param waterLevel the reading of the WaterLevelSensor or null if it hadn't reported anything
+     * @param pot        the reading of the PotSensor or null if it hadn't reported anything
+     * @param brewButton the reading of the Brew button or null if it hadn't reported anything
+     */
+    void restore(final State state,
+                 final WaterLevelSensor.State waterLevel,
+                 final PotSensor.State pot,
+                 final BrewButtonSensor.State brewButton) {
+        checkNotNull(state, "state cannot be null");
+
+        components.getWaterLevelSensor().restore(waterLevel);
+        components.getPotSensor().restore(pot);
+        components.getBrewButton().restore(brewButton);
+
+        final boolean outermost = beginTransition();
+        try {
+            this.state = state.get();
+            this.state.reconcile(components);
+        } finally {
+            endTransition(outermost);
+        }
+    }
+
     /**
      * Sensor State Change Handlers
      */
 
     @Override
     public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
-        state = state.onBrewButtonStateChanged(components, newState);
+        final boolean outermost = beginTransition();
+        try {
+            state = state.onBrewButtonStateChanged(components, newState);
+        } finally {
+            endTransition(outermost);
+        }
 
         // automatically reset the Brew button
         if (newState == BrewButtonSensor.State.Pressed) {
@@ -208,11 +322,87 @@ class CoffeeMaker implements BrewButtonSensor.Listener, PotSensor.Listener, Wate
 
     @Override
     public void onPotStatusChanged(PotSensor.State newState) {
-        state = state.onPotStateChanged(components, newState);
+        final boolean outermost = beginTransition();
+        try {
+            state = state.onPotStateChanged(components, newState);
+        } finally {
+            endTransition(outermost);
+        }
     }
 
     @Override
     public void onWaterLevelChanged(WaterLevelSensor.State newState) {
-        state = state.onWaterLevelStateChanged(components, newState);
+        final boolean outermost = beginTransition();
+        try {
+            state = state.onWaterLevelStateChanged(components, newState);
+        } finally {
+            endTransition(outermost);
+        }
+    }
+
+    /**
+     * Actuator Failure Handler
+     */
+
+    @Override
+    public void onActuatorFailed(ActuatorFailure failure) {
+        checkNotNull(failure, "failure cannot be null");
+
+        if (transitioning) {
+            if (deferredFailures == null) {
+                deferredFailures = new ArrayDeque<ActuatorFailure>();
+            }
+            deferredFailures.add(failure);
+            return;
+        }
+
+        final boolean outermost = beginTransition();
+        try {
+            state = state.onActuatorFailed(components, failure);
+        } finally {
+            endTransition(outermost);
+        }
+    }
+
+    /**
+     * Timeout Handler
+     */
+
+    void onTimeout() {
+        final boolean outermost = beginTransition();
+        try {
+            state = state.onTimeout(components);
+        } finally {
+            endTransition(outermost);
+        }
+    }
+
+    /**
+     * marks the start of the handling of an event
+     *
+     * @return true unless another event is already being handled, in which case this one is nested inside it
+     */
+    private boolean beginTransition() {
+        final boolean outermost = !transitioning;
+        transitioning = true;
+        return outermost;
+    }
+
+    /**
+     * marks the end of the handling of an event and, unless it was nested inside another, handles the actuator failures
+     * that were reported in the meantime (including any that are reported while they're being handled)
+     */
+    private void endTransition(final boolean outermost) {
+        if (!outermost) {
+            return;
+        }
+
+        try {
+            while (deferredFailures != null && !deferredFailures.isEmpty()) {
+                state = state.onActuatorFailed(components, deferredFailures.remove());
+            }
+        } finally {
+            transitioning = false;
+        }
     }
 }
@@ -0,0 +1,478 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A very large number of Coffee Maker FSMs, identified by their index in the fleet, whose states are stored in a single
+ * buffer rather than in an object graph per coffee maker.
+ * <p/>
+ * Each coffee maker takes a single byte: the ordinal of its state and its readings of the WaterLevelSensor and the
+ * PotSensor (see TransitionTable.reading), which are the only sensors its Guard Conditions depend on.  The buffer is
+ * either a byte array on the heap or off-heap (direct) memory, which the garbage collector never has to scan or copy.
+ * <p/>
+ * The coffee makers transition exactly like CoffeeMaker does, using a table that is derived from the TransitionTable
+ * and indexed by the byte of the coffee maker and the SensorEvent.  There are no sensor objects: events are applied to a
+ * coffee maker by its index, and the Brew button is treated as having been reset as soon as its press is applied.
+ * <p/>
+ * The states of a timed fleet can time out like TimedCoffeeMaker's: whenever a coffee maker enters a state that has a
+ * timeout, the fleet schedules a timer keyed by the coffee maker's index on a HashedWheelTimer, which the whole fleet
+ * shares, and if the timer expires first the state's timeout transition (see TransitionTable.timeout) is applied.  A
+ * timed fleet keeps each coffee maker's timer handle in an array of longs next to its byte; an untimed fleet has no
+ * such array and pays a null check per transition.
+ * <p/>
+ * A batch of events can be applied by a ForkJoinPool, which applies the events of different coffee makers in parallel
+ * (unless the fleet is timed: the HashedWheelTimer isn't thread safe, so a timed fleet applies a batch on the calling
+ * thread).  Other than that, a CoffeeMakerFleet is not thread safe, and the HashedWheelTimer of a timed fleet must be
+ * advanced by the thread that applies its events.
+ */
+class CoffeeMakerFleet implements HashedWheelTimer.Listener {
+
+    /**
+     * the actuators of every coffee maker in the fleet
+     */
+    interface Actuators {
+
+        /**
+         * turns the Boiler of the specified coffee maker on or off
+         */
+        void setBoiler(int device, boolean on);
+
+        /**
+         * turns the PotWarmer of the specified coffee maker on or off
+         */
+        void setPotWarmer(int device, boolean on);
+    }
+
+    // the layout of a coffee maker's byte
+    private static final int STATE_BITS = 3;
+    private static final int WATER_LEVEL_BITS = 2;
+    private static final int POT_BITS = 2;
+    private static final int WATER_LEVEL_SHIFT = STATE_BITS;
+    private static final int POT_SHIFT = WATER_LEVEL_SHIFT + WATER_LEVEL_BITS;
+    private static final int STATE_MASK = (1 << STATE_BITS) - 1;
+    private static final int WATER_LEVEL_MASK = (1 << WATER_LEVEL_BITS) - 1;
+    private static final int POT_MASK = (1 << POT_BITS) - 1;
+    private static final int DEVICE_STATES = 1 << (POT_SHIFT + POT_BITS);
+
+    private static final int COMMANDS_SHIFT = 8;
+
+    // the number of partitions of the devices per thread of the pool that applies a batch, so that a thread that is
+    // given a busy partition doesn't hold the others up
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    // batches (and tasks) with no more events than this are applied by a single thread
+    private static final int LEAF_EVENTS = 4096;
+
+    private static final WaterLevelSensor.State[] WATER_LEVELS = WaterLevelSensor.State.values();
+    private static final PotSensor.State[] POTS = PotSensor.State.values();
+
+    // for each SensorEvent and byte: the coffee maker's next byte with the commands to issue in the byte above it
+    private static final int[] TRANSITIONS = compile();
+
+    private final ByteBuffer devices;
+    private final int size;
+    private final Actuators actuators;
+
+    // the timer that times the coffee makers' states and how long each state may last, or null if the fleet is untimed
+    private final HashedWheelTimer timer;
+    private final TimedCoffeeMaker.Timeouts timeouts;
+
+    // for each coffee maker of a timed fleet: the timer of its state's timeout or NO_TIMER if it doesn't time out
+    private final long[] timers;
+
+    private CoffeeMakerFleet(final ByteBuffer devices,
+                             final Actuators actuators,
+                             final HashedWheelTimer timer,
+                             final TimedCoffeeMaker.Timeouts timeouts) {
+        this.devices = devices;
+        this.size = devices.capacity();
+        this.actuators = checkNotNull(actuators, "actuators cannot be null");
+        this.timer = timer;
+        this.timeouts = timeouts;
+
+        if (timer == null) {
+            timers = null;
+        } else {
+            timers = new long[size];
+            Arrays.fill(timers, HashedWheelTimer.NO_TIMER);
+            for (int device = 0; device < size; ++device) {
+                arm(device, devices.get(device) & STATE_MASK);
+            }
+        }
+    }
+
+    /**
+     * Creates a CoffeeMakerFleet whose states are stored in a byte array
+     *
+     * @param size      the number of coffee makers in the fleet; they all start in the Initial state without having
+     *                  heard from their sensors
+     * @param actuators the actuators that the coffee makers command
+     */
+    static CoffeeMakerFleet onHeap(final int size, final Actuators actuators) {
+        checkArgument(size >= 0, "size cannot be negative");
+        return new CoffeeMakerFleet(ByteBuffer.allocate(size), actuators, null, null);
+    }
+
+    /**
+     * Creates a timed CoffeeMakerFleet whose states are stored in a byte array
+     *
+     * @param size      the number of coffee makers in the fleet; they all start in the Initial state without having
+     *                  heard from their sensors
+     * @param actuators the actuators that the coffee makers command
+     * @param timer     the timer that times the coffee makers' states
+     * @param timeouts  how long a coffee maker may stay in each state
+     */
+    static CoffeeMakerFleet onHeap(final int size,
+                                   final Actuators actuators,
+                                   final HashedWheelTimer timer,
+                                   final TimedCoffeeMaker.Timeouts timeouts) {
+        checkArgument(size >= 0, "size cannot be negative");
+        checkNotNull(timer, "timer cannot be null");
+        checkNotNull(timeouts, "timeouts cannot be null");
+        return new CoffeeMakerFleet(ByteBuffer.allocate(size), actuators, timer, timeouts);
+    }
+
+    /**
+     * Creates a CoffeeMakerFleet whose states are stored in off-heap memory
+     *
+     * @param size      the number of coffee makers in the fleet; they all start in the Initial state without having
+     *                  heard from their sensors
+     * @param actuators the actuators that the coffee makers command
+     */
+    static CoffeeMakerFleet offHeap(final int size, final Actuators actuators) {
+        checkArgument(size >= 0, "size cannot be negative");
+        return new CoffeeMakerFleet(ByteBuffer.allocateDirect(size), actuators, null, null);
+    }
+
+    /**
+     * Creates a timed CoffeeMakerFleet whose states are stored in off-heap memory
+     *
+     * @param size      the number of coffee makers in the fleet; they all start in the Initial state without having
+     *                  heard from their sensors
+     * @param actuators the actuators that the coffee makers command
+     * @param timer     the timer that times the coffee makers' states
+     * @param timeouts  how long a coffee maker may stay in each state
+     */
+    static CoffeeMakerFleet offHeap(final int size,
+                                    final Actuators actuators,
+                                    final HashedWheelTimer timer,
+                                    final TimedCoffeeMaker.Timeouts timeouts) {
+        checkArgument(size >= 0, "size cannot be negative");
+        checkNotNull(timer, "timer cannot be null");
+        checkNotNull(timeouts, "timeouts cannot be null");
+        return new CoffeeMakerFleet(ByteBuffer.allocateDirect(size), actuators, timer, timeouts);
+    }
+
+    /**
+     * @return the number of coffee makers in the fleet
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the states are stored in off-heap memory
+     */
+    boolean isOffHeap() {
+        return devices.isDirect();
+    }
+
+    /**
+     * @return true if the fleet's states can time out
+     */
+    boolean isTimed() {
+        return timer != null;
+    }
+
+    /**
+     * @return true if the specified coffee maker's state will time out unless it leaves the state first
+     */
+    boolean isTimerPending(final int device) {
+        checkElementIndex(device, size, "device");
+        return timers != null && timers[device] != HashedWheelTimer.NO_TIMER;
+    }
+
+    /**
+     * @return the state of the specified coffee maker
+     */
+    CoffeeMaker.State getState(final int device) {
+        return TransitionTable.state(get(device) & STATE_MASK);
+    }
+
+    /**
+     * @return the latest water level reported to the specified coffee maker or null if none has been reported
+     */
+    WaterLevelSensor.State getWaterLevel(final int device) {
+        final int reading = get(device) >>> WATER_LEVEL_SHIFT & WATER_LEVEL_MASK;
+        return reading == 0 ? null : WATER_LEVELS[reading - 1];
+    }
+
+    /**
+     * @return the latest pot state reported to the specified coffee maker or null if none has been reported
+     */
+    PotSensor.State getPot(final int device) {
+        final int reading = get(device) >>> POT_SHIFT & POT_MASK;
+        return reading == 0 ? null : POTS[reading - 1];
+    }
+
+    /**
+     * Sensor State Change Handlers
+     */
+
+    void onBrewButtonStatusChanged(final int device, final BrewButtonSensor.State newState) {
+        apply(device, SensorEvent.of(newState));
+    }
+
+    void onPotStatusChanged(final int device, final PotSensor.State newState) {
+        apply(device, SensorEvent.of(newState));
+    }
+
+    void onWaterLevelChanged(final int device, final WaterLevelSensor.State newState) {
+        apply(device, SensorEvent.of(newState));
+    }
+
+    /**
+     * transitions the specified coffee maker in response to the specified event, commanding its actuators
+     */
+    void apply(final int device, final SensorEvent event) {
+        checkElementIndex(device, size, "device");
+        transition(device, event.ordinal());
+    }
+
+    /**
+     * times the specified coffee maker's state out, applying the state's timeout transition
+     */
+    @Override
+    public void onTimerExpired(final long key) {
+        final int device = (int) key;
+        timers[device] = HashedWheelTimer.NO_TIMER;
+
+        final int previous = devices.get(device);
+        final int entry = TransitionTable.timeout(previous & STATE_MASK);
+
+        devices.put(device, (byte) (previous & ~STATE_MASK | TransitionTable.nextState(entry)));
+
+        final int commands = TransitionTable.commands(entry);
+        if (commands != 0) {
+            command(device, commands);
+        }
+
+        if (TransitionTable.nextState(entry) != (previous & STATE_MASK)) {
+            arm(device, TransitionTable.nextState(entry));
+        }
+    }
+
+    /**
+     * puts every coffee maker back into the state it was in when the specified snapshot was taken, together with its
+     * readings of the WaterLevelSensor and the PotSensor, and commands its actuators to match its state.  Every
+     * coffee maker's actuators are commanded, since nothing is known about what they were last told to do.  In a timed
+     * fleet, each coffee maker's stay in its restored state starts now.
+     */
+    void restore(final Snapshot snapshot) {
+        checkNotNull(snapshot, "snapshot cannot be null");
+        checkArgument(snapshot.size() == size,
+                "the snapshot has %s devices but the fleet has %s", snapshot.size(), size);
+
+        for (int device = 0; device < size; ++device) {
+            final byte entry = snapshot.get(device);
+            final int state = Snapshot.state(entry).ordinal();
+
+            devices.put(device, (byte) pack(state,
+                    TransitionTable.reading(Snapshot.waterLevel(entry)), TransitionTable.reading(Snapshot.pot(entry))));
+
+            command(device, TransitionTable.reconciliation(state));
+
+            if (timer != null) {
+                arm(device, state);
+            }
+        }
+    }
+
+    /**
+     * applies a batch of events, using the threads of the specified pool to apply the events of different coffee
+     * makers in parallel.  Each coffee maker's events are applied in the order they were added to the batch, but events
+     * of different coffee makers may be applied in any order, so the Actuators must tolerate being called by several
+     * threads at once for different devices.
+     * <p/>
+     * Every device in the batch is checked before any event is applied.  If an actuator throws, the exception is
+     * rethrown once the pool has stopped applying events; other coffee makers' events may or may not have been applied.
+     * A timed fleet applies the batch on the calling thread, since its HashedWheelTimer isn't thread safe.
+     */
+    void apply(final EventBatch batch, final ForkJoinPool pool) {
+        checkNotNull(batch, "batch cannot be null");
+        checkNotNull(pool, "pool cannot be null");
+
+        final int events = batch.size();
+        for (int i = 0; i < events; ++i) {
+            checkElementIndex(batch.getDevice(i), size, "device");
+        }
+
+        if (events <= LEAF_EVENTS || pool.getParallelism() == 1 || timer != null) {
+            for (int i = 0; i < events; ++i) {
+                transition(batch.getDevice(i), batch.getEvent(i));
+            }
+            return;
+        }
+
+        // partition the devices into contiguous ranges and sort the events by partition, keeping each partition's
+        // events in batch order, so that every coffee maker's events are applied by a single task
+        final int partitions = Math.min(size, pool.getParallelism() * PARTITIONS_PER_THREAD);
+
+        final int[] starts = new int[partitions + 1];
+        for (int i = 0; i < events; ++i) {
+            ++starts[partition(batch.getDevice(i), partitions) + 1];
+        }
+        for (int partition = 0; partition < partitions; ++partition) {
+            starts[partition + 1] += starts[partition];
+        }
+
+        final int[] order = new int[events];
+        final int[] next = Arrays.copyOf(starts, partitions);
+        for (int i = 0; i < events; ++i) {
+            order[next[partition(batch.getDevice(i), partitions)]++] = i;
+        }
+
+        pool.invoke(new ApplyTask(batch, order, starts, 0, partitions));
+    }
+
+    private int partition(final int device, final int partitions) {
+        return (int) ((long) device * partitions / size);
+    }
+
+    private void transition(final int device, final int event) {
+        final int previous = devices.get(device);
+        final int entry = TRANSITIONS[event * DEVICE_STATES + previous];
+
+        devices.put(device, (byte) entry);
+
+        final int commands = entry >>> COMMANDS_SHIFT;
+        if (commands != 0) {
+            command(device, commands);
+        }
+
+        if (timer != null && ((entry ^ previous) & STATE_MASK) != 0) {
+            arm(device, entry & STATE_MASK);
+        }
+    }
+
+    /**
+     * cancels the timer of the specified coffee maker's previous state and schedules its current state's, if it has a
+     * timeout
+     */
+    private void arm(final int device, final int state) {
+        timer.cancel(timers[device]);
+
+        final long timeout = timeouts.get(TransitionTable.state(state));
+        timers[device] = timeout > 0
+                ? timer.schedule(this, device, timeout, TimeUnit.NANOSECONDS)
+                : HashedWheelTimer.NO_TIMER;
+    }
+
+    /**
+     * applies the events of a range of partitions, splitting the range between two tasks while it holds more than one
+     * partition and more than LEAF_EVENTS events
+     */
+    private class ApplyTask extends RecursiveAction {
+
+        private final EventBatch batch;
+        private final int[] order;
+        private final int[] starts;
+        private final int from;
+        private final int to;
+
+        ApplyTask(final EventBatch batch, final int[] order, final int[] starts, final int from, final int to) {
+            this.batch = batch;
+            this.order = order;
+            this.starts = starts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && starts[to] - starts[from] > LEAF_EVENTS) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new ApplyTask(batch, order, starts, from, middle),
+                        new ApplyTask(batch, order, starts, middle, to));
+                return;
+            }
+
+            for (int i = starts[from]; i < starts[to]; ++i) {
+                final int event = order[i];
+                transition(batch.getDevice(event), batch.getEvent(event));
+            }
+        }
+    }
+
+    private int get(final int device) {
+        checkElementIndex(device, size, "device");
+        return devices.get(device);
+    }
+
+    private void command(final int device, final int commands) {
+        if (ActuatorCommand.BoilerOn.in(commands)) {
+            actuators.setBoiler(device, true);
+        } else if (ActuatorCommand.BoilerOff.in(commands)) {
+            actuators.setBoiler(device, false);
+        }
+
+        if (ActuatorCommand.PotWarmerOn.in(commands)) {
+            actuators.setPotWarmer(device, true);
+        } else if (ActuatorCommand.PotWarmerOff.in(commands)) {
+            actuators.setPotWarmer(device, false);
+        }
+    }
+
+    private static int[] compile() {
+        final TransitionTable table = TransitionTable.compiled();
+        final int[] transitions = new int[TransitionTable.EVENTS * DEVICE_STATES];
+
+        for (SensorEvent event : SensorEvent.values()) {
+            for (int state = 0; state < TransitionTable.STATES; ++state) {
+                for (int waterLevel = 0; waterLevel < TransitionTable.WATER_LEVELS; ++waterLevel) {
+                    for (int pot = 0; pot < TransitionTable.POTS; ++pot) {
+
+                        // the event updates the reading of the sensor that reported it before the guards are evaluated
+                        int nextWaterLevel = waterLevel;
+                        int nextPot = pot;
+                        switch (event.getSensor()) {
+                            case Pot:
+                                nextPot = TransitionTable.reading(event.getNewState());
+                                break;
+
+                            case WaterLevel:
+                                nextWaterLevel = TransitionTable.reading(event.getNewState());
+                                break;
+                        }
+
+                        final int entry = table.lookup(state, event.ordinal(), nextWaterLevel, nextPot);
+
+                        final int device = pack(state, waterLevel, pot);
+                        final int next = pack(TransitionTable.nextState(entry), nextWaterLevel, nextPot);
+
+                        transitions[event.ordinal() * DEVICE_STATES + device] =
+                                next | TransitionTable.commands(entry) << COMMANDS_SHIFT;
+                    }
+                }
+            }
+        }
+
+        return transitions;
+    }
+
+    private static int pack(final int state, final int waterLevel, final int pot) {
+        return state | waterLevel << WATER_LEVEL_SHIFT | pot << POT_SHIFT;
+    }
+}
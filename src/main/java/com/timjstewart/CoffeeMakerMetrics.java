@@ -0,0 +1,196 @@
+package com.timjstewart;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * What a population of InstrumentedCoffeeMakers has been doing:
+ * <ul>
+ * <li>the number of times each edge of the FSM (the state before an event, the event and the state after it) has been
+ * taken, including the events that leave the state as it was;</li>
+ * <li>the total time the coffee makers have spent in each state, counted when they leave it;</li>
+ * <li>a LatencyHistogram of each sensor's Listener method, which includes the time the actuators took to carry out the
+ * commands that the event caused.</li>
+ * </ul>
+ * The counters are striped, like a LongAdder's cells: there is a fixed number of Recorders (the number of processors,
+ * rounded up to a power of two), and each thread records into the one its thread id picks.  Threads that share a
+ * Recorder add to its counters atomically, so any number of threads can come and go without the metrics growing, and
+ * threads on different processors mostly record into different Recorders; reading the metrics adds up the Recorders.
+ * Reading the clock costs more than all of the counters put together, so the clock is only read when a coffee maker
+ * changes state and when an event's latency is sampled: by default about one event in DEFAULT_LATENCY_SAMPLING (per
+ * Recorder) is timed.
+ */
+final class CoffeeMakerMetrics {
+
+    static final int DEFAULT_LATENCY_SAMPLING = 16;
+
+    private static final int STATES = CoffeeMaker.State.values().length;
+    private static final int EVENTS = SensorEvent.values().length;
+    private static final int SENSORS = SensorEvent.Sensor.values().length;
+
+    private final Ticker ticker;
+    private final int latencySampling;
+
+    // the stripes: a thread records into the Recorder at its thread id & mask
+    private final Recorder[] recorders;
+    private final int mask;
+
+    /**
+     * Creates a CoffeeMakerMetrics object that measures time with System.nanoTime and times one event in
+     * DEFAULT_LATENCY_SAMPLING
+     */
+    CoffeeMakerMetrics() {
+        this(Ticker.systemTicker(), DEFAULT_LATENCY_SAMPLING);
+    }
+
+    /**
+     * Creates a CoffeeMakerMetrics object
+     *
+     * @param ticker          the source of the time that latencies and time in state are measured with
+     * @param latencySampling the number of events per latency that is recorded, per thread (1 times every event)
+     */
+    CoffeeMakerMetrics(final Ticker ticker, final int latencySampling) {
+        this.ticker = checkNotNull(ticker, "ticker cannot be null");
+
+        checkArgument(latencySampling > 0, "latencySampling must be positive");
+        this.latencySampling = latencySampling;
+
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+
+        this.recorders = new Recorder[stripes];
+        for (int i = 0; i < stripes; ++i) {
+            recorders[i] = new Recorder(latencySampling);
+        }
+        this.mask = stripes - 1;
+    }
+
+    /**
+     * @return the number of times the specified event took a coffee maker from one state to another (or the same one)
+     */
+    long getTransitions(final CoffeeMaker.State from, final SensorEvent event, final CoffeeMaker.State to) {
+        checkNotNull(from, "from cannot be null");
+        checkNotNull(event, "event cannot be null");
+        checkNotNull(to, "to cannot be null");
+
+        final int edge = edge(from.ordinal(), event.ordinal(), to.ordinal());
+
+        long transitions = 0;
+        for (Recorder recorder : recorders) {
+            transitions += recorder.transitions.get(edge);
+        }
+        return transitions;
+    }
+
+    /**
+     * @return the total time, in nanoseconds, that the coffee makers spent in the specified state before leaving it
+     */
+    long getTimeInState(final CoffeeMaker.State state) {
+        checkNotNull(state, "state cannot be null");
+
+        long nanos = 0;
+        for (Recorder recorder : recorders) {
+            nanos += recorder.timeInState.get(state.ordinal());
+        }
+        return nanos;
+    }
+
+    /**
+     * @return the sampled latencies of the Listener method of the specified sensor
+     */
+    LatencyHistogram getLatency(final SensorEvent.Sensor sensor) {
+        checkNotNull(sensor, "sensor cannot be null");
+
+        final long[] buckets = new long[LatencyHistogram.BUCKETS];
+        for (Recorder recorder : recorders) {
+            for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; ++bucket) {
+                buckets[bucket] += recorder.latencies.get(sensor.ordinal() * LatencyHistogram.BUCKETS + bucket);
+            }
+        }
+        return new LatencyHistogram(buckets);
+    }
+
+    /**
+     * @return the current time, in nanoseconds, from an arbitrary origin
+     */
+    long now() {
+        return ticker.read();
+    }
+
+    /**
+     * @return the Recorder that the current thread records into
+     */
+    Recorder recorder() {
+        return recorders[(int) Thread.currentThread().getId() & mask];
+    }
+
+    private static int edge(final int from, final int event, final int to) {
+        return (from * EVENTS + event) * STATES + to;
+    }
+
+    /**
+     * a stripe of the counters, which the threads whose ids pick it record into
+     */
+    static final class Recorder {
+
+        private final AtomicLongArray transitions = new AtomicLongArray(STATES * EVENTS * STATES);
+        private final AtomicLongArray timeInState = new AtomicLongArray(STATES);
+        private final AtomicLongArray latencies = new AtomicLongArray(SENSORS * LatencyHistogram.BUCKETS);
+
+        private final int latencySampling;
+
+        // the number of events until the next one whose latency is recorded.  Threads that share the Recorder update it
+        // without synchronizing, which only makes the sampling less regular.
+        private int untilSample = 1;
+
+        private Recorder(final int latencySampling) {
+            this.latencySampling = latencySampling;
+        }
+
+        /**
+         * @return true if the latency of the event about to be handled should be recorded
+         */
+        boolean sample() {
+            if (--untilSample > 0) {
+                return false;
+            }
+            untilSample = latencySampling;
+            return true;
+        }
+
+        /**
+         * records an event that a coffee maker has handled
+         *
+         * @param from  the state before the event
+         * @param event the event
+         * @param to    the state after the event
+         */
+        void recordEvent(final CoffeeMaker.State from, final SensorEvent event, final CoffeeMaker.State to) {
+            increment(transitions, edge(from.ordinal(), event.ordinal(), to.ordinal()), 1);
+        }
+
+        /**
+         * records how long, in nanoseconds, a coffee maker took to handle an event reported by the specified sensor
+         */
+        void recordLatency(final SensorEvent.Sensor sensor, final long nanos) {
+            increment(latencies, sensor.ordinal() * LatencyHistogram.BUCKETS + LatencyHistogram.bucket(nanos), 1);
+        }
+
+        /**
+         * records a coffee maker leaving a state that it had been in for the specified number of nanoseconds
+         */
+        void recordTimeInState(final CoffeeMaker.State state, final long nanos) {
+            increment(timeInState, state.ordinal(), nanos);
+        }
+
+        private static void increment(final AtomicLongArray counters, final int index, final long delta) {
+            counters.getAndAdd(index, delta);
+        }
+    }
+}
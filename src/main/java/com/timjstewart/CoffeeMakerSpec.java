@@ -0,0 +1,49 @@
+package com.timjstewart;
+
+import com.timjstewart.codegen.StateMachineSpec;
+import com.timjstewart.codegen.Transition;
+
+/**
+ * the Coffee Maker FSM declared as a transition table, from which StateMachineProcessor generates GeneratedCoffeeMaker
+ * at build time.
+ * <p/>
+ * Written by CoffeeMakerSpecWriter from the TransitionTable compiled from the AbstractState classes, which
+ * CoffeeMakerSpecWriterTest checks it against; change the AbstractState classes and run CoffeeMakerSpecWriter
+ * rather than editing it.
+ */
+@StateMachineSpec(
+        name = "GeneratedCoffeeMaker",
+        states = {"Initial", "Brewing", "Warming", "BrewingInterrupted", "WarmingInterrupted", "Failed"},
+        failed = "Failed")
+
+@Transition(from = "Initial", on = "BrewButton.Pressed", waterLevel = "NotEmpty", pot = "Empty",
+        commands = "BoilerOn", to = "Brewing")
+
+@Transition(from = "Brewing", on = "Pot.Gone",
+        commands = "BoilerOff", to = "BrewingInterrupted")
+@Transition(from = "Brewing", on = "WaterLevel.Empty",
+        commands = {"BoilerOff", "PotWarmerOn"}, to = "Warming")
+
+@Transition(from = "Warming", on = {"Pot.Gone", "Pot.Empty"},
+        commands = "PotWarmerOff", to = "WarmingInterrupted")
+@Transition(from = "Warming", on = "Timeout",
+        commands = "PotWarmerOff", to = "Initial")
+
+@Transition(from = "BrewingInterrupted", on = {"Pot.Empty", "Pot.NonEmpty"}, waterLevel = "NotEmpty",
+        commands = "BoilerOn", to = "Brewing")
+@Transition(from = "BrewingInterrupted", on = "Pot.Empty",
+        to = "Initial")
+@Transition(from = "BrewingInterrupted", on = "Pot.NonEmpty",
+        commands = "PotWarmerOn", to = "Warming")
+@Transition(from = "BrewingInterrupted", on = "Timeout",
+        to = "Initial")
+
+@Transition(from = "WarmingInterrupted", on = "Pot.Empty",
+        to = "Initial")
+@Transition(from = "WarmingInterrupted", on = "Pot.NonEmpty",
+        commands = "PotWarmerOn", to = "Warming")
+
+@Transition(from = "Failed", on = "BrewButton.Pressed",
+        to = "Initial")
+interface CoffeeMakerSpec {
+}
@@ -0,0 +1,328 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * writes CoffeeMakerSpec, the Coffee Maker FSM's StateMachineSpec, from a TransitionTable, so that the spec that
+ * GeneratedCoffeeMaker is generated from declares exactly what the AbstractState classes do instead of being a copy of
+ * them that has to be kept up to date by hand.  CoffeeMakerSpecWriterTest fails the build if CoffeeMakerSpec isn't
+ * what the compiled table writes.
+ * <p/>
+ * Each state's Transitions are written in the order of the SensorEvents, followed by its timeout.  An event whose
+ * outcome depends on the guard sensors' readings gets a guarded Transition for each outcome but the most common one,
+ * which is left unguarded (or left out, if it leaves the state as it is and issues no commands).  Events of the same
+ * state whose Transitions are the same share one.
+ * <p/>
+ * Running the class writes the spec to the specified file (e.g. src/main/java/com/timjstewart/CoffeeMakerSpec.java)
+ * or, without arguments, prints it.
+ */
+final class CoffeeMakerSpecWriter {
+
+    // the readings each guard sensor can have in the table (see TransitionTable.reading)
+    private static final WaterLevelSensor.State[] WATER_LEVELS = WaterLevelSensor.State.values();
+    private static final PotSensor.State[] POTS = PotSensor.State.values();
+
+    /**
+     * a Transition of the spec: what one or more events do in a state when the guard sensors read as required (each
+     * reading is 0 if the Transition doesn't care)
+     */
+    private static final class Row {
+        final CoffeeMaker.State from;
+        final List<String> on = new ArrayList<String>();
+        final int waterLevel;
+        final int pot;
+        final int entry;
+
+        Row(final CoffeeMaker.State from, final String on, final int waterLevel, final int pot, final int entry) {
+            this.from = from;
+            this.on.add(on);
+            this.waterLevel = waterLevel;
+            this.pot = pot;
+            this.entry = entry;
+        }
+
+        boolean sameAs(final Row other) {
+            return waterLevel == other.waterLevel && pot == other.pot && entry == other.entry;
+        }
+    }
+
+    private CoffeeMakerSpecWriter() {
+    }
+
+    /**
+     * @return the source of CoffeeMakerSpec for the specified table
+     * @throws IllegalStateException if the table has an outcome that a spec can't express, e.g. one that depends on a
+     *                               guard sensor not having reported anything
+     */
+    static String write(final TransitionTable table) {
+        checkNotNull(table, "table cannot be null");
+
+        final StringBuilder out = new StringBuilder();
+
+        out.append("package com.timjstewart;\n\n");
+        out.append("import com.timjstewart.codegen.StateMachineSpec;\n");
+        out.append("import com.timjstewart.codegen.Transition;\n\n");
+        out.append("/**\n");
+        out.append(" * the Coffee Maker FSM declared as a transition table, from which StateMachineProcessor generates"
+                + " GeneratedCoffeeMaker\n");
+        out.append(" * at build time.\n");
+        out.append(" * <p/>\n");
+        out.append(" * Written by CoffeeMakerSpecWriter from the TransitionTable compiled from the AbstractState"
+                + " classes, which\n");
+        out.append(" * CoffeeMakerSpecWriterTest checks it against; change the AbstractState classes and run"
+                + " CoffeeMakerSpecWriter\n");
+        out.append(" * rather than editing it.\n");
+        out.append(" */\n");
+
+        out.append("@StateMachineSpec(\n");
+        out.append("        name = \"GeneratedCoffeeMaker\",\n");
+        out.append("        states = {");
+        for (CoffeeMaker.State state : CoffeeMaker.State.values()) {
+            out.append(state.ordinal() == 0 ? "" : ", ").append('"').append(state).append('"');
+        }
+        out.append("},\n");
+        out.append("        failed = \"").append(CoffeeMaker.State.Failed).append("\")\n");
+
+        for (CoffeeMaker.State state : CoffeeMaker.State.values()) {
+            final List<Row> rows = rows(table, state);
+            if (!rows.isEmpty()) {
+                out.append('\n');
+            }
+            for (Row row : rows) {
+                write(out, row);
+            }
+        }
+
+        out.append("interface CoffeeMakerSpec {\n");
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /**
+     * @return the Transitions of the specified state, with the Transitions of events that do the same merged
+     */
+    private static List<Row> rows(final TransitionTable table, final CoffeeMaker.State state) {
+        final List<Row> rows = new ArrayList<Row>();
+
+        for (SensorEvent event : SensorEvent.values()) {
+            // an event's Transitions can join those of an earlier event as long as they stay in order
+            int earliest = 0;
+            for (Row row : rows(table, state, event)) {
+                Row merged = null;
+                for (int i = earliest; i < rows.size() && merged == null; ++i) {
+                    if (rows.get(i).sameAs(row)) {
+                        merged = rows.get(i);
+                        merged.on.addAll(row.on);
+                        earliest = i + 1;
+                    }
+                }
+                if (merged == null) {
+                    rows.add(row);
+                    earliest = rows.size();
+                }
+            }
+        }
+
+        final int timeout = TransitionTable.timeout(state.ordinal());
+        if (hasEffect(state, timeout)) {
+            rows.add(new Row(state, "Timeout", 0, 0, timeout));
+        }
+        return rows;
+    }
+
+    /**
+     * @return the Transitions of the specified event in the specified state: a guarded one for each outcome but the
+     * most common, followed by an unguarded one for that outcome unless it leaves the state as it is
+     */
+    private static List<Row> rows(final TransitionTable table, final CoffeeMaker.State state, final SensorEvent event) {
+        final String on = event.getSensor() + "." + event.getNewState();
+
+        // the readings that the event leaves its own sensor with are fixed; the table is looked up with the readings
+        // after the event
+        final int fixedWaterLevel = event.getSensor() == SensorEvent.Sensor.WaterLevel ?
+                TransitionTable.reading(event.getNewState()) : -1;
+        final int fixedPot = event.getSensor() == SensorEvent.Sensor.Pot ?
+                TransitionTable.reading(event.getNewState()) : -1;
+
+        // the readings of each outcome, by outcome in the order they first occur
+        final Map<Integer, List<int[]>> outcomes = new LinkedHashMap<Integer, List<int[]>>();
+        for (int waterLevel = 0; waterLevel <= WATER_LEVELS.length; ++waterLevel) {
+            for (int pot = 0; pot <= POTS.length; ++pot) {
+                if ((fixedWaterLevel == -1 || waterLevel == fixedWaterLevel) && (fixedPot == -1 || pot == fixedPot)) {
+                    final int entry = table.lookup(state.ordinal(), event.ordinal(), waterLevel, pot);
+                    if (!outcomes.containsKey(entry)) {
+                        outcomes.put(entry, new ArrayList<int[]>());
+                    }
+                    outcomes.get(entry).add(new int[]{waterLevel, pot});
+                }
+            }
+        }
+
+        int common = 0;
+        int commonReadings = 0;
+        for (Map.Entry<Integer, List<int[]>> outcome : outcomes.entrySet()) {
+            if (outcome.getValue().size() > commonReadings) {
+                common = outcome.getKey();
+                commonReadings = outcome.getValue().size();
+            }
+        }
+
+        final List<Row> rows = new ArrayList<Row>();
+        for (Map.Entry<Integer, List<int[]>> outcome : outcomes.entrySet()) {
+            if (outcome.getKey() != common) {
+                guard(rows, state, on, outcome.getKey(), outcome.getValue(), outcomes, fixedWaterLevel, fixedPot);
+            }
+        }
+        if (hasEffect(state, common)) {
+            rows.add(new Row(state, on, 0, 0, common));
+        }
+        return rows;
+    }
+
+    /**
+     * adds the guarded Transitions that take the specified outcome for the specified readings: one per water level or
+     * pot reading that always leads to the outcome, and one per pair of readings for the rest
+     */
+    private static void guard(final List<Row> rows,
+                              final CoffeeMaker.State state,
+                              final String on,
+                              final int entry,
+                              final List<int[]> readings,
+                              final Map<Integer, List<int[]>> outcomes,
+                              final int fixedWaterLevel,
+                              final int fixedPot) {
+        final List<int[]> unguarded = new ArrayList<int[]>(readings);
+
+        for (int waterLevel = 1; waterLevel <= WATER_LEVELS.length && fixedWaterLevel == -1; ++waterLevel) {
+            if (onlyLeadsTo(outcomes, entry, waterLevel, -1)) {
+                rows.add(new Row(state, on, waterLevel, 0, entry));
+                remove(unguarded, waterLevel, -1);
+            }
+        }
+        for (int pot = 1; pot <= POTS.length && fixedPot == -1; ++pot) {
+            if (onlyLeadsTo(outcomes, entry, -1, pot) && remove(unguarded, -1, pot)) {
+                rows.add(new Row(state, on, 0, pot, entry));
+            }
+        }
+
+        for (int[] reading : unguarded) {
+            final int waterLevel = reading[0] == fixedWaterLevel ? 0 : reading[0];
+            final int pot = reading[1] == fixedPot ? 0 : reading[1];
+
+            // a guard can only require a reading, not the lack of one
+            if ((waterLevel == 0 && fixedWaterLevel == -1) || (pot == 0 && fixedPot == -1)) {
+                throw new IllegalStateException(state + " on " + on + " can't be guarded by a sensor that hasn't "
+                        + "reported anything");
+            }
+            rows.add(new Row(state, on, waterLevel, pot, entry));
+        }
+    }
+
+    /**
+     * @return true if the specified outcome is the only one that has the specified water level reading (unless it's
+     * -1) and pot reading (unless it's -1)
+     */
+    private static boolean onlyLeadsTo(final Map<Integer, List<int[]>> outcomes,
+                                       final int entry,
+                                       final int waterLevel,
+                                       final int pot) {
+        boolean leadsTo = false;
+        for (Map.Entry<Integer, List<int[]>> outcome : outcomes.entrySet()) {
+            for (int[] reading : outcome.getValue()) {
+                if ((waterLevel == -1 || reading[0] == waterLevel) && (pot == -1 || reading[1] == pot)) {
+                    if (outcome.getKey() != entry) {
+                        return false;
+                    }
+                    leadsTo = true;
+                }
+            }
+        }
+        return leadsTo;
+    }
+
+    /**
+     * removes the readings that have the specified water level reading (unless it's -1) and pot reading (unless it's
+     * -1)
+     *
+     * @return true if there were any
+     */
+    private static boolean remove(final List<int[]> readings, final int waterLevel, final int pot) {
+        boolean removed = false;
+        for (int i = readings.size() - 1; i >= 0; --i) {
+            if ((waterLevel == -1 || readings.get(i)[0] == waterLevel) && (pot == -1 || readings.get(i)[1] == pot)) {
+                readings.remove(i);
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return true if the specified entry changes the state or issues a command
+     */
+    private static boolean hasEffect(final CoffeeMaker.State state, final int entry) {
+        return TransitionTable.nextState(entry) != state.ordinal() || TransitionTable.commands(entry) != 0;
+    }
+
+    private static void write(final StringBuilder out, final Row row) {
+        out.append("@Transition(from = \"").append(row.from).append("\", on = ");
+        if (row.on.size() == 1) {
+            out.append('"').append(row.on.get(0)).append('"');
+        } else {
+            out.append('{');
+            for (int i = 0; i < row.on.size(); ++i) {
+                out.append(i == 0 ? "" : ", ").append('"').append(row.on.get(i)).append('"');
+            }
+            out.append('}');
+        }
+        if (row.waterLevel != 0) {
+            out.append(", waterLevel = \"").append(WATER_LEVELS[row.waterLevel - 1]).append('"');
+        }
+        if (row.pot != 0) {
+            out.append(", pot = \"").append(POTS[row.pot - 1]).append('"');
+        }
+        out.append(",\n        ");
+
+        final List<ActuatorCommand> commands = new ArrayList<ActuatorCommand>();
+        for (ActuatorCommand command : ActuatorCommand.values()) {
+            if (command.in(TransitionTable.commands(row.entry))) {
+                commands.add(command);
+            }
+        }
+        if (commands.size() == 1) {
+            out.append("commands = \"").append(commands.get(0)).append("\", ");
+        } else if (!commands.isEmpty()) {
+            out.append("commands = {");
+            for (int i = 0; i < commands.size(); ++i) {
+                out.append(i == 0 ? "" : ", ").append('"').append(commands.get(i)).append('"');
+            }
+            out.append("}, ");
+        }
+        out.append("to = \"").append(TransitionTable.state(TransitionTable.nextState(row.entry))).append("\")\n");
+    }
+
+    /**
+     * writes CoffeeMakerSpec to the specified file or, if there isn't one, prints it
+     */
+    public static void main(final String[] args) throws IOException {
+        final String spec = write(TransitionTable.compiled());
+
+        if (args.length > 0) {
+            Files.write(new File(args[0]).toPath(), spec.getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(spec);
+        }
+    }
+}
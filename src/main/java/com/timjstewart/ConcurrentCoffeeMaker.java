@@ -0,0 +1,197 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A Coffee Maker FSM whose sensors may report from different threads at the same time.
+ * <p/>
+ * Simply CASing the current state isn't enough: the actuator commands of two transitions that are committed one after
+ * the other could still be issued in the opposite order, leaving e.g. the Boiler off while the FSM is Brewing.  So
+ * instead, every event is appended to a lock-free ring buffer (see EventRing) and whichever thread finds the FSM idle
+ * applies queued events, one at a time and in queue order, until the ring buffer is empty.  The other threads return as
+ * soon as their event is queued; no thread ever waits for a lock.  The only time a thread waits is when the applying
+ * thread has fallen so far behind that MAX_PENDING events are queued; then the reporting thread parks until the
+ * applying thread has made room for its event, rather than letting the backlog grow without bound.
+ * <p/>
+ * This makes every transition (and the actuator commands it issues) happen exactly once, in a single total order, and
+ * the actuators are never called by two threads at once.  An event is applied before detect returns unless another
+ * thread is already applying events, in which case that thread applies it.
+ * <p/>
+ * Transitions are looked up in the TransitionTable, and the Guard Conditions are evaluated against the readings in the
+ * queued events rather than against the sensors, so that they are consistent with the order the events are applied in.
+ */
+class ConcurrentCoffeeMaker implements SensorListener {
+
+    // the number of queued events beyond which reporting threads wait for the applying thread to catch up
+    static final int MAX_PENDING = 1024;
+
+    private final TransitionTable table;
+
+    // Actuators
+    private final Boiler boiler;
+    private final PotWarmer potWarmer;
+
+    // Sensors
+    private final BrewButtonSensor brewButton;
+
+    // events that have been reported but not yet applied
+    private final EventRing events = new EventRing(MAX_PENDING);
+
+    // the number of events queued since the applying thread last checked; non-zero while a thread is applying events
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // the thread that is applying events, which mustn't wait for itself when it resets the Brew button
+    private volatile Thread applier;
+
+    // the ordinal of the state of the coffee maker
+    private volatile int state;
+
+    // the readings of the WaterLevelSensor and PotSensor (see TransitionTable.reading); only used by the applying
+    // thread
+    private int waterLevel;
+    private int pot;
+
+    /**
+     * Creates a ConcurrentCoffeeMaker object
+     *
+     * @param boiler           the Boiler used to boil the water
+     * @param potWarmer        the PotWarmer used to keep freshly brewed coffee warm
+     * @param waterLevelSensor the WaterLevelSensor that detects whether or not there is water in the Boiler
+     * @param potSensor        the PotSensor that detects if there is a CoffeePot on the WarmerPlate and, if there is,
+     *                         whether or not it's empty.
+     * @param brewButton       the Brew button that the use presses to initiate a brew cycle.
+     */
+    public ConcurrentCoffeeMaker(
+            final Boiler boiler,
+            final PotWarmer potWarmer,
+            final WaterLevelSensor waterLevelSensor,
+            final PotSensor potSensor,
+            final BrewButtonSensor brewButton
+    ) {
+        this.table = TransitionTable.compiled();
+
+        this.boiler = checkNotNull(boiler, "boiler cannot be null");
+        this.potWarmer = checkNotNull(potWarmer, "potWarmer cannot be null");
+        checkNotNull(waterLevelSensor, "waterLevelSensor cannot be null");
+        checkNotNull(potSensor, "potSensor cannot be null");
+        this.brewButton = checkNotNull(brewButton, "brewButton cannot be null");
+
+        waterLevel = TransitionTable.reading(waterLevelSensor.getWaterLevel());
+        pot = TransitionTable.reading(potSensor.getState());
+
+        // immediately go to the initial state
+        state = CoffeeMaker.State.Initial.ordinal();
+
+        // listen for state changes
+        waterLevelSensor.addListener(this);
+        potSensor.addListener(this);
+        brewButton.addListener(this);
+    }
+
+    /**
+     * @return the state of the coffee maker after the last event that has been applied
+     */
+    public CoffeeMaker.State getState() {
+        return TransitionTable.state(state);
+    }
+
+    /**
+     * Sensor State Change Handlers
+     */
+
+    @Override
+    public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+        submit(SensorEvent.of(newState));
+    }
+
+    @Override
+    public void onPotStatusChanged(PotSensor.State newState) {
+        submit(SensorEvent.of(newState));
+    }
+
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        submit(SensorEvent.of(newState));
+    }
+
+    private void submit(final SensorEvent event) {
+        if (applier != Thread.currentThread()) {
+            events.put(event.ordinal());
+        } else if (!events.offer(event.ordinal())) {
+            // the applying thread resetting the Brew button mustn't wait for room that only it can make, so the reset
+            // is applied straight away, as CoffeeMaker would
+            apply(event);
+            return;
+        }
+
+        if (pending.getAndIncrement() != 0) {
+            // another thread is applying events and will apply this one too
+            return;
+        }
+
+        // an actuator that throws must not strand the events queued behind it, so the first failure is rethrown once
+        // the ring buffer has been emptied
+        RuntimeException failure = null;
+
+        int missed = 1;
+        do {
+            applier = Thread.currentThread();
+
+            int next;
+            while ((next = events.poll()) != EventRing.NO_EVENT) {
+                try {
+                    apply(SensorEvent.valueOf(next));
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+
+            applier = null;
+            missed = pending.addAndGet(-missed);
+
+            // a thread that started waiting for room just as the last event was polled
+            events.signalRoom();
+        } while (missed != 0);
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void apply(final SensorEvent event) {
+        switch (event.getSensor()) {
+            case Pot:
+                pot = TransitionTable.reading(event.getNewState());
+                break;
+
+            case WaterLevel:
+                waterLevel = TransitionTable.reading(event.getNewState());
+                break;
+        }
+
+        final int entry = table.lookup(state, event.ordinal(), waterLevel, pot);
+
+        final int commands = TransitionTable.commands(entry);
+        if (commands != 0) {
+            ActuatorCommand.apply(commands, boiler, potWarmer);
+        }
+
+        state = TransitionTable.nextState(entry);
+
+        // automatically reset the Brew button; the reset is queued behind any events that are already waiting, unless
+        // there's no room for it (see submit)
+        if (event == SensorEvent.BrewButtonPressed) {
+            brewButton.detect(BrewButtonSensor.State.NotPressed);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Runs a CoffeeMaker on a thread of its own with a blocking, straight-line loop: wait for a sensor event, transition,
+ * command the actuators, repeat.  The actuators may block for as long as they like; only this device's later events
+ * wait for them.
+ * <p/>
+ * The loop listens to the sensors in place of the CoffeeMaker and queues their events in a bounded queue; a sensor
+ * that reports while the queue is full waits for room.  The CoffeeMaker listens to the loop's own sensors instead (see
+ * getWaterLevelSensor, getPotSensor and getBrewButton), which the loop's thread reports each event to when it delivers
+ * it.  A CoffeeMaker that evaluates its Guard Conditions by querying its sensors therefore sees the readings as of the
+ * event being delivered, not readings that are still waiting in the queue.  When the CoffeeMaker resets the loop's
+ * Brew button, the reset is passed on to the Brew button that the loop listens to.
+ * <p/>
+ * Events that the loop's own thread reports to the sensors that the loop listens to (e.g. from an actuator that reports
+ * straight back to a sensor) are delivered immediately rather than queued behind the others.
+ * <p/>
+ * A thread per device is only affordable for large fleets if the threads are virtual threads (see VirtualThreads).
+ * <p/>
+ * Stopping the loop wakes its thread up rather than interrupting it, since an interrupt would land in whatever the
+ * CoffeeMaker is doing, including a blocking actuator command.  A loop that has been stopped, even before it started
+ * running, doesn't run again.  It stops listening to the sensors, and a sensor that was waiting for room in the queue
+ * gives up its event rather than wait for a loop that will never make room.
+ */
+class DeviceEventLoop implements SensorListener, Runnable {
+
+    // the sensors that the queued events are reported to when they're delivered
+    private final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+    private final PotSensor potSensor = new PotSensor();
+    private final BrewButtonSensor brewButton = new BrewButtonSensor();
+
+    // the events waiting to be delivered: a ring of count events starting at head, guarded by lock.  The loop waits on
+    // notEmpty for an event and a sensor on notFull for room; stop() wakes both up.
+    private final SensorEvent[] events;
+    private int head;
+    private int count;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // the thread running the loop, or null if it isn't running
+    private final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+
+    // true once the loop has been told to stop.  stop() sets it before it takes the lock to wake up whoever is
+    // waiting, and the waiters check it under the lock before they wait, so none of them misses it.
+    private volatile boolean stopped;
+
+    // the sensors that the loop listens to, which it stops listening to when it's stopped.  The CoffeeMaker's resets
+    // of the loop's Brew button are passed on to the Brew button source.
+    private volatile WaterLevelSensor waterLevelSource;
+    private volatile PotSensor potSource;
+    private volatile BrewButtonSensor source;
+
+    // the event being delivered and whether a reset is being passed on to the source; only used by the loop's thread
+    private SensorEvent delivering;
+    private boolean resetting;
+
+    // Metrics: only written by the loop's thread
+    private volatile long delivered;
+
+    /**
+     * Creates a DeviceEventLoop object
+     *
+     * @param capacity the number of events that can be waiting to be delivered
+     */
+    DeviceEventLoop(final int capacity) {
+        checkArgument(capacity > 0, "capacity must be positive");
+        this.events = new SensorEvent[capacity];
+
+        brewButton.addListener(new BrewButtonSensor.Listener() {
+            @Override
+            public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+                if (newState == BrewButtonSensor.State.NotPressed && delivering != SensorEvent.BrewButtonNotPressed) {
+                    passOnReset();
+                }
+            }
+        });
+    }
+
+    /**
+     * starts listening to the specified sensors.  The loop's own sensors start out with the readings that the specified
+     * sensors have already reported.
+     */
+    void listenTo(final WaterLevelSensor waterLevelSensor,
+                  final PotSensor potSensor,
+                  final BrewButtonSensor brewButton) {
+        this.waterLevelSensor.restore(waterLevelSensor.getWaterLevel());
+        this.potSensor.restore(potSensor.getState());
+        this.brewButton.restore(brewButton.getBrewButtonState());
+
+        waterLevelSensor.addListener(this);
+        potSensor.addListener(this);
+        brewButton.addListener(this);
+        waterLevelSource = waterLevelSensor;
+        potSource = potSensor;
+        source = brewButton;
+    }
+
+    /**
+     * @return the WaterLevelSensor that water level events are reported to when they're delivered, which the
+     * CoffeeMaker should listen to (and query) instead of the one the loop listens to
+     */
+    WaterLevelSensor getWaterLevelSensor() {
+        return waterLevelSensor;
+    }
+
+    /**
+     * @return the PotSensor that pot events are reported to when they're delivered, which the CoffeeMaker should listen
+     * to (and query) instead of the one the loop listens to
+     */
+    PotSensor getPotSensor() {
+        return potSensor;
+    }
+
+    /**
+     * @return the Brew button that Brew button events are reported to when they're delivered, which the CoffeeMaker
+     * should listen to (and reset) instead of the one the loop listens to
+     */
+    BrewButtonSensor getBrewButton() {
+        return brewButton;
+    }
+
+    /**
+     * runs the loop on a new thread from the specified factory
+     *
+     * @return the thread
+     */
+    Thread start(final ThreadFactory threadFactory) {
+        final Thread thread = threadFactory.newThread(this);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * stops the loop once it has delivered the event it's delivering, if any; queued events are not delivered, and the
+     * loop stops listening to its sensors
+     */
+    void stop() {
+        stopped = true;
+
+        final WaterLevelSensor waterLevelSource = this.waterLevelSource;
+        if (waterLevelSource != null) {
+            waterLevelSource.removeListener(this);
+        }
+
+        final PotSensor potSource = this.potSource;
+        if (potSource != null) {
+            potSource.removeListener(this);
+        }
+
+        final BrewButtonSensor source = this.source;
+        if (source != null) {
+            source.removeListener(this);
+        }
+
+        // wake up the loop if it's waiting for an event and any sensor that is waiting for room
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of events waiting to be delivered
+     */
+    int getQueueDepth() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of events that have been delivered
+     */
+    long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * delivers events until the loop is stopped or, e.g. by an ExecutorService being shut down, the thread is
+     * interrupted while it waits for an event
+     */
+    @Override
+    public void run() {
+        checkState(thread.compareAndSet(null, Thread.currentThread()), "the loop is already running");
+
+        try {
+            SensorEvent event;
+            while ((event = take()) != null) {
+                deliver(event);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            thread.set(null);
+        }
+    }
+
+    /**
+     * Sensor State Change Handlers
+     */
+
+    @Override
+    public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+        submit(SensorEvent.of(newState));
+    }
+
+    @Override
+    public void onPotStatusChanged(PotSensor.State newState) {
+        submit(SensorEvent.of(newState));
+    }
+
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        submit(SensorEvent.of(newState));
+    }
+
+    private void submit(final SensorEvent event) {
+        if (thread.get() == Thread.currentThread()) {
+            // the source reporting a reset that the loop passed on to it has already been delivered
+            if (!resetting) {
+                event.detect(potSensor, waterLevelSensor, brewButton);
+            }
+            return;
+        }
+
+        try {
+            put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting to queue " + event, e);
+        }
+    }
+
+    /**
+     * queues the specified event, waiting for room if the queue is full, unless the loop has been stopped, in which
+     * case the event is dropped
+     */
+    private void put(final SensorEvent event) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == events.length && !stopped) {
+                notFull.await();
+            }
+            if (stopped) {
+                return;
+            }
+
+            events[(head + count) % events.length] = event;
+            ++count;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the next event to deliver, waiting for one if the queue is empty, or null once the loop has been stopped
+     */
+    private SensorEvent take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0 && !stopped) {
+                notEmpty.await();
+            }
+            if (stopped) {
+                return null;
+            }
+
+            final SensorEvent event = events[head];
+            events[head] = null;
+            head = (head + 1) % events.length;
+            --count;
+            notFull.signal();
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deliver(final SensorEvent event) {
+        delivering = event;
+        try {
+            event.detect(potSensor, waterLevelSensor, brewButton);
+        } catch (RuntimeException e) {
+            // a failed event mustn't stop the loop
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        } finally {
+            delivering = null;
+        }
+
+        ++delivered;
+    }
+
+    /**
+     * resets the Brew button that the loop listens to after the CoffeeMaker reset the loop's.  The source reports the
+     * reset straight back to the loop (see submit), which must neither deliver it again nor pass it on again.
+     */
+    private void passOnReset() {
+        final BrewButtonSensor source = this.source;
+        if (source == null || resetting) {
+            return;
+        }
+
+        resetting = true;
+        try {
+            source.detect(BrewButtonSensor.State.NotPressed);
+        } finally {
+            resetting = false;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.timjstewart;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The devices of a fleet (e.g. each coffee maker's sensors and FSM) by device id, for routing the events that arrive
+ * for a device to it.
+ * <p/>
+ * The registry is an open-addressing hash table keyed by the primitive device id, so a lookup doesn't box the id and
+ * follows no pointers until it finds the device: the ids are probed in a long array, starting at the slot that the id
+ * hashes to, and the device is in the same slot of a parallel array.
+ * <p/>
+ * Lookups don't lock and can run while devices are registered and removed by other threads; a lookup that runs at the
+ * same time as the registration or removal of its device sees the device either before or after the change.
+ * Registrations and removals are serialized.  A slot, once its id has been written, only ever holds that id, so a
+ * lookup never pairs an id with another device: a removed device leaves a marker in its slot that the device can be
+ * registered into again.  When the slots that are in use, including the removed ones, reach the load factor, the
+ * devices are copied into a new table: twice the size if the registry is growing, smaller if most of its devices have
+ * been removed, but never smaller than it started out.  Lookups that are running carry on in the old table.
+ *
+ * @param <D> the type of a device
+ */
+final class DeviceRegistry<D> {
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    // the golden ratio as a 64-bit fraction: multiplying by it spreads both sequential and clustered ids
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+
+    // the marker left in the slot of a device that has been removed
+    private static final Object REMOVED = new Object();
+
+    /**
+     * the slots of the hash table; a slot whose device is null has never been used
+     */
+    private static final class Table {
+
+        final long[] ids;
+        final AtomicReferenceArray<Object> devices;
+        final int mask;
+        final int shift;
+        final int threshold;
+
+        // the number of slots that are in use, including the slots of removed devices: only used by writers
+        int used;
+
+        Table(final int capacity) {
+            ids = new long[capacity];
+            devices = new AtomicReferenceArray<Object>(capacity);
+            mask = capacity - 1;
+            shift = Long.numberOfLeadingZeros(capacity) + 1;
+            threshold = (int) (capacity * LOAD_FACTOR);
+        }
+
+        /**
+         * @return the slot that the specified id hashes to
+         */
+        int slot(final long id) {
+            return (int) (id * PHI >>> shift);
+        }
+    }
+
+    // the capacity that the registry was created with, which it never shrinks below
+    private final int initialCapacity;
+
+    private volatile Table table;
+
+    // the number of registered devices: only written by writers
+    private volatile int size;
+
+    /**
+     * Creates a DeviceRegistry object
+     *
+     * @param expectedDevices the number of devices that the registry is expected to hold, so that it doesn't have to
+     *                        grow while they're registered
+     */
+    DeviceRegistry(final int expectedDevices) {
+        checkArgument(expectedDevices >= 0, "expectedDevices cannot be negative");
+        this.initialCapacity = capacityFor(expectedDevices);
+        this.table = new Table(initialCapacity);
+    }
+
+    /**
+     * @return the device with the specified id or null if there is no such device
+     */
+    @SuppressWarnings("unchecked")
+    D get(final long id) {
+        final Table table = this.table;
+        final AtomicReferenceArray<Object> devices = table.devices;
+
+        for (int slot = table.slot(id); ; slot = slot + 1 & table.mask) {
+            final Object device = devices.get(slot);
+            if (device == null) {
+                return null;
+            }
+
+            // the id was written before the device was, so reading the device first makes the id visible
+            if (table.ids[slot] == id) {
+                return device == REMOVED ? null : (D) device;
+            }
+        }
+    }
+
+    /**
+     * registers the specified device under the specified id, replacing the device that was registered under it (if
+     * any)
+     *
+     * @return the device that was replaced or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    synchronized D register(final long id, final D device) {
+        checkNotNull(device, "device cannot be null");
+
+        Table table = this.table;
+
+        int slot = table.slot(id);
+        for (Object existing = table.devices.get(slot); existing != null; existing = table.devices.get(slot)) {
+            if (table.ids[slot] == id) {
+                table.devices.set(slot, device);
+                if (existing == REMOVED) {
+                    ++size;
+                    return null;
+                }
+                return (D) existing;
+            }
+            slot = slot + 1 & table.mask;
+        }
+
+        if (table.used == table.threshold) {
+            table = rehash(table, size + 1);
+            slot = freeSlot(table, id);
+        }
+
+        table.ids[slot] = id;
+        table.devices.set(slot, device);
+        ++table.used;
+        ++size;
+        return null;
+    }
+
+    /**
+     * removes the device with the specified id
+     *
+     * @return the device that was removed or null if there was no such device
+     */
+    @SuppressWarnings("unchecked")
+    synchronized D remove(final long id) {
+        final Table table = this.table;
+
+        for (int slot = table.slot(id); ; slot = slot + 1 & table.mask) {
+            final Object device = table.devices.get(slot);
+            if (device == null) {
+                return null;
+            }
+
+            if (table.ids[slot] == id) {
+                if (device == REMOVED) {
+                    return null;
+                }
+                table.devices.set(slot, REMOVED);
+                --size;
+                return (D) device;
+            }
+        }
+    }
+
+    /**
+     * @return the number of registered devices
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of slots in the hash table
+     */
+    int capacity() {
+        return table.mask + 1;
+    }
+
+    /**
+     * copies the registered devices into a new table with room for twice the specified number of devices (but no
+     * smaller than the registry started out), leaving out the removed ones, and publishes it
+     */
+    private Table rehash(final Table table, final int devices) {
+        final Table rehashed = new Table(Math.max(initialCapacity, capacityFor(2L * devices)));
+
+        for (int slot = 0; slot <= table.mask; ++slot) {
+            final Object device = table.devices.get(slot);
+            if (device != null && device != REMOVED) {
+                final long id = table.ids[slot];
+                final int free = freeSlot(rehashed, id);
+                rehashed.ids[free] = id;
+                rehashed.devices.lazySet(free, device);
+                ++rehashed.used;
+            }
+        }
+
+        // publishing the table publishes its slots
+        this.table = rehashed;
+        return rehashed;
+    }
+
+    private static int freeSlot(final Table table, final long id) {
+        int slot = table.slot(id);
+        while (table.devices.get(slot) != null) {
+            slot = slot + 1 & table.mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the smallest capacity that holds the specified number of devices without reaching the load factor
+     */
+    private static int capacityFor(final long devices) {
+        final long needed = (long) Math.ceil(devices / LOAD_FACTOR) + 1;
+        checkArgument(needed <= MAX_CAPACITY, "the registry cannot hold %s devices", devices);
+
+        int capacity = MIN_CAPACITY;
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
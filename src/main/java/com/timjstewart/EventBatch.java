@@ -0,0 +1,95 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * a sequence of sensor events reported to the coffee makers of a CoffeeMakerFleet, stored as the index of the coffee
+ * maker and the SensorEvent ordinal in primitive arrays so that a batch of millions of events is only two arrays.
+ * <p/>
+ * A batch can be cleared and refilled without allocating, once it has grown to the size of the largest batch.
+ */
+class EventBatch {
+
+    private int[] devices;
+    private byte[] events;
+    private int size;
+
+    /**
+     * Creates an EventBatch object
+     *
+     * @param capacity the number of events the batch can hold before it has to grow
+     */
+    EventBatch(final int capacity) {
+        checkArgument(capacity >= 0, "capacity cannot be negative");
+
+        devices = new int[capacity];
+        events = new byte[capacity];
+    }
+
+    /**
+     * @return the number of events in the batch
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * removes every event from the batch
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * appends an event reported to the specified coffee maker
+     */
+    void add(final int device, final SensorEvent event) {
+        checkNotNull(event, "event cannot be null");
+
+        if (size == devices.length) {
+            final int capacity = Math.max(16, size + (size >>> 1));
+            devices = Arrays.copyOf(devices, capacity);
+            events = Arrays.copyOf(events, capacity);
+        }
+
+        devices[size] = device;
+        events[size] = (byte) event.ordinal();
+        ++size;
+    }
+
+    void add(final int device, final PotSensor.State newState) {
+        add(device, SensorEvent.of(newState));
+    }
+
+    void add(final int device, final WaterLevelSensor.State newState) {
+        add(device, SensorEvent.of(newState));
+    }
+
+    void add(final int device, final BrewButtonSensor.State newState) {
+        add(device, SensorEvent.of(newState));
+    }
+
+    /**
+     * @return the coffee maker that the specified event was reported to
+     */
+    int getDevice(final int index) {
+        checkElementIndex(index, size);
+        return devices[index];
+    }
+
+    /**
+     * @return the ordinal of the SensorEvent of the specified event
+     */
+    int getEvent(final int index) {
+        checkElementIndex(index, size);
+        return events[index];
+    }
+}
@@ -0,0 +1,301 @@
+package com.timjstewart;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * An append-only journal of the sensor events that coffee makers have handled and the transitions they caused, for
+ * auditing and for recovering from a crash.
+ * <p/>
+ * Each event is a fixed-width binary record written into a memory-mapped segment file; once a segment is full the
+ * journal rolls over to a new one.  Segments are named after their sequence number (e.g. 0000000000000042.journal), so
+ * they sort in the order they were written.  A journal that is opened on a directory that already holds segments
+ * carries on in a new segment after them.
+ * <p/>
+ * A record is laid out as:
+ * <pre>
+ *   0  long  timestamp (milliseconds since the epoch)
+ *   8  long  device id
+ *  16  byte  sensor (SensorEvent.Sensor ordinal)
+ *  17  byte  the sensor's new state (ordinal)
+ *  18  byte  the CoffeeMaker.State before the event (ordinal)
+ *  19  byte  the CoffeeMaker.State after the event (ordinal)
+ *  20  byte  COMMITTED once the rest of the record has been written
+ *  21  three bytes of padding
+ * </pre>
+ * Appending a record writes straight into the mapped segment and doesn't allocate, except when the journal rolls over
+ * to a new segment.  The operating system writes the mapped pages to disk in its own time; flush forces it to.  A
+ * reader stops at the first record of a segment that wasn't committed, e.g. because the process crashed while writing
+ * it.
+ * <p/>
+ * An EventJournal may be appended to by several threads; appends are serialized.
+ */
+final class EventJournal implements Closeable {
+
+    static final int RECORD_SIZE = 24;
+
+    private static final int TIMESTAMP = 0;
+    private static final int DEVICE = 8;
+    private static final int SENSOR = 16;
+    private static final int NEW_STATE = 17;
+    private static final int FROM = 18;
+    private static final int TO = 19;
+    private static final int MARKER = 20;
+
+    private static final byte COMMITTED = 1;
+
+    private static final String SUFFIX = ".journal";
+
+    private static final SensorEvent.Sensor[] SENSORS = SensorEvent.Sensor.values();
+
+    private final File directory;
+    private final int segmentSize;
+
+    // the segment being appended to and its sequence number
+    private MappedByteBuffer segment;
+    private long sequence;
+
+    // the segments that have been filled since the last flush
+    private final List<MappedByteBuffer> unflushed = new ArrayList<MappedByteBuffer>();
+
+    // the offset in the segment of the next record
+    private int position;
+
+    private long appended;
+    private boolean closed;
+
+    /**
+     * Creates an EventJournal object
+     *
+     * @param directory         the directory to write segments to; it's created if it doesn't exist
+     * @param recordsPerSegment the number of records that each segment holds
+     */
+    EventJournal(final File directory, final int recordsPerSegment) throws IOException {
+        this.directory = checkNotNull(directory, "directory cannot be null");
+
+        checkArgument(recordsPerSegment > 0 && recordsPerSegment <= Integer.MAX_VALUE / RECORD_SIZE,
+                "recordsPerSegment must be between 1 and %s", Integer.MAX_VALUE / RECORD_SIZE);
+        this.segmentSize = recordsPerSegment * RECORD_SIZE;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+
+        final File[] segments = segments(directory);
+        sequence = segments.length == 0 ? -1 : sequence(segments[segments.length - 1]);
+
+        roll();
+    }
+
+    /**
+     * appends a record of a sensor event that a coffee maker has handled
+     *
+     * @param timestamp when the event happened, in milliseconds since the epoch
+     * @param device    the coffee maker that handled the event
+     * @param event     the event
+     * @param from      the state of the coffee maker before the event
+     * @param to        the state of the coffee maker after the event
+     */
+    synchronized void append(final long timestamp,
+                             final long device,
+                             final SensorEvent event,
+                             final CoffeeMaker.State from,
+                             final CoffeeMaker.State to) {
+        checkState(!closed, "the journal is closed");
+
+        if (position == segmentSize) {
+            try {
+                roll();
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot roll the journal over to a new segment", e);
+            }
+        }
+
+        final MappedByteBuffer segment = this.segment;
+        final int position = this.position;
+
+        segment.putLong(position + TIMESTAMP, timestamp);
+        segment.putLong(position + DEVICE, device);
+        segment.put(position + SENSOR, (byte) event.getSensor().ordinal());
+        segment.put(position + NEW_STATE, (byte) event.getNewState().ordinal());
+        segment.put(position + FROM, (byte) from.ordinal());
+        segment.put(position + TO, (byte) to.ordinal());
+        segment.put(position + MARKER, COMMITTED);
+
+        this.position = position + RECORD_SIZE;
+        ++appended;
+    }
+
+    /**
+     * @return the number of records that have been appended
+     */
+    synchronized long getAppended() {
+        return appended;
+    }
+
+    /**
+     * forces the records that have been appended to be written to disk.  Segments that have been filled stay mapped
+     * until the next flush, so a long-running journal should be flushed now and then (e.g. on a timer).
+     */
+    synchronized void flush() {
+        if (!closed) {
+            force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            force();
+            segment = null;
+            closed = true;
+        }
+    }
+
+    /**
+     * @return a Reader of every record in the journal in the specified directory, in the order they were appended
+     */
+    static Reader read(final File directory) {
+        return new Reader(segments(checkNotNull(directory, "directory cannot be null")));
+    }
+
+    private void force() {
+        for (MappedByteBuffer filled : unflushed) {
+            filled.force();
+        }
+        unflushed.clear();
+
+        segment.force();
+    }
+
+    private void roll() throws IOException {
+        // forcing a whole segment to disk would stall the thread that's appending
+        if (segment != null) {
+            unflushed.add(segment);
+        }
+
+        ++sequence;
+        segment = map(new File(directory, String.format("%016d%s", sequence, SUFFIX)), segmentSize, false);
+        position = 0;
+    }
+
+    private static MappedByteBuffer map(final File file, final long size, final boolean readOnly) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, readOnly ? "r" : "rw")) {
+            if (!readOnly) {
+                raf.setLength(size);
+            }
+            // the mapping stays valid after the channel has been closed
+            return raf.getChannel().map(
+                    readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static File[] segments(final File directory) {
+        final File[] segments = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static long sequence(final File segment) {
+        final String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * reads the records of a journal, one at a time, without allocating a record object for each
+     */
+    static final class Reader {
+
+        private final File[] segments;
+
+        // the index of the next segment to map
+        private int nextSegment;
+
+        private MappedByteBuffer segment;
+
+        // the offset of the current record in the current segment, or -1 before the first record
+        private int position = -1;
+
+        private Reader(final File[] segments) {
+            this.segments = segments;
+        }
+
+        /**
+         * moves on to the next record
+         *
+         * @return false if there are no more records
+         */
+        boolean next() {
+            if (segment != null) {
+                position += RECORD_SIZE;
+                if (isCommitted()) {
+                    return true;
+                }
+            }
+
+            while (nextSegment < segments.length) {
+                final File file = segments[nextSegment++];
+                try {
+                    segment = map(file, file.length(), true);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("cannot read " + file, e);
+                }
+                position = 0;
+
+                if (isCommitted()) {
+                    return true;
+                }
+            }
+
+            segment = null;
+            return false;
+        }
+
+        long getTimestamp() {
+            return current().getLong(position + TIMESTAMP);
+        }
+
+        long getDevice() {
+            return current().getLong(position + DEVICE);
+        }
+
+        SensorEvent getEvent() {
+            return SensorEvent.of(SENSORS[current().get(position + SENSOR)], current().get(position + NEW_STATE));
+        }
+
+        CoffeeMaker.State getFrom() {
+            return TransitionTable.state(current().get(position + FROM));
+        }
+
+        CoffeeMaker.State getTo() {
+            return TransitionTable.state(current().get(position + TO));
+        }
+
+        private boolean isCommitted() {
+            return position + RECORD_SIZE <= segment.capacity() && segment.get(position + MARKER) == COMMITTED;
+        }
+
+        private MappedByteBuffer current() {
+            if (segment == null) {
+                throw new NoSuchElementException("next hasn't returned a record");
+            }
+            return segment;
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.CoalescingActuator;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A front end for a CoffeeMaker (or any other SensorListener) that decouples the threads its sensors report on from
+ * the time it takes to transition and command the actuators.
+ * <p/>
+ * The mailbox listens to the sensors in place of the CoffeeMaker, and the CoffeeMaker listens to the mailbox's own
+ * sensors instead (see getWaterLevelSensor, getPotSensor and getBrewButton).  Each sensor event is stored as its
+ * SensorEvent ordinal in a bounded ring buffer (see EventRing) that any number of threads may append to, and a task
+ * submitted to an Executor delivers the queued events in batches by reporting them, in order, to the mailbox's
+ * sensors.  At most one such task runs at a time, so the CoffeeMaker is still only ever called by one thread at a time.
+ * A task that fills its batch resubmits itself rather than draining the queue, so that mailboxes sharing an Executor
+ * take turns.
+ * <p/>
+ * Since each event carries its sensor's reading and only the delivering thread reports to the mailbox's sensors, a
+ * CoffeeMaker that evaluates its Guard Conditions by querying its sensors sees the readings as of the event being
+ * delivered (as ConcurrentCoffeeMaker does), not readings that are still waiting in the mailbox.  When the CoffeeMaker
+ * resets the mailbox's Brew button, the reset is passed on to the Brew button that the mailbox listens to.
+ * <p/>
+ * Events that the thread delivering events reports to the sensors that the mailbox listens to (e.g. from an actuator
+ * that reports straight back to a sensor) are delivered immediately rather than queued behind the others, just as if
+ * the CoffeeMaker were listening to the sensor itself.
+ * <p/>
+ * The actuators that the CoffeeMaker commands can be told to coalesce the commands of each batch (see coalesce), so that
+ * a burst of events that e.g. turns the Boiler off and on again doesn't reach the Boiler.
+ * <p/>
+ * If the Executor rejects a task, the events stay queued and the rejection is reported to the uncaught exception
+ * handler of the thread that submitted the task; the next event reported to the mailbox submits the task again, as
+ * does a sensor's thread that is waiting for room (see Backpressure.Block).
+ */
+class EventMailbox implements SensorListener {
+
+    /**
+     * what a sensor's thread does when the mailbox is full
+     */
+    enum Backpressure {
+
+        /**
+         * park until the task that delivers events has made room for the event
+         */
+        Block,
+
+        /**
+         * throw away the oldest queued event to make room for the event
+         */
+        DropOldest,
+
+        /**
+         * keep only the latest event of each sensor until the mailbox has room again.  Events of the same sensor stay
+         * in order, but events that were coalesced are delivered after the events that were queued before the mailbox
+         * filled up, regardless of which sensor reported them.
+         */
+        Coalesce
+    }
+
+    // how long a blocked sensor thread waits before submitting a task that the Executor rejected again
+    private static final long RESUBMIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // the value of an overflow slot that holds no event
+    private static final int NO_EVENT = EventRing.NO_EVENT;
+
+    // the sensors that the queued events are reported to when they're delivered
+    private final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+    private final PotSensor potSensor = new PotSensor();
+    private final BrewButtonSensor brewButton = new BrewButtonSensor();
+
+    private final Executor executor;
+    private final Backpressure backpressure;
+    private final int maxBatchSize;
+
+    // the queued events
+    private final EventRing events;
+
+    // the latest coalesced event of each sensor (see Backpressure.Coalesce)
+    private final AtomicIntegerArray overflow = new AtomicIntegerArray(SensorEvent.Sensor.values().length);
+
+    // true while a drain task has been submitted to the executor or is running
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // the thread that is running the drain task
+    private volatile Thread drainer;
+
+    // the Brew button that the mailbox listens to, which the CoffeeMaker's resets of the mailbox's Brew button are
+    // passed on to
+    private volatile BrewButtonSensor source;
+
+    // the event being delivered and whether a reset is being passed on to the source; only used by the drain task
+    private SensorEvent delivering;
+    private boolean resetting;
+
+    // the actuators whose commands are coalesced over each batch
+    private volatile CoalescingActuator[] actuators = new CoalescingActuator[0];
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    // makes sure that a task is going to make room for a blocked sensor thread (see Backpressure.Block)
+    private final BooleanSupplier draining = new BooleanSupplier() {
+        @Override
+        public boolean getAsBoolean() {
+            // if the Executor rejected the last task, nothing will make room unless it's submitted again
+            return !scheduled.compareAndSet(false, true) || schedule();
+        }
+    };
+
+    // Metrics: the counts of events delivered and batches are only written by the drain task
+    private volatile long delivered;
+    private volatile long batches;
+    private volatile int largestBatch;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates an EventMailbox object
+     *
+     * @param executor     runs the tasks that deliver events
+     * @param capacity     the number of events the mailbox can hold; rounded up to a power of two (and at least two)
+     * @param backpressure what to do when a sensor reports an event while the mailbox is full
+     * @param maxBatchSize the largest number of events delivered by a single task
+     */
+    EventMailbox(final Executor executor,
+                 final int capacity,
+                 final Backpressure backpressure,
+                 final int maxBatchSize) {
+        this.executor = checkNotNull(executor, "executor cannot be null");
+        this.backpressure = checkNotNull(backpressure, "backpressure cannot be null");
+
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+
+        this.events = new EventRing(capacity);
+        this.maxBatchSize = maxBatchSize;
+
+        for (int i = 0; i < overflow.length(); ++i) {
+            overflow.set(i, NO_EVENT);
+        }
+
+        brewButton.addListener(new BrewButtonSensor.Listener() {
+            @Override
+            public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+                if (newState == BrewButtonSensor.State.NotPressed && delivering != SensorEvent.BrewButtonNotPressed) {
+                    passOnReset();
+                }
+            }
+        });
+    }
+
+    /**
+     * starts listening to the specified sensors.  The mailbox's own sensors start out with the readings that the
+     * specified sensors have already reported.
+     */
+    void listenTo(final WaterLevelSensor waterLevelSensor,
+                  final PotSensor potSensor,
+                  final BrewButtonSensor brewButton) {
+        this.waterLevelSensor.restore(waterLevelSensor.getWaterLevel());
+        waterLevelSensor.addListener(this);
+        listenTo(potSensor, brewButton);
+    }
+
+    /**
+     * starts listening to the specified sensors, for a CoffeeMaker whose water level events are reported to the mailbox
+     * by something other than a WaterLevelSensor (e.g. a MultiBrewer fanning out its reservoir's events).  The mailbox's
+     * own PotSensor and Brew button start out with the readings that the specified sensors have already reported.
+     */
+    void listenTo(final PotSensor potSensor, final BrewButtonSensor brewButton) {
+        this.potSensor.restore(potSensor.getState());
+        this.brewButton.restore(brewButton.getBrewButtonState());
+
+        potSensor.addListener(this);
+        brewButton.addListener(this);
+        source = brewButton;
+    }
+
+    /**
+     * @return the WaterLevelSensor that water level events are reported to when they're delivered, which the
+     * CoffeeMaker should listen to (and query) instead of the one the mailbox listens to
+     */
+    WaterLevelSensor getWaterLevelSensor() {
+        return waterLevelSensor;
+    }
+
+    /**
+     * @return the PotSensor that pot events are reported to when they're delivered, which the CoffeeMaker should listen
+     * to (and query) instead of the one the mailbox listens to
+     */
+    PotSensor getPotSensor() {
+        return potSensor;
+    }
+
+    /**
+     * @return the Brew button that Brew button events are reported to when they're delivered, which the CoffeeMaker
+     * should listen to (and reset) instead of the one the mailbox listens to
+     */
+    BrewButtonSensor getBrewButton() {
+        return brewButton;
+    }
+
+    /**
+     * coalesces the commands issued to the specified actuators while each batch of events is delivered, so that only the
+     * last command of a batch reaches each actuator (and only if it changes the actuator's state).
+     */
+    void coalesce(final CoalescingActuator... actuators) {
+        for (CoalescingActuator actuator : actuators) {
+            checkNotNull(actuator, "actuator cannot be null");
+        }
+        this.actuators = actuators.clone();
+    }
+
+    /**
+     * @return the number of events waiting to be delivered
+     */
+    int getQueueDepth() {
+        int depth = events.size();
+        for (int i = 0; i < overflow.length(); ++i) {
+            if (overflow.get(i) != NO_EVENT) {
+                ++depth;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * @return the number of events that have been delivered
+     */
+    long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return the number of batches of events that have been delivered
+     */
+    long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return the average number of events delivered per batch
+     */
+    double getAverageBatchSize() {
+        final long batches = this.batches;
+        return batches == 0 ? 0 : (double) delivered / batches;
+    }
+
+    /**
+     * @return the largest number of events delivered in a single batch
+     */
+    int getLargestBatch() {
+        return largestBatch;
+    }
+
+    /**
+     * @return the number of events thrown away by Backpressure.DropOldest
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of events replaced by a later event of the same sensor by Backpressure.Coalesce
+     */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the number of times the Executor rejected the task that delivers events
+     */
+    long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Sensor State Change Handlers
+     */
+
+    @Override
+    public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+        submit(SensorEvent.of(newState));
+    }
+
+    @Override
+    public void onPotStatusChanged(PotSensor.State newState) {
+        submit(SensorEvent.of(newState));
+    }
+
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        submit(SensorEvent.of(newState));
+    }
+
+    private void submit(final SensorEvent event) {
+        if (drainer == Thread.currentThread()) {
+            // the source reporting a reset that the mailbox passed on to it has already been delivered
+            if (!resetting) {
+                event.detect(potSensor, waterLevelSensor, brewButton);
+            }
+            return;
+        }
+
+        enqueue(event);
+
+        if (scheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+
+    /**
+     * submits the task that delivers events, which the caller has marked as scheduled
+     *
+     * @return false if the Executor rejected the task
+     */
+    private boolean schedule() {
+        try {
+            executor.execute(drain);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // the events stay queued for the next task to deliver
+            scheduled.set(false);
+            rejected.incrementAndGet();
+            uncaughtException(e);
+            return false;
+        }
+    }
+
+    private void enqueue(final SensorEvent event) {
+        final int code = event.ordinal();
+
+        switch (backpressure) {
+            case Block:
+                events.put(code, draining, RESUBMIT_NANOS);
+                break;
+
+            case DropOldest:
+                while (!events.offer(code)) {
+                    if (events.poll() != NO_EVENT) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+
+            case Coalesce:
+                final int sensor = event.getSensor().ordinal();
+
+                // once a sensor has overflowed, its later events are coalesced too so that they stay in order
+                if (overflow.get(sensor) != NO_EVENT || !events.offer(code)) {
+                    if (overflow.getAndSet(sensor, code) != NO_EVENT) {
+                        coalesced.incrementAndGet();
+                    }
+                }
+                break;
+        }
+    }
+
+    private void drain() {
+        drainer = Thread.currentThread();
+
+        final CoalescingActuator[] actuators = this.actuators;
+        for (CoalescingActuator actuator : actuators) {
+            actuator.beginBatch();
+        }
+
+        int batch = 0;
+        try {
+            int code;
+            while (batch < maxBatchSize && (code = events.poll()) != NO_EVENT) {
+                deliver(code);
+                ++batch;
+            }
+
+            for (int sensor = 0; sensor < overflow.length() && batch < maxBatchSize; ++sensor) {
+                if ((code = overflow.getAndSet(sensor, NO_EVENT)) != NO_EVENT) {
+                    deliver(code);
+                    ++batch;
+                }
+            }
+        } finally {
+            for (CoalescingActuator actuator : actuators) {
+                try {
+                    actuator.endBatch();
+                } catch (RuntimeException e) {
+                    uncaughtException(e);
+                }
+            }
+
+            drainer = null;
+
+            delivered += batch;
+            ++batches;
+            if (batch > largestBatch) {
+                largestBatch = batch;
+            }
+
+            if (batch == maxBatchSize) {
+                // let other tasks have a turn before delivering the rest; the next task's polls wake the sensor threads
+                // waiting for room, unless the task was rejected, in which case they have to submit it again
+                if (!schedule()) {
+                    events.signalRoom();
+                }
+            } else {
+                scheduled.set(false);
+
+                if (getQueueDepth() != 0 && scheduled.compareAndSet(false, true)) {
+                    schedule();
+                }
+
+                // poll only wakes the sensor threads waiting for room once the ring buffer is half empty, and can miss
+                // one that started waiting just as it made room
+                events.signalRoom();
+            }
+        }
+    }
+
+    private void deliver(final int code) {
+        delivering = SensorEvent.valueOf(code);
+        try {
+            delivering.detect(potSensor, waterLevelSensor, brewButton);
+        } catch (RuntimeException e) {
+            // a failed event mustn't stop the events behind it from being delivered
+            uncaughtException(e);
+        } finally {
+            delivering = null;
+        }
+    }
+
+    /**
+     * resets the Brew button that the mailbox listens to after the CoffeeMaker reset the mailbox's.  The source reports
+     * the reset straight back to the mailbox (see submit), which must neither deliver it again nor pass it on again.
+     */
+    private void passOnReset() {
+        final BrewButtonSensor source = this.source;
+        if (source == null || resetting) {
+            return;
+        }
+
+        resetting = true;
+        try {
+            source.detect(BrewButtonSensor.State.NotPressed);
+        } finally {
+            resetting = false;
+        }
+    }
+
+    private static void uncaughtException(final RuntimeException e) {
+        final Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+}
@@ -0,0 +1,188 @@
+package com.timjstewart;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded ring buffer of SensorEvent ordinals that any number of threads may append to and remove from at the same
+ * time without taking a lock.  Its slots are allocated up front, so appending and removing events allocates nothing.
+ * <p/>
+ * A thread that must not lose its event when the ring buffer is full calls put, which parks the thread until a
+ * thread removing events has made room.  Parked threads are unparked by poll, and by signalRoom, which a thread that
+ * removes events calls when it stops removing them.
+ */
+final class EventRing {
+
+    // the value poll returns when the ring buffer is empty
+    static final int NO_EVENT = -1;
+
+    // each slot's sequence number says whether it's ready to be written or read (see offer and poll)
+    private final int mask;
+    private final int[] events;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    // the threads parked in put; a thread is added to waiters before it's counted in waiting
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+    /**
+     * Creates an EventRing object
+     *
+     * @param capacity the number of events the ring buffer can hold; rounded up to a power of two (and at least two)
+     */
+    EventRing(final int capacity) {
+        checkArgument(capacity > 0 && capacity <= 1 << 30, "capacity must be between 1 and 2^30");
+
+        // a single slot can't tell a full ring buffer from an empty one (see offer and poll)
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        mask = size - 1;
+        events = new int[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return the number of events in the ring buffer
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * appends an event to the ring buffer
+     *
+     * @return false if the ring buffer is full
+     */
+    boolean offer(final int code) {
+        for (; ; ) {
+            final long position = tail.get();
+            final int slot = (int) position & mask;
+            final long difference = sequences.get(slot) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    events[slot] = code;
+                    sequences.lazySet(slot, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * appends an event to the ring buffer, parking the calling thread for as long as the ring buffer is full
+     */
+    void put(final int code) {
+        put(code, null, 0);
+    }
+
+    /**
+     * appends an event to the ring buffer, parking the calling thread for as long as the ring buffer is full.  The
+     * thread can't be interrupted while it's parked, but its interrupt status is kept.
+     *
+     * @param whileFull  called before the thread parks to make sure that something is going to remove events; if it
+     *                   returns false, nothing is (e.g. because an Executor rejected the task that would) and the
+     *                   thread only parks for retryNanos before it looks for room (and calls whileFull) again.  May be
+     *                   null if something always is.
+     * @param retryNanos how long the thread parks for when whileFull returns false
+     */
+    void put(final int code, final BooleanSupplier whileFull, final long retryNanos) {
+        if (offer(code)) {
+            return;
+        }
+
+        final Thread current = Thread.currentThread();
+        boolean interrupted = false;
+
+        waiters.add(current);
+        waiting.incrementAndGet();
+        try {
+            // the thread is counted before it looks for room one last time, so either it finds the room or the thread
+            // that made the room finds it (see signalRoom)
+            while (!offer(code)) {
+                if (whileFull == null || whileFull.getAsBoolean()) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, retryNanos);
+                }
+
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            waiting.decrementAndGet();
+            waiters.remove(current);
+
+            if (interrupted) {
+                current.interrupt();
+            }
+        }
+    }
+
+    /**
+     * removes the oldest event from the ring buffer, unparking the threads waiting in put if it sees any and the ring
+     * buffer is at most half full
+     *
+     * @return the event or NO_EVENT if the ring buffer is empty
+     */
+    int poll() {
+        for (; ; ) {
+            final long position = head.get();
+            final int slot = (int) position & mask;
+            final long difference = sequences.get(slot) - (position + 1);
+
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final int code = events[slot];
+                    sequences.lazySet(slot, position + mask + 1);
+
+                    // waking a waiting thread for every slot that's freed would cost a context switch per event, so
+                    // the threads waiting for room are only woken once the ring buffer is half empty
+                    if (waiting.get() != 0 && tail.get() - position <= (mask + 1) / 2) {
+                        unparkWaiters();
+                    }
+                    return code;
+                }
+            } else if (difference < 0) {
+                return NO_EVENT;
+            }
+        }
+    }
+
+    /**
+     * unparks the threads waiting in put.  A thread that removes events must call this once it stops removing them:
+     * poll only looks for waiting threads once it has made enough room and only with a plain volatile read, which can
+     * miss a thread that started waiting just as poll made room, whereas this reads the count of waiting threads with a
+     * read-modify-write, which is ordered after the room that poll made and before the last look a waiting thread takes
+     * for room.
+     */
+    void signalRoom() {
+        if (waiting.getAndAdd(0) != 0) {
+            unparkWaiters();
+        }
+    }
+
+    private void unparkWaiters() {
+        for (Thread waiter : waiters) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
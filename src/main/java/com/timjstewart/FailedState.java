@@ -0,0 +1,51 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.ActuatorFailure;
+import com.timjstewart.sensor.BrewButtonSensor;
+
+/**
+ * The Failed state is entered from any other state when an actuator fails to carry out a command.  The actuators have
+ * been stopped and the CoffeeMaker stays put, ignoring the sensors and any further failures (e.g. of the commands that
+ * stopped the actuators), until the user acknowledges the fault by pressing the Brew button.
+ */
+class FailedState extends CoffeeMaker.AbstractState {
+
+    /**
+     * @return Failed
+     */
+    @Override
+    public CoffeeMaker.State getState() {
+        return CoffeeMaker.State.Failed;
+    }
+
+    /**
+     * responds to BrewButton state changes
+     *
+     * @param components an object that contains all of the Actuators and sensors of the CoffeeMaker
+     * @param newState   the new state of the Brew button
+     *
+     * @return the state that the FSM should transition to or the current state if no transition should occur
+     */
+    @Override
+    public CoffeeMaker.AbstractState onBrewButtonStateChanged(
+            final CoffeeMaker.Components components,
+            final BrewButtonSensor.State newState) {
+
+        switch (newState) {
+            case Pressed:
+                return CoffeeMaker.State.Initial.get();
+        }
+
+        return this;
+    }
+
+    /**
+     * ignores the failure: the actuators have already been stopped
+     */
+    @Override
+    CoffeeMaker.AbstractState onActuatorFailed(
+            final CoffeeMaker.Components components,
+            final ActuatorFailure failure) {
+        return this;
+    }
+}
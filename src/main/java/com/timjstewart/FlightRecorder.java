@@ -0,0 +1,225 @@
+package com.timjstewart;
+
+import com.google.common.base.Ticker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A TransitionTracer that keeps the latest transitions in a fixed-size ring buffer, so that when something goes wrong
+ * the transitions leading up to it can be dumped.
+ * <p/>
+ * Recording a transition is lock-free and doesn't allocate: a writer claims the next sequence number and writes the
+ * transition into the slot that the sequence number maps to.  Each slot holds three longs: the sequence number of the
+ * transition in it (published last), when it happened and the transition packed into a long.  Any number of threads
+ * may record and dump at once; a dump skips the slots that are being overwritten while it reads them.
+ * <p/>
+ * A writer takes its slot over with a compare-and-set, so a writer that stalls until the others have lapped the
+ * buffer can't overwrite a later transition with its own: it drops its transition instead.
+ */
+final class FlightRecorder implements TransitionTracer {
+
+    /**
+     * a transition that was recorded
+     */
+    static final class Trace {
+
+        private final long sequence;
+        private final long timestamp;
+        private final CoffeeMaker.State from;
+        private final TransitionTracer.Cause cause;
+        private final SensorEvent event;
+        private final CoffeeMaker.State to;
+        private final int commands;
+
+        private Trace(final long sequence,
+                      final long timestamp,
+                      final CoffeeMaker.State from,
+                      final TransitionTracer.Cause cause,
+                      final SensorEvent event,
+                      final CoffeeMaker.State to,
+                      final int commands) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.from = from;
+            this.cause = cause;
+            this.event = event;
+            this.to = to;
+            this.commands = commands;
+        }
+
+        /**
+         * @return the number of transitions that were recorded before this one
+         */
+        long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return when the transition happened, by the recorder's Ticker
+         */
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        CoffeeMaker.State getFrom() {
+            return from;
+        }
+
+        /**
+         * @return what caused the transition
+         */
+        TransitionTracer.Cause getCause() {
+            return cause;
+        }
+
+        /**
+         * @return the event that caused the transition, or null unless the cause is an Event
+         */
+        SensorEvent getEvent() {
+            return event;
+        }
+
+        CoffeeMaker.State getTo() {
+            return to;
+        }
+
+        /**
+         * @return the bitmask of ActuatorCommands issued during the transition
+         */
+        int getCommands() {
+            return commands;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            builder.append('#').append(sequence).append(' ').append(from)
+                    .append(" --").append(event == null ? cause : event).append("--> ").append(to);
+
+            for (ActuatorCommand command : ActuatorCommand.values()) {
+                if (command.in(commands)) {
+                    builder.append(' ').append(command);
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    private static final int SLOT_SIZE = 3;
+    private static final int SEQUENCE = 0;
+    private static final int TIMESTAMP = 1;
+    private static final int TRANSITION = 2;
+
+    // a slot's sequence number before anything has been written to it and while it's being written
+    private static final long EMPTY = -1;
+    private static final long WRITING = -2;
+
+    // the packing of a transition into a long; the event is stored plus one so that zero means no event
+    private static final int FROM_SHIFT = 0;
+    private static final int EVENT_SHIFT = 8;
+    private static final int TO_SHIFT = 16;
+    private static final int COMMANDS_SHIFT = 24;
+    private static final int CAUSE_SHIFT = 32;
+    private static final int FIELD_MASK = 0xff;
+
+    private static final TransitionTracer.Cause[] CAUSES = TransitionTracer.Cause.values();
+
+    private final Ticker ticker;
+    private final int mask;
+    private final AtomicLongArray slots;
+
+    // the sequence number of the next transition
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Creates a FlightRecorder object
+     *
+     * @param capacity the number of transitions it keeps, a power of two
+     * @param ticker   the source of the transitions' timestamps
+     */
+    FlightRecorder(final int capacity, final Ticker ticker) {
+        checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1, "capacity must be a power of two");
+        checkArgument(capacity <= Integer.MAX_VALUE / SLOT_SIZE, "capacity is too large");
+
+        this.ticker = checkNotNull(ticker, "ticker cannot be null");
+        this.mask = capacity - 1;
+        this.slots = new AtomicLongArray(capacity * SLOT_SIZE);
+
+        for (int slot = 0; slot < capacity; ++slot) {
+            slots.set(slot * SLOT_SIZE + SEQUENCE, EMPTY);
+        }
+    }
+
+    @Override
+    public void onTransition(final CoffeeMaker.State from,
+                             final Cause cause,
+                             final SensorEvent event,
+                             final CoffeeMaker.State to,
+                             final int commands) {
+        final long sequence = next.getAndIncrement();
+        final int slot = (int) (sequence & mask) * SLOT_SIZE;
+
+        // readers ignore the slot until the sequence number is published again.  If another writer is using the slot
+        // or has already written a later transition to it, this one has been lapped and is dropped.
+        final long previous = slots.get(slot + SEQUENCE);
+        if (previous == WRITING || previous > sequence || !slots.compareAndSet(slot + SEQUENCE, previous, WRITING)) {
+            return;
+        }
+
+        slots.lazySet(slot + TIMESTAMP, ticker.read());
+        slots.lazySet(slot + TRANSITION, (long) from.ordinal() << FROM_SHIFT
+                | (long) (event == null ? 0 : event.ordinal() + 1) << EVENT_SHIFT
+                | (long) to.ordinal() << TO_SHIFT
+                | (long) commands << COMMANDS_SHIFT
+                | (long) cause.ordinal() << CAUSE_SHIFT);
+
+        slots.lazySet(slot + SEQUENCE, sequence);
+    }
+
+    /**
+     * @return the number of transitions that have been recorded, including the ones that have been overwritten or
+     * dropped
+     */
+    long getRecorded() {
+        return next.get();
+    }
+
+    /**
+     * @return the transitions in the buffer, oldest first
+     */
+    List<Trace> dump() {
+        final long end = next.get();
+        final long start = Math.max(0, end - (mask + 1));
+
+        final List<Trace> traces = new ArrayList<Trace>((int) (end - start));
+        for (long sequence = start; sequence < end; ++sequence) {
+            final int slot = (int) (sequence & mask) * SLOT_SIZE;
+
+            if (slots.get(slot + SEQUENCE) != sequence) {
+                // still being written or already overwritten
+                continue;
+            }
+            final long timestamp = slots.get(slot + TIMESTAMP);
+            final long transition = slots.get(slot + TRANSITION);
+            if (slots.get(slot + SEQUENCE) != sequence) {
+                continue;
+            }
+
+            final int event = (int) (transition >>> EVENT_SHIFT & FIELD_MASK);
+            traces.add(new Trace(sequence, timestamp,
+                    TransitionTable.state((int) (transition >>> FROM_SHIFT & FIELD_MASK)),
+                    CAUSES[(int) (transition >>> CAUSE_SHIFT & FIELD_MASK)],
+                    event == 0 ? null : SensorEvent.valueOf(event - 1),
+                    TransitionTable.state((int) (transition >>> TO_SHIFT & FIELD_MASK)),
+                    (int) (transition >>> COMMANDS_SHIFT & FIELD_MASK)));
+        }
+        return Collections.unmodifiableList(traces);
+    }
+}
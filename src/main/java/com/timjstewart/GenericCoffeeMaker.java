@@ -0,0 +1,264 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.ActuatorFailure;
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.fsm.Definition;
+import com.timjstewart.fsm.StateMachine;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A Coffee Maker FSM that behaves exactly like CoffeeMaker but is a generic StateMachine: its states are the
+ * CoffeeMaker.State enum, its events the SensorEvent enum and its context the CoffeeMaker's Components.
+ * <p/>
+ * The Definition is compiled from the TransitionTable, so the AbstractState classes remain the single definition of the
+ * FSM's behavior.  Most events take a state to the same place whatever the Guard Conditions, so their Action is a
+ * Transition that just issues its commands and returns its next state; the rest are GuardedTransitions that read the
+ * guard sensors and look the transition up.  Having only two kinds of Action keeps the call that StateMachine makes to
+ * them cheap enough for the JIT to inline, and no Action has to ask an AbstractState which State it is.
+ * <p/>
+ * Actuator failures aren't SensorEvents, so they aren't in the Definition: the current AbstractState handles them, as
+ * it does for CoffeeMaker, and the StateMachine makes the transition (telling the Observer, with the ActuatorFailure as
+ * its cause).  Just as CoffeeMaker does, a failure reported while an event is being fired is handled once the event's
+ * transition has been made, so that the event's next state doesn't overwrite the failure's.
+ * <p/>
+ * The StateMachine takes no Executor: the thread that a GenericCoffeeMaker runs on is plugged in by whatever reports
+ * its sensors' readings (e.g. an EventMailbox on any Executor or a DeviceEventLoop on a thread from any ThreadFactory),
+ * because the Guard Conditions read the sensors, which have to report the readings as of the event being delivered.
+ * <p/>
+ * CoffeeMaker keeps its own dispatch until CoffeeMakerBenchmark shows that the generic runtime is no slower in every
+ * Scenario: in those that only visit a state or two, the JIT can inline the AbstractState classes that CoffeeMaker
+ * calls and predict their next state, which the StateMachine's table lookup doesn't allow.
+ */
+class GenericCoffeeMaker extends StateMachine<CoffeeMaker.State, SensorEvent, CoffeeMaker.Components>
+        implements SensorListener, ActuatorFailure.Listener {
+
+    private static final Definition<CoffeeMaker.State, SensorEvent, CoffeeMaker.Components> DEFINITION = compile();
+
+    // true while an event or failure is being handled
+    private boolean transitioning;
+
+    // the actuator failures that were reported while an event was being fired, created when first needed
+    private Queue<ActuatorFailure> deferredFailures;
+
+    /**
+     * Creates a GenericCoffeeMaker object that listens to its sensors
+     *
+     * @see CoffeeMaker#CoffeeMaker(Boiler, PotWarmer, WaterLevelSensor, PotSensor, BrewButtonSensor)
+     */
+    public GenericCoffeeMaker(
+            final Boiler boiler,
+            final PotWarmer potWarmer,
+            final WaterLevelSensor waterLevelSensor,
+            final PotSensor potSensor,
+            final BrewButtonSensor brewButton
+    ) {
+        this(new CoffeeMaker.Components(
+                checkNotNull(boiler, "boiler cannot be null"),
+                checkNotNull(potWarmer, "potWarmer cannot be null"),
+                checkNotNull(waterLevelSensor, "waterLevelSensor cannot be null"),
+                checkNotNull(potSensor, "potSensor cannot be null"),
+                checkNotNull(brewButton, "brewButton cannot be null")), null);
+
+        // listen for state changes
+        waterLevelSensor.addListener(this);
+        potSensor.addListener(this);
+        brewButton.addListener(this);
+    }
+
+    /**
+     * Creates a GenericCoffeeMaker object that doesn't listen to its sensors.  Whatever creates it is responsible for
+     * calling its Listener methods when the sensors' states change (e.g. an EventMailbox or a DeviceEventLoop).
+     *
+     * @param components the Actuators and Sensors of the coffee maker
+     * @param observer   the Observer to tell about every event (e.g. to record metrics) or null
+     */
+    GenericCoffeeMaker(final CoffeeMaker.Components components,
+                       final StateMachine.Observer<CoffeeMaker.State, SensorEvent> observer) {
+        super(DEFINITION, checkNotNull(components, "components cannot be null"), observer);
+    }
+
+    /**
+     * Sensor State Change Handlers
+     */
+
+    @Override
+    public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+        handle(SensorEvent.of(newState));
+
+        // automatically reset the Brew button
+        if (newState == BrewButtonSensor.State.Pressed) {
+            getContext().getBrewButton().detect(BrewButtonSensor.State.NotPressed);
+        }
+    }
+
+    @Override
+    public void onPotStatusChanged(PotSensor.State newState) {
+        handle(SensorEvent.of(newState));
+    }
+
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        handle(SensorEvent.of(newState));
+    }
+
+    /**
+     * Actuator Failure Handler
+     */
+
+    @Override
+    public void onActuatorFailed(ActuatorFailure failure) {
+        checkNotNull(failure, "failure cannot be null");
+
+        if (transitioning) {
+            if (deferredFailures == null) {
+                deferredFailures = new ArrayDeque<ActuatorFailure>();
+            }
+            deferredFailures.add(failure);
+            return;
+        }
+
+        transitioning = true;
+        try {
+            fail(failure);
+        } finally {
+            endTransition();
+        }
+    }
+
+    private void handle(final SensorEvent event) {
+        if (transitioning) {
+            fire(event);
+            return;
+        }
+
+        transitioning = true;
+        try {
+            fire(event);
+        } finally {
+            endTransition();
+        }
+    }
+
+    private void fail(final ActuatorFailure failure) {
+        transition(getState().get().onActuatorFailed(getContext(), failure).getState(), failure);
+    }
+
+    /**
+     * handles the failures that were reported while the transition was being made
+     */
+    private void endTransition() {
+        try {
+            while (deferredFailures != null && !deferredFailures.isEmpty()) {
+                fail(deferredFailures.remove());
+            }
+        } finally {
+            transitioning = false;
+        }
+    }
+
+    private static Definition<CoffeeMaker.State, SensorEvent, CoffeeMaker.Components> compile() {
+        final TransitionTable table = TransitionTable.compiled();
+
+        final Definition.Builder<CoffeeMaker.State, SensorEvent, CoffeeMaker.Components> builder =
+                Definition.builder(CoffeeMaker.State.class, SensorEvent.class, CoffeeMaker.State.Initial);
+
+        for (CoffeeMaker.State state : CoffeeMaker.State.values()) {
+            for (SensorEvent event : SensorEvent.values()) {
+                builder.on(state, event, action(table, state, event));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return a Transition if the event takes the state to the same place whatever the Guard Conditions, otherwise a
+     * GuardedTransition
+     */
+    private static StateMachine.Action<CoffeeMaker.State, SensorEvent, CoffeeMaker.Components> action(
+            final TransitionTable table,
+            final CoffeeMaker.State state,
+            final SensorEvent event) {
+
+        final int entry = table.lookup(state.ordinal(), event.ordinal(), 0, 0);
+
+        for (int waterLevel = 0; waterLevel < TransitionTable.WATER_LEVELS; ++waterLevel) {
+            for (int pot = 0; pot < TransitionTable.POTS; ++pot) {
+                if (table.lookup(state.ordinal(), event.ordinal(), waterLevel, pot) != entry) {
+                    return new GuardedTransition(table, state, event);
+                }
+            }
+        }
+
+        return new Transition(TransitionTable.state(TransitionTable.nextState(entry)), TransitionTable.commands(entry));
+    }
+
+    /**
+     * issues a fixed set of commands and goes to a fixed state
+     */
+    private static final class Transition
+            implements StateMachine.Action<CoffeeMaker.State, SensorEvent, CoffeeMaker.Components> {
+
+        private final CoffeeMaker.State next;
+        private final int commands;
+
+        Transition(final CoffeeMaker.State next, final int commands) {
+            this.next = next;
+            this.commands = commands;
+        }
+
+        @Override
+        public CoffeeMaker.State fire(final CoffeeMaker.Components components, final SensorEvent event) {
+            if (commands != 0) {
+                ActuatorCommand.apply(commands, components.getBoiler(), components.getPotWarmer());
+            }
+            return next;
+        }
+    }
+
+    /**
+     * evaluates the Guard Conditions by reading the guard sensors and goes to the next state that the TransitionTable
+     * has for the readings, issuing its commands
+     */
+    private static final class GuardedTransition
+            implements StateMachine.Action<CoffeeMaker.State, SensorEvent, CoffeeMaker.Components> {
+
+        // the next state and commands for each combination of readings, indexed by water level * POTS + pot
+        private final CoffeeMaker.State[] next;
+        private final int[] commands;
+
+        GuardedTransition(final TransitionTable table, final CoffeeMaker.State state, final SensorEvent event) {
+            this.next = new CoffeeMaker.State[TransitionTable.WATER_LEVELS * TransitionTable.POTS];
+            this.commands = new int[next.length];
+
+            for (int waterLevel = 0; waterLevel < TransitionTable.WATER_LEVELS; ++waterLevel) {
+                for (int pot = 0; pot < TransitionTable.POTS; ++pot) {
+                    final int entry = table.lookup(state.ordinal(), event.ordinal(), waterLevel, pot);
+                    final int readings = waterLevel * TransitionTable.POTS + pot;
+
+                    next[readings] = TransitionTable.state(TransitionTable.nextState(entry));
+                    commands[readings] = TransitionTable.commands(entry);
+                }
+            }
+        }
+
+        @Override
+        public CoffeeMaker.State fire(final CoffeeMaker.Components components, final SensorEvent event) {
+            final int readings = TransitionTable.reading(components.getWaterLevelSensor().getWaterLevel())
+                    * TransitionTable.POTS + TransitionTable.reading(components.getPotSensor().getState());
+
+            final int commands = this.commands[readings];
+            if (commands != 0) {
+                ActuatorCommand.apply(commands, components.getBoiler(), components.getPotWarmer());
+            }
+            return next[readings];
+        }
+    }
+}
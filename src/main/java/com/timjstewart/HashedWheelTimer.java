@@ -0,0 +1,306 @@
+package com.timjstewart;
+
+import com.google.common.base.Ticker;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A hashed timing wheel: a ring of buckets, each covering one tick of time, holding the timers that expire in that
+ * tick (or in the same tick of a later revolution of the wheel).  Scheduling a timer links it into the bucket of its
+ * deadline and cancelling it unlinks it, both in constant time whatever the number of pending timers; advancing the
+ * wheel visits one bucket per tick that has passed.
+ * <p/>
+ * The timers aren't objects: each is a slot in a set of parallel primitive arrays (its deadline, the links of its
+ * bucket's list and what to tell when it expires), so millions of pending timers (e.g. one per coffee maker of a
+ * fleet) cost the garbage collector nothing to trace and scheduling one doesn't allocate unless the arrays have to
+ * grow.  A timer is identified by a handle that combines its slot with a generation number, so cancelling a timer that
+ * has already expired (and whose slot may have been reused) does nothing.
+ * <p/>
+ * Time comes from a Ticker, so tests can drive the wheel with a simulated clock.  Timers expire when advance is
+ * called, with the precision of a tick: a timer never expires early, but may expire up to a tick late.
+ * <p/>
+ * A HashedWheelTimer isn't thread safe.  It's meant to be advanced by the thread that runs the state machines it times
+ * (e.g. a DeviceEventLoop), which can then schedule and cancel timers from their handlers, including from the
+ * Listener that is told about an expiry.
+ */
+final class HashedWheelTimer {
+
+    /**
+     * is told when a timer expires
+     */
+    interface Listener {
+
+        /**
+         * @param key the key that the timer was scheduled with, e.g. the index of a coffee maker in a fleet
+         */
+        void onTimerExpired(long key);
+    }
+
+    /**
+     * the handle of no timer at all; cancelling it does nothing
+     */
+    static final long NO_TIMER = -1;
+
+    // the states of a slot
+    private static final byte FREE = 0;
+    private static final byte SCHEDULED = 1;
+    private static final byte EXPIRING = 2;
+    private static final byte CANCELLED = 3;
+
+    // the end of a list of slots
+    private static final int NIL = -1;
+
+    private final Ticker ticker;
+    private final long tickNanos;
+    private final long origin;
+    private final int mask;
+
+    // the first slot of each bucket's list
+    private final int[] buckets;
+
+    // the slots: each one is a timer or a link in the free list
+    private long[] deadlines;
+    private long[] keys;
+    private Listener[] listeners;
+    private int[] next;
+    private int[] previous;
+    private int[] generations;
+    private byte[] states;
+
+    private int free = NIL;
+    private int used;
+    private int pending;
+
+    // the last tick whose bucket has been visited
+    private long tick;
+
+    /**
+     * Creates a HashedWheelTimer object
+     *
+     * @param ticker          the clock that the timers' delays are measured by
+     * @param tickDuration    the duration of a tick, which is the precision of the timers
+     * @param unit            the unit of tickDuration
+     * @param wheelSize       the number of buckets, a power of two.  Timers further away than a revolution of the
+     *                        wheel share buckets with nearer ones, which advancing the wheel has to step over.
+     * @param initialCapacity the number of timers that can be pending before the timer has to grow its arrays
+     */
+    HashedWheelTimer(final Ticker ticker,
+                     final long tickDuration,
+                     final TimeUnit unit,
+                     final int wheelSize,
+                     final int initialCapacity) {
+        this.ticker = checkNotNull(ticker, "ticker cannot be null");
+        checkNotNull(unit, "unit cannot be null");
+        checkArgument(tickDuration > 0, "tickDuration must be positive");
+        checkArgument(wheelSize > 0 && Integer.bitCount(wheelSize) == 1, "wheelSize must be a power of two");
+        checkArgument(initialCapacity > 0, "initialCapacity must be positive");
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.origin = ticker.read();
+        this.mask = wheelSize - 1;
+
+        this.buckets = new int[wheelSize];
+        Arrays.fill(buckets, NIL);
+
+        deadlines = new long[initialCapacity];
+        keys = new long[initialCapacity];
+        listeners = new Listener[initialCapacity];
+        next = new int[initialCapacity];
+        previous = new int[initialCapacity];
+        generations = new int[initialCapacity];
+        states = new byte[initialCapacity];
+    }
+
+    /**
+     * schedules a timer
+     *
+     * @param listener the Listener to tell when the timer expires
+     * @param key      the key to pass to the Listener
+     * @param delay    how long from now the timer expires
+     * @param unit     the unit of delay
+     *
+     * @return the timer's handle, which can be used to cancel it
+     */
+    long schedule(final Listener listener, final long key, final long delay, final TimeUnit unit) {
+        checkNotNull(listener, "listener cannot be null");
+        checkNotNull(unit, "unit cannot be null");
+        checkArgument(delay >= 0, "delay cannot be negative");
+
+        // round up, so that the timer never expires early, and never into a bucket that has already been visited
+        final long elapsed = ticker.read() - origin + unit.toNanos(delay);
+        final long deadline = Math.max(tick + 1, (elapsed + tickNanos - 1) / tickNanos);
+
+        final int slot = allocate();
+        deadlines[slot] = deadline;
+        keys[slot] = key;
+        listeners[slot] = listener;
+        states[slot] = SCHEDULED;
+
+        link(slot, (int) deadline & mask);
+        ++pending;
+
+        return (long) generations[slot] << 32 | slot;
+    }
+
+    /**
+     * cancels a timer, if it hasn't expired yet
+     *
+     * @param timer the handle that schedule returned or NO_TIMER
+     *
+     * @return true if the timer was pending and won't expire now
+     */
+    boolean cancel(final long timer) {
+        if (timer == NO_TIMER) {
+            return false;
+        }
+
+        final int slot = (int) timer;
+        if (slot < 0 || slot >= used || generations[slot] != (int) (timer >>> 32)) {
+            return false;
+        }
+
+        switch (states[slot]) {
+            case SCHEDULED:
+                unlink(slot, (int) deadlines[slot] & mask);
+                release(slot);
+                --pending;
+                return true;
+
+            case EXPIRING:
+                // advance has taken it out of its bucket already and releases it instead of telling its Listener
+                states[slot] = CANCELLED;
+                --pending;
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * tells the Listeners of the timers that have expired by now
+     *
+     * @return the number of timers that expired
+     */
+    int advance() {
+        final long now = (ticker.read() - origin) / tickNanos;
+
+        int expired = 0;
+
+        if (now - tick < buckets.length) {
+            while (tick < now) {
+                ++tick;
+                expired += expire(tick, (int) tick & mask);
+            }
+        } else {
+            // a wheel that is a revolution or more behind visits each bucket once, in no particular order of deadline
+            tick = now;
+            for (int bucket = 0; bucket < buckets.length; ++bucket) {
+                expired += expire(now, bucket);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return the number of timers that are pending
+     */
+    int getPending() {
+        return pending;
+    }
+
+    /**
+     * tells the Listeners of the timers in the specified bucket whose deadlines are no later than the specified tick
+     */
+    private int expire(final long now, final int bucket) {
+
+        // take the expired timers out of the bucket first, so that the Listeners are free to schedule and cancel
+        int expiring = NIL;
+        for (int slot = buckets[bucket]; slot != NIL; ) {
+            final int following = next[slot];
+            if (deadlines[slot] <= now) {
+                unlink(slot, bucket);
+                states[slot] = EXPIRING;
+                next[slot] = expiring;
+                expiring = slot;
+            }
+            slot = following;
+        }
+
+        int expired = 0;
+        while (expiring != NIL) {
+            final int slot = expiring;
+            expiring = next[slot];
+
+            final boolean cancelled = states[slot] == CANCELLED;
+            final Listener listener = listeners[slot];
+            final long key = keys[slot];
+            release(slot);
+
+            if (!cancelled) {
+                --pending;
+                ++expired;
+                listener.onTimerExpired(key);
+            }
+        }
+        return expired;
+    }
+
+    private int allocate() {
+        if (free != NIL) {
+            final int slot = free;
+            free = next[slot];
+            return slot;
+        }
+        if (used == states.length) {
+            grow();
+        }
+        return used++;
+    }
+
+    private void release(final int slot) {
+        states[slot] = FREE;
+        listeners[slot] = null;
+        ++generations[slot];
+
+        next[slot] = free;
+        free = slot;
+    }
+
+    private void link(final int slot, final int bucket) {
+        final int head = buckets[bucket];
+        next[slot] = head;
+        previous[slot] = NIL;
+        if (head != NIL) {
+            previous[head] = slot;
+        }
+        buckets[bucket] = slot;
+    }
+
+    private void unlink(final int slot, final int bucket) {
+        final int before = previous[slot];
+        final int after = next[slot];
+        if (before == NIL) {
+            buckets[bucket] = after;
+        } else {
+            next[before] = after;
+        }
+        if (after != NIL) {
+            previous[after] = before;
+        }
+    }
+
+    private void grow() {
+        final int capacity = states.length * 2;
+
+        deadlines = Arrays.copyOf(deadlines, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        listeners = Arrays.copyOf(listeners, capacity);
+        next = Arrays.copyOf(next, capacity);
+        previous = Arrays.copyOf(previous, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        states = Arrays.copyOf(states, capacity);
+    }
+}
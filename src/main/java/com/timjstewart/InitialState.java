@@ -36,7 +36,7 @@ class InitialState extends CoffeeMaker.AbstractState {
                 if (components.getWaterLevelSensor().getWaterLevel() == WaterLevelSensor.State.NotEmpty &&
                         components.getPotSensor().getState() == PotSensor.State.Empty) {
                     components.getBoiler().turnOn();
-                    return new BrewingState();
+                    return CoffeeMaker.State.Brewing.get();
                 }
                 break;
         }
@@ -0,0 +1,152 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.ActuatorFailure;
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A CoffeeMaker that records what it does in a CoffeeMakerMetrics: every event it handles (with the transition it
+ * caused and a sample of how long handling them took, actuator commands included) and how long it stayed in each state.
+ * <p/>
+ * Instrumentation is switched on by creating an InstrumentedCoffeeMaker instead of a CoffeeMaker, so a CoffeeMaker that
+ * isn't instrumented runs exactly the code it always has.  Recording an event adds to a couple of the counters of the
+ * current thread's stripe and reads the clock if the event changes the state or its latency is sampled; it doesn't
+ * allocate.
+ */
+class InstrumentedCoffeeMaker extends CoffeeMaker {
+
+    private final CoffeeMakerMetrics metrics;
+
+    // when the coffee maker entered its current state, by the metrics' clock
+    private long enteredAt;
+
+    /**
+     * Creates an InstrumentedCoffeeMaker object that listens to its sensors
+     *
+     * @param metrics where the coffee maker records what it does
+     * @see CoffeeMaker#CoffeeMaker(Boiler, PotWarmer, WaterLevelSensor, PotSensor, BrewButtonSensor)
+     */
+    InstrumentedCoffeeMaker(final Boiler boiler,
+                            final PotWarmer potWarmer,
+                            final WaterLevelSensor waterLevelSensor,
+                            final PotSensor potSensor,
+                            final BrewButtonSensor brewButton,
+                            final CoffeeMakerMetrics metrics) {
+        super(boiler, potWarmer, waterLevelSensor, potSensor, brewButton);
+
+        this.metrics = checkNotNull(metrics, "metrics cannot be null");
+        this.enteredAt = metrics.now();
+    }
+
+    /**
+     * Creates an InstrumentedCoffeeMaker object that doesn't listen to its sensors
+     *
+     * @param metrics where the coffee maker records what it does
+     * @see CoffeeMaker#CoffeeMaker(CoffeeMaker.Components)
+     */
+    InstrumentedCoffeeMaker(final Components components, final CoffeeMakerMetrics metrics) {
+        super(components);
+
+        this.metrics = checkNotNull(metrics, "metrics cannot be null");
+        this.enteredAt = metrics.now();
+    }
+
+    /**
+     * Sensor State Change Handlers
+     */
+
+    @Override
+    public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+        final CoffeeMakerMetrics.Recorder recorder = metrics.recorder();
+        final State from = getState();
+        final boolean timed = recorder.sample();
+        final long start = timed ? metrics.now() : 0;
+
+        super.onBrewButtonStatusChanged(newState);
+
+        record(recorder, from, SensorEvent.of(newState), timed, start);
+    }
+
+    @Override
+    public void onPotStatusChanged(PotSensor.State newState) {
+        final CoffeeMakerMetrics.Recorder recorder = metrics.recorder();
+        final State from = getState();
+        final boolean timed = recorder.sample();
+        final long start = timed ? metrics.now() : 0;
+
+        super.onPotStatusChanged(newState);
+
+        record(recorder, from, SensorEvent.of(newState), timed, start);
+    }
+
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        final CoffeeMakerMetrics.Recorder recorder = metrics.recorder();
+        final State from = getState();
+        final boolean timed = recorder.sample();
+        final long start = timed ? metrics.now() : 0;
+
+        super.onWaterLevelChanged(newState);
+
+        record(recorder, from, SensorEvent.of(newState), timed, start);
+    }
+
+    /**
+     * Actuator Failure Handler
+     */
+
+    @Override
+    public void onActuatorFailed(ActuatorFailure failure) {
+        final State from = getState();
+
+        super.onActuatorFailed(failure);
+
+        if (getState() != from) {
+            leave(metrics.recorder(), from, metrics.now());
+        }
+    }
+
+    /**
+     * restores the coffee maker (see CoffeeMaker.restore); its stay in the restored state starts now
+     */
+    @Override
+    void restore(final State state,
+                 final WaterLevelSensor.State waterLevel,
+                 final PotSensor.State pot,
+                 final BrewButtonSensor.State brewButton) {
+        super.restore(state, waterLevel, pot, brewButton);
+
+        enteredAt = metrics.now();
+    }
+
+    private void record(final CoffeeMakerMetrics.Recorder recorder,
+                        final State from,
+                        final SensorEvent event,
+                        final boolean timed,
+                        final long start) {
+        final State to = getState();
+
+        recorder.recordEvent(from, event, to);
+
+        // the clock is only read if it's needed
+        if (timed || to != from) {
+            final long now = metrics.now();
+            if (timed) {
+                recorder.recordLatency(event.getSensor(), now - start);
+            }
+            if (to != from) {
+                leave(recorder, from, now);
+            }
+        }
+    }
+
+    private void leave(final CoffeeMakerMetrics.Recorder recorder, final State state, final long now) {
+        recorder.recordTimeInState(state, now - enteredAt);
+        enteredAt = now;
+    }
+}
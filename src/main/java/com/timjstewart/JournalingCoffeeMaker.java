@@ -0,0 +1,111 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A front end for a CoffeeMaker that records every sensor event it handles, and the transition the event caused, in an
+ * EventJournal.
+ * <p/>
+ * It listens to the sensors in place of the CoffeeMaker.  An event that the CoffeeMaker causes while it handles
+ * another (i.e. the Brew button being reset) is handed to the CoffeeMaker once the event that caused it has been
+ * handled and journaled, so that the journal holds the events in the order they took effect.
+ */
+class JournalingCoffeeMaker implements SensorListener {
+
+    // the most events that can be caused by handling a single event
+    private static final int MAX_NESTED_EVENTS = 4;
+
+    private final CoffeeMaker coffeeMaker;
+    private final long device;
+    private final EventJournal journal;
+
+    // true while an event is being handled
+    private boolean handling;
+
+    // the ordinals of the events caused by the event being handled, in the order they were caused
+    private final int[] nested = new int[MAX_NESTED_EVENTS];
+    private int nestedCount;
+
+    /**
+     * Creates a JournalingCoffeeMaker object
+     *
+     * @param coffeeMaker the CoffeeMaker (which isn't listening to its sensors) to deliver events to
+     * @param device      the id that the CoffeeMaker's records are journaled under
+     * @param journal     the journal to record events in
+     */
+    JournalingCoffeeMaker(final CoffeeMaker coffeeMaker, final long device, final EventJournal journal) {
+        this.coffeeMaker = checkNotNull(coffeeMaker, "coffeeMaker cannot be null");
+        this.device = device;
+        this.journal = checkNotNull(journal, "journal cannot be null");
+    }
+
+    /**
+     * starts listening to the specified sensors
+     */
+    void listenTo(final WaterLevelSensor waterLevelSensor,
+                  final PotSensor potSensor,
+                  final BrewButtonSensor brewButton) {
+        waterLevelSensor.addListener(this);
+        potSensor.addListener(this);
+        brewButton.addListener(this);
+    }
+
+    /**
+     * @return the state of the coffee maker
+     */
+    CoffeeMaker.State getState() {
+        return coffeeMaker.getState();
+    }
+
+    /**
+     * Sensor State Change Handlers
+     */
+
+    @Override
+    public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+        handle(SensorEvent.of(newState));
+    }
+
+    @Override
+    public void onPotStatusChanged(PotSensor.State newState) {
+        handle(SensorEvent.of(newState));
+    }
+
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        handle(SensorEvent.of(newState));
+    }
+
+    private void handle(final SensorEvent event) {
+        if (handling) {
+            if (nestedCount == MAX_NESTED_EVENTS) {
+                throw new IllegalStateException("handling an event caused more than " + MAX_NESTED_EVENTS + " events");
+            }
+            nested[nestedCount++] = event.ordinal();
+            return;
+        }
+
+        handling = true;
+        try {
+            journal(event);
+
+            // handling a nested event may cause more of them
+            for (int i = 0; i < nestedCount; ++i) {
+                journal(SensorEvent.valueOf(nested[i]));
+            }
+        } finally {
+            nestedCount = 0;
+            handling = false;
+        }
+    }
+
+    private void journal(final SensorEvent event) {
+        final CoffeeMaker.State from = coffeeMaker.getState();
+        event.deliver(coffeeMaker);
+        journal.append(System.currentTimeMillis(), device, event, from, coffeeMaker.getState());
+    }
+}
@@ -0,0 +1,87 @@
+package com.timjstewart;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A histogram of latencies, in nanoseconds, with a bucket per power of two: bucket 0 counts latencies below 2ns and
+ * bucket i counts the latencies from 2^i up to (but not including) 2^(i + 1) nanoseconds.  Percentiles are therefore
+ * only accurate to within a factor of two, which is plenty for spotting a slow handler.
+ * <p/>
+ * A LatencyHistogram is a snapshot of the counts that were recorded (see CoffeeMakerMetrics); it never changes.
+ */
+final class LatencyHistogram {
+
+    static final int BUCKETS = 64;
+
+    private final long[] buckets;
+    private final long count;
+
+    /**
+     * Creates a LatencyHistogram object
+     *
+     * @param buckets the number of latencies counted in each bucket; the array is copied
+     */
+    LatencyHistogram(final long[] buckets) {
+        checkNotNull(buckets, "buckets cannot be null");
+        checkArgument(buckets.length == BUCKETS, "there must be %s buckets", BUCKETS);
+
+        this.buckets = buckets.clone();
+
+        long count = 0;
+        for (long bucket : buckets) {
+            count += bucket;
+        }
+        this.count = count;
+    }
+
+    /**
+     * @return the number of latencies that have been recorded
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of latencies recorded in the specified bucket
+     */
+    long getBucket(final int bucket) {
+        checkElementIndex(bucket, BUCKETS, "bucket");
+        return buckets[bucket];
+    }
+
+    /**
+     * @return an upper bound on the specified percentile (e.g. 99.9) of the recorded latencies, in nanoseconds, or 0 if
+     * none have been recorded
+     */
+    long getPercentile(final double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 100, "percentile must be between 0 and 100");
+
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            seen += buckets[bucket];
+            if (seen >= rank) {
+                return upperBound(bucket);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * @return the bucket that the specified latency is counted in; negative latencies (e.g. from a clock that went
+     * backwards) are counted in bucket 0
+     */
+    static int bucket(final long nanos) {
+        return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    private static long upperBound(final int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (bucket + 1)) - 1;
+    }
+}
@@ -0,0 +1,247 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A composite FSM for an appliance with several brew heads that share one water reservoir.  Each brew head is a region
+ * of the composite: a CoffeeMaker with its own Boiler, PotWarmer, PotSensor and Brew button, whose WaterLevelSensor is
+ * the reservoir's.
+ * <p/>
+ * The regions don't listen to the reservoir themselves.  The MultiBrewer is the reservoir's only Listener, so each
+ * water level event is reported once and fanned out from there to the regions.  When the regions are run by the
+ * thread that reports the events, the event is only delivered to the regions whose state can react to it (e.g. the
+ * reservoir running dry only matters to a head that is Brewing); the others don't see it at all.  Deciding which
+ * regions to deliver it to only reads a byte array of the regions' states, which the regions' own events keep up to
+ * date.
+ * <p/>
+ * The regions share nothing but the reservoir, so they can also transition in parallel: given an Executor, each region
+ * is run by an EventMailbox of its own, which keeps the region's events in order while the events of different regions
+ * are delivered at the same time.  A region's state is then only known on the thread that is delivering its events, so
+ * every water level event is queued for every region.  The reservoir's sensor is only read by the thread that reports
+ * its readings: each region queries its mailbox's WaterLevelSensor instead, which starts out with the reservoir's
+ * reading when the MultiBrewer is created and is told about the reading that each water level event carried when the
+ * event is delivered, so a region's Guard Conditions see the reservoir as of the event it's handling.
+ */
+class MultiBrewer implements WaterLevelSensor.Listener {
+
+    /**
+     * the actuators and sensors that belong to a single brew head
+     */
+    static final class Head {
+
+        private final Boiler boiler;
+        private final PotWarmer potWarmer;
+        private final PotSensor potSensor;
+        private final BrewButtonSensor brewButton;
+
+        /**
+         * Creates a Head object
+         *
+         * @param boiler     the Boiler that boils the head's water
+         * @param potWarmer  the PotWarmer under the head's CoffeePot
+         * @param potSensor  the PotSensor under the head's CoffeePot
+         * @param brewButton the head's Brew button
+         */
+        Head(final Boiler boiler,
+             final PotWarmer potWarmer,
+             final PotSensor potSensor,
+             final BrewButtonSensor brewButton) {
+            this.boiler = checkNotNull(boiler, "boiler cannot be null");
+            this.potWarmer = checkNotNull(potWarmer, "potWarmer cannot be null");
+            this.potSensor = checkNotNull(potSensor, "potSensor cannot be null");
+            this.brewButton = checkNotNull(brewButton, "brewButton cannot be null");
+        }
+    }
+
+    // the largest number of a region's events that a single EventMailbox task delivers
+    private static final int MAX_BATCH_SIZE = 16;
+
+    // for each water level event and state ordinal: true if a region in that state can react to the event, whatever
+    // the Guard Conditions
+    private static final boolean[][] AFFECTED = compile();
+
+    private final WaterLevelSensor reservoir;
+    private final CoffeeMaker[] regions;
+
+    // what each region's events are delivered to: a Region or the region's EventMailbox
+    private final SensorListener[] inboxes;
+
+    // the ordinal of each region's state, kept up to date by the Regions so that fanning an event out doesn't have to
+    // ask every region for its state
+    private final byte[] states;
+
+    // true if the regions are run by the thread that reports the events, so their states can be read
+    private final boolean synchronous;
+
+    /**
+     * Creates a MultiBrewer object whose regions are run by the threads that report the events
+     *
+     * @param reservoir the WaterLevelSensor of the shared reservoir
+     * @param heads     the brew heads, one region per head
+     */
+    MultiBrewer(final WaterLevelSensor reservoir, final Head... heads) {
+        this(reservoir, null, 0, heads);
+    }
+
+    /**
+     * Creates a MultiBrewer object whose regions transition in parallel, each run by an EventMailbox of its own
+     *
+     * @param reservoir the WaterLevelSensor of the shared reservoir
+     * @param executor  runs the tasks that deliver the regions' events
+     * @param capacity  the number of events each region's EventMailbox can hold
+     * @param heads     the brew heads, one region per head
+     */
+    MultiBrewer(final WaterLevelSensor reservoir, final Executor executor, final int capacity, final Head... heads) {
+        this.reservoir = checkNotNull(reservoir, "reservoir cannot be null");
+        checkNotNull(heads, "heads cannot be null");
+        checkArgument(heads.length > 0, "a MultiBrewer needs at least one head");
+
+        this.synchronous = executor == null;
+        this.regions = new CoffeeMaker[heads.length];
+        this.inboxes = new SensorListener[heads.length];
+        this.states = new byte[heads.length];
+
+        for (int i = 0; i < heads.length; ++i) {
+            final Head head = checkNotNull(heads[i], "heads cannot contain null");
+
+            if (synchronous) {
+                regions[i] = new CoffeeMaker(new CoffeeMaker.Components(
+                        head.boiler, head.potWarmer, reservoir, head.potSensor, head.brewButton));
+                inboxes[i] = new Region(i);
+
+                head.potSensor.addListener(inboxes[i]);
+                head.brewButton.addListener(inboxes[i]);
+            } else {
+                // the region listens to the mailbox's sensors, which only the thread delivering its events reports to
+                final EventMailbox mailbox =
+                        new EventMailbox(executor, capacity, EventMailbox.Backpressure.Block, MAX_BATCH_SIZE);
+                regions[i] = new CoffeeMaker(head.boiler, head.potWarmer,
+                        mailbox.getWaterLevelSensor(), mailbox.getPotSensor(), mailbox.getBrewButton());
+                mailbox.getWaterLevelSensor().restore(reservoir.getWaterLevel());
+                mailbox.listenTo(head.potSensor, head.brewButton);
+                inboxes[i] = mailbox;
+            }
+
+            states[i] = (byte) regions[i].getState().ordinal();
+        }
+
+        reservoir.addListener(this);
+    }
+
+    /**
+     * @return the number of brew heads
+     */
+    int size() {
+        return regions.length;
+    }
+
+    /**
+     * @return the state of the specified brew head's region.  If the regions transition in parallel, the state is only
+     * up to date once the head's events have been delivered and the Executor has run its tasks.
+     */
+    CoffeeMaker.State getState(final int head) {
+        checkElementIndex(head, regions.length, "head");
+
+        return regions[head].getState();
+    }
+
+    /**
+     * @return the WaterLevelSensor of the shared reservoir
+     */
+    WaterLevelSensor getReservoir() {
+        return reservoir;
+    }
+
+    /**
+     * fans the water level event out to the regions that can react to it.  The reading is passed on with the event, so
+     * regions that run in parallel never read the reservoir's sensor.
+     */
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        if (!synchronous) {
+            for (SensorListener inbox : inboxes) {
+                inbox.onWaterLevelChanged(newState);
+            }
+            return;
+        }
+
+        final boolean[] affected = AFFECTED[newState.ordinal()];
+        for (int i = 0; i < states.length; ++i) {
+            if (affected[states[i]]) {
+                inboxes[i].onWaterLevelChanged(newState);
+            }
+        }
+    }
+
+    /**
+     * @return true if a region in the specified state can react to the reservoir reporting the specified water level
+     */
+    static boolean affects(final WaterLevelSensor.State waterLevel, final CoffeeMaker.State state) {
+        return AFFECTED[waterLevel.ordinal()][state.ordinal()];
+    }
+
+    /**
+     * delivers a region's events to it on the thread that reports them and keeps the region's entry in states up to
+     * date
+     */
+    private final class Region implements SensorListener {
+
+        private final int index;
+
+        Region(final int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+            regions[index].onBrewButtonStatusChanged(newState);
+            states[index] = (byte) regions[index].getState().ordinal();
+        }
+
+        @Override
+        public void onPotStatusChanged(PotSensor.State newState) {
+            regions[index].onPotStatusChanged(newState);
+            states[index] = (byte) regions[index].getState().ordinal();
+        }
+
+        @Override
+        public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+            regions[index].onWaterLevelChanged(newState);
+            states[index] = (byte) regions[index].getState().ordinal();
+        }
+    }
+
+    private static boolean[][] compile() {
+        final TransitionTable table = TransitionTable.compiled();
+
+        final WaterLevelSensor.State[] waterLevels = WaterLevelSensor.State.values();
+        final boolean[][] affected = new boolean[waterLevels.length][TransitionTable.STATES];
+
+        for (WaterLevelSensor.State waterLevel : waterLevels) {
+            final int event = SensorEvent.of(waterLevel).ordinal();
+
+            for (int state = 0; state < TransitionTable.STATES; ++state) {
+                for (int reading = 0; reading < TransitionTable.WATER_LEVELS; ++reading) {
+                    for (int pot = 0; pot < TransitionTable.POTS; ++pot) {
+                        final int entry = table.lookup(state, event, reading, pot);
+
+                        if (TransitionTable.nextState(entry) != state || TransitionTable.commands(entry) != 0) {
+                            affected[waterLevel.ordinal()][state] = true;
+                        }
+                    }
+                }
+            }
+        }
+        return affected;
+    }
+}
@@ -0,0 +1,382 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.io.File;
+import java.io.PrintStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Replays recorded sensor events into CoffeeMakers as fast as they can handle them, for regression testing and capacity
+ * planning.
+ * <p/>
+ * Each device gets a CoffeeMaker of its own (with its own sensors) the first time one of its events is replayed.  The
+ * clock is the timestamps of the events rather than the wall clock, so a replay is deterministic: the same events
+ * always leave the coffee makers in the same states and produce the same statistics.
+ * <p/>
+ * An EventJournal is streamed a record at a time, so journals of any length can be replayed.  A journaled event is
+ * replayed exactly as it was recorded, including the Brew button resets, and the state it led to is compared with the
+ * state that was journaled; the events that lead somewhere else are counted as mismatches.
+ * <p/>
+ * The engine reports:
+ * <ul>
+ * <li>its throughput: the events replayed and how long replaying them took;</li>
+ * <li>the dwell statistics of each state: how long the coffee makers stayed in it before leaving it, by the events'
+ * clock (a coffee maker's stay in its current state hasn't finished, so it isn't counted);</li>
+ * <li>the number of each ActuatorCommand that the coffee makers issued.</li>
+ * </ul>
+ * A ReplayEngine is not thread safe.
+ */
+class ReplayEngine {
+
+    /**
+     * how long coffee makers stayed in a state, in the units of the events' timestamps
+     */
+    static final class Dwell {
+
+        private long count;
+        private long total;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        private void record(final long duration) {
+            ++count;
+            total += duration;
+            min = Math.min(min, duration);
+            max = Math.max(max, duration);
+        }
+
+        /**
+         * @return the number of stays that have finished
+         */
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the total length of the stays
+         */
+        long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the shortest stay or 0 if there were none
+         */
+        long getMin() {
+            return count == 0 ? 0 : min;
+        }
+
+        /**
+         * @return the longest stay or 0 if there were none
+         */
+        long getMax() {
+            return count == 0 ? 0 : max;
+        }
+
+        /**
+         * @return the mean length of a stay or 0 if there were none
+         */
+        double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+    }
+
+    private static final CoffeeMaker.State[] STATES = CoffeeMaker.State.values();
+
+    // the number of devices that the registry has room for before it first has to grow
+    private static final int EXPECTED_DEVICES = 1024;
+
+    private final CountingBoiler boiler;
+    private final CountingPotWarmer potWarmer;
+
+    // the replayed coffee makers by device id
+    private final DeviceRegistry<Device> devices = new DeviceRegistry<Device>(EXPECTED_DEVICES);
+
+    private final Dwell[] dwells = newDwells();
+
+    // Metrics
+    private long events;
+    private long mismatches;
+    private long elapsedNanos;
+
+    /**
+     * Creates a ReplayEngine object whose coffee makers' commands are only counted
+     */
+    ReplayEngine() {
+        this.boiler = new CountingBoiler(null);
+        this.potWarmer = new CountingPotWarmer(null);
+    }
+
+    /**
+     * Creates a ReplayEngine object whose coffee makers' commands are counted and then passed on to stand-in actuators
+     *
+     * @param boiler    the Boiler that every replayed coffee maker commands (e.g. a DebugBoiler)
+     * @param potWarmer the PotWarmer that every replayed coffee maker commands
+     */
+    ReplayEngine(final Boiler boiler, final PotWarmer potWarmer) {
+        this.boiler = new CountingBoiler(checkNotNull(boiler, "boiler cannot be null"));
+        this.potWarmer = new CountingPotWarmer(checkNotNull(potWarmer, "potWarmer cannot be null"));
+    }
+
+    /**
+     * replays every record of the journal in the specified directory
+     *
+     * @return the number of records that were replayed
+     */
+    long replay(final File journal) {
+        return replay(EventJournal.read(checkNotNull(journal, "journal cannot be null")));
+    }
+
+    /**
+     * replays the remaining records of the specified reader
+     *
+     * @return the number of records that were replayed
+     */
+    long replay(final EventJournal.Reader reader) {
+        checkNotNull(reader, "reader cannot be null");
+
+        final long start = System.nanoTime();
+        long replayed = 0;
+        try {
+            while (reader.next()) {
+                final CoffeeMaker.State to = replayEvent(reader.getTimestamp(), reader.getDevice(), reader.getEvent());
+                if (to != reader.getTo()) {
+                    ++mismatches;
+                }
+                ++replayed;
+            }
+        } finally {
+            elapsedNanos += System.nanoTime() - start;
+        }
+        return replayed;
+    }
+
+    /**
+     * replays a single event
+     *
+     * @param timestamp when the event happened; a device's events must be replayed in the order they happened
+     * @param device    the device that the event happened to
+     * @param event     the event
+     *
+     * @return the state that the device's coffee maker is in after the event
+     */
+    CoffeeMaker.State replay(final long timestamp, final long device, final SensorEvent event) {
+        checkNotNull(event, "event cannot be null");
+
+        final long start = System.nanoTime();
+        try {
+            return replayEvent(timestamp, device, event);
+        } finally {
+            elapsedNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return the state of the specified device's coffee maker or null if none of its events have been replayed
+     */
+    CoffeeMaker.State getState(final long device) {
+        final Device replayed = devices.get(device);
+        return replayed == null ? null : replayed.coffeeMaker.getState();
+    }
+
+    /**
+     * @return the number of devices whose events have been replayed
+     */
+    int getDevices() {
+        return devices.size();
+    }
+
+    /**
+     * @return the number of events that have been replayed
+     */
+    long getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the number of journaled events that led to a different state when they were replayed
+     */
+    long getMismatches() {
+        return mismatches;
+    }
+
+    /**
+     * @return how long replaying the events has taken, in nanoseconds
+     */
+    long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the number of events replayed per second
+     */
+    double getThroughput() {
+        return elapsedNanos == 0 ? 0 : events * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return the dwell statistics of the specified state
+     */
+    Dwell getDwell(final CoffeeMaker.State state) {
+        return dwells[checkNotNull(state, "state cannot be null").ordinal()];
+    }
+
+    /**
+     * @return the number of times the coffee makers issued the specified command
+     */
+    long getCommands(final ActuatorCommand command) {
+        checkNotNull(command, "command cannot be null");
+
+        switch (command) {
+            case BoilerOn:
+                return boiler.on;
+            case BoilerOff:
+                return boiler.off;
+            case PotWarmerOn:
+                return potWarmer.on;
+            case PotWarmerOff:
+                return potWarmer.off;
+        }
+
+        throw new IllegalArgumentException("unknown command: " + command);
+    }
+
+    /**
+     * prints the throughput, dwell statistics and command counts
+     */
+    void printReport(final PrintStream out) {
+        out.printf("%d events for %d devices in %.3f s (%.0f events/s), %d mismatches%n",
+                events, devices.size(), elapsedNanos / 1e9, getThroughput(), mismatches);
+
+        for (CoffeeMaker.State state : STATES) {
+            final Dwell dwell = getDwell(state);
+            out.printf("%-18s stays: %d, mean: %.1f, min: %d, max: %d%n",
+                    state, dwell.getCount(), dwell.getMean(), dwell.getMin(), dwell.getMax());
+        }
+
+        for (ActuatorCommand command : ActuatorCommand.values()) {
+            out.printf("%-18s %d%n", command, getCommands(command));
+        }
+    }
+
+    private CoffeeMaker.State replayEvent(final long timestamp, final long device, final SensorEvent event) {
+        Device replayed = devices.get(device);
+        if (replayed == null) {
+            replayed = new Device(boiler, potWarmer, timestamp);
+            devices.register(device, replayed);
+        }
+
+        final CoffeeMaker.State from = replayed.coffeeMaker.getState();
+
+        // the CoffeeMaker doesn't listen to its sensors, so the sensors record the reading that the CoffeeMaker's
+        // guards read without telling anyone, and the event is then delivered to the CoffeeMaker
+        event.detect(replayed.potSensor, replayed.waterLevelSensor, replayed.brewButton);
+        event.deliver(replayed.coffeeMaker);
+
+        final CoffeeMaker.State to = replayed.coffeeMaker.getState();
+        if (to != from) {
+            dwells[from.ordinal()].record(timestamp - replayed.since);
+            replayed.since = timestamp;
+        }
+
+        ++events;
+        return to;
+    }
+
+    private static Dwell[] newDwells() {
+        final Dwell[] dwells = new Dwell[STATES.length];
+        for (CoffeeMaker.State state : STATES) {
+            dwells[state.ordinal()] = new Dwell();
+        }
+        return dwells;
+    }
+
+    /**
+     * a replayed coffee maker, its sensors and when it entered its current state
+     */
+    private static final class Device {
+
+        final PotSensor potSensor = new PotSensor();
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        final BrewButtonSensor brewButton = new BrewButtonSensor();
+
+        final CoffeeMaker coffeeMaker;
+
+        long since;
+
+        Device(final Boiler boiler, final PotWarmer potWarmer, final long since) {
+            this.coffeeMaker = new CoffeeMaker(
+                    new CoffeeMaker.Components(boiler, potWarmer, waterLevelSensor, potSensor, brewButton));
+            this.since = since;
+        }
+    }
+
+    /**
+     * counts the commands issued to the replayed coffee makers' Boilers and passes them on to a Boiler, if there is one
+     */
+    private static final class CountingBoiler implements Boiler {
+
+        private final Boiler boiler;
+
+        long on;
+        long off;
+
+        CountingBoiler(final Boiler boiler) {
+            this.boiler = boiler;
+        }
+
+        @Override
+        public void turnOn() {
+            ++on;
+            if (boiler != null) {
+                boiler.turnOn();
+            }
+        }
+
+        @Override
+        public void turnOff() {
+            ++off;
+            if (boiler != null) {
+                boiler.turnOff();
+            }
+        }
+    }
+
+    /**
+     * counts the commands issued to the replayed coffee makers' PotWarmers and passes them on to a PotWarmer, if there
+     * is one
+     */
+    private static final class CountingPotWarmer implements PotWarmer {
+
+        private final PotWarmer potWarmer;
+
+        long on;
+        long off;
+
+        CountingPotWarmer(final PotWarmer potWarmer) {
+            this.potWarmer = potWarmer;
+        }
+
+        @Override
+        public void turnOn() {
+            ++on;
+            if (potWarmer != null) {
+                potWarmer.turnOn();
+            }
+        }
+
+        @Override
+        public void turnOff() {
+            ++off;
+            if (potWarmer != null) {
+                potWarmer.turnOff();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.timjstewart;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A TransitionTracer that passes one transition in every N (chosen at random, so N transitions pass one on average) on
+ * to another TransitionTracer, e.g. one that logs them.
+ * <p/>
+ * The choice is made with the calling thread's own random number generator, so sampling doesn't write any state that
+ * threads share.
+ */
+final class SamplingTracer implements TransitionTracer {
+
+    private final int n;
+    private final TransitionTracer tracer;
+
+    /**
+     * Creates a SamplingTracer object
+     *
+     * @param n      the number of transitions per transition that is passed on (1 passes them all on)
+     * @param tracer the TransitionTracer to pass the sampled transitions on to
+     */
+    SamplingTracer(final int n, final TransitionTracer tracer) {
+        checkArgument(n > 0, "n must be positive");
+
+        this.n = n;
+        this.tracer = checkNotNull(tracer, "tracer cannot be null");
+    }
+
+    @Override
+    public void onTransition(final CoffeeMaker.State from,
+                             final Cause cause,
+                             final SensorEvent event,
+                             final CoffeeMaker.State to,
+                             final int commands) {
+        if (n == 1 || ThreadLocalRandom.current().nextInt(n) == 0) {
+            tracer.onTransition(from, cause, event, to, commands);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+/**
+ * every event that the CoffeeMaker's sensors can report: a sensor together with the state it changed to.
+ * <p/>
+ * A SensorEvent's ordinal is a compact encoding of a sensor reading that can be used to index tables and to store
+ * events in primitive arrays.  Each sensor's events are declared in the same order as that sensor's State enum.
+ */
+enum SensorEvent {
+
+    PotGone(Sensor.Pot, PotSensor.State.Gone),
+
+    PotEmpty(Sensor.Pot, PotSensor.State.Empty),
+
+    PotNonEmpty(Sensor.Pot, PotSensor.State.NonEmpty),
+
+    WaterLevelEmpty(Sensor.WaterLevel, WaterLevelSensor.State.Empty),
+
+    WaterLevelNotEmpty(Sensor.WaterLevel, WaterLevelSensor.State.NotEmpty),
+
+    BrewButtonPressed(Sensor.BrewButton, BrewButtonSensor.State.Pressed),
+
+    BrewButtonNotPressed(Sensor.BrewButton, BrewButtonSensor.State.NotPressed);
+
+    /**
+     * the sensors of the CoffeeMaker
+     */
+    enum Sensor {
+        Pot,
+        WaterLevel,
+        BrewButton
+    }
+
+    private static final SensorEvent[] VALUES = values();
+
+    // each sensor's events, indexed by the ordinal of the sensor and then of the new state
+    private static final SensorEvent[][] BY_SENSOR = bySensor();
+
+    // each sensor's row of BY_SENSOR, so that looking up the event of a Listener method's new state (which a
+    // CoffeeMaker does for every event) is a single array access
+    private static final SensorEvent[] POT_EVENTS = BY_SENSOR[Sensor.Pot.ordinal()];
+    private static final SensorEvent[] WATER_LEVEL_EVENTS = BY_SENSOR[Sensor.WaterLevel.ordinal()];
+    private static final SensorEvent[] BREW_BUTTON_EVENTS = BY_SENSOR[Sensor.BrewButton.ordinal()];
+
+    private final Sensor sensor;
+    private final Enum<?> newState;
+
+    SensorEvent(final Sensor sensor, final Enum<?> newState) {
+        this.sensor = sensor;
+        this.newState = newState;
+    }
+
+    /**
+     * @return the sensor that reported the event
+     */
+    Sensor getSensor() {
+        return sensor;
+    }
+
+    /**
+     * @return the state the sensor changed to (a PotSensor.State, WaterLevelSensor.State or BrewButtonSensor.State)
+     */
+    Enum<?> getNewState() {
+        return newState;
+    }
+
+    /**
+     * tells the sensor that reported this event to detect its new state
+     */
+    void detect(final PotSensor potSensor,
+                final WaterLevelSensor waterLevelSensor,
+                final BrewButtonSensor brewButton) {
+
+        switch (sensor) {
+            case Pot:
+                potSensor.detect((PotSensor.State) newState);
+                break;
+
+            case WaterLevel:
+                waterLevelSensor.detect((WaterLevelSensor.State) newState);
+                break;
+
+            case BrewButton:
+                brewButton.detect((BrewButtonSensor.State) newState);
+                break;
+        }
+    }
+
+    /**
+     * calls the specified SensorListener's Listener method for the sensor that reported this event
+     */
+    void deliver(final SensorListener listener) {
+
+        switch (sensor) {
+            case Pot:
+                listener.onPotStatusChanged((PotSensor.State) newState);
+                break;
+
+            case WaterLevel:
+                listener.onWaterLevelChanged((WaterLevelSensor.State) newState);
+                break;
+
+            case BrewButton:
+                listener.onBrewButtonStatusChanged((BrewButtonSensor.State) newState);
+                break;
+        }
+    }
+
+    /**
+     * @return the SensorEvent whose ordinal is the specified value
+     */
+    static SensorEvent valueOf(final int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * @return the SensorEvent of the specified sensor whose new state has the specified ordinal
+     */
+    static SensorEvent of(final Sensor sensor, final int newState) {
+        return BY_SENSOR[sensor.ordinal()][newState];
+    }
+
+    /**
+     * @return the number of states that the specified sensor can report
+     */
+    static int states(final Sensor sensor) {
+        return BY_SENSOR[sensor.ordinal()].length;
+    }
+
+    static SensorEvent of(final PotSensor.State newState) {
+        return POT_EVENTS[newState.ordinal()];
+    }
+
+    static SensorEvent of(final WaterLevelSensor.State newState) {
+        return WATER_LEVEL_EVENTS[newState.ordinal()];
+    }
+
+    static SensorEvent of(final BrewButtonSensor.State newState) {
+        return BREW_BUTTON_EVENTS[newState.ordinal()];
+    }
+
+    private static SensorEvent[][] bySensor() {
+        final SensorEvent[][] bySensor = new SensorEvent[Sensor.values().length][];
+        for (Sensor sensor : Sensor.values()) {
+            int events = 0;
+            for (SensorEvent event : VALUES) {
+                if (event.sensor == sensor) {
+                    ++events;
+                }
+            }
+
+            bySensor[sensor.ordinal()] = new SensorEvent[events];
+            for (SensorEvent event : VALUES) {
+                if (event.sensor == sensor) {
+                    bySensor[sensor.ordinal()][event.newState.ordinal()] = event;
+                }
+            }
+        }
+        return bySensor;
+    }
+}
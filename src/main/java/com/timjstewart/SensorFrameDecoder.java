@@ -0,0 +1,206 @@
+package com.timjstewart;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Decodes the binary frames in which networked coffee makers report their sensor readings and dispatches each reading
+ * to the coffee maker that reported it.
+ * <p/>
+ * A frame is laid out as (big-endian):
+ * <pre>
+ *   0  long  device id
+ *   8  byte  sensor (SensorEvent.Sensor ordinal)
+ *   9  byte  the sensor's new state (ordinal)
+ * </pre>
+ * The decoder reads from a channel into a direct buffer of its own, so a socket's bytes aren't copied through the heap,
+ * and decodes the frames in place: decoding a frame doesn't allocate.  A frame that is split across reads is decoded
+ * once the rest of it has been read.  A frame with an unknown sensor or state, or for a device that the Dispatcher
+ * doesn't know, is rejected and skipped.
+ * <p/>
+ * A decoder decodes the frames of a single connection and is not thread safe.
+ */
+final class SensorFrameDecoder {
+
+    static final int FRAME_SIZE = 10;
+
+    private static final int DEVICE = 0;
+    private static final int SENSOR = 8;
+    private static final int NEW_STATE = 9;
+
+    private static final SensorEvent.Sensor[] SENSORS = SensorEvent.Sensor.values();
+
+    /**
+     * the coffee makers that frames are dispatched to
+     */
+    interface Dispatcher {
+
+        /**
+         * delivers the specified event to the specified coffee maker
+         *
+         * @return false if there is no such coffee maker
+         */
+        boolean dispatch(long device, SensorEvent event);
+    }
+
+    private final Dispatcher dispatcher;
+
+    // the bytes that have been read but not yet decoded, between the start of the buffer and its position
+    private final ByteBuffer buffer;
+
+    private long decoded;
+    private long rejected;
+
+    /**
+     * Creates a SensorFrameDecoder object
+     *
+     * @param dispatcher the coffee makers to dispatch the frames to
+     * @param capacity   the number of frames that a single read can read
+     */
+    SensorFrameDecoder(final Dispatcher dispatcher, final int capacity) {
+        this.dispatcher = checkNotNull(dispatcher, "dispatcher cannot be null");
+
+        checkArgument(capacity > 0 && capacity <= Integer.MAX_VALUE / FRAME_SIZE,
+                "capacity must be between 1 and %s", Integer.MAX_VALUE / FRAME_SIZE);
+        this.buffer = ByteBuffer.allocateDirect(capacity * FRAME_SIZE);
+    }
+
+    /**
+     * @return a Dispatcher to the coffee makers of the specified fleet, whose device ids are their indexes in the fleet
+     */
+    static Dispatcher to(final CoffeeMakerFleet fleet) {
+        checkNotNull(fleet, "fleet cannot be null");
+
+        return new Dispatcher() {
+            @Override
+            public boolean dispatch(final long device, final SensorEvent event) {
+                if (device < 0 || device >= fleet.size()) {
+                    return false;
+                }
+                fleet.apply((int) device, event);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return a Dispatcher that reports each frame to the sensors of a coffee maker, which tell the coffee maker
+     * through its Listener interfaces; a device id is the index of the device's sensors in the array
+     */
+    static Dispatcher to(final CoffeeMaker.Components... devices) {
+        checkNotNull(devices, "devices cannot be null");
+
+        return new Dispatcher() {
+            @Override
+            public boolean dispatch(final long device, final SensorEvent event) {
+                if (device < 0 || device >= devices.length) {
+                    return false;
+                }
+                final CoffeeMaker.Components components = devices[(int) device];
+                event.detect(components.getPotSensor(), components.getWaterLevelSensor(), components.getBrewButton());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return a Dispatcher that reports each frame to the sensors of the coffee maker registered under its device id,
+     * which tell the coffee maker through its Listener interfaces; devices can be registered and removed while frames
+     * are being dispatched
+     */
+    static Dispatcher to(final DeviceRegistry<CoffeeMaker.Components> devices) {
+        checkNotNull(devices, "devices cannot be null");
+
+        return new Dispatcher() {
+            @Override
+            public boolean dispatch(final long device, final SensorEvent event) {
+                final CoffeeMaker.Components components = devices.get(device);
+                if (components == null) {
+                    return false;
+                }
+                event.detect(components.getPotSensor(), components.getWaterLevelSensor(), components.getBrewButton());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * writes a frame into the specified buffer at its position
+     */
+    static void encode(final ByteBuffer buffer, final long device, final SensorEvent event) {
+        buffer.putLong(device)
+                .put((byte) event.getSensor().ordinal())
+                .put((byte) event.getNewState().ordinal());
+    }
+
+    /**
+     * reads whatever the specified channel has to offer (without waiting, if the channel is non-blocking) and
+     * dispatches every complete frame
+     *
+     * @return the number of frames decoded, or -1 if the channel has reached the end of its stream
+     */
+    int readFrom(final ReadableByteChannel channel) throws IOException {
+        if (channel.read(buffer) == -1) {
+            // a frame that the device didn't finish sending
+            if (buffer.position() != 0) {
+                buffer.clear();
+                ++rejected;
+            }
+            return -1;
+        }
+        return decode();
+    }
+
+    /**
+     * dispatches the complete frames that have been read but not yet decoded, e.g. the ones that follow a frame whose
+     * dispatch threw
+     *
+     * @return the number of frames decoded
+     */
+    int decode() {
+        buffer.flip();
+
+        int frames = 0;
+        try {
+            while (buffer.remaining() >= FRAME_SIZE) {
+                final int position = buffer.position();
+                final long device = buffer.getLong(position + DEVICE);
+                final int sensor = buffer.get(position + SENSOR);
+                final int newState = buffer.get(position + NEW_STATE);
+
+                // a frame is consumed before it's dispatched, so a Dispatcher that throws doesn't see it again
+                buffer.position(position + FRAME_SIZE);
+                ++frames;
+                ++decoded;
+
+                if (sensor < 0 || sensor >= SENSORS.length
+                        || newState < 0 || newState >= SensorEvent.states(SENSORS[sensor])
+                        || !dispatcher.dispatch(device, SensorEvent.of(SENSORS[sensor], newState))) {
+                    ++rejected;
+                }
+            }
+        } finally {
+            buffer.compact();
+        }
+        return frames;
+    }
+
+    /**
+     * @return the number of frames that have been decoded, including the ones that were rejected
+     */
+    long getDecoded() {
+        return decoded;
+    }
+
+    /**
+     * @return the number of frames that were rejected: frames with an unknown sensor, state or device, and the frame
+     * that a channel ended in the middle of (if any)
+     */
+    long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,264 @@
+package com.timjstewart;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Ingests the sensor readings of networked coffee makers: a single thread waits on a Selector for frames (see
+ * SensorFrameDecoder) to arrive on any of its connections and dispatches them as they're decoded.
+ * <p/>
+ * The ingestor accepts connections from devices on the addresses it listens on, and can also read from channels that
+ * are connected some other way (e.g. a Pipe).  Each connection has a decoder of its own, so frames that are split
+ * across reads are put back together per connection.  A connection that fails or reaches the end of its stream is
+ * closed without affecting the others.
+ * <p/>
+ * Listening and channels must be set up before the ingestor starts running.  The Dispatcher is only ever called by the
+ * ingestor's thread.
+ * <p/>
+ * Stopping the ingestor wakes its thread up rather than interrupting it, since interrupting a thread that is reading
+ * from a channel closes the channel (and throws away the frames in it).  An ingestor that has been stopped, even before
+ * it started running, doesn't run again.
+ */
+final class SensorIngestor implements Runnable, Closeable {
+
+    private final SensorFrameDecoder.Dispatcher dispatcher;
+    private final int capacity;
+    private final Selector selector;
+
+    // true while a thread is running the ingestor
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    // true once the ingestor has been told to stop
+    private volatile boolean stopped;
+
+    // Metrics: only written by the ingestor's thread
+    private volatile long frames;
+    private volatile long rejected;
+    private volatile int connections;
+
+    /**
+     * Creates a SensorIngestor object
+     *
+     * @param dispatcher the coffee makers to dispatch the frames to
+     * @param capacity   the number of frames that a single read from a connection can read
+     */
+    SensorIngestor(final SensorFrameDecoder.Dispatcher dispatcher, final int capacity) throws IOException {
+        this.dispatcher = checkNotNull(dispatcher, "dispatcher cannot be null");
+
+        checkArgument(capacity > 0, "capacity must be positive");
+        this.capacity = capacity;
+
+        this.selector = Selector.open();
+    }
+
+    /**
+     * accepts connections on the specified address
+     *
+     * @return the address that connections are accepted on (e.g. with the port that was chosen if the address's port is
+     * zero)
+     */
+    InetSocketAddress listen(final SocketAddress address) throws IOException {
+        checkNotNull(address, "address cannot be null");
+        checkState(!running.get(), "the ingestor is already running");
+
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.configureBlocking(false);
+            server.bind(address);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    /**
+     * reads frames from the specified channel, e.g. the source of a Pipe, until it reaches the end of its stream
+     */
+    <C extends SelectableChannel & ReadableByteChannel> void read(final C channel) throws IOException {
+        checkNotNull(channel, "channel cannot be null");
+        checkState(!running.get(), "the ingestor is already running");
+
+        connect(channel);
+    }
+
+    /**
+     * runs the ingestor on a new thread from the specified factory
+     *
+     * @return the thread
+     */
+    Thread start(final ThreadFactory threadFactory) {
+        final Thread thread = threadFactory.newThread(this);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * stops the ingestor once it has dispatched the frames it has read.  Frames that haven't been read yet stay in
+     * their connections, which stay open until the ingestor is closed.
+     */
+    void stop() {
+        stopped = true;
+        selector.wakeup();
+    }
+
+    /**
+     * @return the number of frames that have been decoded, including the ones that were rejected
+     */
+    long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the number of frames that were rejected (see SensorFrameDecoder.getRejected)
+     */
+    long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of connections that are open
+     */
+    int getConnections() {
+        return connections;
+    }
+
+    /**
+     * dispatches frames until the ingestor is stopped
+     */
+    @Override
+    public void run() {
+        checkState(running.compareAndSet(false, true), "the ingestor is already running");
+
+        try {
+            while (!stopped) {
+                selector.select();
+
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                    } else if (key.isValid() && key.isReadable()) {
+                        read(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            report(e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * closes every connection and stops listening; the ingestor must have stopped running
+     */
+    @Override
+    public void close() throws IOException {
+        checkState(!running.get(), "the ingestor is still running");
+
+        if (!selector.isOpen()) {
+            return;
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        connections = 0;
+
+        selector.close();
+    }
+
+    private void accept(final ServerSocketChannel server) {
+        try {
+            final SocketChannel connection = server.accept();
+            if (connection != null) {
+                try {
+                    connect(connection);
+                } catch (IOException e) {
+                    connection.close();
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            // e.g. the process has run out of file descriptors; the other connections carry on
+            report(e);
+        }
+    }
+
+    private void connect(final SelectableChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, new SensorFrameDecoder(dispatcher, capacity));
+        ++connections;
+    }
+
+    private void read(final SelectionKey key) {
+        final ReadableByteChannel channel = (ReadableByteChannel) key.channel();
+        final SensorFrameDecoder decoder = (SensorFrameDecoder) key.attachment();
+
+        final long decoded = decoder.getDecoded();
+        final long rejected = decoder.getRejected();
+        try {
+            if (decoder.readFrom(channel) == -1) {
+                disconnect(key);
+            }
+        } catch (IOException e) {
+            disconnect(key);
+        } catch (RuntimeException e) {
+            report(e);
+            drain(decoder);
+        } finally {
+            frames += decoder.getDecoded() - decoded;
+            this.rejected += decoder.getRejected() - rejected;
+        }
+    }
+
+    private void disconnect(final SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // the connection is gone either way
+        }
+        --connections;
+    }
+
+    /**
+     * dispatches the frames that were read along with a frame whose dispatch threw, since a frame that fails mustn't
+     * hold up the others
+     */
+    private static void drain(final SensorFrameDecoder decoder) {
+        while (true) {
+            try {
+                decoder.decode();
+                return;
+            } catch (RuntimeException e) {
+                report(e);
+            }
+        }
+    }
+
+    private static void report(final Exception e) {
+        final Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+}
@@ -0,0 +1,12 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+/**
+ * classes interested in the events of all of the CoffeeMaker's sensors (e.g. the CoffeeMaker itself) implement this
+ * interface.
+ */
+interface SensorListener extends BrewButtonSensor.Listener, PotSensor.Listener, WaterLevelSensor.Listener {
+}
@@ -0,0 +1,259 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The states of a fleet of coffee makers, and of their sensors, at a moment in time, so that a restarted controller can
+ * carry on where it left off rather than booting every coffee maker into the Initial state.
+ * <p/>
+ * Each coffee maker takes a single byte:
+ * <pre>
+ *   bits 0-2  the ordinal of its CoffeeMaker.State
+ *   bits 3-4  its reading of the WaterLevelSensor (see TransitionTable.reading)
+ *   bits 5-6  its reading of the PotSensor (see TransitionTable.reading)
+ *   bit  7    set if the Brew button has reported anything
+ * </pre>
+ * A CoffeeMaker resets the Brew button as soon as it has been pressed, so the only reading of the Brew button worth
+ * keeping is NotPressed; a Pressed button is recorded as NotPressed.
+ * <p/>
+ * A snapshot file holds a header (a magic number, the format version, when the snapshot was taken and the number of
+ * coffee makers), the byte of each coffee maker and a CRC-32 of those bytes.  The file is written next to its final
+ * name and then renamed, so a crash while writing never leaves a torn snapshot behind.
+ */
+final class Snapshot {
+
+    private static final int MAGIC = 0x434d534e;
+    private static final int VERSION = 1;
+
+    // the layout of a coffee maker's byte
+    private static final int STATE_BITS = 3;
+    private static final int WATER_LEVEL_BITS = 2;
+    private static final int POT_BITS = 2;
+    private static final int WATER_LEVEL_SHIFT = STATE_BITS;
+    private static final int POT_SHIFT = WATER_LEVEL_SHIFT + WATER_LEVEL_BITS;
+    private static final int BREW_BUTTON_SHIFT = POT_SHIFT + POT_BITS;
+    private static final int STATE_MASK = (1 << STATE_BITS) - 1;
+    private static final int WATER_LEVEL_MASK = (1 << WATER_LEVEL_BITS) - 1;
+    private static final int POT_MASK = (1 << POT_BITS) - 1;
+
+    private static final WaterLevelSensor.State[] WATER_LEVELS = WaterLevelSensor.State.values();
+    private static final PotSensor.State[] POTS = PotSensor.State.values();
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final long timestamp;
+    private final byte[] entries;
+
+    private Snapshot(final long timestamp, final byte[] entries) {
+        this.timestamp = timestamp;
+        this.entries = entries;
+    }
+
+    /**
+     * takes a snapshot of the specified coffee makers, which must not be handling events while it's taken
+     */
+    static Snapshot of(final CoffeeMaker... coffeeMakers) {
+        checkNotNull(coffeeMakers, "coffeeMakers cannot be null");
+
+        final byte[] entries = new byte[coffeeMakers.length];
+        for (int device = 0; device < entries.length; ++device) {
+            final CoffeeMaker coffeeMaker = coffeeMakers[device];
+            entries[device] = pack(coffeeMaker.getState(),
+                    coffeeMaker.getWaterLevel(), coffeeMaker.getPot(), coffeeMaker.getBrewButton());
+        }
+        return new Snapshot(System.currentTimeMillis(), entries);
+    }
+
+    /**
+     * takes a snapshot of the specified fleet, which must not be applying events while it's taken
+     */
+    static Snapshot of(final CoffeeMakerFleet fleet) {
+        checkNotNull(fleet, "fleet cannot be null");
+
+        final byte[] entries = new byte[fleet.size()];
+        for (int device = 0; device < entries.length; ++device) {
+            entries[device] = pack(fleet.getState(device), fleet.getWaterLevel(device), fleet.getPot(device), null);
+        }
+        return new Snapshot(System.currentTimeMillis(), entries);
+    }
+
+    /**
+     * @return the number of coffee makers in the snapshot
+     */
+    int size() {
+        return entries.length;
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch
+     */
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the byte of the specified coffee maker
+     */
+    byte get(final int device) {
+        checkElementIndex(device, entries.length, "device");
+        return entries[device];
+    }
+
+    /**
+     * puts each of the specified coffee makers (and its sensors) back into the state it was in when the snapshot was
+     * taken and commands its actuators to match
+     */
+    void restore(final CoffeeMaker... coffeeMakers) {
+        checkNotNull(coffeeMakers, "coffeeMakers cannot be null");
+        checkArgument(coffeeMakers.length == entries.length,
+                "the snapshot has %s devices but there are %s coffee makers", entries.length, coffeeMakers.length);
+
+        for (int device = 0; device < entries.length; ++device) {
+            final byte entry = entries[device];
+            coffeeMakers[device].restore(state(entry), waterLevel(entry), pot(entry), brewButton(entry));
+        }
+    }
+
+    /**
+     * writes the snapshot to the specified file, replacing the snapshot that's already there (if any) once the new one
+     * is safely on disk
+     */
+    void writeTo(final File file) throws IOException {
+        checkNotNull(file, "file cannot be null");
+
+        final File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+
+        final CRC32 crc = new CRC32();
+        crc.update(entries, 0, entries.length);
+
+        try (FileOutputStream stream = new FileOutputStream(temporary)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(timestamp);
+            out.writeInt(entries.length);
+            out.write(entries);
+            out.writeInt((int) crc.getValue());
+            out.flush();
+
+            stream.getFD().sync();
+        }
+
+        Files.move(temporary.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * reads a snapshot that was written by writeTo
+     *
+     * @throws IOException if the file can't be read or doesn't hold a valid snapshot
+     */
+    static Snapshot readFrom(final File file) throws IOException {
+        checkNotNull(file, "file cannot be null");
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is a version " + version + " snapshot; expected version " + VERSION);
+            }
+
+            final long timestamp = in.readLong();
+            final int size = in.readInt();
+            if (size < 0) {
+                throw new IOException(file + " is corrupt: it has " + size + " devices");
+            }
+
+            final byte[] entries = new byte[size];
+            in.readFully(entries);
+
+            final CRC32 crc = new CRC32();
+            crc.update(entries, 0, entries.length);
+            if (in.readInt() != (int) crc.getValue()) {
+                throw new IOException(file + " is corrupt: its checksum doesn't match");
+            }
+
+            for (int device = 0; device < size; ++device) {
+                if (!isValid(entries[device])) {
+                    throw new IOException(file + " is corrupt: device " + device + " has an invalid state");
+                }
+            }
+
+            return new Snapshot(timestamp, entries);
+        } catch (EOFException e) {
+            throw new IOException(file + " is truncated", e);
+        }
+    }
+
+    /**
+     * @return the byte of a coffee maker with the specified state and readings
+     */
+    static byte pack(final CoffeeMaker.State state,
+                     final WaterLevelSensor.State waterLevel,
+                     final PotSensor.State pot,
+                     final BrewButtonSensor.State brewButton) {
+        checkNotNull(state, "state cannot be null");
+
+        return (byte) (state.ordinal()
+                | TransitionTable.reading(waterLevel) << WATER_LEVEL_SHIFT
+                | TransitionTable.reading(pot) << POT_SHIFT
+                | (brewButton == null ? 0 : 1) << BREW_BUTTON_SHIFT);
+    }
+
+    /**
+     * @return the state of the coffee maker with the specified byte
+     */
+    static CoffeeMaker.State state(final byte entry) {
+        return TransitionTable.state(entry & STATE_MASK);
+    }
+
+    /**
+     * @return the reading of the WaterLevelSensor in the specified byte or null if it hadn't reported anything
+     */
+    static WaterLevelSensor.State waterLevel(final byte entry) {
+        final int reading = entry >>> WATER_LEVEL_SHIFT & WATER_LEVEL_MASK;
+        return reading == 0 ? null : WATER_LEVELS[reading - 1];
+    }
+
+    /**
+     * @return the reading of the PotSensor in the specified byte or null if it hadn't reported anything
+     */
+    static PotSensor.State pot(final byte entry) {
+        final int reading = entry >>> POT_SHIFT & POT_MASK;
+        return reading == 0 ? null : POTS[reading - 1];
+    }
+
+    /**
+     * @return the reading of the Brew button in the specified byte or null if it hadn't reported anything
+     */
+    static BrewButtonSensor.State brewButton(final byte entry) {
+        return (entry >>> BREW_BUTTON_SHIFT & 1) == 0 ? null : BrewButtonSensor.State.NotPressed;
+    }
+
+    private static boolean isValid(final byte entry) {
+        return (entry & STATE_MASK) < TransitionTable.STATES
+                && (entry >>> WATER_LEVEL_SHIFT & WATER_LEVEL_MASK) < TransitionTable.WATER_LEVELS
+                && (entry >>> POT_SHIFT & POT_MASK) < TransitionTable.POTS;
+    }
+}
@@ -0,0 +1,93 @@
+package com.timjstewart;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes a Snapshot to a file every time it runs, so that a controller can be restarted from a recent snapshot.
+ * <p/>
+ * The snapshot is taken by a Callable, which must take it on (or in step with) the thread that the coffee makers handle
+ * their events on, e.g. by handing the work to that thread and waiting for it.  A snapshot that can't be taken or
+ * written is counted and the previous snapshot is left in place; the next run tries again.
+ */
+class SnapshotWriter implements Runnable {
+
+    private final Callable<Snapshot> source;
+    private final File file;
+
+    // Metrics
+    private volatile long written;
+    private volatile long failed;
+    private volatile Exception lastFailure;
+
+    /**
+     * Creates a SnapshotWriter object
+     *
+     * @param source takes the snapshots
+     * @param file   the file to write the snapshots to
+     */
+    SnapshotWriter(final Callable<Snapshot> source, final File file) {
+        this.source = checkNotNull(source, "source cannot be null");
+        this.file = checkNotNull(file, "file cannot be null");
+    }
+
+    /**
+     * runs the writer every period on the specified executor until the returned future is cancelled
+     */
+    ScheduledFuture<?> start(final ScheduledExecutorService executor, final long period, final TimeUnit unit) {
+        checkNotNull(executor, "executor cannot be null");
+        checkNotNull(unit, "unit cannot be null");
+        checkArgument(period > 0, "period must be positive");
+
+        return executor.scheduleWithFixedDelay(this, period, period, unit);
+    }
+
+    /**
+     * takes a snapshot and writes it to the file
+     */
+    @Override
+    public synchronized void run() {
+        try {
+            source.call().writeTo(file);
+            ++written;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+        } catch (Exception e) {
+            // a failure mustn't stop the snapshots from being written periodically
+            fail(e);
+        }
+    }
+
+    /**
+     * @return the number of snapshots that have been written
+     */
+    long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return the number of snapshots that couldn't be taken or written
+     */
+    long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return why the latest snapshot that couldn't be taken or written failed, or null if none has failed
+     */
+    Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    private void fail(final Exception e) {
+        lastFailure = e;
+        ++failed;
+    }
+}
@@ -0,0 +1,395 @@
+package com.timjstewart;
+
+import com.google.common.base.Throwables;
+import com.timjstewart.actuator.ActuatorFailure;
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A Coffee Maker FSM that makes the same transitions as CoffeeMaker but dispatches each event through a tree of
+ * MethodHandles that is specialized for the compiled TransitionTable when the class is loaded.
+ * <p/>
+ * CoffeeMaker hands each event to the flyweight of its current state, so once a coffee maker has been through a few of
+ * its states that call sees several AbstractState classes and the JIT can't inline it.  Instead, each sensor gets a
+ * single MethodHandle, held in a static final field, that tests the new reading, the state and then the Guard
+ * Conditions against constants and ends in a transition that commands the actuators and sets the next state.  Because
+ * the fields are constant the JIT inlines the whole tree into the Listener method: there is one call site per sensor,
+ * it's monomorphic and it doesn't touch the table at all.
+ * <p/>
+ * That makes it faster than CoffeeMaker and TableDrivenCoffeeMaker when the coffee maker moves between states and
+ * about as fast when it stays in one, but not as fast as GeneratedCoffeeMaker's switch statements (see the Handwritten,
+ * TableDriven, Specialized and Generated engines of CoffeeMakerBenchmark).
+ * <p/>
+ * The tests of the Guard Conditions query the sensors, as CoffeeMaker's states do, so that a sensor that was restored
+ * (which doesn't tell its Listeners) is seen as it is now.  Actuator failures are handled like CoffeeMaker handles
+ * them, outside of the tree: the actuators are stopped safely, the FSM stays Failed until the Brew button is pressed
+ * and a failure that is reported while an event is being handled is handled once the event has been.  Unlike
+ * CoffeeMaker there is no Observer to tell about transitions.
+ */
+final class SpecializedCoffeeMaker implements SensorListener, ActuatorFailure.Listener {
+
+    // the type of a sensor's dispatch: the coffee maker and the ordinal of the sensor's new state
+    private static final MethodType DISPATCH =
+            MethodType.methodType(void.class, SpecializedCoffeeMaker.class, int.class);
+
+    // the type of a test: a dispatch's arguments followed by the constant to compare with
+    private static final MethodType TEST =
+            MethodType.methodType(boolean.class, SpecializedCoffeeMaker.class, int.class, int.class);
+
+    // the dimensions of the table that a dispatch tests, outermost first
+    private static final int NEW_STATE = 0;
+    private static final int STATE = 1;
+    private static final int WATER_LEVEL = 2;
+    private static final int POT = 3;
+
+    private static final String[] TESTS = {"newStateBelow", "stateBelow", "waterLevelBelow", "potBelow"};
+
+    private static final MethodHandle ON_POT = specialize(SensorEvent.Sensor.Pot);
+    private static final MethodHandle ON_WATER_LEVEL = specialize(SensorEvent.Sensor.WaterLevel);
+    private static final MethodHandle ON_BREW_BUTTON = specialize(SensorEvent.Sensor.BrewButton);
+
+    // Actuators
+    private final Boiler boiler;
+    private final PotWarmer potWarmer;
+
+    // Sensors
+    private final WaterLevelSensor waterLevelSensor;
+    private final PotSensor potSensor;
+    private final BrewButtonSensor brewButton;
+
+    // the ordinal of the state of the coffee maker
+    private int state;
+
+    // whether an event is being handled
+    private boolean transitioning;
+
+    // the actuator failures that were reported while an event was being handled, created when first needed
+    private Queue<ActuatorFailure> deferredFailures;
+
+    /**
+     * Creates a SpecializedCoffeeMaker object
+     *
+     * @param boiler           the Boiler used to boil the water
+     * @param potWarmer        the PotWarmer used to keep freshly brewed coffee warm
+     * @param waterLevelSensor the WaterLevelSensor that detects whether or not there is water in the Boiler
+     * @param potSensor        the PotSensor that detects if there is a CoffeePot on the WarmerPlate and, if there is,
+     *                         whether or not it's empty.
+     * @param brewButton       the Brew button that the use presses to initiate a brew cycle.
+     */
+    public SpecializedCoffeeMaker(
+            final Boiler boiler,
+            final PotWarmer potWarmer,
+            final WaterLevelSensor waterLevelSensor,
+            final PotSensor potSensor,
+            final BrewButtonSensor brewButton
+    ) {
+        this.boiler = checkNotNull(boiler, "boiler cannot be null");
+        this.potWarmer = checkNotNull(potWarmer, "potWarmer cannot be null");
+        this.waterLevelSensor = checkNotNull(waterLevelSensor, "waterLevelSensor cannot be null");
+        this.potSensor = checkNotNull(potSensor, "potSensor cannot be null");
+        this.brewButton = checkNotNull(brewButton, "brewButton cannot be null");
+
+        // listen for state changes
+        waterLevelSensor.addListener(this);
+        potSensor.addListener(this);
+        brewButton.addListener(this);
+
+        // immediately go to the initial state
+        state = CoffeeMaker.State.Initial.ordinal();
+    }
+
+    /**
+     * @return the state of the coffee maker
+     */
+    public CoffeeMaker.State getState() {
+        return TransitionTable.state(state);
+    }
+
+    /**
+     * Sensor State Change Handlers
+     */
+
+    @Override
+    public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+        final boolean outermost = beginTransition();
+        try {
+            ON_BREW_BUTTON.invokeExact(this, newState.ordinal());
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        } finally {
+            endTransition(outermost);
+        }
+
+        // automatically reset the Brew button
+        if (newState == BrewButtonSensor.State.Pressed) {
+            brewButton.detect(BrewButtonSensor.State.NotPressed);
+        }
+    }
+
+    @Override
+    public void onPotStatusChanged(PotSensor.State newState) {
+        final boolean outermost = beginTransition();
+        try {
+            ON_POT.invokeExact(this, newState.ordinal());
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        } finally {
+            endTransition(outermost);
+        }
+    }
+
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        final boolean outermost = beginTransition();
+        try {
+            ON_WATER_LEVEL.invokeExact(this, newState.ordinal());
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        } finally {
+            endTransition(outermost);
+        }
+    }
+
+    /**
+     * Actuator Failure Handler
+     */
+
+    @Override
+    public void onActuatorFailed(ActuatorFailure failure) {
+        checkNotNull(failure, "failure cannot be null");
+
+        if (transitioning) {
+            if (deferredFailures == null) {
+                deferredFailures = new ArrayDeque<ActuatorFailure>();
+            }
+            deferredFailures.add(failure);
+            return;
+        }
+
+        final boolean outermost = beginTransition();
+        try {
+            fail(failure);
+        } finally {
+            endTransition(outermost);
+        }
+    }
+
+    /**
+     * stops the actuators safely and goes to the Failed state, unless the FSM has already failed
+     */
+    private void fail(final ActuatorFailure failure) {
+        if (state != CoffeeMaker.State.Failed.ordinal()) {
+            failure.stopSafely(boiler, potWarmer);
+            state = CoffeeMaker.State.Failed.ordinal();
+        }
+    }
+
+    /**
+     * marks the start of the handling of an event
+     *
+     * @return true unless another event is already being handled, in which case this one is nested inside it
+     */
+    private boolean beginTransition() {
+        final boolean outermost = !transitioning;
+        transitioning = true;
+        return outermost;
+    }
+
+    /**
+     * marks the end of the handling of an event and, unless it was nested inside another, handles the actuator failures
+     * that were reported in the meantime
+     */
+    private void endTransition(final boolean outermost) {
+        if (!outermost) {
+            return;
+        }
+
+        try {
+            while (deferredFailures != null && !deferredFailures.isEmpty()) {
+                fail(deferredFailures.remove());
+            }
+        } finally {
+            transitioning = false;
+        }
+    }
+
+    /**
+     * @return the dispatch for the events of the specified sensor
+     */
+    private static MethodHandle specialize(final SensorEvent.Sensor sensor) {
+        int newStates = 0;
+        for (SensorEvent event : SensorEvent.values()) {
+            if (event.getSensor() == sensor) {
+                ++newStates;
+            }
+        }
+
+        final int[] from = {0, 0, 0, 0};
+        final int[] to = {newStates, TransitionTable.STATES, TransitionTable.WATER_LEVELS, TransitionTable.POTS};
+
+        return specialize(TransitionTable.compiled(), sensor, from, to);
+    }
+
+    /**
+     * builds a binary decision tree over the part of the table between from (inclusive) and to (exclusive) in each
+     * dimension, ending in a transition as soon as every entry in the part is the same
+     */
+    private static MethodHandle specialize(final TransitionTable table,
+                                           final SensorEvent.Sensor sensor,
+                                           final int[] from,
+                                           final int[] to) {
+        final int entry = uniformEntry(table, sensor, from, to);
+        if (entry != -1) {
+            return transition(entry);
+        }
+
+        int dimension = NEW_STATE;
+        while (to[dimension] - from[dimension] == 1) {
+            ++dimension;
+        }
+
+        final int middle = (from[dimension] + to[dimension]) >>> 1;
+
+        final int[] belowTo = to.clone();
+        belowTo[dimension] = middle;
+
+        final int[] aboveFrom = from.clone();
+        aboveFrom[dimension] = middle;
+
+        return MethodHandles.guardWithTest(
+                MethodHandles.insertArguments(findStatic(TESTS[dimension], TEST), 2, middle),
+                specialize(table, sensor, from, belowTo),
+                specialize(table, sensor, aboveFrom, to));
+    }
+
+    /**
+     * @return the entry that every transition in the part of the table has, or -1 if they differ
+     */
+    private static int uniformEntry(final TransitionTable table,
+                                    final SensorEvent.Sensor sensor,
+                                    final int[] from,
+                                    final int[] to) {
+        int uniform = -1;
+
+        for (int newState = from[NEW_STATE]; newState < to[NEW_STATE]; ++newState) {
+            final int event = SensorEvent.of(sensor, newState).ordinal();
+
+            for (int state = from[STATE]; state < to[STATE]; ++state) {
+                for (int waterLevel = from[WATER_LEVEL]; waterLevel < to[WATER_LEVEL]; ++waterLevel) {
+                    for (int pot = from[POT]; pot < to[POT]; ++pot) {
+                        final int entry = table.lookup(state, event, waterLevel, pot);
+                        if (uniform == -1) {
+                            uniform = entry;
+                        } else if (entry != uniform) {
+                            return -1;
+                        }
+                    }
+                }
+            }
+        }
+        return uniform;
+    }
+
+    /**
+     * @return a dispatch that issues the entry's commands, in the order that ActuatorCommand.apply does, and then goes
+     * to its next state
+     */
+    private static MethodHandle transition(final int entry) {
+        MethodHandle transition = MethodHandles.insertArguments(
+                findStatic("enter", DISPATCH.appendParameterTypes(int.class)), 2, TransitionTable.nextState(entry));
+
+        // a folded command runs before the handle it's folded into, so fold the last command first
+        final ActuatorCommand[] commands = ActuatorCommand.values();
+        for (int i = commands.length - 1; i >= 0; --i) {
+            if (commands[i].in(TransitionTable.commands(entry))) {
+                transition = MethodHandles.foldArguments(transition, findStatic(command(commands[i]), DISPATCH));
+            }
+        }
+        return transition;
+    }
+
+    /**
+     * @return the name of the method that issues the specified command
+     */
+    private static String command(final ActuatorCommand command) {
+        switch (command) {
+            case BoilerOn:
+                return "turnBoilerOn";
+            case BoilerOff:
+                return "turnBoilerOff";
+            case PotWarmerOn:
+                return "turnPotWarmerOn";
+            case PotWarmerOff:
+                return "turnPotWarmerOff";
+        }
+
+        throw new IllegalArgumentException("unknown command: " + command);
+    }
+
+    private static MethodHandle findStatic(final String name, final MethodType type) {
+        try {
+            return MethodHandles.lookup().findStatic(SpecializedCoffeeMaker.class, name, type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("cannot find " + name + type, e);
+        }
+    }
+
+    /**
+     * Tests
+     */
+
+    private static boolean newStateBelow(final SpecializedCoffeeMaker coffeeMaker,
+                                         final int newState,
+                                         final int value) {
+        return newState < value;
+    }
+
+    private static boolean stateBelow(final SpecializedCoffeeMaker coffeeMaker, final int newState, final int value) {
+        return coffeeMaker.state < value;
+    }
+
+    private static boolean waterLevelBelow(final SpecializedCoffeeMaker coffeeMaker,
+                                           final int newState,
+                                           final int value) {
+        return TransitionTable.reading(coffeeMaker.waterLevelSensor.getWaterLevel()) < value;
+    }
+
+    private static boolean potBelow(final SpecializedCoffeeMaker coffeeMaker, final int newState, final int value) {
+        return TransitionTable.reading(coffeeMaker.potSensor.getState()) < value;
+    }
+
+    /**
+     * Transitions
+     */
+
+    private static void enter(final SpecializedCoffeeMaker coffeeMaker, final int newState, final int state) {
+        coffeeMaker.state = state;
+    }
+
+    private static void turnBoilerOn(final SpecializedCoffeeMaker coffeeMaker, final int newState) {
+        coffeeMaker.boiler.turnOn();
+    }
+
+    private static void turnBoilerOff(final SpecializedCoffeeMaker coffeeMaker, final int newState) {
+        coffeeMaker.boiler.turnOff();
+    }
+
+    private static void turnPotWarmerOn(final SpecializedCoffeeMaker coffeeMaker, final int newState) {
+        coffeeMaker.potWarmer.turnOn();
+    }
+
+    private static void turnPotWarmerOff(final SpecializedCoffeeMaker coffeeMaker, final int newState) {
+        coffeeMaker.potWarmer.turnOff();
+    }
+}
@@ -0,0 +1,398 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * the configurations of a CoffeeMaker (its state together with the readings of its sensors) that can be reached from a
+ * new CoffeeMaker, and the transitions between them.
+ * <p/>
+ * The graph is explored by driving a real CoffeeMaker, whose actuators record the commands they're given, with every
+ * SensorEvent in every configuration reached so far, so it describes what the AbstractState classes actually do: the
+ * commands each transition issues, the states that can't be reached at all and the events that never have any effect.
+ * An actuator can fail in any configuration, so the Failed configuration with the same readings as each reachable
+ * configuration is reachable too (and explored like the others), even though no SensorEvent leads to it.
+ * Because it's exhaustive, it can also verify a TransitionTable before the table is exported to a file that a
+ * TableDrivenCoffeeMaker can read at startup.
+ * <p/>
+ * Running the class prints the graph and, given a file name, exports the compiled TransitionTable to that file.
+ */
+final class StateGraph {
+
+    /**
+     * the state of a CoffeeMaker together with the readings of its sensors (each of which is null if the sensor hasn't
+     * reported anything)
+     */
+    static final class Configuration {
+
+        private final CoffeeMaker.State state;
+        private final WaterLevelSensor.State waterLevel;
+        private final PotSensor.State pot;
+        private final BrewButtonSensor.State brewButton;
+
+        Configuration(final CoffeeMaker.State state,
+                      final WaterLevelSensor.State waterLevel,
+                      final PotSensor.State pot,
+                      final BrewButtonSensor.State brewButton) {
+            this.state = checkNotNull(state, "state cannot be null");
+            this.waterLevel = waterLevel;
+            this.pot = pot;
+            this.brewButton = brewButton;
+        }
+
+        /**
+         * @return the configuration that the specified CoffeeMaker is in
+         */
+        static Configuration of(final CoffeeMaker coffeeMaker) {
+            return new Configuration(coffeeMaker.getState(), coffeeMaker.getWaterLevel(), coffeeMaker.getPot(),
+                    coffeeMaker.getBrewButton());
+        }
+
+        CoffeeMaker.State getState() {
+            return state;
+        }
+
+        WaterLevelSensor.State getWaterLevel() {
+            return waterLevel;
+        }
+
+        PotSensor.State getPot() {
+            return pot;
+        }
+
+        BrewButtonSensor.State getBrewButton() {
+            return brewButton;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Configuration)) {
+                return false;
+            }
+            final Configuration that = (Configuration) other;
+            return state == that.state && waterLevel == that.waterLevel && pot == that.pot
+                    && brewButton == that.brewButton;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((state.ordinal() * 31 + TransitionTable.reading(waterLevel)) * 31 + TransitionTable.reading(pot))
+                    * 31 + TransitionTable.reading(brewButton);
+        }
+
+        @Override
+        public String toString() {
+            return state + "{waterLevel=" + name(waterLevel) + ", pot=" + name(pot)
+                    + ", brewButton=" + name(brewButton) + "}";
+        }
+
+        private static String name(final Enum<?> reading) {
+            return reading == null ? "-" : reading.name();
+        }
+    }
+
+    /**
+     * what a SensorEvent does to a CoffeeMaker in a particular configuration
+     */
+    static final class Transition {
+
+        private final Configuration from;
+        private final SensorEvent event;
+        private final Configuration to;
+        private final int commands;
+
+        Transition(final Configuration from, final SensorEvent event, final Configuration to, final int commands) {
+            this.from = from;
+            this.event = event;
+            this.to = to;
+            this.commands = commands;
+        }
+
+        Configuration getFrom() {
+            return from;
+        }
+
+        SensorEvent getEvent() {
+            return event;
+        }
+
+        Configuration getTo() {
+            return to;
+        }
+
+        /**
+         * @return the bitmask of ActuatorCommands that the transition issues
+         */
+        int getCommands() {
+            return commands;
+        }
+
+        /**
+         * @return true if the event changes the CoffeeMaker's state or commands an actuator; an event without an
+         * effect only changes a sensor's reading
+         */
+        boolean hasEffect() {
+            return to.state != from.state || commands != 0;
+        }
+
+        @Override
+        public String toString() {
+            return from + " --" + event + "--> " + to + " " + describe(commands);
+        }
+    }
+
+    /**
+     * the number of configurations there are, reachable or not
+     */
+    static final int CONFIGURATIONS = TransitionTable.STATES
+            * (WaterLevelSensor.State.values().length + 1)
+            * (PotSensor.State.values().length + 1)
+            * (BrewButtonSensor.State.values().length + 1);
+
+    private final List<Configuration> configurations;
+    private final List<Transition> transitions;
+
+    private StateGraph(final List<Configuration> configurations, final List<Transition> transitions) {
+        this.configurations = Collections.unmodifiableList(configurations);
+        this.transitions = Collections.unmodifiableList(transitions);
+    }
+
+    /**
+     * explores the configurations that can be reached from a new CoffeeMaker, by SensorEvents or an actuator failure,
+     * breadth first
+     */
+    static StateGraph explore() {
+        final TransitionTable.CommandRecorder recorder = new TransitionTable.CommandRecorder();
+
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        final PotSensor potSensor = new PotSensor();
+        final BrewButtonSensor brewButton = new BrewButtonSensor();
+
+        final CoffeeMaker coffeeMaker =
+                new CoffeeMaker(recorder.boiler, recorder.potWarmer, waterLevelSensor, potSensor, brewButton);
+
+        final Configuration initial = Configuration.of(coffeeMaker);
+
+        final Set<Configuration> reached = new LinkedHashSet<Configuration>();
+        final Queue<Configuration> unexplored = new ArrayDeque<Configuration>();
+        final List<Transition> transitions = new ArrayList<Transition>();
+
+        reach(initial, reached, unexplored);
+
+        while (!unexplored.isEmpty()) {
+            final Configuration from = unexplored.remove();
+
+            for (SensorEvent event : SensorEvent.values()) {
+                // restoring the configuration reconciles the actuators, which isn't part of the transition
+                recorder.commands = 0;
+                coffeeMaker.restore(from.state, from.waterLevel, from.pot, from.brewButton);
+                recorder.commands = 0;
+
+                event.detect(potSensor, waterLevelSensor, brewButton);
+
+                final Configuration to = Configuration.of(coffeeMaker);
+                transitions.add(new Transition(from, event, to, recorder.commands));
+
+                reach(to, reached, unexplored);
+            }
+        }
+
+        return new StateGraph(new ArrayList<Configuration>(reached), transitions);
+    }
+
+    /**
+     * adds the specified configuration, and the Failed configuration that an actuator failure would lead to from it, to
+     * the reached configurations unless they've been reached already
+     */
+    private static void reach(final Configuration configuration,
+                              final Set<Configuration> reached,
+                              final Queue<Configuration> unexplored) {
+        if (reached.add(configuration)) {
+            unexplored.add(configuration);
+        }
+
+        final Configuration failed = new Configuration(CoffeeMaker.State.Failed,
+                configuration.waterLevel, configuration.pot, configuration.brewButton);
+        if (reached.add(failed)) {
+            unexplored.add(failed);
+        }
+    }
+
+    /**
+     * @return the reachable configurations, in the order they were reached
+     */
+    List<Configuration> getConfigurations() {
+        return configurations;
+    }
+
+    /**
+     * @return what every SensorEvent does in every reachable configuration
+     */
+    List<Transition> getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * @return the states that no reachable configuration is in
+     */
+    Set<CoffeeMaker.State> getUnreachableStates() {
+        final Set<CoffeeMaker.State> unreachable = EnumSet.allOf(CoffeeMaker.State.class);
+        for (Configuration configuration : configurations) {
+            unreachable.remove(configuration.state);
+        }
+        return unreachable;
+    }
+
+    /**
+     * @return the events that have no effect in any reachable configuration (see Transition.hasEffect)
+     */
+    Set<SensorEvent> getDeadEvents() {
+        final Set<SensorEvent> dead = EnumSet.allOf(SensorEvent.class);
+        for (Transition transition : transitions) {
+            if (transition.hasEffect()) {
+                dead.remove(transition.event);
+            }
+        }
+        return dead;
+    }
+
+    /**
+     * @return the events that have no effect in any reachable configuration in the specified state
+     */
+    Set<SensorEvent> getIgnoredEvents(final CoffeeMaker.State state) {
+        checkNotNull(state, "state cannot be null");
+
+        final Set<SensorEvent> ignored = EnumSet.allOf(SensorEvent.class);
+        for (Transition transition : transitions) {
+            if (transition.from.state == state && transition.hasEffect()) {
+                ignored.remove(transition.event);
+            }
+        }
+        return ignored;
+    }
+
+    /**
+     * looks up every transition in the specified table, as a TableDrivenCoffeeMaker would
+     *
+     * @return the transitions that the table gets wrong, if any
+     */
+    List<Transition> verify(final TransitionTable table) {
+        checkNotNull(table, "table cannot be null");
+
+        final List<Transition> wrong = new ArrayList<Transition>();
+
+        for (Transition transition : transitions) {
+            // the table is indexed by the guard readings after the event's sensor has changed
+            final int waterLevel = TransitionTable.reading(transition.to.waterLevel);
+            final int pot = TransitionTable.reading(transition.to.pot);
+
+            int entry = table.lookup(transition.from.state.ordinal(), transition.event.ordinal(), waterLevel, pot);
+            int commands = TransitionTable.commands(entry);
+
+            // a press is followed by the CoffeeMaker resetting the Brew button, which is an event of its own
+            if (transition.event == SensorEvent.BrewButtonPressed) {
+                entry = table.lookup(TransitionTable.nextState(entry), SensorEvent.BrewButtonNotPressed.ordinal(),
+                        waterLevel, pot);
+                commands |= TransitionTable.commands(entry);
+            }
+
+            if (TransitionTable.nextState(entry) != transition.to.state.ordinal() || commands != transition.commands) {
+                wrong.add(transition);
+            }
+        }
+        return wrong;
+    }
+
+    /**
+     * verifies the specified table and writes it to the specified file (see TransitionTable.writeTo)
+     *
+     * @throws IllegalStateException if the table gets a transition wrong
+     */
+    void export(final TransitionTable table, final File file) throws IOException {
+        checkNotNull(file, "file cannot be null");
+
+        final List<Transition> wrong = verify(table);
+        if (!wrong.isEmpty()) {
+            throw new IllegalStateException("the table gets " + wrong.size() + " transitions wrong, e.g. "
+                    + wrong.get(0));
+        }
+
+        table.writeTo(file);
+    }
+
+    /**
+     * @return a description of the graph: every reachable configuration with its transitions, followed by the
+     * unreachable states, the dead events and the events that each state ignores
+     */
+    String report() {
+        final StringBuilder report = new StringBuilder();
+
+        report.append("reachable configurations: ").append(configurations.size())
+                .append(" of ").append(CONFIGURATIONS).append('\n');
+        report.append("transitions: ").append(transitions.size()).append('\n');
+
+        Configuration from = null;
+        for (Transition transition : transitions) {
+            if (!transition.from.equals(from)) {
+                from = transition.from;
+                report.append('\n').append(from).append('\n');
+            }
+            report.append("    ").append(transition.event).append(" -> ").append(transition.to)
+                    .append(' ').append(describe(transition.commands)).append('\n');
+        }
+
+        report.append('\n');
+        report.append("unreachable states: ").append(describe(getUnreachableStates())).append('\n');
+        report.append("dead events: ").append(describe(getDeadEvents())).append('\n');
+        report.append("ignored events:\n");
+        for (CoffeeMaker.State state : CoffeeMaker.State.values()) {
+            report.append("    ").append(state).append(": ").append(describe(getIgnoredEvents(state))).append('\n');
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * prints the report and, if a file name is given, exports the compiled TransitionTable to that file
+     */
+    public static void main(final String[] args) throws IOException {
+        final StateGraph graph = explore();
+
+        System.out.print(graph.report());
+
+        if (args.length > 0) {
+            graph.export(TransitionTable.compiled(), new File(args[0]));
+        }
+    }
+
+    private static String describe(final int commands) {
+        final StringBuilder description = new StringBuilder("[");
+        for (ActuatorCommand command : ActuatorCommand.values()) {
+            if (command.in(commands)) {
+                if (description.length() > 1) {
+                    description.append(", ");
+                }
+                description.append(command);
+            }
+        }
+        return description.append(']').toString();
+    }
+
+    private static String describe(final Set<?> values) {
+        return values.isEmpty() ? "none" : values.toString();
+    }
+}
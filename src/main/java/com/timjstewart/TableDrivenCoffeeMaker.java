@@ -0,0 +1,134 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A Coffee Maker FSM that behaves exactly like CoffeeMaker but transitions by looking up the TransitionTable rather
+ * than by calling the AbstractState classes.  The current state is an ordinal and the Guard Conditions are part of the
+ * table's index, so handling an event is a few array reads and no virtual calls into state classes.
+ * <p/>
+ * Rather than query the sensors for the Guard Conditions, the FSM keeps the latest reading of each guard sensor, which
+ * it is told about by the sensors' Listener interfaces anyway.
+ */
+class TableDrivenCoffeeMaker implements SensorListener {
+
+    private final TransitionTable table;
+
+    // Actuators
+    private final Boiler boiler;
+    private final PotWarmer potWarmer;
+
+    // Sensors
+    private final BrewButtonSensor brewButton;
+
+    // the ordinal of the state of the coffee maker
+    private int state;
+
+    // the latest readings of the WaterLevelSensor and PotSensor (see TransitionTable.reading)
+    private int waterLevel;
+    private int pot;
+
+    /**
+     * Creates a TableDrivenCoffeeMaker object
+     *
+     * @param boiler           the Boiler used to boil the water
+     * @param potWarmer        the PotWarmer used to keep freshly brewed coffee warm
+     * @param waterLevelSensor the WaterLevelSensor that detects whether or not there is water in the Boiler
+     * @param potSensor        the PotSensor that detects if there is a CoffeePot on the WarmerPlate and, if there is,
+     *                         whether or not it's empty.
+     * @param brewButton       the Brew button that the use presses to initiate a brew cycle.
+     */
+    public TableDrivenCoffeeMaker(
+            final Boiler boiler,
+            final PotWarmer potWarmer,
+            final WaterLevelSensor waterLevelSensor,
+            final PotSensor potSensor,
+            final BrewButtonSensor brewButton
+    ) {
+        this(TransitionTable.compiled(), boiler, potWarmer, waterLevelSensor, potSensor, brewButton);
+    }
+
+    /**
+     * Creates a TableDrivenCoffeeMaker object that transitions by looking up the specified table, e.g. one that was
+     * read from a file at startup rather than compiled (see TransitionTable.readFrom)
+     *
+     * @see #TableDrivenCoffeeMaker(Boiler, PotWarmer, WaterLevelSensor, PotSensor, BrewButtonSensor)
+     */
+    TableDrivenCoffeeMaker(
+            final TransitionTable table,
+            final Boiler boiler,
+            final PotWarmer potWarmer,
+            final WaterLevelSensor waterLevelSensor,
+            final PotSensor potSensor,
+            final BrewButtonSensor brewButton
+    ) {
+        this.table = checkNotNull(table, "table cannot be null");
+
+        this.boiler = checkNotNull(boiler, "boiler cannot be null");
+        this.potWarmer = checkNotNull(potWarmer, "potWarmer cannot be null");
+        checkNotNull(waterLevelSensor, "waterLevelSensor cannot be null");
+        checkNotNull(potSensor, "potSensor cannot be null");
+        this.brewButton = checkNotNull(brewButton, "brewButton cannot be null");
+
+        waterLevel = TransitionTable.reading(waterLevelSensor.getWaterLevel());
+        pot = TransitionTable.reading(potSensor.getState());
+
+        // listen for state changes
+        waterLevelSensor.addListener(this);
+        potSensor.addListener(this);
+        brewButton.addListener(this);
+
+        // immediately go to the initial state
+        state = CoffeeMaker.State.Initial.ordinal();
+    }
+
+    /**
+     * @return the state of the coffee maker
+     */
+    public CoffeeMaker.State getState() {
+        return TransitionTable.state(state);
+    }
+
+    /**
+     * Sensor State Change Handlers
+     */
+
+    @Override
+    public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+        fire(SensorEvent.of(newState).ordinal());
+
+        // automatically reset the Brew button
+        if (newState == BrewButtonSensor.State.Pressed) {
+            brewButton.detect(BrewButtonSensor.State.NotPressed);
+        }
+    }
+
+    @Override
+    public void onPotStatusChanged(PotSensor.State newState) {
+        pot = TransitionTable.reading(newState);
+        fire(SensorEvent.of(newState).ordinal());
+    }
+
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        waterLevel = TransitionTable.reading(newState);
+        fire(SensorEvent.of(newState).ordinal());
+    }
+
+    private void fire(final int event) {
+        final int entry = table.lookup(state, event, waterLevel, pot);
+
+        final int commands = TransitionTable.commands(entry);
+        if (commands != 0) {
+            ActuatorCommand.apply(commands, boiler, potWarmer);
+        }
+
+        state = TransitionTable.nextState(entry);
+    }
+}
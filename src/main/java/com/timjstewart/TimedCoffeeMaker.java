@@ -0,0 +1,214 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.ActuatorFailure;
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A CoffeeMaker whose states can time out: whenever it enters a state that has a timeout, it schedules a timer on a
+ * HashedWheelTimer, and if the timer expires before it leaves the state, its state's onTimeout is called (e.g. Warming
+ * turns the PotWarmer off after a while and BrewingInterrupted abandons the brew cycle if the CoffeePot doesn't come
+ * back).  Leaving the state cancels the timer.
+ * <p/>
+ * Like InstrumentedCoffeeMaker, timeouts are switched on by creating a TimedCoffeeMaker instead of a CoffeeMaker, so a
+ * CoffeeMaker without timeouts runs exactly the code it always has.  An event that doesn't change the state costs a
+ * comparison; one that does costs a cancel and a schedule, neither of which allocates.
+ * <p/>
+ * The HashedWheelTimer must be advanced by the thread that delivers the coffee maker's events, since neither is thread
+ * safe.  Many coffee makers can share one HashedWheelTimer; a CoffeeMakerFleet can be timed by one too.
+ */
+class TimedCoffeeMaker extends CoffeeMaker implements HashedWheelTimer.Listener {
+
+    /**
+     * how long a TimedCoffeeMaker may stay in each state before the state times out
+     */
+    static final class Timeouts {
+
+        private static final Timeouts NONE = new Timeouts(new long[State.values().length]);
+
+        // for each state's ordinal: the timeout in nanoseconds or 0 if the state doesn't time out
+        private final long[] nanos;
+
+        private Timeouts(final long[] nanos) {
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return Timeouts in which no state times out
+         */
+        static Timeouts none() {
+            return NONE;
+        }
+
+        /**
+         * @return a copy of these Timeouts in which the specified state times out after the specified duration
+         */
+        Timeouts with(final State state, final long duration, final TimeUnit unit) {
+            checkNotNull(state, "state cannot be null");
+            checkNotNull(unit, "unit cannot be null");
+            checkArgument(duration > 0, "duration must be positive");
+
+            final long[] copy = Arrays.copyOf(nanos, nanos.length);
+            copy[state.ordinal()] = unit.toNanos(duration);
+            return new Timeouts(copy);
+        }
+
+        /**
+         * @return the specified state's timeout in nanoseconds or 0 if it doesn't time out
+         */
+        long get(final State state) {
+            return nanos[state.ordinal()];
+        }
+    }
+
+    private final HashedWheelTimer timer;
+    private final Timeouts timeouts;
+
+    // the timer of the current state's timeout or NO_TIMER if it doesn't time out
+    private long pending = HashedWheelTimer.NO_TIMER;
+
+    /**
+     * Creates a TimedCoffeeMaker object that listens to its sensors
+     *
+     * @param timer    the timer that times the coffee maker's states
+     * @param timeouts how long the coffee maker may stay in each state
+     * @see CoffeeMaker#CoffeeMaker(Boiler, PotWarmer, WaterLevelSensor, PotSensor, BrewButtonSensor)
+     */
+    TimedCoffeeMaker(final Boiler boiler,
+                     final PotWarmer potWarmer,
+                     final WaterLevelSensor waterLevelSensor,
+                     final PotSensor potSensor,
+                     final BrewButtonSensor brewButton,
+                     final HashedWheelTimer timer,
+                     final Timeouts timeouts) {
+        super(boiler, potWarmer, waterLevelSensor, potSensor, brewButton);
+
+        this.timer = checkNotNull(timer, "timer cannot be null");
+        this.timeouts = checkNotNull(timeouts, "timeouts cannot be null");
+        arm();
+    }
+
+    /**
+     * Creates a TimedCoffeeMaker object that doesn't listen to its sensors
+     *
+     * @param timer    the timer that times the coffee maker's states
+     * @param timeouts how long the coffee maker may stay in each state
+     * @see CoffeeMaker#CoffeeMaker(CoffeeMaker.Components)
+     */
+    TimedCoffeeMaker(final Components components, final HashedWheelTimer timer, final Timeouts timeouts) {
+        super(components);
+
+        this.timer = checkNotNull(timer, "timer cannot be null");
+        this.timeouts = checkNotNull(timeouts, "timeouts cannot be null");
+        arm();
+    }
+
+    /**
+     * Sensor State Change Handlers
+     */
+
+    @Override
+    public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+        final State from = getState();
+
+        super.onBrewButtonStatusChanged(newState);
+
+        if (getState() != from) {
+            arm();
+        }
+    }
+
+    @Override
+    public void onPotStatusChanged(PotSensor.State newState) {
+        final State from = getState();
+
+        super.onPotStatusChanged(newState);
+
+        if (getState() != from) {
+            arm();
+        }
+    }
+
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        final State from = getState();
+
+        super.onWaterLevelChanged(newState);
+
+        if (getState() != from) {
+            arm();
+        }
+    }
+
+    /**
+     * Actuator Failure Handler
+     */
+
+    @Override
+    public void onActuatorFailed(ActuatorFailure failure) {
+        final State from = getState();
+
+        super.onActuatorFailed(failure);
+
+        if (getState() != from) {
+            arm();
+        }
+    }
+
+    /**
+     * restores the coffee maker (see CoffeeMaker.restore); its stay in the restored state starts now
+     */
+    @Override
+    void restore(final State state,
+                 final WaterLevelSensor.State waterLevel,
+                 final PotSensor.State pot,
+                 final BrewButtonSensor.State brewButton) {
+        super.restore(state, waterLevel, pot, brewButton);
+
+        arm();
+    }
+
+    /**
+     * times the current state out
+     */
+    @Override
+    public void onTimerExpired(final long key) {
+        pending = HashedWheelTimer.NO_TIMER;
+
+        final State from = getState();
+
+        onTimeout();
+
+        if (getState() != from) {
+            arm();
+        }
+    }
+
+    /**
+     * @return true if the current state will time out unless the coffee maker leaves it first
+     */
+    boolean isTimerPending() {
+        return pending != HashedWheelTimer.NO_TIMER;
+    }
+
+    /**
+     * cancels the previous state's timer and schedules the current state's, if it has a timeout
+     */
+    private void arm() {
+        timer.cancel(pending);
+
+        final long timeout = timeouts.get(getState());
+        pending = timeout > 0
+                ? timer.schedule(this, 0, timeout, TimeUnit.NANOSECONDS)
+                : HashedWheelTimer.NO_TIMER;
+    }
+}
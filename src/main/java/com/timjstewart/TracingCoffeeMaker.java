@@ -0,0 +1,192 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.ActuatorFailure;
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A CoffeeMaker that tells a TransitionTracer about every change of state: the states before and after, the event
+ * (or the actuator failure or timeout) that caused it and the commands issued to the actuators along the way.
+ * <p/>
+ * Like InstrumentedCoffeeMaker, tracing is switched on by creating a TracingCoffeeMaker instead of a CoffeeMaker, so a
+ * CoffeeMaker that isn't traced runs exactly the code it always has.  The TracingCoffeeMaker sees the commands by
+ * passing each one on to the actuator through a recorder, which costs an extra call per command.
+ */
+class TracingCoffeeMaker extends CoffeeMaker {
+
+    private final CommandRecorder recorder;
+    private final TransitionTracer tracer;
+
+    /**
+     * Creates a TracingCoffeeMaker object that listens to its sensors
+     *
+     * @param tracer the hook to call whenever the coffee maker changes state
+     * @see CoffeeMaker#CoffeeMaker(Boiler, PotWarmer, WaterLevelSensor, PotSensor, BrewButtonSensor)
+     */
+    TracingCoffeeMaker(final Boiler boiler,
+                       final PotWarmer potWarmer,
+                       final WaterLevelSensor waterLevelSensor,
+                       final PotSensor potSensor,
+                       final BrewButtonSensor brewButton,
+                       final TransitionTracer tracer) {
+        this(new CommandRecorder(boiler, potWarmer), waterLevelSensor, potSensor, brewButton, tracer);
+    }
+
+    private TracingCoffeeMaker(final CommandRecorder recorder,
+                               final WaterLevelSensor waterLevelSensor,
+                               final PotSensor potSensor,
+                               final BrewButtonSensor brewButton,
+                               final TransitionTracer tracer) {
+        super(recorder.boiler, recorder.potWarmer, waterLevelSensor, potSensor, brewButton);
+
+        this.recorder = recorder;
+        this.tracer = checkNotNull(tracer, "tracer cannot be null");
+    }
+
+    /**
+     * Sensor State Change Handlers
+     */
+
+    @Override
+    public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+        final State from = getState();
+        final int outer = recorder.begin();
+
+        super.onBrewButtonStatusChanged(newState);
+
+        trace(from, TransitionTracer.Cause.Event, SensorEvent.of(newState), outer);
+    }
+
+    @Override
+    public void onPotStatusChanged(PotSensor.State newState) {
+        final State from = getState();
+        final int outer = recorder.begin();
+
+        super.onPotStatusChanged(newState);
+
+        trace(from, TransitionTracer.Cause.Event, SensorEvent.of(newState), outer);
+    }
+
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        final State from = getState();
+        final int outer = recorder.begin();
+
+        super.onWaterLevelChanged(newState);
+
+        trace(from, TransitionTracer.Cause.Event, SensorEvent.of(newState), outer);
+    }
+
+    /**
+     * Actuator Failure Handler
+     */
+
+    @Override
+    public void onActuatorFailed(ActuatorFailure failure) {
+        final State from = getState();
+        final int outer = recorder.begin();
+
+        super.onActuatorFailed(failure);
+
+        trace(from, TransitionTracer.Cause.ActuatorFailure, null, outer);
+    }
+
+    /**
+     * Timeout Handler
+     */
+
+    @Override
+    void onTimeout() {
+        final State from = getState();
+        final int outer = recorder.begin();
+
+        super.onTimeout();
+
+        trace(from, TransitionTracer.Cause.Timeout, null, outer);
+    }
+
+    private void trace(final State from,
+                       final TransitionTracer.Cause cause,
+                       final SensorEvent event,
+                       final int outer) {
+        final int commands = recorder.end(outer);
+
+        final State to = getState();
+        if (to != from) {
+            tracer.onTransition(from, cause, event, to, commands);
+        }
+    }
+
+    /**
+     * passes commands on to the actuators, recording them in a bitmask of ActuatorCommands
+     */
+    private static class CommandRecorder {
+
+        // the commands issued while handling the current event
+        private int commands;
+
+        final Boiler boiler;
+        final PotWarmer potWarmer;
+
+        CommandRecorder(final Boiler boiler, final PotWarmer potWarmer) {
+            checkNotNull(boiler, "boiler cannot be null");
+            checkNotNull(potWarmer, "potWarmer cannot be null");
+
+            this.boiler = new Boiler() {
+                @Override
+                public void turnOn() {
+                    commands |= ActuatorCommand.BoilerOn.mask();
+                    boiler.turnOn();
+                }
+
+                @Override
+                public void turnOff() {
+                    commands |= ActuatorCommand.BoilerOff.mask();
+                    boiler.turnOff();
+                }
+            };
+
+            this.potWarmer = new PotWarmer() {
+                @Override
+                public void turnOn() {
+                    commands |= ActuatorCommand.PotWarmerOn.mask();
+                    potWarmer.turnOn();
+                }
+
+                @Override
+                public void turnOff() {
+                    commands |= ActuatorCommand.PotWarmerOff.mask();
+                    potWarmer.turnOff();
+                }
+            };
+        }
+
+        /**
+         * starts recording the commands of an event, which may be nested in the handling of another (e.g. the Brew
+         * button being reset)
+         *
+         * @return the commands of the event being handled, if any, to pass to end
+         */
+        int begin() {
+            final int outer = commands;
+            commands = 0;
+            return outer;
+        }
+
+        /**
+         * stops recording the commands of an event; they count towards the event being handled, if any
+         *
+         * @return the commands issued since begin
+         */
+        int end(final int outer) {
+            final int issued = commands;
+            commands = outer | issued;
+            return issued;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * the CoffeeMaker FSM compiled into a dense table of primitive transitions.
+ * <p/>
+ * The table is indexed by the ordinal of the current CoffeeMaker.State, the ordinal of the SensorEvent and the readings
+ * of the two sensors that the states use as Guard Conditions: the WaterLevelSensor and the PotSensor.  A reading is
+ * encoded as the ordinal of the sensor's state plus one, leaving zero for a sensor that hasn't reported anything yet.
+ * <p/>
+ * Each entry holds the ordinal of the next state in its low byte and the bitmask of ActuatorCommands to issue in the
+ * byte above it.
+ * <p/>
+ * The table is compiled by driving the AbstractState classes through every combination of state, event and guard, so
+ * the AbstractState classes remain the single definition of the FSM's behavior.  A table can also be written to a file
+ * once it has been verified (see StateGraph) and read back at startup instead of being compiled.
+ */
+final class TransitionTable {
+
+    static final int STATES = CoffeeMaker.State.values().length;
+    static final int EVENTS = SensorEvent.values().length;
+    static final int WATER_LEVELS = WaterLevelSensor.State.values().length + 1;
+    static final int POTS = PotSensor.State.values().length + 1;
+
+    // the file format
+    private static final int MAGIC = 0x434d5454;
+    private static final int VERSION = 1;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final int STATE_MASK = 0xff;
+    private static final int COMMANDS_SHIFT = 8;
+
+    private static final CoffeeMaker.State[] STATE_VALUES = CoffeeMaker.State.values();
+
+    private static final TransitionTable COMPILED = compile();
+
+    // for each state: the bitmask of ActuatorCommands that reconciles the actuators with it, by ordinal
+    private static final int[] RECONCILIATIONS = compileReconciliations();
+
+    // for each state: the transition to take when it times out (see AbstractState.onTimeout), by ordinal
+    private static final int[] TIMEOUTS = compileTimeouts();
+
+    private final int[] entries;
+
+    private TransitionTable(final int[] entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * @return the table compiled from the AbstractState classes
+     */
+    static TransitionTable compiled() {
+        return COMPILED;
+    }
+
+    /**
+     * @param state      the ordinal of the current state
+     * @param event      the ordinal of the SensorEvent
+     * @param waterLevel the reading of the WaterLevelSensor (see reading)
+     * @param pot        the reading of the PotSensor (see reading)
+     *
+     * @return the transition to take
+     */
+    int lookup(final int state, final int event, final int waterLevel, final int pot) {
+        return entries[index(state, event, waterLevel, pot)];
+    }
+
+    /**
+     * @return the bitmask of ActuatorCommands that turns the actuators on or off to match the state with the specified
+     * ordinal (see AbstractState.reconcile)
+     */
+    static int reconciliation(final int state) {
+        return RECONCILIATIONS[state];
+    }
+
+    /**
+     * @return the transition that the state with the specified ordinal takes when it times out (see
+     * AbstractState.onTimeout)
+     */
+    static int timeout(final int state) {
+        return TIMEOUTS[state];
+    }
+
+    /**
+     * @return the ordinal of the state that the specified entry transitions to
+     */
+    static int nextState(final int entry) {
+        return entry & STATE_MASK;
+    }
+
+    /**
+     * @return the bitmask of ActuatorCommands that the specified entry issues
+     */
+    static int commands(final int entry) {
+        return entry >>> COMMANDS_SHIFT;
+    }
+
+    /**
+     * @return the CoffeeMaker.State with the specified ordinal
+     */
+    static CoffeeMaker.State state(final int ordinal) {
+        return STATE_VALUES[ordinal];
+    }
+
+    /**
+     * @return the encoding of a sensor reading that the table is indexed by
+     */
+    static int reading(final Enum<?> sensorState) {
+        return sensorState == null ? 0 : sensorState.ordinal() + 1;
+    }
+
+    /**
+     * writes the table to the specified file, replacing the file that's already there (if any) once the new one is
+     * safely on disk
+     */
+    void writeTo(final File file) throws IOException {
+        checkNotNull(file, "file cannot be null");
+
+        final File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+
+        try (FileOutputStream stream = new FileOutputStream(temporary)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            // the dimensions, so that a table compiled for different enums isn't mistaken for this one
+            out.writeInt(STATES);
+            out.writeInt(EVENTS);
+            out.writeInt(WATER_LEVELS);
+            out.writeInt(POTS);
+
+            final byte[] bytes = new byte[entries.length * 4];
+            ByteBuffer.wrap(bytes).asIntBuffer().put(entries);
+
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+
+            out.write(bytes);
+            out.writeInt((int) crc.getValue());
+            out.flush();
+
+            stream.getFD().sync();
+        }
+
+        Files.move(temporary.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * reads a table that was written by writeTo
+     *
+     * @throws IOException if the file can't be read or doesn't hold a valid table for the current states and events
+     */
+    static TransitionTable readFrom(final File file) throws IOException {
+        checkNotNull(file, "file cannot be null");
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a transition table");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is a version " + version + " transition table; expected version "
+                        + VERSION);
+            }
+
+            if (in.readInt() != STATES || in.readInt() != EVENTS || in.readInt() != WATER_LEVELS
+                    || in.readInt() != POTS) {
+                throw new IOException(file + " was compiled for different states or events");
+            }
+
+            final byte[] bytes = new byte[STATES * EVENTS * WATER_LEVELS * POTS * 4];
+            in.readFully(bytes);
+
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            if (in.readInt() != (int) crc.getValue()) {
+                throw new IOException(file + " is corrupt: its checksum doesn't match");
+            }
+
+            final int[] entries = new int[bytes.length / 4];
+            ByteBuffer.wrap(bytes).asIntBuffer().get(entries);
+
+            for (int i = 0; i < entries.length; ++i) {
+                if (nextState(entries[i]) >= STATES || commands(entries[i]) >> ActuatorCommand.values().length != 0) {
+                    throw new IOException(file + " is corrupt: entry " + i + " is invalid");
+                }
+            }
+
+            return new TransitionTable(entries);
+        } catch (EOFException e) {
+            throw new IOException(file + " is truncated", e);
+        }
+    }
+
+    private static int index(final int state, final int event, final int waterLevel, final int pot) {
+        return ((state * EVENTS + event) * WATER_LEVELS + waterLevel) * POTS + pot;
+    }
+
+    private static TransitionTable compile() {
+        final int[] entries = new int[STATES * EVENTS * WATER_LEVELS * POTS];
+
+        final CommandRecorder recorder = new CommandRecorder();
+
+        for (CoffeeMaker.State state : STATE_VALUES) {
+            for (SensorEvent event : SensorEvent.values()) {
+                for (int waterLevel = 0; waterLevel < WATER_LEVELS; ++waterLevel) {
+                    for (int pot = 0; pot < POTS; ++pot) {
+
+                        final CoffeeMaker.Components components = new CoffeeMaker.Components(
+                                recorder.boiler, recorder.potWarmer, waterLevelSensor(waterLevel), potSensor(pot),
+                                new BrewButtonSensor());
+
+                        recorder.commands = 0;
+
+                        final CoffeeMaker.AbstractState next = fire(state.get(), components, event);
+
+                        entries[index(state.ordinal(), event.ordinal(), waterLevel, pot)] =
+                                next.getState().ordinal() | recorder.commands << COMMANDS_SHIFT;
+                    }
+                }
+            }
+        }
+
+        return new TransitionTable(entries);
+    }
+
+    private static int[] compileReconciliations() {
+        final int[] reconciliations = new int[STATES];
+
+        final CommandRecorder recorder = new CommandRecorder();
+
+        for (CoffeeMaker.State state : STATE_VALUES) {
+            final CoffeeMaker.Components components = new CoffeeMaker.Components(recorder.boiler, recorder.potWarmer,
+                    new WaterLevelSensor(), new PotSensor(), new BrewButtonSensor());
+
+            recorder.commands = 0;
+
+            state.get().reconcile(components);
+
+            reconciliations[state.ordinal()] = recorder.commands;
+        }
+
+        return reconciliations;
+    }
+
+    private static int[] compileTimeouts() {
+        final int[] timeouts = new int[STATES];
+
+        final CommandRecorder recorder = new CommandRecorder();
+
+        for (CoffeeMaker.State state : STATE_VALUES) {
+            final CoffeeMaker.Components components = new CoffeeMaker.Components(recorder.boiler, recorder.potWarmer,
+                    new WaterLevelSensor(), new PotSensor(), new BrewButtonSensor());
+
+            recorder.commands = 0;
+
+            final CoffeeMaker.AbstractState next = state.get().onTimeout(components);
+
+            timeouts[state.ordinal()] = next.getState().ordinal() | recorder.commands << COMMANDS_SHIFT;
+        }
+
+        return timeouts;
+    }
+
+    private static CoffeeMaker.AbstractState fire(
+            final CoffeeMaker.AbstractState state,
+            final CoffeeMaker.Components components,
+            final SensorEvent event) {
+
+        switch (event.getSensor()) {
+            case Pot:
+                return state.onPotStateChanged(components, (PotSensor.State) event.getNewState());
+
+            case WaterLevel:
+                return state.onWaterLevelStateChanged(components, (WaterLevelSensor.State) event.getNewState());
+
+            case BrewButton:
+                return state.onBrewButtonStateChanged(components, (BrewButtonSensor.State) event.getNewState());
+        }
+
+        throw new IllegalArgumentException("unknown sensor: " + event.getSensor());
+    }
+
+    private static WaterLevelSensor waterLevelSensor(final int reading) {
+        final WaterLevelSensor sensor = new WaterLevelSensor();
+        if (reading != 0) {
+            sensor.detect(WaterLevelSensor.State.values()[reading - 1]);
+        }
+        return sensor;
+    }
+
+    private static PotSensor potSensor(final int reading) {
+        final PotSensor sensor = new PotSensor();
+        if (reading != 0) {
+            sensor.detect(PotSensor.State.values()[reading - 1]);
+        }
+        return sensor;
+    }
+
+    /**
+     * actuators that record the commands a state issues instead of carrying them out
+     */
+    static final class CommandRecorder {
+
+        int commands;
+
+        final Boiler boiler = new Boiler() {
+            @Override
+            public void turnOn() {
+                record(ActuatorCommand.BoilerOn, ActuatorCommand.BoilerOff);
+            }
+
+            @Override
+            public void turnOff() {
+                record(ActuatorCommand.BoilerOff, ActuatorCommand.BoilerOn);
+            }
+        };
+
+        final PotWarmer potWarmer = new PotWarmer() {
+            @Override
+            public void turnOn() {
+                record(ActuatorCommand.PotWarmerOn, ActuatorCommand.PotWarmerOff);
+            }
+
+            @Override
+            public void turnOff() {
+                record(ActuatorCommand.PotWarmerOff, ActuatorCommand.PotWarmerOn);
+            }
+        };
+
+        private void record(final ActuatorCommand command, final ActuatorCommand opposite) {
+            if (opposite.in(commands)) {
+                throw new IllegalStateException("a transition cannot issue both " + command + " and " + opposite);
+            }
+            commands |= command.mask();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.timjstewart;
+
+/**
+ * A hook that a TracingCoffeeMaker calls every time it changes state, for seeing individual transitions (e.g. an
+ * unexpected BrewingInterrupted -> Initial) without logging every event.
+ * <p/>
+ * It's called on the thread that handles the event, after the transition, so it should be quick and shouldn't
+ * allocate; see FlightRecorder and SamplingTracer.
+ */
+interface TransitionTracer {
+
+    /**
+     * what caused a transition
+     */
+    enum Cause {
+
+        /**
+         * a SensorEvent
+         */
+        Event,
+
+        /**
+         * an actuator failing to carry out a command
+         */
+        ActuatorFailure,
+
+        /**
+         * the state timing out (see TimedCoffeeMaker)
+         */
+        Timeout
+    }
+
+    /**
+     * called whenever a coffee maker changes state
+     *
+     * @param from     the state before the transition
+     * @param cause    what caused the transition
+     * @param event    the event that caused the transition, or null unless the cause is an Event
+     * @param to       the state after the transition
+     * @param commands the bitmask of ActuatorCommands issued during the transition
+     */
+    void onTransition(CoffeeMaker.State from, Cause cause, SensorEvent event, CoffeeMaker.State to, int commands);
+}
@@ -0,0 +1,51 @@
+package com.timjstewart;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads on JVMs that have them (Java 21 and later) without requiring the code to be compiled for
+ * them: the ThreadFactory is looked up reflectively, as if by calling Thread.ofVirtual().name(prefix, 0).factory().
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if this JVM supports virtual threads
+     */
+    static boolean isAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param prefix the prefix of the names of the threads; each thread's name ends in a sequence number
+     *
+     * @return a ThreadFactory that creates virtual threads
+     *
+     * @throws UnsupportedOperationException if this JVM doesn't support virtual threads
+     */
+    static ThreadFactory factory(final String prefix) {
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException(
+                    "virtual threads need Java 21 or later; this is Java " + System.getProperty("java.version"));
+        }
+
+        try {
+            final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            final Method name = builderType.getMethod("name", String.class, long.class);
+            final Method factory = builderType.getMethod("factory");
+
+            final Object builder = name.invoke(Thread.class.getMethod("ofVirtual").invoke(null), prefix, 0L);
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("cannot create virtual threads", e);
+        }
+    }
+}
@@ -32,10 +32,10 @@ public class WarmingInterruptedState extends CoffeeMaker.AbstractState {
         switch (newState) {
             case NonEmpty:
                 components.getPotWarmer().turnOn();
-                return new WarmingState();
+                return CoffeeMaker.State.Warming.get();
 
             case Empty:
-                return new InitialState();
+                return CoffeeMaker.State.Initial.get();
         }
 
         return this;
@@ -33,9 +33,33 @@ public class WarmingState extends CoffeeMaker.AbstractState {
             case Gone:
             case Empty:
                 components.getPotWarmer().turnOff();
-                return new WarmingInterruptedState();
+                return CoffeeMaker.State.WarmingInterrupted.get();
         }
         return this;
     }
 
+    /**
+     * turns the PotWarmer off once the coffee has been kept warm for long enough
+     *
+     * @param components an object that contains all of the Actuators and sensors of the CoffeeMaker
+     *
+     * @return Initial
+     */
+    @Override
+    CoffeeMaker.AbstractState onTimeout(final CoffeeMaker.Components components) {
+        components.getPotWarmer().turnOff();
+        return CoffeeMaker.State.Initial.get();
+    }
+
+    /**
+     * turns the Boiler off and the PotWarmer on
+     *
+     * @param components an object that contains all of the Actuators and sensors of the CoffeeMaker
+     */
+    @Override
+    void reconcile(final CoffeeMaker.Components components) {
+        components.getBoiler().turnOff();
+        components.getPotWarmer().turnOn();
+    }
+
 }
@@ -0,0 +1,120 @@
+package com.timjstewart.actuator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * describes a command that an actuator failed to carry out
+ */
+public final class ActuatorFailure {
+
+    /**
+     * the ways in which a command can fail
+     */
+    public enum Kind {
+
+        /**
+         * the actuator reported that it couldn't carry out the command
+         */
+        Failed,
+
+        /**
+         * the actuator didn't report that it had carried out the command in time
+         */
+        TimedOut
+    }
+
+    /**
+     * the actuators of the FSM, so that a failure can be matched to an actuator however the actuator is wrapped (e.g.
+     * a PipelinedActuator inside a CoalescingBoiler)
+     */
+    public enum Role {
+        Boiler,
+        PotWarmer
+    }
+
+    /**
+     * classes interested in actuator failures should implement this interface and then call addListener on an
+     * actuator that reports them (e.g. a PipelinedActuator).
+     */
+    public interface Listener {
+        void onActuatorFailed(ActuatorFailure failure);
+    }
+
+    private final Role role;
+    private final Object actuator;
+    private final boolean on;
+    private final Kind kind;
+    private final Throwable cause;
+
+    /**
+     * Creates an ActuatorFailure object
+     *
+     * @param role     which of the FSM's actuators failed
+     * @param actuator the actuator that reported the failure
+     * @param on       true if the actuator failed to turn on, false if it failed to turn off
+     * @param kind     how the command failed
+     * @param cause    why the command failed, if the actuator said
+     */
+    public ActuatorFailure(final Role role,
+                           final Object actuator,
+                           final boolean on,
+                           final Kind kind,
+                           final Throwable cause) {
+        this.role = checkNotNull(role, "role cannot be null");
+        this.actuator = checkNotNull(actuator, "actuator cannot be null");
+        this.on = on;
+        this.kind = checkNotNull(kind, "kind cannot be null");
+        this.cause = cause;
+    }
+
+    /**
+     * @return which of the FSM's actuators failed
+     */
+    public Role getRole() {
+        return role;
+    }
+
+    /**
+     * @return the actuator that reported the failure, which isn't necessarily the object that the FSM commands (it may
+     * be wrapped in a decorator), so use getRole to tell which of the FSM's actuators failed
+     */
+    public Object getActuator() {
+        return actuator;
+    }
+
+    /**
+     * @return true if the actuator failed to turn on, false if it failed to turn off
+     */
+    public boolean isOn() {
+        return on;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return why the command failed, or null if the actuator didn't say (e.g. when it timed out)
+     */
+    public Throwable getCause() {
+        return cause;
+    }
+
+    /**
+     * stops the FSM's actuators safely: turns off every actuator except the one that has just failed to turn off, which
+     * would only fail again
+     */
+    public void stopSafely(final Boiler boiler, final PotWarmer potWarmer) {
+        if (on || role != Role.Boiler) {
+            boiler.turnOff();
+        }
+        if (on || role != Role.PotWarmer) {
+            potWarmer.turnOff();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return role + " turn " + (on ? "on" : "off") + " " + kind + (cause == null ? "" : ": " + cause);
+    }
+}
@@ -0,0 +1,32 @@
+package com.timjstewart.actuator;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Actuators that carry out their commands asynchronously (e.g. by sending them to a relay over a network) should
+ * implement this interface.
+ * <p/>
+ * Each command returns as soon as it has been issued, with a future that completes when the actuator has carried it
+ * out, or fails if it couldn't.  An actuator must carry out its commands in the order they were issued, even if it's
+ * issued a command before the previous one has completed.
+ */
+public interface AsyncActuator {
+
+    /**
+     * turn the actuator on
+     *
+     * If the actuator is already on, the actuator should remain on
+     *
+     * @return a future that completes once the actuator is on
+     */
+    ListenableFuture<?> turnOn();
+
+    /**
+     * turn the actuator off
+     *
+     * If the actuator is already off, the actuator should remain off
+     *
+     * @return a future that completes once the actuator is off
+     */
+    ListenableFuture<?> turnOff();
+}
@@ -0,0 +1,100 @@
+package com.timjstewart.actuator;
+
+/**
+ * The base class of actuator decorators that skip redundant commands.  Actuators are idempotent, so a command that
+ * leaves the actuator the way the last command left it doesn't need to reach the (possibly slow) actuator at all.
+ * <p/>
+ * The decorator remembers the last command that it passed on and swallows repeats of it.  Between beginBatch and
+ * endBatch it passes nothing on; instead, endBatch issues the last command of the batch, if that differs from the last
+ * command that was passed on.  So e.g. turning the Boiler off and back on within a batch doesn't reach the Boiler.
+ * <p/>
+ * If the actuator throws, the decorator no longer knows what state the actuator is in and passes the next command on.
+ */
+public abstract class CoalescingActuator {
+
+    // the last command passed on to the actuator: true for on, false for off, null if unknown
+    private Boolean commanded;
+
+    // the last command requested in the current batch, or null if none has been
+    private Boolean requested;
+
+    // the number of beginBatch calls that haven't been matched by endBatch yet
+    private int batchDepth;
+
+    // Metrics
+    private long commands;
+    private long issued;
+
+    /**
+     * starts a batch of commands; only the last command of the batch will be passed on to the actuator.  Batches may
+     * be nested, in which case the outermost batch is the one that counts.
+     */
+    public synchronized void beginBatch() {
+        ++batchDepth;
+    }
+
+    /**
+     * ends a batch of commands, passing the last command of the batch on to the actuator unless it's redundant
+     */
+    public synchronized void endBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("endBatch called without beginBatch");
+        }
+
+        if (--batchDepth == 0 && requested != null) {
+            final boolean on = requested;
+            requested = null;
+            issue(on);
+        }
+    }
+
+    /**
+     * @return the number of commands that have been requested
+     */
+    public synchronized long getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return the number of commands that have been passed on to the actuator
+     */
+    public synchronized long getIssued() {
+        return issued;
+    }
+
+    /**
+     * @return the number of commands that didn't have to be passed on to the actuator
+     */
+    public synchronized long getSaved() {
+        return commands - issued;
+    }
+
+    /**
+     * requests that the actuator be turned on or off
+     */
+    protected synchronized void command(final boolean on) {
+        ++commands;
+
+        if (batchDepth > 0) {
+            requested = on;
+        } else {
+            issue(on);
+        }
+    }
+
+    /**
+     * passes a command on to the actuator
+     */
+    protected abstract void carryOut(boolean on);
+
+    private void issue(final boolean on) {
+        if (commanded != null && commanded == on) {
+            return;
+        }
+
+        commanded = null;
+        ++issued;
+        carryOut(on);
+        commanded = on;
+    }
+}
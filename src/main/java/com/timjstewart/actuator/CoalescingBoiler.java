@@ -0,0 +1,39 @@
+package com.timjstewart.actuator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * a Boiler that only passes commands on to another Boiler when they change its state (see CoalescingActuator)
+ */
+public class CoalescingBoiler extends CoalescingActuator implements Boiler {
+
+    private final Boiler boiler;
+
+    /**
+     * Creates a CoalescingBoiler object
+     *
+     * @param boiler the Boiler to pass commands on to
+     */
+    public CoalescingBoiler(final Boiler boiler) {
+        this.boiler = checkNotNull(boiler, "boiler cannot be null");
+    }
+
+    @Override
+    public void turnOn() {
+        command(true);
+    }
+
+    @Override
+    public void turnOff() {
+        command(false);
+    }
+
+    @Override
+    protected void carryOut(final boolean on) {
+        if (on) {
+            boiler.turnOn();
+        } else {
+            boiler.turnOff();
+        }
+    }
+}
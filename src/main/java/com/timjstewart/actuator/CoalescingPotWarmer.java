@@ -0,0 +1,39 @@
+package com.timjstewart.actuator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * a PotWarmer that only passes commands on to another PotWarmer when they change its state (see CoalescingActuator)
+ */
+public class CoalescingPotWarmer extends CoalescingActuator implements PotWarmer {
+
+    private final PotWarmer potWarmer;
+
+    /**
+     * Creates a CoalescingPotWarmer object
+     *
+     * @param potWarmer the PotWarmer to pass commands on to
+     */
+    public CoalescingPotWarmer(final PotWarmer potWarmer) {
+        this.potWarmer = checkNotNull(potWarmer, "potWarmer cannot be null");
+    }
+
+    @Override
+    public void turnOn() {
+        command(true);
+    }
+
+    @Override
+    public void turnOff() {
+        command(false);
+    }
+
+    @Override
+    protected void carryOut(final boolean on) {
+        if (on) {
+            potWarmer.turnOn();
+        } else {
+            potWarmer.turnOff();
+        }
+    }
+}
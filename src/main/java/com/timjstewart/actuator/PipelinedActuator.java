@@ -0,0 +1,200 @@
+package com.timjstewart.actuator;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.timjstewart.sensor.ListenerRegistry;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A Boiler or PotWarmer that issues its commands to an AsyncActuator and returns without waiting for them to be carried
+ * out, so that a slow actuator doesn't hold up the FSM (or the sensors reporting to it).  Commands are pipelined: a
+ * command is issued straight away, even while earlier commands are still in flight.
+ * <p/>
+ * Each command is given a timeout.  A command that fails, or that hasn't completed when its timeout expires, is
+ * reported to the Listeners exactly once, on the failure Executor; a command that completes after it has timed out is
+ * ignored.  The failure Executor should run the Listeners on the thread that the FSM handles sensor events on, since
+ * an FSM such as CoffeeMaker isn't thread safe.
+ * <p/>
+ * A command that the AsyncActuator rejects by throwing is reported straight away, so with a direct failure Executor the
+ * Listeners hear about it before turnOn or turnOff returns, i.e. in the middle of the FSM's transition (CoffeeMaker
+ * handles such a failure once the transition has finished).
+ */
+public class PipelinedActuator implements Boiler, PotWarmer {
+
+    private final ActuatorFailure.Role role;
+    private final AsyncActuator actuator;
+    private final ScheduledExecutorService scheduler;
+    private final long timeoutNanos;
+    private final Executor failureExecutor;
+
+    private final ListenerRegistry<ActuatorFailure.Listener> listeners =
+            new ListenerRegistry<ActuatorFailure.Listener>(ActuatorFailure.Listener.class);
+
+    // Metrics
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    // the completion of the latest command
+    private volatile ListenableFuture<?> lastCompletion;
+
+    /**
+     * Creates a PipelinedActuator object
+     *
+     * @param role            which of the FSM's actuators this is, which its failures are reported as
+     * @param actuator        the actuator that carries out the commands
+     * @param scheduler       times the commands out
+     * @param timeout         how long a command has to complete in
+     * @param unit            the unit of the timeout
+     * @param failureExecutor runs the Listeners when a command fails
+     */
+    public PipelinedActuator(final ActuatorFailure.Role role,
+                             final AsyncActuator actuator,
+                             final ScheduledExecutorService scheduler,
+                             final long timeout,
+                             final TimeUnit unit,
+                             final Executor failureExecutor) {
+        this.role = checkNotNull(role, "role cannot be null");
+        this.actuator = checkNotNull(actuator, "actuator cannot be null");
+        this.scheduler = checkNotNull(scheduler, "scheduler cannot be null");
+        this.failureExecutor = checkNotNull(failureExecutor, "failureExecutor cannot be null");
+
+        checkNotNull(unit, "unit cannot be null");
+        checkArgument(timeout > 0, "timeout must be positive");
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * adds the specified Listener to the set of Listeners that will be told about commands that fail
+     */
+    public void addListener(final ActuatorFailure.Listener listener) {
+        checkNotNull(listener, "listener cannot be null");
+
+        listeners.add(listener);
+    }
+
+    /**
+     * removes the specified Listener from the set of Listeners that will be told about commands that fail
+     */
+    public void removeListener(final ActuatorFailure.Listener listener) {
+        checkNotNull(listener, "listener cannot be null");
+
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void turnOn() {
+        command(true);
+    }
+
+    @Override
+    public void turnOff() {
+        command(false);
+    }
+
+    /**
+     * @return the completion of the latest command, or null if no command has been issued
+     */
+    public ListenableFuture<?> getLastCompletion() {
+        return lastCompletion;
+    }
+
+    /**
+     * @return the number of commands that have been issued but haven't completed, failed or timed out
+     */
+    public long getInFlight() {
+        return issued.get() - completed.get() - failed.get() - timedOut.get();
+    }
+
+    /**
+     * @return the number of commands that have been carried out
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of commands that the actuator failed to carry out
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of commands that timed out
+     */
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    private void command(final boolean on) {
+        issued.incrementAndGet();
+
+        final ListenableFuture<?> completion;
+        try {
+            completion = on ? actuator.turnOn() : actuator.turnOff();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            report(new ActuatorFailure(role, this, on, ActuatorFailure.Kind.Failed, e));
+            return;
+        }
+
+        lastCompletion = completion;
+
+        // whichever of the completion and the timeout happens first settles the command
+        final AtomicBoolean settled = new AtomicBoolean();
+
+        final ScheduledFuture<?> timeout = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (settled.compareAndSet(false, true)) {
+                    timedOut.incrementAndGet();
+                    completion.cancel(false);
+                    report(new ActuatorFailure(
+                            role, PipelinedActuator.this, on, ActuatorFailure.Kind.TimedOut, null));
+                }
+            }
+        }, timeoutNanos, TimeUnit.NANOSECONDS);
+
+        Futures.addCallback(completion, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                if (settled.compareAndSet(false, true)) {
+                    timeout.cancel(false);
+                    completed.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (settled.compareAndSet(false, true)) {
+                    timeout.cancel(false);
+                    failed.incrementAndGet();
+                    report(new ActuatorFailure(role, PipelinedActuator.this, on, ActuatorFailure.Kind.Failed, t));
+                }
+            }
+        });
+    }
+
+    private void report(final ActuatorFailure failure) {
+        failureExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (ActuatorFailure.Listener listener : listeners.getListeners()) {
+                    listener.onActuatorFailed(failure);
+                }
+            }
+        });
+    }
+}
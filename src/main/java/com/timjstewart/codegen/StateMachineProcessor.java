@@ -0,0 +1,523 @@
+package com.timjstewart.codegen;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * generates a Coffee Maker FSM from each type annotated with StateMachineSpec.
+ * <p/>
+ * The generated class has no state classes and no tables: each sensor's Listener method is a switch on the current
+ * state whose cases compare the new reading (and the guard sensors' readings) with constants and then issue the
+ * commands and assign the next state inline, exactly as declared.  It's final, its State enum is the only type it
+ * needs and handling an event allocates nothing.
+ * <p/>
+ * A Transition on "Timeout" is taken by the generated class's onTimeout method, which whatever times the FSM (e.g. a
+ * HashedWheelTimer, as TimedCoffeeMaker does for CoffeeMaker) calls when it has been in a state for too long.
+ * <p/>
+ * An actuator failure is handled as CoffeeMaker handles it: ActuatorFailure.stopSafely turns off the actuators that
+ * need it and the FSM is latched in the spec's failed state, which ignores further failures.  A failure that is
+ * reported while an event is being handled (e.g. by an actuator that rejects a command synchronously) is handled once
+ * the event's transition has been made.
+ * <p/>
+ * The spec is checked before anything is generated: it must be in the package of the SensorListener interface that
+ * the generated class implements, every state, event, reading and command must exist, a Transition mustn't contradict
+ * itself and every Transition must be reachable (i.e. not hidden behind an earlier one for the same state and event
+ * whose guard is the same or weaker).  Mistakes are reported as compile errors on the spec.
+ * <p/>
+ * The processor is run by the build (see pom.xml), which compiles it before the rest of the main sources.
+ */
+@SupportedAnnotationTypes("com.timjstewart.codegen.StateMachineSpec")
+public class StateMachineProcessor extends AbstractProcessor {
+
+    // the package of the (package-private) SensorListener interface that the generated classes implement
+    private static final String LISTENER_PACKAGE = "com.timjstewart";
+
+    // the event of a Transition that's taken when the FSM times out, which no sensor reports
+    private static final String TIMEOUT = "Timeout";
+
+    /**
+     * a sensor of the Coffee Maker: how events name it, the enum of its readings and how the generated code is told
+     * about and reads them
+     */
+    private enum Sensor {
+        Pot("PotSensor", "onPotStatusChanged", "potSensor.getState()"),
+        WaterLevel("WaterLevelSensor", "onWaterLevelChanged", "waterLevelSensor.getWaterLevel()"),
+        BrewButton("BrewButtonSensor", "onBrewButtonStatusChanged", "brewButton.getBrewButtonState()");
+
+        private static final String PACKAGE = "com.timjstewart.sensor";
+
+        final String type;
+        final String listenerMethod;
+        final String reading;
+
+        Sensor(final String type, final String listenerMethod, final String reading) {
+            this.type = type;
+            this.listenerMethod = listenerMethod;
+            this.reading = reading;
+        }
+
+        String readingType() {
+            return type + ".State";
+        }
+    }
+
+    // the ActuatorCommands and the statements that issue them
+    private static final Map<String, String> COMMANDS = new LinkedHashMap<String, String>();
+
+    static {
+        COMMANDS.put("BoilerOn", "boiler.turnOn();");
+        COMMANDS.put("BoilerOff", "boiler.turnOff();");
+        COMMANDS.put("PotWarmerOn", "potWarmer.turnOn();");
+        COMMANDS.put("PotWarmerOff", "potWarmer.turnOff();");
+    }
+
+    /**
+     * a Transition that has been checked, triggered by a single event (whose sensor is null if the event is TIMEOUT)
+     */
+    private static final class Row {
+        final String from;
+        final Sensor sensor;
+        final String event;
+        final String waterLevel;
+        final String pot;
+        final List<String> commands;
+        final String to;
+
+        Row(final Transition transition, final Sensor sensor, final String event) {
+            this.from = transition.from();
+            this.sensor = sensor;
+            this.event = event;
+            this.waterLevel = transition.waterLevel();
+            this.pot = transition.pot();
+            this.commands = Arrays.asList(transition.commands());
+            this.to = transition.to();
+        }
+
+        boolean isGuarded() {
+            return !waterLevel.isEmpty() || !pot.isEmpty();
+        }
+
+        /**
+         * @return true if this Row's guard holds whenever the other's does, so the other can never be taken after it
+         */
+        boolean covers(final Row other) {
+            return (waterLevel.isEmpty() || waterLevel.equals(other.waterLevel))
+                    && (pot.isEmpty() || pot.equals(other.pot));
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(StateMachineSpec.class)) {
+            final StateMachineSpec spec = element.getAnnotation(StateMachineSpec.class);
+            final List<Row> rows = check(element, spec, element.getAnnotationsByType(Transition.class));
+
+            if (rows != null) {
+                generate(element, spec, rows);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the spec's Transitions, one Row per event, or null if the spec has mistakes (which have been reported)
+     */
+    private List<Row> check(final Element element, final StateMachineSpec spec, final Transition[] transitions) {
+        boolean valid = true;
+
+        if (!SourceVersion.isIdentifier(spec.name())) {
+            valid = error(element, "'" + spec.name() + "' is not a valid class name");
+        }
+        if (!packageOf(element).equals(LISTENER_PACKAGE)) {
+            valid = error(element, "a spec must be in package " + LISTENER_PACKAGE
+                    + ", whose package-private SensorListener the generated class implements");
+        }
+
+        final Set<String> states = new LinkedHashSet<String>();
+        for (String state : spec.states()) {
+            if (!SourceVersion.isIdentifier(state) || !states.add(state)) {
+                valid = error(element, "'" + state + "' is not a valid state or is declared twice");
+            }
+        }
+        if (states.isEmpty()) {
+            valid = error(element, "a state machine needs at least one state");
+        }
+        if (!states.contains(spec.failed())) {
+            valid = error(element, "there is no failed state '" + spec.failed() + "'");
+        }
+
+        final List<Row> rows = new ArrayList<Row>();
+
+        for (Transition transition : transitions) {
+            final String where = transition.from() + " on " + Arrays.toString(transition.on()) + ": ";
+
+            if (!states.contains(transition.from())) {
+                valid = error(element, where + "there is no state '" + transition.from() + "'");
+            }
+            if (!states.contains(transition.to())) {
+                valid = error(element, where + "there is no state '" + transition.to() + "'");
+            }
+            if (!transition.waterLevel().isEmpty() && !isReading(Sensor.WaterLevel, transition.waterLevel())) {
+                valid = error(element, where + "the WaterLevelSensor can't read '" + transition.waterLevel() + "'");
+            }
+            if (!transition.pot().isEmpty() && !isReading(Sensor.Pot, transition.pot())) {
+                valid = error(element, where + "the PotSensor can't read '" + transition.pot() + "'");
+            }
+
+            final Set<String> actuators = new HashSet<String>();
+            for (String command : transition.commands()) {
+                if (!COMMANDS.containsKey(command)) {
+                    valid = error(element, where + "there is no command '" + command + "'");
+                } else if (!actuators.add(actuator(command))) {
+                    valid = error(element, where + "it commands the same actuator twice");
+                }
+            }
+
+            if (transition.on().length == 0) {
+                valid = error(element, where + "a Transition needs at least one event");
+            }
+            for (String event : transition.on()) {
+                final int dot = event.indexOf('.');
+                final Sensor sensor = dot < 0 ? null : sensor(event.substring(0, dot));
+
+                if (!event.equals(TIMEOUT) && (sensor == null || !isReading(sensor, event.substring(dot + 1)))) {
+                    valid = error(element, where + "there is no event '" + event + "'");
+                } else {
+                    final Row row = new Row(transition, sensor, sensor == null ? event : event.substring(dot + 1));
+
+                    for (Row earlier : rows) {
+                        if (earlier.from.equals(row.from) && earlier.sensor == row.sensor
+                                && earlier.event.equals(row.event) && earlier.covers(row)) {
+                            valid = error(element, where + "it can never be taken on " + event
+                                    + "; an earlier Transition always is");
+                        }
+                    }
+                    rows.add(row);
+                }
+            }
+        }
+
+        return valid ? rows : null;
+    }
+
+    private void generate(final Element element, final StateMachineSpec spec, final List<Row> rows) {
+        final String packageName = packageOf(element);
+        final String initial = spec.states()[0];
+        final String failed = spec.failed();
+
+        final StringBuilder out = new StringBuilder();
+
+        out.append("package ").append(packageName).append(";\n\n");
+        out.append("import com.timjstewart.actuator.ActuatorFailure;\n");
+        out.append("import com.timjstewart.actuator.Boiler;\n");
+        out.append("import com.timjstewart.actuator.PotWarmer;\n");
+        for (Sensor sensor : Sensor.values()) {
+            out.append("import ").append(Sensor.PACKAGE).append('.').append(sensor.type).append(";\n");
+        }
+        out.append('\n');
+        out.append("import static com.google.common.base.Preconditions.checkNotNull;\n\n");
+
+        out.append("/**\n");
+        out.append(" * Generated by StateMachineProcessor from ").append(element.getSimpleName())
+                .append("; edit the spec rather than this class.\n");
+        out.append(" */\n");
+        out.append("final class ").append(spec.name()).append(" implements ")
+                .append(LISTENER_PACKAGE).append(".SensorListener, ActuatorFailure.Listener {\n\n");
+
+        out.append("    enum State {\n");
+        for (int i = 0; i < spec.states().length; ++i) {
+            out.append("        ").append(spec.states()[i]).append(i + 1 < spec.states().length ? ",\n" : "\n");
+        }
+        out.append("    }\n\n");
+
+        out.append("    private final Boiler boiler;\n");
+        out.append("    private final PotWarmer potWarmer;\n");
+        out.append("    private final WaterLevelSensor waterLevelSensor;\n");
+        out.append("    private final PotSensor potSensor;\n");
+        out.append("    private final BrewButtonSensor brewButton;\n\n");
+        out.append("    private State state = State.").append(initial).append(";\n\n");
+        out.append("    // true while an event or failure is being handled\n");
+        out.append("    private boolean transitioning;\n\n");
+        out.append("    // the first actuator failure reported while an event was being handled; the failed state\n");
+        out.append("    // ignores the rest\n");
+        out.append("    private ActuatorFailure deferredFailure;\n\n");
+
+        final String parameterIndent = String.format("%" + (spec.name().length() + 5) + "s", "");
+        out.append("    ").append(spec.name()).append("(final Boiler boiler,\n");
+        out.append(parameterIndent).append("final PotWarmer potWarmer,\n");
+        out.append(parameterIndent).append("final WaterLevelSensor waterLevelSensor,\n");
+        out.append(parameterIndent).append("final PotSensor potSensor,\n");
+        out.append(parameterIndent).append("final BrewButtonSensor brewButton) {\n");
+        out.append("        this.boiler = checkNotNull(boiler, \"boiler cannot be null\");\n");
+        out.append("        this.potWarmer = checkNotNull(potWarmer, \"potWarmer cannot be null\");\n");
+        out.append("        this.waterLevelSensor = checkNotNull(waterLevelSensor, "
+                + "\"waterLevelSensor cannot be null\");\n");
+        out.append("        this.potSensor = checkNotNull(potSensor, \"potSensor cannot be null\");\n");
+        out.append("        this.brewButton = checkNotNull(brewButton, \"brewButton cannot be null\");\n\n");
+        out.append("        waterLevelSensor.addListener(this);\n");
+        out.append("        potSensor.addListener(this);\n");
+        out.append("        brewButton.addListener(this);\n");
+        out.append("    }\n\n");
+
+        out.append("    State getState() {\n");
+        out.append("        return state;\n");
+        out.append("    }\n");
+
+        for (Sensor sensor : new Sensor[]{Sensor.BrewButton, Sensor.Pot, Sensor.WaterLevel}) {
+            generateListenerMethod(out, spec, sensor, rows);
+        }
+
+        out.append("\n    void onTimeout() {\n");
+        generateSwitch(out, spec, null, rows);
+        out.append("    }\n");
+
+        // an actuator failure stops safely and latches the failed state, as CoffeeMaker does
+        out.append("\n    @Override\n");
+        out.append("    public void onActuatorFailed(final ActuatorFailure failure) {\n");
+        out.append("        checkNotNull(failure, \"failure cannot be null\");\n\n");
+        out.append("        if (deferredFailure == null) {\n");
+        out.append("            deferredFailure = failure;\n");
+        out.append("        }\n");
+        out.append("        if (!transitioning) {\n");
+        out.append("            transitioning = true;\n");
+        out.append("            endTransition();\n");
+        out.append("        }\n");
+        out.append("    }\n\n");
+
+        out.append("    private void endTransition() {\n");
+        out.append("        try {\n");
+        out.append("            while (deferredFailure != null) {\n");
+        out.append("                final ActuatorFailure failure = deferredFailure;\n");
+        out.append("                deferredFailure = null;\n\n");
+        out.append("                if (state != State.").append(failed).append(") {\n");
+        out.append("                    failure.stopSafely(boiler, potWarmer);\n");
+        out.append("                    state = State.").append(failed).append(";\n");
+        out.append("                }\n");
+        out.append("            }\n");
+        out.append("        } finally {\n");
+        out.append("            transitioning = false;\n");
+        out.append("        }\n");
+        out.append("    }\n");
+        out.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler()
+                .createSourceFile(packageName + "." + spec.name(), element).openWriter()) {
+            writer.write(out.toString());
+        } catch (IOException e) {
+            error(element, "couldn't write " + spec.name() + ": " + e.getMessage());
+        }
+    }
+
+    private static void generateListenerMethod(final StringBuilder out,
+                                               final StateMachineSpec spec,
+                                               final Sensor sensor,
+                                               final List<Row> rows) {
+        final String type = sensor.readingType();
+
+        out.append("\n    @Override\n");
+        out.append("    public void ").append(sensor.listenerMethod)
+                .append("(final ").append(type).append(" newState) {\n");
+
+        generateSwitch(out, spec, sensor, rows);
+
+        if (sensor == Sensor.BrewButton) {
+            out.append("\n        // automatically reset the Brew button\n");
+            out.append("        if (newState == BrewButtonSensor.State.Pressed) {\n");
+            out.append("            brewButton.detect(BrewButtonSensor.State.NotPressed);\n");
+            out.append("        }\n");
+        }
+        out.append("    }\n");
+    }
+
+    /**
+     * generates a switch on the current state that takes the Rows of the specified sensor (or, if it's null, the Rows
+     * on TIMEOUT), unless there are none
+     */
+    private static void generateSwitch(final StringBuilder out,
+                                       final StateMachineSpec spec,
+                                       final Sensor sensor,
+                                       final List<Row> rows) {
+        // the rows of each state that react to this sensor, in the order they were declared
+        final Map<String, List<Row>> byState = new LinkedHashMap<String, List<Row>>();
+        for (String state : spec.states()) {
+            for (Row row : rows) {
+                if (row.from.equals(state) && row.sensor == sensor) {
+                    if (!byState.containsKey(state)) {
+                        byState.put(state, new ArrayList<Row>());
+                    }
+                    byState.get(state).add(row);
+                }
+            }
+        }
+
+        if (!byState.isEmpty()) {
+            out.append("        final boolean outermost = !transitioning;\n");
+            out.append("        transitioning = true;\n");
+            out.append("        try {\n");
+            out.append("            switch (state) {\n");
+            for (Map.Entry<String, List<Row>> entry : byState.entrySet()) {
+                out.append("                case ").append(entry.getKey()).append(":\n");
+                generateCase(out, sensor, entry.getValue());
+                out.append("                    break;\n");
+            }
+            out.append("                default:\n");
+            out.append("                    break;\n");
+            out.append("            }\n");
+            out.append("        } finally {\n");
+            out.append("            if (outermost) {\n");
+            out.append("                endTransition();\n");
+            out.append("            }\n");
+            out.append("        }\n");
+        }
+    }
+
+    /**
+     * generates the body of a state's case: an if per event, inside which the guards are tried in order, or just the
+     * guards if the Rows are on TIMEOUT
+     */
+    private static void generateCase(final StringBuilder out, final Sensor sensor, final List<Row> rows) {
+        if (sensor == null) {
+            generateGuards(out, rows, "                    ");
+            return;
+        }
+
+        final Map<String, List<Row>> byEvent = new LinkedHashMap<String, List<Row>>();
+        for (Row row : rows) {
+            if (!byEvent.containsKey(row.event)) {
+                byEvent.put(row.event, new ArrayList<Row>());
+            }
+            byEvent.get(row.event).add(row);
+        }
+
+        String keyword = "                    if";
+        for (Map.Entry<String, List<Row>> entry : byEvent.entrySet()) {
+            out.append(keyword).append(" (newState == ").append(sensor.readingType())
+                    .append('.').append(entry.getKey()).append(") {\n");
+
+            generateGuards(out, entry.getValue(), "                        ");
+            out.append("                    }");
+            keyword = " else if";
+        }
+        out.append('\n');
+    }
+
+    /**
+     * generates the Rows of a state and event: an if per guard, tried in order
+     */
+    private static void generateGuards(final StringBuilder out, final List<Row> candidates, final String indent) {
+        if (!candidates.get(0).isGuarded()) {
+            // check has made sure that there's nothing after an unguarded Row
+            generateBody(out, candidates.get(0), indent);
+            return;
+        }
+
+        out.append(indent);
+        for (int i = 0; i < candidates.size(); ++i) {
+            final Row row = candidates.get(i);
+            if (i > 0) {
+                out.append(" else ");
+            }
+            if (row.isGuarded()) {
+                out.append("if (").append(guard(row)).append(") ");
+            }
+            out.append("{\n");
+            generateBody(out, row, indent + "    ");
+            out.append(indent).append('}');
+        }
+        out.append('\n');
+    }
+
+    private static void generateBody(final StringBuilder out, final Row row, final String indent) {
+        for (String command : row.commands) {
+            out.append(indent).append(COMMANDS.get(command)).append('\n');
+        }
+        if (!row.to.equals(row.from)) {
+            out.append(indent).append("state = State.").append(row.to).append(";\n");
+        }
+    }
+
+    private static String guard(final Row row) {
+        final StringBuilder guard = new StringBuilder();
+        if (!row.waterLevel.isEmpty()) {
+            guard.append(Sensor.WaterLevel.reading).append(" == ").append(Sensor.WaterLevel.readingType())
+                    .append('.').append(row.waterLevel);
+        }
+        if (!row.pot.isEmpty()) {
+            if (guard.length() > 0) {
+                guard.append(" && ");
+            }
+            guard.append(Sensor.Pot.reading).append(" == ").append(Sensor.Pot.readingType())
+                    .append('.').append(row.pot);
+        }
+        return guard.toString();
+    }
+
+    /**
+     * @return the field of the actuator that the specified command is issued to
+     */
+    private static String actuator(final String command) {
+        final String statement = COMMANDS.get(command);
+        return statement.substring(0, statement.indexOf('.'));
+    }
+
+    private static Sensor sensor(final String name) {
+        for (Sensor sensor : Sensor.values()) {
+            if (sensor.name().equals(name)) {
+                return sensor;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the specified sensor's State enum has a constant with the specified name
+     */
+    private boolean isReading(final Sensor sensor, final String name) {
+        final TypeElement type = processingEnv.getElementUtils()
+                .getTypeElement(Sensor.PACKAGE + "." + sensor.readingType());
+        if (type == null) {
+            return false;
+        }
+        for (Element constant : type.getEnclosedElements()) {
+            if (constant.getKind() == ElementKind.ENUM_CONSTANT && constant.getSimpleName().contentEquals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String packageOf(final Element element) {
+        Element enclosing = element;
+        while (!(enclosing instanceof PackageElement)) {
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return ((PackageElement) enclosing).getQualifiedName().toString();
+    }
+
+    private boolean error(final Element element, final String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+        return false;
+    }
+}
@@ -0,0 +1,37 @@
+package com.timjstewart.codegen;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * declares a Coffee Maker FSM for StateMachineProcessor to generate: its states and, in Transition annotations on the
+ * same type, what each event does in each state.
+ * <p/>
+ * The generated class is a final SensorListener and ActuatorFailure.Listener in the package of the annotated type
+ * (which must be SensorListener's package, com.timjstewart), with a nested State enum of the declared states (in the
+ * declared order), and an onTimeout method for whatever times the FSM to call.  Events that no Transition mentions
+ * (including timeouts) leave the state as it is.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface StateMachineSpec {
+
+    /**
+     * @return the simple name of the generated class
+     */
+    String name();
+
+    /**
+     * @return the names of the states; the first one is the initial state
+     */
+    String[] states();
+
+    /**
+     * @return the state that an actuator failure latches the FSM in, once ActuatorFailure.stopSafely has turned off the
+     * actuators that need it.  Failures in that state are ignored, so that actuators that fail to turn off don't bounce
+     * failures back and forth; a Transition from it (e.g. on the Brew button) takes the FSM out of it.
+     */
+    String failed();
+}
@@ -0,0 +1,60 @@
+package com.timjstewart.codegen;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * one row of a StateMachineSpec's transition table: when event occurs in state from and the guard sensors read as
+ * specified, issue the commands and go to state to.
+ * <p/>
+ * The Transitions of a state and event are tried in the order they're declared and the first whose guard holds is
+ * taken, so a guarded Transition has to come before an unguarded one for the same state and event.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+@Repeatable(Transition.List.class)
+public @interface Transition {
+
+    /**
+     * @return the state the Transition leaves
+     */
+    String from();
+
+    /**
+     * @return the events that trigger the Transition, each a sensor and the state it changed to, e.g. "Pot.Gone",
+     * "WaterLevel.Empty" or "BrewButton.Pressed", or "Timeout" when the FSM has been in state from for too long
+     */
+    String[] on();
+
+    /**
+     * @return the reading of the WaterLevelSensor that the Transition requires or "" if it doesn't care
+     */
+    String waterLevel() default "";
+
+    /**
+     * @return the reading of the PotSensor that the Transition requires or "" if it doesn't care
+     */
+    String pot() default "";
+
+    /**
+     * @return the ActuatorCommands to issue, in order, e.g. "BoilerOff" and "PotWarmerOn"
+     */
+    String[] commands() default {};
+
+    /**
+     * @return the state the Transition goes to
+     */
+    String to();
+
+    /**
+     * holds the Transitions of a StateMachineSpec
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @Target(ElementType.TYPE)
+    @interface List {
+        Transition[] value();
+    }
+}
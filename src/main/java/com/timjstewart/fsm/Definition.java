@@ -0,0 +1,151 @@
+package com.timjstewart.fsm;
+
+import java.lang.reflect.Array;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The behavior of a kind of state machine: the state it starts in and the Action to take for each combination of state
+ * and event, kept in an array indexed by the ordinals of the state and the event.
+ * <p/>
+ * A Definition is immutable once it has been built, and its Actions may not keep any per-machine state of their own
+ * (everything they need is in the context of the StateMachine that fires them), so a single Definition is shared by
+ * every StateMachine of its kind, just as each state enum value is shared by every machine that is in that state.
+ *
+ * @param <S> the enum of states
+ * @param <E> the enum of events
+ * @param <C> the type of context passed to the Actions, e.g. the device's sensors and actuators
+ */
+public final class Definition<S extends Enum<S>, E extends Enum<E>, C> {
+
+    private final S initial;
+    private final int events;
+
+    // the Action for each state and event, indexed by state ordinal * events + event ordinal
+    private final StateMachine.Action<S, E, C>[] actions;
+
+    private Definition(final Builder<S, E, C> builder) {
+        this.initial = builder.initial;
+        this.events = builder.events;
+        this.actions = builder.actions.clone();
+    }
+
+    /**
+     * @param stateType the enum of states
+     * @param eventType the enum of events
+     * @param initial   the state that each StateMachine starts in
+     *
+     * @return a Builder of a Definition in which no event causes a transition until it's told otherwise
+     */
+    public static <S extends Enum<S>, E extends Enum<E>, C> Builder<S, E, C> builder(final Class<S> stateType,
+                                                                                  final Class<E> eventType,
+                                                                                  final S initial) {
+        return new Builder<S, E, C>(stateType, eventType, initial);
+    }
+
+    /**
+     * @return the state that each StateMachine starts in
+     */
+    public S getInitial() {
+        return initial;
+    }
+
+    /**
+     * @return the Action to take when the specified event occurs in the specified state
+     */
+    public StateMachine.Action<S, E, C> getAction(final S state, final E event) {
+        return actions[state.ordinal() * events + event.ordinal()];
+    }
+
+    /**
+     * @return the number of events, by which the states' ordinals are multiplied to index the Actions
+     */
+    int getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the Actions, indexed by state ordinal * events + event ordinal.  The array must not be modified.
+     */
+    StateMachine.Action<S, E, C>[] getActions() {
+        return actions;
+    }
+
+    /**
+     * builds a Definition.  A Builder isn't safe for use by more than one thread at a time.
+     */
+    public static final class Builder<S extends Enum<S>, E extends Enum<E>, C> {
+
+        private final S initial;
+        private final S[] states;
+        private final E[] eventValues;
+        private final int events;
+
+        private final StateMachine.Action<S, E, C>[] actions;
+
+        @SuppressWarnings("unchecked")
+        private Builder(final Class<S> stateType, final Class<E> eventType, final S initial) {
+            checkNotNull(stateType, "stateType cannot be null");
+            checkNotNull(eventType, "eventType cannot be null");
+            this.initial = checkNotNull(initial, "initial cannot be null");
+
+            this.states = stateType.getEnumConstants();
+            this.eventValues = eventType.getEnumConstants();
+            this.events = eventValues.length;
+
+            this.actions = (StateMachine.Action<S, E, C>[]) Array.newInstance(
+                    StateMachine.Action.class, states.length * events);
+
+            for (S state : states) {
+                final StateMachine.Action<S, E, C> stay = stay(state);
+                for (E event : eventValues) {
+                    actions[state.ordinal() * events + event.ordinal()] = stay;
+                }
+            }
+        }
+
+        /**
+         * sets the Action to take when the specified event occurs in the specified state
+         *
+         * @return this Builder
+         */
+        public Builder<S, E, C> on(final S state, final E event, final StateMachine.Action<S, E, C> action) {
+            checkNotNull(state, "state cannot be null");
+            checkNotNull(event, "event cannot be null");
+            checkNotNull(action, "action cannot be null");
+
+            actions[state.ordinal() * events + event.ordinal()] = action;
+            return this;
+        }
+
+        /**
+         * sets the Action to take when any event occurs in the specified state
+         *
+         * @return this Builder
+         */
+        public Builder<S, E, C> onAny(final S state, final StateMachine.Action<S, E, C> action) {
+            checkNotNull(state, "state cannot be null");
+
+            for (E event : eventValues) {
+                on(state, event, action);
+            }
+            return this;
+        }
+
+        /**
+         * @return a Definition of the Actions set so far
+         */
+        public Definition<S, E, C> build() {
+            return new Definition<S, E, C>(this);
+        }
+
+        private static <S extends Enum<S>, E extends Enum<E>, C> StateMachine.Action<S, E, C> stay(final S state) {
+            return new StateMachine.Action<S, E, C>() {
+                @Override
+                public S fire(final C context, final E event) {
+                    return state;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.timjstewart.fsm;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A state machine whose behavior is defined by a Definition: it keeps its current state and, when told that an event
+ * has occurred, takes the Action that the Definition has for the current state and that event.
+ * <p/>
+ * Firing an event is an array lookup indexed by the ordinals of the state and the event, followed by a call to the
+ * Action, so it doesn't allocate anything: states are enum values (flyweights shared by every machine) and whatever a
+ * machine needs to carry out its Actions lives in its context.
+ * <p/>
+ * A StateMachine isn't thread-safe.  Whatever calls fire decides which thread the machine runs on, so the machine can
+ * be driven straight from its event sources, by an Executor or by a thread of its own.
+ * <p/>
+ * A device can be a StateMachine itself, by extending it, rather than hold one; that saves each event a dereference.
+ *
+ * @param <S> the enum of states
+ * @param <E> the enum of events
+ * @param <C> the type of context passed to the Actions
+ */
+public class StateMachine<S extends Enum<S>, E extends Enum<E>, C> {
+
+    /**
+     * what a StateMachine does when an event occurs in a particular state
+     * <p/>
+     * A single Action is shared by every StateMachine with the same Definition, so it must not have any per-machine
+     * state of its own.
+     */
+    public interface Action<S extends Enum<S>, E extends Enum<E>, C> {
+
+        /**
+         * carries out the Action, e.g. by commanding the actuators in the context
+         *
+         * @param context the context of the StateMachine that fired the event
+         * @param event   the event
+         *
+         * @return the state that the StateMachine should transition to or the current state if no transition should
+         * occur (never null)
+         */
+        S fire(C context, E event);
+    }
+
+    /**
+     * is told about every event that a StateMachine fires, e.g. to count the transitions, and about every transition
+     * that something other than an event caused
+     * <p/>
+     * An Observer is called on the thread that drives the machine, so it can keep per-machine state of its own without
+     * synchronizing, e.g. when the current state was entered.
+     */
+    public interface Observer<S extends Enum<S>, E extends Enum<E>> {
+
+        /**
+         * is told that an event is about to be fired, e.g. to time the Action
+         *
+         * @param state the state that the event occurred in
+         * @param event the event
+         */
+        default void beforeEvent(S state, E event) {
+        }
+
+        /**
+         * @param from  the state before the event
+         * @param event the event
+         * @param to    the state after the event, which may be the same state
+         */
+        void onEvent(S from, E event, S to);
+
+        /**
+         * @param from  the state before the transition
+         * @param cause what caused the transition (see StateMachine.transition)
+         * @param to    the state after the transition, which may be the same state
+         */
+        default void onTransition(S from, Object cause, S to) {
+        }
+    }
+
+    private final C context;
+
+    // all that a machine needs of its Definition: its Actions and number of events
+    private final Action<S, E, C>[] actions;
+    private final int events;
+
+    // null unless the machine is observed, so that an unobserved machine only pays for a predictable branch
+    private final Observer<S, E> observer;
+
+    private S state;
+
+    // the index of the current state's first Action: the state's ordinal * events
+    private int row;
+
+    /**
+     * Creates a StateMachine object in the Definition's initial state
+     *
+     * @param definition the behavior of the machine
+     * @param context    the context passed to the Definition's Actions
+     */
+    public StateMachine(final Definition<S, E, C> definition, final C context) {
+        this(definition, context, null);
+    }
+
+    /**
+     * Creates a StateMachine object in the Definition's initial state
+     *
+     * @param definition the behavior of the machine
+     * @param context    the context passed to the Definition's Actions
+     * @param observer   the Observer to tell about every event or null if the machine isn't observed
+     */
+    public StateMachine(final Definition<S, E, C> definition, final C context, final Observer<S, E> observer) {
+        checkNotNull(definition, "definition cannot be null");
+        this.context = checkNotNull(context, "context cannot be null");
+        this.observer = observer;
+
+        this.actions = definition.getActions();
+        this.events = definition.getEvents();
+
+        this.state = definition.getInitial();
+        this.row = state.ordinal() * events;
+    }
+
+    /**
+     * @return the current state
+     */
+    public final S getState() {
+        return state;
+    }
+
+    /**
+     * @return the context passed to the Actions
+     */
+    public final C getContext() {
+        return context;
+    }
+
+    /**
+     * takes the Action that the Definition has for the current state and the specified event
+     *
+     * @return the state after the event
+     */
+    public final S fire(final E event) {
+        final Observer<S, E> observer = this.observer;
+
+        final S from = state;
+        if (observer != null) {
+            observer.beforeEvent(from, event);
+        }
+
+        final S to = actions[row + event.ordinal()].fire(context, event);
+        if (to != from) {
+            state = to;
+            row = to.ordinal() * events;
+        }
+
+        if (observer != null) {
+            observer.onEvent(from, event, to);
+        }
+        return to;
+    }
+
+    /**
+     * goes to the specified state in response to something other than one of the machine's events (e.g. a failure that
+     * a device reported), whose consequences the caller has already carried out, and tells the Observer about it
+     *
+     * @param to    the state to go to
+     * @param cause what caused the transition
+     *
+     * @return the state after the transition
+     */
+    public final S transition(final S to, final Object cause) {
+        checkNotNull(to, "to cannot be null");
+        checkNotNull(cause, "cause cannot be null");
+
+        final S from = state;
+        state = to;
+        row = to.ordinal() * events;
+
+        if (observer != null) {
+            observer.onTransition(from, cause, to);
+        }
+        return to;
+    }
+
+    /**
+     * puts the machine into the specified state without taking any Action or telling the Observer, e.g. to restore a
+     * state that was saved before a restart
+     */
+    public final void restore(final S state) {
+        this.state = checkNotNull(state, "state cannot be null");
+        this.row = state.ordinal() * events;
+    }
+}
@@ -1,8 +1,5 @@
 package com.timjstewart.sensor;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -30,8 +27,28 @@ public class BrewButtonSensor {
         void onBrewButtonStatusChanged(BrewButtonSensor.State status);
     }
 
-    // the set of Listener objects to notify when the Brew button state changes.
-    private Set<Listener> listeners = new HashSet<>();
+    // the Listener objects to notify when the Brew button state changes, in the order they were added.
+    private final ListenerRegistry<Listener> listeners = new ListenerRegistry<Listener>(Listener.class);
+
+    // decides which readings the Listeners are told about; null if they're told about every reading
+    private final ReadingFilter<BrewButtonSensor.State> filter;
+
+    /**
+     * Creates a BrewButtonSensor object that tells its Listeners about every reading
+     */
+    public BrewButtonSensor() {
+        this.filter = null;
+    }
+
+    /**
+     * Creates a BrewButtonSensor object that only tells its Listeners about the readings that the specified filter
+     * passes on
+     *
+     * @param filter the ReadingFilter that suppresses and debounces the Brew button's readings
+     */
+    public BrewButtonSensor(ReadingFilter<BrewButtonSensor.State> filter) {
+        this.filter = checkNotNull(filter, "filter cannot be null");
+    }
 
     /**
      * @return the current state of the Brew button
@@ -42,15 +59,60 @@ public class BrewButtonSensor {
 
     /**
      * causes the Brew button to transition to the specified state and notify all Listeners that the state of the Brew
-     * button has changed.
+     * button has changed.  A ReadingFilter may suppress the reading or hold it back.
      *
      * @param newState the new state of the Brew button
      */
     public void detect(BrewButtonSensor.State newState) {
-        brewButtonState = checkNotNull(newState, "newState cannot be null");
+        checkNotNull(newState, "newState cannot be null");
 
-        for (Listener listener : listeners) {
-            listener.onBrewButtonStatusChanged(brewButtonState);
+        if (filter == null) {
+            changeState(newState);
+            return;
+        }
+
+        // the Listeners are told while the filter is locked, so that they hear about readings in the order that the
+        // filter passed them on, even if the sensor is polled by another thread
+        synchronized (filter) {
+            if (filter.accept(newState)) {
+                changeState(newState);
+            }
+        }
+    }
+
+    /**
+     * tells the Listeners about a reading that the Brew button's ReadingFilter has been holding back, if the reading
+     * has persisted for its debounce window by now.
+     */
+    public void poll() {
+        if (filter != null) {
+            synchronized (filter) {
+                final BrewButtonSensor.State newState = filter.poll();
+                if (newState != null) {
+                    changeState(newState);
+                }
+            }
+        }
+    }
+
+    /**
+     * puts the Brew button back into the state it was in before a restart (e.g. from a snapshot) without notifying the
+     * Listeners.
+     *
+     * @param brewButtonState the state of the Brew button or null if it hadn't reported anything
+     */
+    public void restore(BrewButtonSensor.State brewButtonState) {
+        if (filter != null) {
+            filter.restore(brewButtonState);
+        }
+        this.brewButtonState = brewButtonState;
+    }
+
+    private void changeState(BrewButtonSensor.State newState) {
+        brewButtonState = newState;
+
+        for (Listener listener : listeners.getListeners()) {
+            listener.onBrewButtonStatusChanged(newState);
         }
     }
 
@@ -66,4 +128,16 @@ public class BrewButtonSensor {
         listeners.add(listener);
     }
 
+    /**
+     * removes the specified Listener from the set of Listeners that will be notified if/when the state of the
+     * Brew button changes.
+     *
+     * @param listener the Listener object that is no longer interested in state changes
+     */
+    public void removeListener(Listener listener) {
+        checkNotNull(listener, "listener cannot be null");
+
+        listeners.remove(listener);
+    }
+
 }
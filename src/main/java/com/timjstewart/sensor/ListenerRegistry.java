@@ -0,0 +1,103 @@
+package com.timjstewart.sensor;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The Listeners of a sensor, kept in a copy-on-write array.
+ * <p/>
+ * Notifying the Listeners is just a loop over the array returned by getListeners, which doesn't allocate or lock.
+ * Adding or removing a Listener replaces the array with a copy, so it's safe to do from any thread, including from a
+ * Listener that is being notified: a notification that is already in progress carries on with the Listeners it
+ * started with.  Listeners are notified in the order they were added, and a Listener that is added more than once is
+ * only notified once.
+ *
+ * @param <L> the type of Listener
+ */
+public final class ListenerRegistry<L> {
+
+    private final Class<L> type;
+
+    // never modified once it has been published; add and remove replace it instead
+    private volatile L[] listeners;
+
+    /**
+     * Creates a ListenerRegistry object with no Listeners
+     *
+     * @param type the type of Listener, used to create the arrays of Listeners
+     */
+    public ListenerRegistry(final Class<L> type) {
+        this.type = checkNotNull(type, "type cannot be null");
+        this.listeners = newArray(0);
+    }
+
+    /**
+     * @return the current Listeners in the order they were added.  The array must not be modified.
+     */
+    public L[] getListeners() {
+        return listeners;
+    }
+
+    /**
+     * @return the number of Listeners
+     */
+    public int size() {
+        return listeners.length;
+    }
+
+    /**
+     * adds the specified Listener after the current Listeners
+     *
+     * @return false if the Listener had already been added
+     */
+    public synchronized boolean add(final L listener) {
+        checkNotNull(listener, "listener cannot be null");
+
+        final L[] current = listeners;
+        if (indexOf(current, listener) >= 0) {
+            return false;
+        }
+
+        final L[] added = Arrays.copyOf(current, current.length + 1);
+        added[current.length] = listener;
+        listeners = added;
+        return true;
+    }
+
+    /**
+     * removes the specified Listener
+     *
+     * @return false if the Listener had not been added
+     */
+    public synchronized boolean remove(final L listener) {
+        checkNotNull(listener, "listener cannot be null");
+
+        final L[] current = listeners;
+        final int index = indexOf(current, listener);
+        if (index < 0) {
+            return false;
+        }
+
+        final L[] removed = newArray(current.length - 1);
+        System.arraycopy(current, 0, removed, 0, index);
+        System.arraycopy(current, index + 1, removed, index, removed.length - index);
+        listeners = removed;
+        return true;
+    }
+
+    private static int indexOf(final Object[] listeners, final Object listener) {
+        for (int i = 0; i < listeners.length; ++i) {
+            if (listeners[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private L[] newArray(final int length) {
+        return (L[]) Array.newInstance(type, length);
+    }
+}
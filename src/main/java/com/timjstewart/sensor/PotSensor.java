@@ -1,8 +1,5 @@
 package com.timjstewart.sensor;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -31,8 +28,27 @@ public class PotSensor {
         void onPotStatusChanged(PotSensor.State status);
     }
 
-    // the set of Listener objects to notify when the PotSensor state changes.
-    private Set<Listener> listeners = new HashSet<>();
+    // the Listener objects to notify when the PotSensor state changes, in the order they were added.
+    private final ListenerRegistry<Listener> listeners = new ListenerRegistry<Listener>(Listener.class);
+
+    // decides which readings the Listeners are told about; null if they're told about every reading
+    private final ReadingFilter<PotSensor.State> filter;
+
+    /**
+     * Creates a PotSensor object that tells its Listeners about every reading
+     */
+    public PotSensor() {
+        this.filter = null;
+    }
+
+    /**
+     * Creates a PotSensor object that only tells its Listeners about the readings that the specified filter passes on
+     *
+     * @param filter the ReadingFilter that suppresses and debounces the PotSensor's readings
+     */
+    public PotSensor(ReadingFilter<PotSensor.State> filter) {
+        this.filter = checkNotNull(filter, "filter cannot be null");
+    }
 
     /**
      * @return the current state of the PotSensor
@@ -43,15 +59,60 @@ public class PotSensor {
 
     /**
      * causes the PotSensor to transition to the specified state and notify all Listeners that the state of the
-     * PotSensor has changed.
+     * PotSensor has changed.  A ReadingFilter may suppress the reading or hold it back.
      *
      * @param newState the new state of the PotSensor
      */
     public void detect(PotSensor.State newState) {
-        state = checkNotNull(newState, "newState cannot be null");
+        checkNotNull(newState, "newState cannot be null");
+
+        if (filter == null) {
+            changeState(newState);
+            return;
+        }
+
+        // the Listeners are told while the filter is locked, so that they hear about readings in the order that the
+        // filter passed them on, even if the sensor is polled by another thread
+        synchronized (filter) {
+            if (filter.accept(newState)) {
+                changeState(newState);
+            }
+        }
+    }
+
+    /**
+     * tells the Listeners about a reading that the PotSensor's ReadingFilter has been holding back, if the reading has
+     * persisted for its debounce window by now.
+     */
+    public void poll() {
+        if (filter != null) {
+            synchronized (filter) {
+                final PotSensor.State newState = filter.poll();
+                if (newState != null) {
+                    changeState(newState);
+                }
+            }
+        }
+    }
+
+    /**
+     * puts the PotSensor back into the state it was in before a restart (e.g. from a snapshot) without notifying the
+     * Listeners.
+     *
+     * @param state the state of the PotSensor or null if it hadn't reported anything
+     */
+    public void restore(PotSensor.State state) {
+        if (filter != null) {
+            filter.restore(state);
+        }
+        this.state = state;
+    }
 
-        for (Listener listener : listeners) {
-            listener.onPotStatusChanged(state);
+    private void changeState(PotSensor.State newState) {
+        state = newState;
+
+        for (Listener listener : listeners.getListeners()) {
+            listener.onPotStatusChanged(newState);
         }
     }
 
@@ -67,4 +128,16 @@ public class PotSensor {
         listeners.add(listener);
     }
 
+    /**
+     * removes the specified Listener from the set of Listeners that will be notified if/when the state of the PotSensor
+     * changes.
+     *
+     * @param listener the Listener object that is no longer interested in state changes
+     */
+    public void removeListener(Listener listener) {
+        checkNotNull(listener, "listener cannot be null");
+
+        listeners.remove(listener);
+    }
+
 }
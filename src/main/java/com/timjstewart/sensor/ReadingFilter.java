@@ -0,0 +1,171 @@
+package com.timjstewart.sensor;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Decides which of a sensor's raw readings are passed on to its Listeners, so that a chattering sensor doesn't make the
+ * FSM (and its actuators) react to noise.
+ * <p/>
+ * A filter can:
+ * <ul>
+ * <li>suppress readings that are the same as the sensor's current state</li>
+ * <li>debounce a state: a reading of that state is held back until the sensor has kept reporting it for a window of
+ * time (e.g. the pot must be Gone for 200ms).  If the sensor reports a different state in the meantime, the held back
+ * reading is forgotten.  Giving the states of a sensor different windows adds hysteresis.</li>
+ * </ul>
+ * A reading that is held back is passed on by the first detect or poll of the sensor once its window has elapsed, so
+ * something has to poll the sensor if its hardware only reports changes.
+ * <p/>
+ * A filter belongs to a single sensor.  It's thread safe, so a sensor may be polled by a different thread than the
+ * one that reports its readings.  The sensor tells its Listeners about a reading while it holds the filter's lock, so
+ * they hear about the readings in the order that the filter passed them on, one thread at a time; a Listener mustn't
+ * wait for another thread that may be reporting to the same sensor.
+ *
+ * @param <S> the type of the sensor's states
+ */
+public final class ReadingFilter<S extends Enum<S>> {
+
+    private final Ticker ticker;
+
+    private boolean suppressUnchanged;
+
+    // how long a reading of each state has to persist, in nanoseconds, by ordinal
+    private final long[] windows;
+
+    // the state that the sensor's Listeners were last told about
+    private S current;
+
+    // the reading being debounced and when the sensor started reporting it
+    private S pending;
+    private long pendingSince;
+
+    // Metrics
+    private long unchanged;
+    private long debounced;
+
+    /**
+     * Creates a ReadingFilter object that passes on every reading
+     *
+     * @param type   the type of the sensor's states
+     * @param ticker the source of the time that debounce windows are measured with
+     */
+    public ReadingFilter(final Class<S> type, final Ticker ticker) {
+        checkNotNull(type, "type cannot be null");
+
+        this.ticker = checkNotNull(ticker, "ticker cannot be null");
+        this.windows = new long[type.getEnumConstants().length];
+    }
+
+    /**
+     * suppresses readings of the state that the sensor is already in
+     *
+     * @return this filter
+     */
+    public synchronized ReadingFilter<S> suppressUnchanged() {
+        suppressUnchanged = true;
+        return this;
+    }
+
+    /**
+     * holds back readings of the specified state until the sensor has been reporting it for the specified duration
+     *
+     * @return this filter
+     */
+    public synchronized ReadingFilter<S> debounce(final S state, final long duration, final TimeUnit unit) {
+        checkNotNull(state, "state cannot be null");
+        checkNotNull(unit, "unit cannot be null");
+        checkArgument(duration >= 0, "duration cannot be negative");
+
+        windows[state.ordinal()] = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * @return the number of readings suppressed because they were the same as the sensor's current state
+     */
+    public synchronized long getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return the number of readings held back because their state hadn't persisted for its debounce window yet
+     */
+    public synchronized long getDebounced() {
+        return debounced;
+    }
+
+    /**
+     * @return the number of readings that were not passed on to the sensor's Listeners
+     */
+    public synchronized long getSuppressed() {
+        return unchanged + debounced;
+    }
+
+    /**
+     * filters a reading that the sensor has just reported
+     *
+     * @return true if the reading should be passed on to the sensor's Listeners
+     */
+    synchronized boolean accept(final S reading) {
+        if (reading == current) {
+            // a reading that flapped away and back again never happened
+            pending = null;
+
+            if (suppressUnchanged) {
+                ++unchanged;
+                return false;
+            }
+            return true;
+        }
+
+        final long window = windows[reading.ordinal()];
+        if (window == 0) {
+            pending = null;
+            current = reading;
+            return true;
+        }
+
+        final long now = ticker.read();
+        if (reading != pending) {
+            pending = reading;
+            pendingSince = now;
+        }
+
+        if (now - pendingSince >= window) {
+            pending = null;
+            current = reading;
+            return true;
+        }
+
+        ++debounced;
+        return false;
+    }
+
+    /**
+     * @return the reading being held back if its debounce window has elapsed (which the sensor's Listeners should be
+     * told about), otherwise null
+     */
+    synchronized S poll() {
+        if (pending == null || ticker.read() - pendingSince < windows[pending.ordinal()]) {
+            return null;
+        }
+
+        current = pending;
+        pending = null;
+        return current;
+    }
+
+    /**
+     * forgets any reading being held back and treats the specified state as the one the sensor's Listeners were last
+     * told about
+     */
+    synchronized void restore(final S state) {
+        current = state;
+        pending = null;
+    }
+}
@@ -1,8 +1,5 @@
 package com.timjstewart.sensor;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -30,8 +27,28 @@ public class WaterLevelSensor {
         void onWaterLevelChanged(WaterLevelSensor.State waterLevel);
     }
 
-    // the set of Listener objects to notify when the WaterLevelSensor state changes.
-    private Set<Listener> listeners = new HashSet<>();
+    // the Listener objects to notify when the WaterLevelSensor state changes, in the order they were added.
+    private final ListenerRegistry<Listener> listeners = new ListenerRegistry<Listener>(Listener.class);
+
+    // decides which readings the Listeners are told about; null if they're told about every reading
+    private final ReadingFilter<WaterLevelSensor.State> filter;
+
+    /**
+     * Creates a WaterLevelSensor object that tells its Listeners about every reading
+     */
+    public WaterLevelSensor() {
+        this.filter = null;
+    }
+
+    /**
+     * Creates a WaterLevelSensor object that only tells its Listeners about the readings that the specified filter
+     * passes on
+     *
+     * @param filter the ReadingFilter that suppresses and debounces the WaterLevelSensor's readings
+     */
+    public WaterLevelSensor(ReadingFilter<WaterLevelSensor.State> filter) {
+        this.filter = checkNotNull(filter, "filter cannot be null");
+    }
 
     /**
      * @return the current state of the WaterLevelSensor
@@ -42,14 +59,59 @@ public class WaterLevelSensor {
 
     /**
      * causes the WaterLevelSensor to transition to the specified state and notify all Listeners that the state of the
-     * WaterLevelSensor has changed.
+     * WaterLevelSensor has changed.  A ReadingFilter may suppress the reading or hold it back.
      *
      * @param waterLevel the new water level of the WaterLevelSensor
      */
     public void detect(WaterLevelSensor.State waterLevel) {
-        this.waterLevel = checkNotNull(waterLevel, "waterLevel cannot be null");
+        checkNotNull(waterLevel, "waterLevel cannot be null");
+
+        if (filter == null) {
+            changeState(waterLevel);
+            return;
+        }
+
+        // the Listeners are told while the filter is locked, so that they hear about readings in the order that the
+        // filter passed them on, even if the sensor is polled by another thread
+        synchronized (filter) {
+            if (filter.accept(waterLevel)) {
+                changeState(waterLevel);
+            }
+        }
+    }
+
+    /**
+     * tells the Listeners about a reading that the WaterLevelSensor's ReadingFilter has been holding back, if the
+     * reading has persisted for its debounce window by now.
+     */
+    public void poll() {
+        if (filter != null) {
+            synchronized (filter) {
+                final WaterLevelSensor.State waterLevel = filter.poll();
+                if (waterLevel != null) {
+                    changeState(waterLevel);
+                }
+            }
+        }
+    }
+
+    /**
+     * puts the WaterLevelSensor back into the state it was in before a restart (e.g. from a snapshot) without notifying
+     * the Listeners.
+     *
+     * @param waterLevel the state of the WaterLevelSensor or null if it hadn't reported anything
+     */
+    public void restore(WaterLevelSensor.State waterLevel) {
+        if (filter != null) {
+            filter.restore(waterLevel);
+        }
+        this.waterLevel = waterLevel;
+    }
 
-        for (Listener listener : listeners) {
+    private void changeState(WaterLevelSensor.State waterLevel) {
+        this.waterLevel = waterLevel;
+
+        for (Listener listener : listeners.getListeners()) {
             listener.onWaterLevelChanged(waterLevel);
         }
     }
@@ -65,4 +127,16 @@ public class WaterLevelSensor {
 
         listeners.add(listener);
     }
+
+    /**
+     * removes the specified Listener from the set of Listeners that will be notified if/when the state of the
+     * WaterLevelSensor changes.
+     *
+     * @param listener the Listener object that is no longer interested in state changes
+     */
+    public void removeListener(Listener listener) {
+        checkNotNull(listener, "listener cannot be null");
+
+        listeners.remove(listener);
+    }
 }
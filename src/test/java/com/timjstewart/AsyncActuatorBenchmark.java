@@ -0,0 +1,192 @@
+package com.timjstewart;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.timjstewart.actuator.ActuatorFailure;
+import com.timjstewart.actuator.AsyncActuator;
+import com.timjstewart.actuator.PipelinedActuator;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the latency of a sensor event when every event commands a slow actuator: the sneak-a-cup cycle, with the
+ * pot lifted and replaced every intervalNanos.
+ * <p/>
+ * Blocking waits for the actuator inside the transition, the way a synchronous Boiler does; Pipelined issues the
+ * command to a simulated AsyncActuator through a PipelinedActuator and carries on.  The time between events is spent
+ * in an invocation-level setup, so it isn't measured.  The Pipelined Boiler's commands are reported as secondary
+ * results (see CommandCounters).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncActuatorBenchmark {
+
+    public enum Engine {
+        Blocking,
+        Pipelined
+    }
+
+    @Param
+    public Engine engine;
+
+    // how long each actuator command takes
+    @Param({"100000", "1000000"})
+    public long actuatorNanos;
+
+    // how long the sensor waits between readings
+    @Param({"20000"})
+    public long intervalNanos;
+
+    private PotSensor potSensor;
+    private ScheduledExecutorService scheduler;
+    private PipelinedActuator pipelined;
+
+    private int readings;
+
+    // the Pipelined Boiler's counts as of the start of the iteration
+    private long completedBefore;
+    private long failedBefore;
+    private long timedOutBefore;
+
+    @Setup
+    public void setUp() {
+        potSensor = new PotSensor();
+
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        final BrewButtonSensor brewButtonSensor = new BrewButtonSensor();
+
+        if (engine == Engine.Blocking) {
+            final EventMailboxBenchmark.SlowActuator actuator = new EventMailboxBenchmark.SlowActuator(actuatorNanos);
+            new CoffeeMaker(actuator, actuator, waterLevelSensor, potSensor, brewButtonSensor);
+        } else {
+            scheduler = Executors.newSingleThreadScheduledExecutor();
+
+            // no command comes close to timing out here, so failures are never reported on the scheduler's thread
+            pipelined = new PipelinedActuator(ActuatorFailure.Role.Boiler,
+                    new SimulatedAsyncActuator(scheduler, actuatorNanos), scheduler, 1, TimeUnit.SECONDS, scheduler);
+            final PipelinedActuator potWarmer = new PipelinedActuator(ActuatorFailure.Role.PotWarmer,
+                    new SimulatedAsyncActuator(scheduler, actuatorNanos), scheduler, 1, TimeUnit.SECONDS, scheduler);
+
+            final CoffeeMaker coffeeMaker =
+                    new CoffeeMaker(pipelined, potWarmer, waterLevelSensor, potSensor, brewButtonSensor);
+            pipelined.addListener(coffeeMaker);
+            potWarmer.addListener(coffeeMaker);
+        }
+
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+    }
+
+    @Setup(Level.Invocation)
+    public void waitForTheNextReading() {
+        LockSupport.parkNanos(intervalNanos);
+    }
+
+    /**
+     * the Pipelined Boiler's commands per iteration, which JMH reports next to the latency of detect: those that
+     * completed, failed and timed out during the iteration and those still in flight at its end
+     * <p/>
+     * JMH sums counters over the measurement iterations, so each iteration records its share of their mean.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class CommandCounters {
+        public double completed;
+        public double failed;
+        public double timedOut;
+        public double inFlight;
+    }
+
+    @Setup(Level.Iteration)
+    public void countBefore() {
+        if (pipelined != null) {
+            completedBefore = pipelined.getCompleted();
+            failedBefore = pipelined.getFailed();
+            timedOutBefore = pipelined.getTimedOut();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void countAfter(final CommandCounters counters, final IterationParams iteration) {
+        if (pipelined != null) {
+            final double share = 1.0 / iteration.getCount();
+            counters.completed = (pipelined.getCompleted() - completedBefore) * share;
+            counters.failed = (pipelined.getFailed() - failedBefore) * share;
+            counters.timedOut = (pipelined.getTimedOut() - timedOutBefore) * share;
+            counters.inFlight = pipelined.getInFlight() * share;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void detect() {
+        potSensor.detect((++readings & 1) == 0 ? PotSensor.State.Empty : PotSensor.State.Gone);
+    }
+
+    /**
+     * an AsyncActuator whose commands complete a while after they're issued, without using any CPU in the meantime
+     */
+    static class SimulatedAsyncActuator implements AsyncActuator {
+
+        private final ScheduledExecutorService scheduler;
+        private final long nanos;
+
+        SimulatedAsyncActuator(final ScheduledExecutorService scheduler, final long nanos) {
+            this.scheduler = scheduler;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public ListenableFuture<?> turnOn() {
+            return command();
+        }
+
+        @Override
+        public ListenableFuture<?> turnOff() {
+            return command();
+        }
+
+        private ListenableFuture<?> command() {
+            final SettableFuture<Void> command = SettableFuture.create();
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    command.set(null);
+                }
+            }, nanos, TimeUnit.NANOSECONDS);
+            return command;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Verifies that the AbstractState classes never allocate while the FSM transitions between them, and nor does a
+ * CoffeeMaker while it handles the events.
+ * <p/>
+ * Every transition (and guard outcome) of the FSM is driven many times and the bytes allocated by the current thread
+ * are compared before and after.  The bytes allocated by the same number of runs of an empty cycle are subtracted, so
+ * that what the JIT and JUnit allocate on this thread cancels out, and what's left must be less than NOISE_BYTES no
+ * matter how many cycles are measured.
+ */
+public class CoffeeMakerAllocationTest {
+
+    private static final int WARM_UP_CYCLES = 100000;
+    private static final int MEASURED_CYCLES = 100000;
+
+    // what the JIT might still allocate on this thread while the cycles are measured; a cycle that allocated anything
+    // would account for at least 16 bytes per cycle, i.e. more than a megabyte
+    private static final long NOISE_BYTES = 256;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    // water in the Boiler and an empty pot on the PotWarmer
+    private CoffeeMaker.Components readyToBrew;
+
+    // no water in the Boiler and an empty pot on the PotWarmer
+    private CoffeeMaker.Components outOfWater;
+
+    private CoffeeMaker.AbstractState state;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        readyToBrew = components(WaterLevelSensor.State.NotEmpty);
+        outOfWater = components(WaterLevelSensor.State.Empty);
+
+        state = CoffeeMaker.State.Initial.get();
+    }
+
+    @Test
+    public void transitionsDoNotAllocate() {
+        assertDoesNotAllocate(this::cycle);
+        assertEquals(CoffeeMaker.State.Initial, state.getState());
+    }
+
+    @Test
+    public void handlingEventsDoesNotAllocate() {
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        final PotSensor potSensor = new PotSensor();
+        final CoffeeMaker coffeeMaker = new CoffeeMaker(new BoilerSpy(), new PotWarmerSpy(),
+                waterLevelSensor, potSensor, new BrewButtonSensor());
+
+        potSensor.detect(PotSensor.State.Empty);
+
+        // brew, take the pot away and bring it back, run dry and then take the coffee away
+        assertDoesNotAllocate(() -> {
+            waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+            coffeeMaker.onBrewButtonStatusChanged(BrewButtonSensor.State.Pressed);
+            potSensor.detect(PotSensor.State.Gone);
+            potSensor.detect(PotSensor.State.Empty);
+            waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+            potSensor.detect(PotSensor.State.Gone);
+            potSensor.detect(PotSensor.State.Empty);
+        });
+        assertEquals(CoffeeMaker.State.Initial, coffeeMaker.getState());
+    }
+
+    private void assertDoesNotAllocate(final Runnable cycle) {
+        final Runnable empty = () -> {
+        };
+
+        // both loops are compiled before either is measured
+        allocatedBy(cycle, WARM_UP_CYCLES);
+        allocatedBy(empty, WARM_UP_CYCLES);
+
+        final long baseline = allocatedBy(empty, MEASURED_CYCLES);
+        final long allocated = allocatedBy(cycle, MEASURED_CYCLES) - baseline;
+
+        assertTrue("bytes allocated by " + MEASURED_CYCLES + " cycles beyond the " + baseline + " allocated by as many "
+                + "empty ones: " + allocated, allocated < NOISE_BYTES);
+    }
+
+    /**
+     * @return the number of bytes that the current thread allocated while running the specified cycle
+     */
+    private long allocatedBy(final Runnable cycle, final int cycles) {
+        final long threadId = Thread.currentThread().getId();
+
+        final long before = threads.getThreadAllocatedBytes(threadId);
+
+        for (int i = 0; i < cycles; ++i) {
+            cycle.run();
+        }
+
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    /**
+     * visits every transition of the FSM and ends in the Initial state
+     */
+    private void cycle() {
+
+        // brew, sneak a cup, finish brewing and then remove and replace the pot while it's warming
+
+        brew(readyToBrew, BrewButtonSensor.State.Pressed);
+        brew(readyToBrew, BrewButtonSensor.State.NotPressed);
+        pot(readyToBrew, PotSensor.State.Gone);
+        pot(readyToBrew, PotSensor.State.Empty);
+        water(outOfWater, WaterLevelSensor.State.Empty);
+        pot(outOfWater, PotSensor.State.Gone);
+        pot(outOfWater, PotSensor.State.NonEmpty);
+        pot(outOfWater, PotSensor.State.Empty);
+        pot(outOfWater, PotSensor.State.Empty);
+
+        // the Boiler runs dry while the pot is removed mid-brew and the pot comes back with coffee in it
+
+        brew(readyToBrew, BrewButtonSensor.State.Pressed);
+        pot(readyToBrew, PotSensor.State.Gone);
+        pot(outOfWater, PotSensor.State.NonEmpty);
+        pot(outOfWater, PotSensor.State.Gone);
+        pot(outOfWater, PotSensor.State.Empty);
+
+        // the Boiler runs dry while the pot is removed mid-brew and the pot comes back empty
+
+        brew(readyToBrew, BrewButtonSensor.State.Pressed);
+        pot(readyToBrew, PotSensor.State.Gone);
+        pot(outOfWater, PotSensor.State.Empty);
+
+        // won't brew without water
+
+        brew(outOfWater, BrewButtonSensor.State.Pressed);
+    }
+
+    private void brew(final CoffeeMaker.Components components, final BrewButtonSensor.State newState) {
+        state = state.onBrewButtonStateChanged(components, newState);
+    }
+
+    private void pot(final CoffeeMaker.Components components, final PotSensor.State newState) {
+        state = state.onPotStateChanged(components, newState);
+    }
+
+    private void water(final CoffeeMaker.Components components, final WaterLevelSensor.State newState) {
+        state = state.onWaterLevelStateChanged(components, newState);
+    }
+
+    private static CoffeeMaker.Components components(final WaterLevelSensor.State waterLevel) {
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        waterLevelSensor.detect(waterLevel);
+
+        final PotSensor potSensor = new PotSensor();
+        potSensor.detect(PotSensor.State.Empty);
+
+        return new CoffeeMaker.Components(
+                new BoilerSpy(), new PotWarmerSpy(), waterLevelSensor, potSensor, new BrewButtonSensor());
+    }
+}
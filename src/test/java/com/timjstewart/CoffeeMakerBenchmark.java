@@ -0,0 +1,300 @@
+package com.timjstewart;
+
+import com.google.common.base.Ticker;
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measures the cost of a single sensor event delivered to a CoffeeMaker.
+ * <p/>
+ * Each Scenario is a cycle of events that leaves the CoffeeMaker in the state it started in, so the benchmark can
+ * replay it forever.  One benchmark operation is one call to a sensor's detect method (plus whatever transitions and
+ * actuator commands it causes), so the GC profiler's gc.alloc.rate.norm is the number of bytes allocated per event.
+ * <p/>
+ * <pre>mvn -P benchmarks verify -Djmh.args="CoffeeMakerBenchmark -prof gc"</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoffeeMakerBenchmark {
+
+    /**
+     * the implementations of the Coffee Maker FSM being compared
+     */
+    public enum Engine {
+
+        /**
+         * CoffeeMaker and its AbstractState classes
+         */
+        Handwritten {
+            Fsm create(final PotSensor potSensor,
+                       final WaterLevelSensor waterLevelSensor,
+                       final BrewButtonSensor brewButton) {
+                final CoffeeMaker coffeeMaker = new CoffeeMaker(
+                        new NullBoiler(), new NullPotWarmer(), waterLevelSensor, potSensor, brewButton);
+                return fsm(coffeeMaker, coffeeMaker::getState);
+            }
+        },
+
+        /**
+         * InstrumentedCoffeeMaker, recording into a CoffeeMakerMetrics of its own; compare it with Handwritten for the
+         * overhead of the instrumentation
+         */
+        Instrumented {
+            Fsm create(final PotSensor potSensor,
+                       final WaterLevelSensor waterLevelSensor,
+                       final BrewButtonSensor brewButton) {
+                final CoffeeMaker coffeeMaker = new InstrumentedCoffeeMaker(new NullBoiler(), new NullPotWarmer(),
+                        waterLevelSensor, potSensor, brewButton, new CoffeeMakerMetrics());
+                return fsm(coffeeMaker, coffeeMaker::getState);
+            }
+        },
+
+        /**
+         * TracingCoffeeMaker, recording into a FlightRecorder of its own; compare it with Handwritten for the overhead
+         * of the tracing
+         */
+        Traced {
+            Fsm create(final PotSensor potSensor,
+                       final WaterLevelSensor waterLevelSensor,
+                       final BrewButtonSensor brewButton) {
+                final CoffeeMaker coffeeMaker = new TracingCoffeeMaker(new NullBoiler(), new NullPotWarmer(),
+                        waterLevelSensor, potSensor, brewButton, new FlightRecorder(1024, Ticker.systemTicker()));
+                return fsm(coffeeMaker, coffeeMaker::getState);
+            }
+        },
+
+        /**
+         * GenericCoffeeMaker, the CoffeeMaker on the generic StateMachine; compare it with Handwritten for the cost of
+         * the generic runtime
+         */
+        Generic {
+            Fsm create(final PotSensor potSensor,
+                       final WaterLevelSensor waterLevelSensor,
+                       final BrewButtonSensor brewButton) {
+                final GenericCoffeeMaker coffeeMaker = new GenericCoffeeMaker(
+                        new NullBoiler(), new NullPotWarmer(), waterLevelSensor, potSensor, brewButton);
+                return fsm(coffeeMaker, coffeeMaker::getState);
+            }
+        },
+
+        /**
+         * GeneratedCoffeeMaker, generated from CoffeeMakerSpec; compare it with Handwritten for the cost of handing
+         * each event to the current state's AbstractState flyweight rather than switching on the state
+         */
+        Generated {
+            Fsm create(final PotSensor potSensor,
+                       final WaterLevelSensor waterLevelSensor,
+                       final BrewButtonSensor brewButton) {
+                final GeneratedCoffeeMaker coffeeMaker = new GeneratedCoffeeMaker(
+                        new NullBoiler(), new NullPotWarmer(), waterLevelSensor, potSensor, brewButton);
+
+                // the generated states are declared in the same order as CoffeeMaker's
+                return fsm(coffeeMaker, () -> TransitionTable.state(coffeeMaker.getState().ordinal()));
+            }
+        },
+
+        /**
+         * TableDrivenCoffeeMaker
+         */
+        TableDriven {
+            Fsm create(final PotSensor potSensor,
+                       final WaterLevelSensor waterLevelSensor,
+                       final BrewButtonSensor brewButton) {
+                final TableDrivenCoffeeMaker coffeeMaker = new TableDrivenCoffeeMaker(
+                        new NullBoiler(), new NullPotWarmer(), waterLevelSensor, potSensor, brewButton);
+                return fsm(coffeeMaker, coffeeMaker::getState);
+            }
+        },
+
+        /**
+         * SpecializedCoffeeMaker; compare it with Handwritten and TableDriven in the scenarios that visit several
+         * states (BrewCycle, SneakACup and EveryState), where Handwritten's call into the current AbstractState sees
+         * more than one class
+         */
+        Specialized {
+            Fsm create(final PotSensor potSensor,
+                       final WaterLevelSensor waterLevelSensor,
+                       final BrewButtonSensor brewButton) {
+                final SpecializedCoffeeMaker coffeeMaker = new SpecializedCoffeeMaker(
+                        new NullBoiler(), new NullPotWarmer(), waterLevelSensor, potSensor, brewButton);
+                return fsm(coffeeMaker, coffeeMaker::getState);
+            }
+        };
+
+        abstract Fsm create(PotSensor potSensor, WaterLevelSensor waterLevelSensor, BrewButtonSensor brewButton);
+    }
+
+    /**
+     * the part of an Engine the benchmark looks at
+     */
+    interface Fsm {
+        void deliver(SensorEvent event);
+
+        CoffeeMaker.State getState();
+    }
+
+    /**
+     * @return an Fsm that delivers events to the specified Listener methods and reports the specified state
+     */
+    static Fsm fsm(final SensorListener listener, final Supplier<CoffeeMaker.State> state) {
+        return new Fsm() {
+            @Override
+            public void deliver(final SensorEvent event) {
+                event.deliver(listener);
+            }
+
+            @Override
+            public CoffeeMaker.State getState() {
+                return state.get();
+            }
+        };
+    }
+
+    /**
+     * a Scenario is a prelude that puts the CoffeeMaker into its starting state followed by a cycle of events that
+     * returns it to that state.
+     */
+    public enum Scenario {
+
+        /**
+         * Initial -> Brewing -> Warming -> WarmingInterrupted -> Initial, then the Boiler is refilled
+         */
+        BrewCycle(
+                new SensorEvent[]{SensorEvent.WaterLevelNotEmpty, SensorEvent.PotEmpty},
+                new SensorEvent[]{SensorEvent.BrewButtonPressed, SensorEvent.WaterLevelEmpty, SensorEvent.PotGone,
+                        SensorEvent.PotEmpty, SensorEvent.WaterLevelNotEmpty}),
+
+        /**
+         * Brewing -> BrewingInterrupted -> Brewing, over and over
+         */
+        SneakACup(
+                new SensorEvent[]{SensorEvent.WaterLevelNotEmpty, SensorEvent.PotEmpty, SensorEvent.BrewButtonPressed},
+                new SensorEvent[]{SensorEvent.PotGone, SensorEvent.PotEmpty}),
+
+        /**
+         * a brew cycle in which the pot is removed while brewing and while warming, so every state is visited
+         */
+        EveryState(
+                new SensorEvent[]{SensorEvent.WaterLevelNotEmpty, SensorEvent.PotEmpty},
+                new SensorEvent[]{SensorEvent.BrewButtonPressed, SensorEvent.PotGone, SensorEvent.PotEmpty,
+                        SensorEvent.WaterLevelEmpty, SensorEvent.PotGone, SensorEvent.PotNonEmpty, SensorEvent.PotGone,
+                        SensorEvent.PotEmpty, SensorEvent.WaterLevelNotEmpty}),
+
+        /**
+         * events that leave the CoffeeMaker in the Initial state
+         */
+        NoTransition(
+                new SensorEvent[]{SensorEvent.WaterLevelNotEmpty, SensorEvent.PotEmpty},
+                new SensorEvent[]{SensorEvent.BrewButtonNotPressed, SensorEvent.PotEmpty,
+                        SensorEvent.WaterLevelNotEmpty});
+
+        private final SensorEvent[] prelude;
+        private final SensorEvent[] cycle;
+
+        Scenario(final SensorEvent[] prelude, final SensorEvent[] cycle) {
+            this.prelude = prelude;
+            this.cycle = cycle;
+        }
+    }
+
+    @Param
+    public Engine engine;
+
+    @Param
+    public Scenario scenario;
+
+    private PotSensor potSensor;
+    private WaterLevelSensor waterLevelSensor;
+    private BrewButtonSensor brewButtonSensor;
+
+    private Fsm coffeeMaker;
+
+    private SensorEvent[] cycle;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        potSensor = new PotSensor();
+        waterLevelSensor = new WaterLevelSensor();
+        brewButtonSensor = new BrewButtonSensor();
+
+        coffeeMaker = engine.create(potSensor, waterLevelSensor, brewButtonSensor);
+
+        for (SensorEvent event : scenario.prelude) {
+            event.detect(potSensor, waterLevelSensor, brewButtonSensor);
+        }
+
+        cycle = scenario.cycle;
+        next = 0;
+    }
+
+    @Benchmark
+    public CoffeeMaker.State event() {
+        cycle[next].detect(potSensor, waterLevelSensor, brewButtonSensor);
+
+        if (++next == cycle.length) {
+            next = 0;
+        }
+
+        return coffeeMaker.getState();
+    }
+
+    /**
+     * delivers the events straight to the FSM's Listener methods, leaving out the cost of the sensors
+     */
+    @Benchmark
+    public CoffeeMaker.State listener() {
+        coffeeMaker.deliver(cycle[next]);
+
+        if (++next == cycle.length) {
+            next = 0;
+        }
+
+        return coffeeMaker.getState();
+    }
+}
+
+/**
+ * Actuators that do nothing so that the benchmarks only measure the FSM.
+ */
+
+class NullBoiler implements Boiler {
+    @Override
+    public void turnOn() {
+    }
+
+    @Override
+    public void turnOff() {
+    }
+}
+
+class NullPotWarmer implements PotWarmer {
+    @Override
+    public void turnOn() {
+    }
+
+    @Override
+    public void turnOff() {
+    }
+}
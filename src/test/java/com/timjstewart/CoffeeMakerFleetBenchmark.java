@@ -0,0 +1,147 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the memory it takes to host a fleet of coffee makers: one CoffeeMaker (with its own sensors) per device
+ * versus a CoffeeMakerFleet on the heap and off the heap.
+ * <p/>
+ * Each operation builds the whole fleet.  The heap and off-heap bytes per device that it took are reported as secondary
+ * results (see Footprint); run with -prof gc to have JMH report the heap allocated per fleet (gc.alloc.rate.norm) as
+ * well.  The CoffeeMakers share a single Boiler and PotWarmer, which flatters them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class CoffeeMakerFleetBenchmark {
+
+    public enum Engine {
+        CoffeeMakers,
+        HeapFleet,
+        OffHeapFleet
+    }
+
+    @Param
+    public Engine engine;
+
+    @Param({"1000000"})
+    public int devices;
+
+    private com.sun.management.ThreadMXBean threads;
+    private BufferPoolMXBean directBuffers;
+
+    private long heapBefore;
+    private long directBefore;
+
+    // the fleet built by the last operation, kept reachable until its footprint has been measured
+    private Object fleet;
+
+    @Setup
+    public void setUp() {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                directBuffers = pool;
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void measureBefore() {
+        fleet = null;
+        System.gc();
+
+        heapBefore = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        directBefore = directBuffers.getMemoryUsed();
+    }
+
+    /**
+     * the bytes per device that building the fleet took, which JMH reports next to the time it took
+     * <p/>
+     * JMH sums counters over the measurement iterations, so each iteration records its share of their mean.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public double heapBytesPerDevice;
+        public double offHeapBytesPerDevice;
+    }
+
+    @TearDown(Level.Iteration)
+    public void measureAfter(final Footprint footprint, final IterationParams iteration) {
+        // a Thread-scoped state is set up and torn down by the thread that runs its benchmark
+        final long heap = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - heapBefore;
+        final long direct = directBuffers.getMemoryUsed() - directBefore;
+
+        final double share = 1.0 / iteration.getCount();
+        footprint.heapBytesPerDevice = (double) heap / devices * share;
+        footprint.offHeapBytesPerDevice = (double) direct / devices * share;
+
+        fleet = null;
+    }
+
+    @Benchmark
+    public Object build() {
+        switch (engine) {
+            case CoffeeMakers:
+                final NullBoiler boiler = new NullBoiler();
+                final NullPotWarmer potWarmer = new NullPotWarmer();
+                final CoffeeMaker[] coffeeMakers = new CoffeeMaker[devices];
+                for (int device = 0; device < devices; ++device) {
+                    coffeeMakers[device] = new CoffeeMaker(
+                            boiler, potWarmer, new WaterLevelSensor(), new PotSensor(), new BrewButtonSensor());
+                }
+                fleet = coffeeMakers;
+                break;
+
+            case HeapFleet:
+                fleet = CoffeeMakerFleet.onHeap(devices, new NullActuators());
+                break;
+
+            case OffHeapFleet:
+                fleet = CoffeeMakerFleet.offHeap(devices, new NullActuators());
+                break;
+        }
+        return fleet;
+    }
+
+    /**
+     * actuators that ignore every command
+     */
+    static class NullActuators implements CoffeeMakerFleet.Actuators {
+
+        @Override
+        public void setBoiler(final int device, final boolean on) {
+        }
+
+        @Override
+        public void setPotWarmer(final int device, final boolean on) {
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * records the commands issued to each coffee maker of a fleet, in the same format as CommandLog
+ */
+class FleetCommandLog implements CoffeeMakerFleet.Actuators {
+
+    private final StringBuilder[] commands;
+
+    FleetCommandLog(final int devices) {
+        commands = new StringBuilder[devices];
+        for (int device = 0; device < devices; ++device) {
+            commands[device] = new StringBuilder();
+        }
+    }
+
+    @Override
+    public void setBoiler(final int device, final boolean on) {
+        commands[device].append(on ? "Boiler:on " : "Boiler:off ");
+    }
+
+    @Override
+    public void setPotWarmer(final int device, final boolean on) {
+        commands[device].append(on ? "PotWarmer:on " : "PotWarmer:off ");
+    }
+
+    String toString(final int device) {
+        return commands[device].toString();
+    }
+}
+
+public class CoffeeMakerFleetTest {
+
+    private static final int DEVICES = 1000;
+    private static final int EVENTS = 200000;
+
+    private static final int LARGE_FLEET = 1000000;
+
+    private static final SensorEvent[] SENSOR_EVENTS = SensorEvent.values();
+
+    private static final long WARMING_SECONDS = 30;
+
+    private static final TimedCoffeeMaker.Timeouts TIMEOUTS = TimedCoffeeMaker.Timeouts.none()
+            .with(CoffeeMaker.State.Warming, WARMING_SECONDS, TimeUnit.SECONDS)
+            .with(CoffeeMaker.State.BrewingInterrupted, 5, TimeUnit.SECONDS);
+
+    @Test
+    public void everyCoffeeMakerStartsInTheInitialState() {
+        final CoffeeMakerFleet fleet = CoffeeMakerFleet.onHeap(3, new FleetCommandLog(3));
+
+        for (int device = 0; device < fleet.size(); ++device) {
+            assertEquals(CoffeeMaker.State.Initial, fleet.getState(device));
+            assertNull(fleet.getWaterLevel(device));
+            assertNull(fleet.getPot(device));
+        }
+    }
+
+    @Test
+    public void brewsIndependently() {
+        final FleetCommandLog log = new FleetCommandLog(2);
+        final CoffeeMakerFleet fleet = CoffeeMakerFleet.offHeap(2, log);
+
+        fleet.onPotStatusChanged(1, PotSensor.State.Empty);
+        fleet.onWaterLevelChanged(1, WaterLevelSensor.State.NotEmpty);
+        fleet.onBrewButtonStatusChanged(1, BrewButtonSensor.State.Pressed);
+
+        assertEquals(CoffeeMaker.State.Initial, fleet.getState(0));
+        assertEquals(CoffeeMaker.State.Brewing, fleet.getState(1));
+        assertEquals(PotSensor.State.Empty, fleet.getPot(1));
+        assertEquals(WaterLevelSensor.State.NotEmpty, fleet.getWaterLevel(1));
+
+        assertEquals("", log.toString(0));
+        assertEquals("Boiler:on ", log.toString(1));
+    }
+
+    @Test
+    public void behavesExactlyLikeCoffeeMakers() {
+        final Random random = new Random(6);
+
+        final FleetCommandLog fleetLog = new FleetCommandLog(DEVICES);
+        final CoffeeMakerFleet fleet = CoffeeMakerFleet.onHeap(DEVICES, fleetLog);
+
+        final CommandLog[] logs = new CommandLog[DEVICES];
+        final CoffeeMaker[] coffeeMakers = new CoffeeMaker[DEVICES];
+        final PotSensor[] potSensors = new PotSensor[DEVICES];
+        final WaterLevelSensor[] waterLevelSensors = new WaterLevelSensor[DEVICES];
+        final BrewButtonSensor[] brewButtonSensors = new BrewButtonSensor[DEVICES];
+
+        for (int device = 0; device < DEVICES; ++device) {
+            logs[device] = new CommandLog();
+            potSensors[device] = new PotSensor();
+            waterLevelSensors[device] = new WaterLevelSensor();
+            brewButtonSensors[device] = new BrewButtonSensor();
+            coffeeMakers[device] = new CoffeeMaker(logs[device].boiler, logs[device].potWarmer,
+                    waterLevelSensors[device], potSensors[device], brewButtonSensors[device]);
+        }
+
+        for (int i = 0; i < EVENTS; ++i) {
+            final int device = random.nextInt(DEVICES);
+            final SensorEvent event = SENSOR_EVENTS[random.nextInt(SENSOR_EVENTS.length)];
+
+            event.detect(potSensors[device], waterLevelSensors[device], brewButtonSensors[device]);
+            fleet.apply(device, event);
+
+            assertEquals(coffeeMakers[device].getState(), fleet.getState(device));
+        }
+
+        for (int device = 0; device < DEVICES; ++device) {
+            assertEquals(logs[device].toString(), fleetLog.toString(device));
+        }
+    }
+
+    @Test
+    public void timesOutExactlyLikeTimedCoffeeMakers() {
+        final Random random = new Random(8);
+
+        final SteppingTicker ticker = new SteppingTicker();
+        final HashedWheelTimer fleetTimer = new HashedWheelTimer(ticker, 1, TimeUnit.SECONDS, 64, 16);
+        final HashedWheelTimer coffeeMakersTimer = new HashedWheelTimer(ticker, 1, TimeUnit.SECONDS, 64, 16);
+
+        final FleetCommandLog fleetLog = new FleetCommandLog(DEVICES);
+        final CoffeeMakerFleet fleet = CoffeeMakerFleet.onHeap(DEVICES, fleetLog, fleetTimer, TIMEOUTS);
+
+        final CommandLog[] logs = new CommandLog[DEVICES];
+        final TimedCoffeeMaker[] coffeeMakers = new TimedCoffeeMaker[DEVICES];
+        final PotSensor[] potSensors = new PotSensor[DEVICES];
+        final WaterLevelSensor[] waterLevelSensors = new WaterLevelSensor[DEVICES];
+        final BrewButtonSensor[] brewButtonSensors = new BrewButtonSensor[DEVICES];
+
+        for (int device = 0; device < DEVICES; ++device) {
+            logs[device] = new CommandLog();
+            potSensors[device] = new PotSensor();
+            waterLevelSensors[device] = new WaterLevelSensor();
+            brewButtonSensors[device] = new BrewButtonSensor();
+            coffeeMakers[device] = new TimedCoffeeMaker(logs[device].boiler, logs[device].potWarmer,
+                    waterLevelSensors[device], potSensors[device], brewButtonSensors[device], coffeeMakersTimer,
+                    TIMEOUTS);
+        }
+
+        int expired = 0;
+        for (int i = 0; i < EVENTS; ++i) {
+            if (random.nextInt(10) == 0) {
+                ticker.nanos += TimeUnit.SECONDS.toNanos(random.nextInt(10));
+                coffeeMakersTimer.advance();
+                expired += fleetTimer.advance();
+            }
+
+            final int device = random.nextInt(DEVICES);
+            final SensorEvent event = SENSOR_EVENTS[random.nextInt(SENSOR_EVENTS.length)];
+
+            event.detect(potSensors[device], waterLevelSensors[device], brewButtonSensors[device]);
+            fleet.apply(device, event);
+
+            assertEquals(coffeeMakers[device].getState(), fleet.getState(device));
+            assertEquals(coffeeMakers[device].isTimerPending(), fleet.isTimerPending(device));
+        }
+
+        assertTrue("no state timed out", expired > 0);
+        assertEquals(coffeeMakersTimer.getPending(), fleetTimer.getPending());
+
+        for (int device = 0; device < DEVICES; ++device) {
+            assertEquals(coffeeMakers[device].getState(), fleet.getState(device));
+            assertEquals(logs[device].toString(), fleetLog.toString(device));
+        }
+    }
+
+    @Test
+    public void aRestoredCoffeeMakersStayStartsWhenItsRestored() {
+        final CoffeeMakerFleet fleet = CoffeeMakerFleet.onHeap(2, new FleetCommandLog(2));
+        fleet.onPotStatusChanged(1, PotSensor.State.Empty);
+        fleet.onWaterLevelChanged(1, WaterLevelSensor.State.NotEmpty);
+        fleet.onBrewButtonStatusChanged(1, BrewButtonSensor.State.Pressed);
+        fleet.onWaterLevelChanged(1, WaterLevelSensor.State.Empty);
+        assertEquals(CoffeeMaker.State.Warming, fleet.getState(1));
+
+        final SteppingTicker ticker = new SteppingTicker();
+        final HashedWheelTimer timer = new HashedWheelTimer(ticker, 1, TimeUnit.SECONDS, 64, 16);
+        final FleetCommandLog log = new FleetCommandLog(2);
+        final CoffeeMakerFleet restarted = CoffeeMakerFleet.offHeap(2, log, timer, TIMEOUTS);
+
+        ticker.nanos += TimeUnit.MINUTES.toNanos(1);
+        timer.advance();
+        restarted.restore(Snapshot.of(fleet));
+
+        assertFalse(restarted.isTimerPending(0));
+        assertTrue(restarted.isTimerPending(1));
+
+        ticker.nanos += TimeUnit.SECONDS.toNanos(WARMING_SECONDS - 1);
+        timer.advance();
+        assertEquals(CoffeeMaker.State.Warming, restarted.getState(1));
+
+        ticker.nanos += TimeUnit.SECONDS.toNanos(1);
+        timer.advance();
+        assertEquals(CoffeeMaker.State.Initial, restarted.getState(1));
+        assertEquals("Boiler:off PotWarmer:on PotWarmer:off ", log.toString(1));
+        assertEquals(0, timer.getPending());
+    }
+
+    @Test
+    public void takesOneByteOfHeapPerCoffeeMaker() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final FleetCommandLog log = new FleetCommandLog(0);
+        CoffeeMakerFleet.onHeap(0, log);
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(threadId);
+
+        final CoffeeMakerFleet fleet = CoffeeMakerFleet.onHeap(LARGE_FLEET, log);
+
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(LARGE_FLEET, fleet.size());
+        assertTrue("bytes allocated by " + LARGE_FLEET + " coffee makers: " + allocated,
+                allocated < 2L * LARGE_FLEET);
+    }
+
+    @Test
+    public void appliesABatchInParallelLikeOneEventAtATime() {
+        final Random random = new Random(7);
+
+        final EventBatch batch = new EventBatch(0);
+        for (int i = 0; i < EVENTS; ++i) {
+            batch.add(random.nextInt(DEVICES), SENSOR_EVENTS[random.nextInt(SENSOR_EVENTS.length)]);
+        }
+
+        final FleetCommandLog sequentialLog = new FleetCommandLog(DEVICES);
+        final CoffeeMakerFleet sequential = CoffeeMakerFleet.onHeap(DEVICES, sequentialLog);
+        for (int i = 0; i < batch.size(); ++i) {
+            sequential.apply(batch.getDevice(i), SensorEvent.valueOf(batch.getEvent(i)));
+        }
+
+        final FleetCommandLog parallelLog = new FleetCommandLog(DEVICES);
+        final CoffeeMakerFleet parallel = CoffeeMakerFleet.offHeap(DEVICES, parallelLog);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parallel.apply(batch, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int device = 0; device < DEVICES; ++device) {
+            assertEquals(sequential.getState(device), parallel.getState(device));
+            assertEquals(sequentialLog.toString(device), parallelLog.toString(device));
+        }
+    }
+
+    @Test
+    public void checksEveryDeviceOfABatchBeforeApplyingIt() {
+        final CoffeeMakerFleet fleet = CoffeeMakerFleet.onHeap(2, new FleetCommandLog(2));
+
+        final EventBatch batch = new EventBatch(2);
+        batch.add(0, PotSensor.State.Empty);
+        batch.add(2, PotSensor.State.Empty);
+
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            fleet.apply(batch, pool);
+            fail("applied an event to a device outside the fleet");
+        } catch (IndexOutOfBoundsException e) {
+            assertNull(fleet.getPot(0));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsDevicesOutsideTheFleet() {
+        CoffeeMakerFleet.onHeap(2, new FleetCommandLog(2)).apply(2, SensorEvent.PotGone);
+    }
+}
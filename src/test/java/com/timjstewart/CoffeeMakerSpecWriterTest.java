@@ -0,0 +1,38 @@
+package com.timjstewart;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class CoffeeMakerSpecWriterTest {
+
+    // the spec that GeneratedCoffeeMaker is generated from, relative to the project's base directory (which the build
+    // runs the tests in)
+    private static final File SPEC_FILE = new File("src/main/java/com/timjstewart/CoffeeMakerSpec.java");
+
+    @Test
+    public void theSpecIsWhatTheAbstractStateClassesDo() throws IOException {
+        assertTrue(SPEC_FILE + " is missing", SPEC_FILE.isFile());
+
+        final String spec = new String(Files.readAllBytes(SPEC_FILE.toPath()), StandardCharsets.UTF_8);
+
+        assertEquals("the states' behavior has changed; if that was intended, regenerate " + SPEC_FILE.getName()
+                        + " by running CoffeeMakerSpecWriter", CoffeeMakerSpecWriter.write(TransitionTable.compiled()),
+                spec);
+    }
+
+    @Test
+    public void declaresTheTimeouts() {
+        final String spec = CoffeeMakerSpecWriter.write(TransitionTable.compiled());
+
+        assertTrue(spec.contains("@Transition(from = \"Warming\", on = \"Timeout\",\n"
+                + "        commands = \"PotWarmerOff\", to = \"Initial\")\n"));
+        assertTrue(spec.contains("@Transition(from = \"BrewingInterrupted\", on = \"Timeout\",\n"
+                + "        to = \"Initial\")\n"));
+    }
+}
@@ -1,12 +1,29 @@
 package com.timjstewart;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.timjstewart.actuator.ActuatorFailure;
+import com.timjstewart.actuator.AsyncActuator;
 import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.CoalescingBoiler;
+import com.timjstewart.actuator.PipelinedActuator;
 import com.timjstewart.actuator.PotWarmer;
 import com.timjstewart.sensor.BrewButtonSensor;
 import com.timjstewart.sensor.PotSensor;
 import com.timjstewart.sensor.WaterLevelSensor;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import static org.junit.Assert.*;
 
@@ -49,9 +66,141 @@ class PotWarmerSpy implements PotWarmer {
     }
 }
 
+/**
+ * an AsyncActuator that carries out its commands straight away, or rejects them by throwing
+ */
+class RejectingAsyncActuator implements AsyncActuator {
+
+    boolean rejectTurnOn;
+    boolean rejectTurnOff;
+
+    int turnOffs;
+
+    @Override
+    public ListenableFuture<?> turnOn() {
+        if (rejectTurnOn) {
+            throw new IllegalStateException("the relay is stuck");
+        }
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public ListenableFuture<?> turnOff() {
+        ++turnOffs;
+        if (rejectTurnOff) {
+            throw new IllegalStateException("the relay is stuck");
+        }
+        return Futures.immediateFuture(null);
+    }
+}
+
+/**
+ * the scenarios that every implementation of the Coffee Maker FSM that handles actuator failures has to pass
+ */
+@RunWith(Parameterized.class)
 public class CoffeeMakerTest {
 
-    private CoffeeMaker coffeeMaker;
+    /**
+     * a coffee maker being tested, whichever Engine implements it
+     */
+    interface Subject extends ActuatorFailure.Listener {
+        CoffeeMaker.State getState();
+    }
+
+    /**
+     * the implementations of the Coffee Maker FSM
+     */
+    enum Engine {
+        Handwritten {
+            @Override
+            Subject create(final Boiler boiler,
+                           final PotWarmer potWarmer,
+                           final WaterLevelSensor waterLevelSensor,
+                           final PotSensor potSensor,
+                           final BrewButtonSensor brewButton) {
+                final CoffeeMaker coffeeMaker = new CoffeeMaker(boiler, potWarmer, waterLevelSensor, potSensor,
+                        brewButton);
+                return subject(coffeeMaker::getState, coffeeMaker);
+            }
+        },
+        Generic {
+            @Override
+            Subject create(final Boiler boiler,
+                           final PotWarmer potWarmer,
+                           final WaterLevelSensor waterLevelSensor,
+                           final PotSensor potSensor,
+                           final BrewButtonSensor brewButton) {
+                final GenericCoffeeMaker coffeeMaker = new GenericCoffeeMaker(boiler, potWarmer, waterLevelSensor,
+                        potSensor, brewButton);
+                return subject(coffeeMaker::getState, coffeeMaker);
+            }
+        },
+        Specialized {
+            @Override
+            Subject create(final Boiler boiler,
+                           final PotWarmer potWarmer,
+                           final WaterLevelSensor waterLevelSensor,
+                           final PotSensor potSensor,
+                           final BrewButtonSensor brewButton) {
+                final SpecializedCoffeeMaker coffeeMaker = new SpecializedCoffeeMaker(boiler, potWarmer,
+                        waterLevelSensor, potSensor, brewButton);
+                return subject(coffeeMaker::getState, coffeeMaker);
+            }
+        },
+        Generated {
+            @Override
+            Subject create(final Boiler boiler,
+                           final PotWarmer potWarmer,
+                           final WaterLevelSensor waterLevelSensor,
+                           final PotSensor potSensor,
+                           final BrewButtonSensor brewButton) {
+                final GeneratedCoffeeMaker coffeeMaker = new GeneratedCoffeeMaker(boiler, potWarmer,
+                        waterLevelSensor, potSensor, brewButton);
+                return subject(coffeeMaker::getState, coffeeMaker);
+            }
+        };
+
+        /**
+         * @return a new coffee maker that listens to the specified sensors
+         */
+        abstract Subject create(Boiler boiler,
+                                PotWarmer potWarmer,
+                                WaterLevelSensor waterLevelSensor,
+                                PotSensor potSensor,
+                                BrewButtonSensor brewButton);
+
+        /**
+         * @return a Subject whose state is the CoffeeMaker.State of the same name as the specified one
+         */
+        private static Subject subject(final Supplier<? extends Enum<?>> state,
+                                       final ActuatorFailure.Listener listener) {
+            return new Subject() {
+                @Override
+                public CoffeeMaker.State getState() {
+                    return CoffeeMaker.State.valueOf(state.get().name());
+                }
+
+                @Override
+                public void onActuatorFailed(ActuatorFailure failure) {
+                    listener.onActuatorFailed(failure);
+                }
+            };
+        }
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        final List<Object[]> engines = new ArrayList<Object[]>();
+        for (Engine engine : Engine.values()) {
+            engines.add(new Object[]{engine});
+        }
+        return engines;
+    }
+
+    @Parameterized.Parameter
+    public Engine engine;
+
+    private Subject coffeeMaker;
 
     private BoilerSpy boilerSpy;
     private PotWarmerSpy potWarmerSpy;
@@ -69,7 +218,7 @@ public class CoffeeMakerTest {
         waterLevelSensor = new WaterLevelSensor();
         brewButtonSensor = new BrewButtonSensor();
 
-        coffeeMaker = new CoffeeMaker(boilerSpy, potWarmerSpy, waterLevelSensor, potSensor, brewButtonSensor);
+        coffeeMaker = engine.create(boilerSpy, potWarmerSpy, waterLevelSensor, potSensor, brewButtonSensor);
     }
 
     @Test
@@ -119,4 +268,143 @@ public class CoffeeMakerTest {
         assertFalse(boilerSpy.isOn());
         assertFalse(potWarmerSpy.isOn());
     }
+
+    @Test
+    public void seesTheReadingOfARestoredSensor() {
+        // restoring doesn't tell the Listeners, so the Guard Conditions have to look at the sensors
+        potSensor.restore(PotSensor.State.Empty);
+        waterLevelSensor.restore(WaterLevelSensor.State.NotEmpty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertTrue(boilerSpy.isOn());
+    }
+
+    @Test
+    public void stopsSafelyWhenAnActuatorFails() {
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+
+        coffeeMaker.onActuatorFailed(new ActuatorFailure(ActuatorFailure.Role.Boiler, boilerSpy,
+                false, ActuatorFailure.Kind.TimedOut, null));
+
+        assertEquals(CoffeeMaker.State.Failed, coffeeMaker.getState());
+
+        assertFalse(boilerSpy.isOn());
+        assertFalse(potWarmerSpy.isOn());
+    }
+
+    @Test
+    public void staysFailedUntilTheBrewButtonIsPressed() {
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+        coffeeMaker.onActuatorFailed(new ActuatorFailure(ActuatorFailure.Role.Boiler, boilerSpy,
+                true, ActuatorFailure.Kind.Failed, null));
+        coffeeMaker.onActuatorFailed(new ActuatorFailure(ActuatorFailure.Role.PotWarmer, potWarmerSpy,
+                false, ActuatorFailure.Kind.Failed, null));
+        waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+        potSensor.detect(PotSensor.State.NonEmpty);
+
+        assertEquals(CoffeeMaker.State.Failed, coffeeMaker.getState());
+        assertFalse(potWarmerSpy.isOn());
+
+        // the first press acknowledges the fault and the second brews
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        assertEquals(CoffeeMaker.State.Initial, coffeeMaker.getState());
+
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertTrue(boilerSpy.isOn());
+    }
+
+    @Test
+    public void recognizesAFailedActuatorThatIsWrapped() {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final RejectingAsyncActuator relay = new RejectingAsyncActuator();
+            final PipelinedActuator boiler = new PipelinedActuator(ActuatorFailure.Role.Boiler, relay, scheduler,
+                    1, TimeUnit.SECONDS, MoreExecutors.sameThreadExecutor());
+
+            coffeeMaker = engine.create(new CoalescingBoiler(boiler), potWarmerSpy, waterLevelSensor,
+                    potSensor, brewButtonSensor);
+            boiler.addListener(coffeeMaker);
+
+            potSensor.detect(PotSensor.State.Empty);
+            waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+            brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+            // the Boiler fails to turn off, so it's left alone rather than being told to turn off again
+            relay.rejectTurnOff = true;
+            waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+
+            assertEquals(CoffeeMaker.State.Failed, coffeeMaker.getState());
+            assertEquals(1, relay.turnOffs);
+            assertFalse(potWarmerSpy.isOn());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void aFailureReportedDuringATransitionIsHandledAfterIt() {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final RejectingAsyncActuator relay = new RejectingAsyncActuator();
+            relay.rejectTurnOn = true;
+            final PipelinedActuator boiler = new PipelinedActuator(ActuatorFailure.Role.Boiler, relay, scheduler,
+                    1, TimeUnit.SECONDS, MoreExecutors.sameThreadExecutor());
+
+            coffeeMaker = engine.create(boiler, potWarmerSpy, waterLevelSensor, potSensor, brewButtonSensor);
+            boiler.addListener(coffeeMaker);
+
+            // the Boiler's failure to turn on is reported before the transition to Brewing has finished
+            potSensor.detect(PotSensor.State.Empty);
+            waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+            brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+            assertEquals(CoffeeMaker.State.Failed, coffeeMaker.getState());
+            assertEquals(1, relay.turnOffs);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void bothActuatorsFailingDoesNotBounceFailuresBackAndForth() {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final RejectingAsyncActuator boilerRelay = new RejectingAsyncActuator();
+            final RejectingAsyncActuator potWarmerRelay = new RejectingAsyncActuator();
+            boilerRelay.rejectTurnOn = boilerRelay.rejectTurnOff = true;
+            potWarmerRelay.rejectTurnOn = potWarmerRelay.rejectTurnOff = true;
+
+            final PipelinedActuator boiler = new PipelinedActuator(ActuatorFailure.Role.Boiler, boilerRelay,
+                    scheduler, 1, TimeUnit.SECONDS, MoreExecutors.sameThreadExecutor());
+            final PipelinedActuator potWarmer = new PipelinedActuator(ActuatorFailure.Role.PotWarmer,
+                    potWarmerRelay, scheduler, 1, TimeUnit.SECONDS, MoreExecutors.sameThreadExecutor());
+
+            coffeeMaker = engine.create(boiler, potWarmer, waterLevelSensor, potSensor, brewButtonSensor);
+            boiler.addListener(coffeeMaker);
+            potWarmer.addListener(coffeeMaker);
+
+            potSensor.detect(PotSensor.State.Empty);
+            waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+            brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+            // turning on failed, so both actuators were told to turn off once, which failed too and was ignored
+            assertEquals(CoffeeMaker.State.Failed, coffeeMaker.getState());
+            assertEquals(1, boilerRelay.turnOffs);
+            assertEquals(1, potWarmerRelay.turnOffs);
+            assertEquals(2, boiler.getFailed());
+            assertEquals(1, potWarmer.getFailed());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
 }
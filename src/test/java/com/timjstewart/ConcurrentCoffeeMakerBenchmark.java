@@ -0,0 +1,115 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a CoffeeMaker whose three sensors report from three threads at once: the PotSensor and WaterLevelSensor
+ * threads flip between readings as fast as they can while a third thread keeps pressing the Brew button.
+ * <p/>
+ * Locked guards every detect call with a single lock per CoffeeMaker, which is what sharing a CoffeeMaker between
+ * threads takes today; LockFree uses a ConcurrentCoffeeMaker.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentCoffeeMakerBenchmark {
+
+    public enum Engine {
+        Locked,
+        LockFree
+    }
+
+    @Param
+    public Engine engine;
+
+    private PotSensor potSensor;
+    private WaterLevelSensor waterLevelSensor;
+    private BrewButtonSensor brewButtonSensor;
+
+    private boolean locked;
+    private final Object lock = new Object();
+
+    // each of these is only touched by the one thread that reports for that sensor
+    private int potReadings;
+    private int waterLevelReadings;
+
+    @Setup
+    public void setUp() {
+        potSensor = new PotSensor();
+        waterLevelSensor = new WaterLevelSensor();
+        brewButtonSensor = new BrewButtonSensor();
+
+        locked = engine == Engine.Locked;
+
+        if (locked) {
+            new CoffeeMaker(new NullBoiler(), new NullPotWarmer(), waterLevelSensor, potSensor, brewButtonSensor);
+        } else {
+            new ConcurrentCoffeeMaker(
+                    new NullBoiler(), new NullPotWarmer(), waterLevelSensor, potSensor, brewButtonSensor);
+        }
+    }
+
+    @Benchmark
+    @Group("sensors")
+    @GroupThreads(1)
+    public void pot() {
+        final PotSensor.State newState = (++potReadings & 1) == 0 ? PotSensor.State.Empty : PotSensor.State.Gone;
+
+        if (locked) {
+            synchronized (lock) {
+                potSensor.detect(newState);
+            }
+        } else {
+            potSensor.detect(newState);
+        }
+    }
+
+    @Benchmark
+    @Group("sensors")
+    @GroupThreads(1)
+    public void waterLevel() {
+        final WaterLevelSensor.State newState = (++waterLevelReadings & 1) == 0 ?
+                WaterLevelSensor.State.Empty : WaterLevelSensor.State.NotEmpty;
+
+        if (locked) {
+            synchronized (lock) {
+                waterLevelSensor.detect(newState);
+            }
+        } else {
+            waterLevelSensor.detect(newState);
+        }
+    }
+
+    @Benchmark
+    @Group("sensors")
+    @GroupThreads(1)
+    public void brewButton() {
+        if (locked) {
+            synchronized (lock) {
+                brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+            }
+        } else {
+            brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        }
+    }
+}
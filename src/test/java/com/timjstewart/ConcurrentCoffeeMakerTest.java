@@ -0,0 +1,256 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * an actuator that checks that it is commanded by one thread at a time and that its commands alternate between on and
+ * off (which is what the FSM does when its transitions are applied in a single order)
+ */
+class SerialActuatorSpy implements Boiler, PotWarmer {
+
+    private final AtomicInteger callers = new AtomicInteger();
+    private final AtomicReference<String> violation = new AtomicReference<String>();
+
+    private volatile boolean on;
+    private int commands;
+
+    @Override
+    public void turnOn() {
+        command(true);
+    }
+
+    @Override
+    public void turnOff() {
+        command(false);
+    }
+
+    private void command(final boolean turnOn) {
+        if (callers.incrementAndGet() != 1) {
+            violation.compareAndSet(null, "commanded by two threads at once");
+        }
+        if (on == turnOn) {
+            violation.compareAndSet(null, "turned " + (turnOn ? "on" : "off") + " twice in a row");
+        }
+        on = turnOn;
+        ++commands;
+        callers.decrementAndGet();
+    }
+
+    boolean isOn() {
+        return on;
+    }
+
+    int getCommands() {
+        return commands;
+    }
+
+    String getViolation() {
+        return violation.get();
+    }
+}
+
+public class ConcurrentCoffeeMakerTest {
+
+    private static final int EVENTS_PER_SENSOR = 200000;
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private SerialActuatorSpy boiler;
+    private SerialActuatorSpy potWarmer;
+
+    private PotSensor potSensor;
+    private WaterLevelSensor waterLevelSensor;
+    private BrewButtonSensor brewButtonSensor;
+
+    private ConcurrentCoffeeMaker coffeeMaker;
+
+    @Before
+    public void setUp() {
+        boiler = new SerialActuatorSpy();
+        potWarmer = new SerialActuatorSpy();
+
+        potSensor = new PotSensor();
+        waterLevelSensor = new WaterLevelSensor();
+        brewButtonSensor = new BrewButtonSensor();
+
+        coffeeMaker = new ConcurrentCoffeeMaker(boiler, potWarmer, waterLevelSensor, potSensor, brewButtonSensor);
+    }
+
+    @Test
+    public void behavesLikeCoffeeMakerOnASingleThread() {
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertTrue(boiler.isOn());
+
+        waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+        potSensor.detect(PotSensor.State.Gone);
+
+        assertEquals(CoffeeMaker.State.WarmingInterrupted, coffeeMaker.getState());
+        assertFalse(boiler.isOn());
+        assertFalse(potWarmer.isOn());
+    }
+
+    @Test
+    public void sensorsReportingFromSeparateThreads() throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final Random random = new Random(1);
+                final PotSensor.State[] states = PotSensor.State.values();
+                await(start);
+                for (int i = 0; i < EVENTS_PER_SENSOR; ++i) {
+                    potSensor.detect(states[random.nextInt(states.length)]);
+                }
+            }
+        }));
+
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final Random random = new Random(2);
+                final WaterLevelSensor.State[] states = WaterLevelSensor.State.values();
+                await(start);
+                for (int i = 0; i < EVENTS_PER_SENSOR; ++i) {
+                    waterLevelSensor.detect(states[random.nextInt(states.length)]);
+                }
+            }
+        }));
+
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                await(start);
+                for (int i = 0; i < EVENTS_PER_SENSOR; ++i) {
+                    brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+                }
+            }
+        }));
+
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+
+        assertNull("Boiler " + boiler.getViolation(), boiler.getViolation());
+        assertNull("PotWarmer " + potWarmer.getViolation(), potWarmer.getViolation());
+
+        // make sure the threads actually drove the FSM around
+        assertTrue(boiler.getCommands() > 0);
+        assertTrue(potWarmer.getCommands() > 0);
+
+        assertEquals(coffeeMaker.getState() == CoffeeMaker.State.Brewing, boiler.isOn());
+        assertEquals(coffeeMaker.getState() == CoffeeMaker.State.Warming, potWarmer.isOn());
+    }
+
+    @Test
+    public void reportingThreadWaitsForRoomWhileTheApplyingThreadIsBusy() throws InterruptedException {
+        final CountDownLatch commanded = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+
+        // a Boiler that takes until the test tells it to finish to turn on
+        final Boiler slowBoiler = new Boiler() {
+            @Override
+            public void turnOn() {
+                commanded.countDown();
+                await(finish);
+            }
+
+            @Override
+            public void turnOff() {
+            }
+        };
+
+        final PotSensor potSensor = new PotSensor();
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        final BrewButtonSensor brewButtonSensor = new BrewButtonSensor();
+        final ConcurrentCoffeeMaker coffeeMaker = new ConcurrentCoffeeMaker(
+                slowBoiler, potWarmer, waterLevelSensor, potSensor, brewButtonSensor);
+
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+
+        final Thread applier = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+            }
+        });
+        applier.start();
+        commanded.await();
+
+        // fill the ring buffer while the applying thread is busy turning the Boiler on
+        for (int i = 0; i < ConcurrentCoffeeMaker.MAX_PENDING; ++i) {
+            waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        }
+
+        final Thread reporter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                potSensor.detect(PotSensor.State.Empty);
+            }
+        });
+        reporter.start();
+        awaitWaiting(reporter);
+
+        finish.countDown();
+        applier.join(TIMEOUT_MILLIS);
+        reporter.join(TIMEOUT_MILLIS);
+
+        assertFalse(applier.isAlive());
+        assertFalse(reporter.isAlive());
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertEquals(BrewButtonSensor.State.NotPressed, brewButtonSensor.getBrewButtonState());
+    }
+
+    private static void awaitWaiting(final Thread thread) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
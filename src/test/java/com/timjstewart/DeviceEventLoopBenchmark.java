@@ -0,0 +1,183 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long it takes a fleet of coffee makers with blocking actuators to handle one sneak-a-cup (the pot lifted
+ * and put back while brewing) on every device.  Each of those events turns the Boiler off or on, which takes
+ * actuatorNanos.
+ * <p/>
+ * VirtualThreads runs each coffee maker in a DeviceEventLoop on a virtual thread of its own and fails on JVMs without
+ * virtual threads (before Java 21).  PlatformPool puts each coffee maker behind an EventMailbox and shares a fixed pool
+ * of poolThreads platform threads between them, so at most poolThreads actuators can be commanded at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class DeviceEventLoopBenchmark {
+
+    public enum Engine {
+        VirtualThreads,
+        PlatformPool
+    }
+
+    @Param
+    public Engine engine;
+
+    @Param({"10000", "100000"})
+    public int devices;
+
+    // how long each actuator command takes
+    @Param({"1000000"})
+    public long actuatorNanos;
+
+    @Param({"64"})
+    public int poolThreads;
+
+    private PotSensor[] potSensors;
+
+    private final List<DeviceEventLoop> loops = new ArrayList<DeviceEventLoop>();
+    private ExecutorService pool;
+
+    // the number of events that have been delivered to the coffee makers
+    private final AtomicLong delivered = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        final ThreadFactory threadFactory = engine == Engine.VirtualThreads ?
+                com.timjstewart.VirtualThreads.factory("coffee-maker-") : null;
+
+        if (engine == Engine.PlatformPool) {
+            pool = Executors.newFixedThreadPool(poolThreads);
+        }
+
+        final EventMailboxBenchmark.SlowActuator actuator = new EventMailboxBenchmark.SlowActuator(actuatorNanos);
+
+        potSensors = new PotSensor[devices];
+        for (int device = 0; device < devices; ++device) {
+            final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+            final PotSensor potSensor = new PotSensor();
+            final BrewButtonSensor brewButtonSensor = new BrewButtonSensor();
+
+            if (engine == Engine.VirtualThreads) {
+                final DeviceEventLoop loop = new DeviceEventLoop(16);
+                loop.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+                final SensorListener coffeeMaker = new CountingListener(new CoffeeMaker(new CoffeeMaker.Components(
+                        actuator, actuator, loop.getWaterLevelSensor(), loop.getPotSensor(), loop.getBrewButton())),
+                        delivered);
+                loop.getWaterLevelSensor().addListener(coffeeMaker);
+                loop.getPotSensor().addListener(coffeeMaker);
+                loop.getBrewButton().addListener(coffeeMaker);
+                loop.start(threadFactory);
+                loops.add(loop);
+            } else {
+                final EventMailbox mailbox = new EventMailbox(pool, 16, EventMailbox.Backpressure.Block, 16);
+                mailbox.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+                final SensorListener coffeeMaker = new CountingListener(new CoffeeMaker(new CoffeeMaker.Components(
+                        actuator, actuator, mailbox.getWaterLevelSensor(), mailbox.getPotSensor(),
+                        mailbox.getBrewButton())), delivered);
+                mailbox.getWaterLevelSensor().addListener(coffeeMaker);
+                mailbox.getPotSensor().addListener(coffeeMaker);
+                mailbox.getBrewButton().addListener(coffeeMaker);
+            }
+
+            waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+            potSensor.detect(PotSensor.State.Empty);
+            brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+            potSensors[device] = potSensor;
+        }
+
+        // every coffee maker must be Brewing before the benchmark starts moving the pots
+        awaitDelivered(4L * devices);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (DeviceEventLoop loop : loops) {
+            loop.stop();
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void sneakACupEverywhere() {
+        final long target = delivered.get() + 2L * devices;
+
+        for (PotSensor potSensor : potSensors) {
+            potSensor.detect(PotSensor.State.Gone);
+        }
+        for (PotSensor potSensor : potSensors) {
+            potSensor.detect(PotSensor.State.Empty);
+        }
+
+        awaitDelivered(target);
+    }
+
+    private void awaitDelivered(final long target) {
+        while (delivered.get() < target) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * counts the events delivered to a SensorListener, including the ones it reports itself (e.g. Brew button resets)
+     */
+    static class CountingListener implements SensorListener {
+
+        private final SensorListener listener;
+        private final AtomicLong delivered;
+
+        CountingListener(final SensorListener listener, final AtomicLong delivered) {
+            this.listener = listener;
+            this.delivered = delivered;
+        }
+
+        @Override
+        public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+            listener.onBrewButtonStatusChanged(newState);
+            delivered.incrementAndGet();
+        }
+
+        @Override
+        public void onPotStatusChanged(PotSensor.State newState) {
+            listener.onPotStatusChanged(newState);
+            delivered.incrementAndGet();
+        }
+
+        @Override
+        public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+            listener.onWaterLevelChanged(newState);
+            delivered.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class DeviceEventLoopTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private PotSensor potSensor;
+    private WaterLevelSensor waterLevelSensor;
+    private BrewButtonSensor brewButtonSensor;
+
+    @Before
+    public void setUp() {
+        potSensor = new PotSensor();
+        waterLevelSensor = new WaterLevelSensor();
+        brewButtonSensor = new BrewButtonSensor();
+    }
+
+    @Test
+    public void deliversEventsToTheCoffeeMakerOnItsOwnThread() throws InterruptedException {
+        runsACoffeeMakerOn(Executors.defaultThreadFactory());
+    }
+
+    @Test
+    public void runsOnVirtualThreadsWhereTheJvmHasThem() throws InterruptedException {
+        // set by the virtual-threads profile, so that a Java 21 build can't quietly skip them
+        if (Boolean.getBoolean("virtualThreads.required")) {
+            assertTrue("this JVM has no virtual threads", VirtualThreads.isAvailable());
+        }
+
+        if (VirtualThreads.isAvailable()) {
+            runsACoffeeMakerOn(VirtualThreads.factory("coffee-maker-"));
+        } else {
+            try {
+                VirtualThreads.factory("coffee-maker-");
+                fail("created virtual threads on a JVM without them");
+            } catch (UnsupportedOperationException e) {
+                assertTrue(e.getMessage().contains("Java 21"));
+            }
+        }
+    }
+
+    @Test
+    public void aLoopStoppedBeforeItRunsDoesntRun() throws InterruptedException {
+        final DeviceEventLoop loop = new DeviceEventLoop(16);
+        loop.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        potSensor.detect(PotSensor.State.Empty);
+
+        loop.stop();
+        final Thread thread = loop.start(Executors.defaultThreadFactory());
+        thread.join(TIMEOUT_MILLIS);
+
+        assertFalse(thread.isAlive());
+        assertEquals(0, loop.getDelivered());
+        assertEquals(1, loop.getQueueDepth());
+    }
+
+    @Test
+    public void aLoopStoppedAsItStartsStops() throws InterruptedException {
+        for (int i = 0; i < 100; ++i) {
+            final DeviceEventLoop loop = new DeviceEventLoop(16);
+
+            // the loop's thread may or may not have started running by the time it's stopped
+            final Thread thread = loop.start(Executors.defaultThreadFactory());
+            loop.stop();
+            thread.join(TIMEOUT_MILLIS);
+
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    @Test
+    public void aStoppedLoopDoesNotBlockItsSensors() throws InterruptedException {
+        final int capacity = 4;
+        final DeviceEventLoop loop = new DeviceEventLoop(capacity);
+        loop.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+        loop.stop();
+
+        // more readings than the queue has room for, from a thread that would wait for room forever if they were queued
+        final Thread reporter = new Thread(() -> {
+            for (int i = 0; i <= capacity; ++i) {
+                potSensor.detect(i % 2 == 0 ? PotSensor.State.Empty : PotSensor.State.Gone);
+            }
+        });
+        reporter.start();
+        reporter.join(TIMEOUT_MILLIS);
+
+        assertFalse(reporter.isAlive());
+        assertEquals(0, loop.getQueueDepth());
+    }
+
+    @Test
+    public void stoppingReleasesASensorThatIsWaitingForRoom() throws InterruptedException {
+        final DeviceEventLoop loop = new DeviceEventLoop(1);
+        loop.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        // the loop isn't running, so the first reading fills the queue and the second waits for room
+        potSensor.detect(PotSensor.State.Empty);
+
+        final Thread reporter = new Thread(() -> potSensor.detect(PotSensor.State.Gone));
+        reporter.start();
+        awaitWaiting(reporter);
+
+        loop.stop();
+        reporter.join(TIMEOUT_MILLIS);
+
+        assertFalse(reporter.isAlive());
+        assertEquals(1, loop.getQueueDepth());
+    }
+
+    @Test
+    public void stoppingDoesNotInterruptTheActuators() throws InterruptedException {
+        final CountDownLatch commanded = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+
+        // a Boiler that takes until the test tells it to finish to turn on
+        final Boiler slowBoiler = new Boiler() {
+            @Override
+            public void turnOn() {
+                commanded.countDown();
+                try {
+                    finish.await();
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+
+            @Override
+            public void turnOff() {
+            }
+        };
+
+        final DeviceEventLoop loop = new DeviceEventLoop(16);
+        loop.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        final CoffeeMaker coffeeMaker = new CoffeeMaker(slowBoiler, new PotWarmerSpy(),
+                loop.getWaterLevelSensor(), loop.getPotSensor(), loop.getBrewButton());
+
+        final Thread thread = loop.start(Executors.defaultThreadFactory());
+
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        assertTrue(commanded.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        loop.stop();
+        finish.countDown();
+        thread.join(TIMEOUT_MILLIS);
+
+        assertFalse(thread.isAlive());
+        assertFalse(interrupted.get());
+        assertEquals(3, loop.getDelivered());
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+    }
+
+    @Test
+    public void evaluatesGuardConditionsWithTheReadingsAsOfTheEvent() throws InterruptedException {
+        final BoilerSpy boilerSpy = new BoilerSpy();
+        final PotWarmerSpy potWarmerSpy = new PotWarmerSpy();
+
+        final DeviceEventLoop loop = new DeviceEventLoop(16);
+        loop.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        final CoffeeMaker coffeeMaker = new CoffeeMaker(boilerSpy, potWarmerSpy,
+                loop.getWaterLevelSensor(), loop.getPotSensor(), loop.getBrewButton());
+
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+        // the reservoir runs dry after the Brew button was pressed but before the press is delivered
+        waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+
+        final Thread thread = loop.start(Executors.defaultThreadFactory());
+        awaitDelivered(loop, 4);
+
+        loop.stop();
+        thread.join(TIMEOUT_MILLIS);
+
+        // the press was delivered while the reservoir still had water in it, so the coffee maker brewed it
+        assertEquals(4, loop.getDelivered());
+        assertEquals(CoffeeMaker.State.Warming, coffeeMaker.getState());
+        assertFalse(boilerSpy.isOn());
+        assertTrue(potWarmerSpy.isOn());
+    }
+
+    @Test
+    public void startsWithTheReadingsThatTheSensorsHaveAlreadyReported() {
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+
+        final DeviceEventLoop loop = new DeviceEventLoop(16);
+        loop.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        assertEquals(WaterLevelSensor.State.NotEmpty, loop.getWaterLevelSensor().getWaterLevel());
+        assertEquals(PotSensor.State.Empty, loop.getPotSensor().getState());
+        assertNull(loop.getBrewButton().getBrewButtonState());
+    }
+
+    private void runsACoffeeMakerOn(final ThreadFactory threadFactory) throws InterruptedException {
+        final BoilerSpy boilerSpy = new BoilerSpy();
+        final PotWarmerSpy potWarmerSpy = new PotWarmerSpy();
+
+        final DeviceEventLoop loop = new DeviceEventLoop(16);
+        loop.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        final CoffeeMaker coffeeMaker = new CoffeeMaker(boilerSpy, potWarmerSpy,
+                loop.getWaterLevelSensor(), loop.getPotSensor(), loop.getBrewButton());
+
+        final Thread thread = loop.start(threadFactory);
+
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+        awaitDelivered(loop, 3);
+
+        loop.stop();
+        thread.join(TIMEOUT_MILLIS);
+
+        assertFalse(thread.isAlive());
+        assertEquals(3, loop.getDelivered());
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertTrue(boilerSpy.isOn());
+
+        // the Brew button reset was passed on to the Brew button and delivered straight away rather than queued
+        assertEquals(BrewButtonSensor.State.NotPressed, loop.getBrewButton().getBrewButtonState());
+        assertEquals(BrewButtonSensor.State.NotPressed, brewButtonSensor.getBrewButtonState());
+        assertEquals(0, loop.getQueueDepth());
+    }
+
+    private static void awaitWaiting(final Thread thread) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitDelivered(final DeviceEventLoop loop, final long events) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (loop.getDelivered() < events && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+}
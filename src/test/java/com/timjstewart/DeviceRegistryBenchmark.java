@@ -0,0 +1,176 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures routing a device id to its coffee maker's sensors: a DeviceRegistry versus a HashMap with boxed keys.
+ * <p/>
+ * The device ids are random 64-bit numbers (as ids derived from serial numbers or MAC addresses would be), so a HashMap
+ * can't use the Long cache.  The devices share a pool of sensors, so that the benchmark only measures the lookup and
+ * ten million devices fit in the heap.  Run with -prof gc for the bytes allocated per lookup (gc.alloc.rate.norm).
+ * <p/>
+ * <pre>mvn -P benchmarks verify -Djmh.args="DeviceRegistryBenchmark -prof gc"</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class DeviceRegistryBenchmark {
+
+    // the ids that are looked up, chosen at random from the registered ones
+    private static final int LOOKUPS = 1 << 16;
+
+    private static final int SENSORS = 1024;
+
+    /**
+     * the ways of finding a device by its id
+     */
+    public enum Engine {
+
+        Registry {
+            Devices create(final int devices) {
+                final DeviceRegistry<CoffeeMaker.Components> registry =
+                        new DeviceRegistry<CoffeeMaker.Components>(devices);
+
+                return new Devices() {
+                    @Override
+                    public CoffeeMaker.Components get(final long id) {
+                        return registry.get(id);
+                    }
+
+                    @Override
+                    public void register(final long id, final CoffeeMaker.Components device) {
+                        registry.register(id, device);
+                    }
+
+                    @Override
+                    public CoffeeMaker.Components remove(final long id) {
+                        return registry.remove(id);
+                    }
+                };
+            }
+        },
+
+        HashMap {
+            Devices create(final int devices) {
+                final Map<Long, CoffeeMaker.Components> map =
+                        new HashMap<Long, CoffeeMaker.Components>(devices * 4 / 3 + 1);
+
+                return new Devices() {
+                    @Override
+                    public CoffeeMaker.Components get(final long id) {
+                        return map.get(id);
+                    }
+
+                    @Override
+                    public void register(final long id, final CoffeeMaker.Components device) {
+                        map.put(id, device);
+                    }
+
+                    @Override
+                    public CoffeeMaker.Components remove(final long id) {
+                        return map.remove(id);
+                    }
+                };
+            }
+        };
+
+        abstract Devices create(int devices);
+    }
+
+    /**
+     * the part of an Engine the benchmark looks at
+     */
+    interface Devices {
+        CoffeeMaker.Components get(long id);
+
+        void register(long id, CoffeeMaker.Components device);
+
+        CoffeeMaker.Components remove(long id);
+    }
+
+    @Param
+    public Engine engine;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int devices;
+
+    private Devices registry;
+
+    private long[] lookups;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final CoffeeMaker.Components[] sensors = new CoffeeMaker.Components[SENSORS];
+        for (int i = 0; i < sensors.length; ++i) {
+            sensors[i] = new CoffeeMaker.Components(new NullBoiler(), new NullPotWarmer(),
+                    new WaterLevelSensor(), new PotSensor(), new BrewButtonSensor());
+        }
+
+        registry = engine.create(devices);
+
+        final Random random = new Random(42);
+        final long[] ids = new long[devices];
+        for (int i = 0; i < devices; ++i) {
+            ids[i] = random.nextLong();
+            registry.register(ids[i], sensors[i % SENSORS]);
+        }
+
+        lookups = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; ++i) {
+            lookups[i] = ids[random.nextInt(devices)];
+        }
+        next = 0;
+    }
+
+    /**
+     * finds a registered device
+     */
+    @Benchmark
+    public PotSensor lookup() {
+        final CoffeeMaker.Components device = registry.get(lookups[next]);
+        next = next + 1 & LOOKUPS - 1;
+        return device.getPotSensor();
+    }
+
+    /**
+     * looks up an id that isn't registered, as for a frame from an unknown device
+     */
+    @Benchmark
+    public CoffeeMaker.Components miss() {
+        final CoffeeMaker.Components device = registry.get(~lookups[next]);
+        next = next + 1 & LOOKUPS - 1;
+        return device;
+    }
+
+    /**
+     * removes a registered device and registers it again, as a device that reconnects would be
+     */
+    @Benchmark
+    public void reregister() {
+        final long id = lookups[next];
+        next = next + 1 & LOOKUPS - 1;
+        registry.register(id, registry.remove(id));
+    }
+}
@@ -0,0 +1,184 @@
+package com.timjstewart;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DeviceRegistryTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Test
+    public void findsTheDevicesThatAreRegistered() {
+        final DeviceRegistry<String> registry = new DeviceRegistry<String>(4);
+
+        assertNull(registry.register(42, "kitchen"));
+        assertNull(registry.register(0, "office"));
+        assertNull(registry.register(-1, "lobby"));
+        assertNull(registry.register(Long.MIN_VALUE, "basement"));
+
+        assertEquals("kitchen", registry.get(42));
+        assertEquals("office", registry.get(0));
+        assertEquals("lobby", registry.get(-1));
+        assertEquals("basement", registry.get(Long.MIN_VALUE));
+        assertNull(registry.get(43));
+        assertNull(registry.get(Long.MAX_VALUE));
+
+        assertEquals(4, registry.size());
+    }
+
+    @Test
+    public void registeringADeviceAgainReplacesIt() {
+        final DeviceRegistry<String> registry = new DeviceRegistry<String>(4);
+
+        registry.register(7, "old");
+        assertEquals("old", registry.register(7, "new"));
+
+        assertEquals("new", registry.get(7));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void aRemovedDeviceCanBeRegisteredAgain() {
+        final DeviceRegistry<String> registry = new DeviceRegistry<String>(4);
+
+        registry.register(7, "kitchen");
+        assertEquals("kitchen", registry.remove(7));
+        assertNull(registry.remove(7));
+        assertNull(registry.get(7));
+        assertEquals(0, registry.size());
+
+        assertNull(registry.register(7, "office"));
+        assertEquals("office", registry.get(7));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void growsAsDevicesAreRegistered() {
+        final DeviceRegistry<Long> registry = new DeviceRegistry<Long>(0);
+        final int initialCapacity = registry.capacity();
+
+        // sequential ids, which would all hash to neighbouring slots if the hash didn't spread them
+        for (long id = 0; id < 100000; ++id) {
+            registry.register(id, id);
+        }
+
+        assertTrue(registry.capacity() > initialCapacity);
+        assertEquals(100000, registry.size());
+        for (long id = 0; id < 100000; ++id) {
+            assertEquals(Long.valueOf(id), registry.get(id));
+        }
+        assertNull(registry.get(100000));
+    }
+
+    @Test
+    public void doesNotGrowWhenDevicesComeAndGo() {
+        final DeviceRegistry<Long> registry = new DeviceRegistry<Long>(100);
+        final int capacity = registry.capacity();
+
+        // every device is removed before the next is registered, so the removed devices' slots fill the table
+        for (long id = 0; id < 100000; ++id) {
+            registry.register(id, id);
+            assertEquals(Long.valueOf(id), registry.remove(id));
+        }
+
+        assertEquals(capacity, registry.capacity());
+        assertEquals(0, registry.size());
+        assertNull(registry.get(99999));
+    }
+
+    @Test
+    public void behavesLikeAMap() {
+        final DeviceRegistry<Long> registry = new DeviceRegistry<Long>(16);
+        final Map<Long, Long> expected = new HashMap<Long, Long>();
+
+        final Random random = new Random(42);
+        for (int i = 0; i < 200000; ++i) {
+            // a small range of ids, so that ids are registered, replaced and removed over and over
+            final long id = random.nextInt(5000) - 2500;
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id), registry.remove(id));
+            } else {
+                final Long device = random.nextLong();
+                assertEquals(expected.put(id, device), registry.register(id, device));
+            }
+            assertEquals(expected.get(id), registry.get(id));
+        }
+
+        assertEquals(expected.size(), registry.size());
+        for (long id = -2500; id < 2500; ++id) {
+            assertEquals(expected.get(id), registry.get(id));
+        }
+    }
+
+    @Test
+    public void lookupsRunWhileDevicesAreRegisteredAndRemoved() throws InterruptedException {
+        final int stableDevices = 1000;
+        final int churningDevices = 100000;
+
+        final DeviceRegistry<Long> registry = new DeviceRegistry<Long>(0);
+        for (long id = 0; id < stableDevices; ++id) {
+            registry.register(id, id);
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+
+        // registers and removes other devices, growing and rehashing the table as it goes
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (long id = stableDevices; id < stableDevices + churningDevices; ++id) {
+                        registry.register(id, id);
+                        if (id % 2 == 0) {
+                            registry.remove(id);
+                        }
+                    }
+                } finally {
+                    done.set(true);
+                }
+            }
+        });
+
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final Random random = new Random(42);
+                while (!done.get() && failure.get() == null) {
+                    final long stable = random.nextInt(stableDevices);
+                    if (!Long.valueOf(stable).equals(registry.get(stable))) {
+                        failure.set("lost device " + stable);
+                    }
+
+                    // a churning device is either missing or itself
+                    final long churning = stableDevices + random.nextInt(churningDevices);
+                    final Long device = registry.get(churning);
+                    if (device != null && device != churning) {
+                        failure.set("device " + churning + " was found as " + device);
+                    }
+                }
+            }
+        });
+
+        reader.start();
+        writer.start();
+        writer.join(TIMEOUT_MILLIS);
+        reader.join(TIMEOUT_MILLIS);
+
+        assertNull(failure.get());
+        assertEquals(stableDevices + churningDevices / 2, registry.size());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void aDeviceCannotBeNull() {
+        new DeviceRegistry<String>(4).register(1, null);
+    }
+}
@@ -0,0 +1,78 @@
+package com.timjstewart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how applying a batch of random events to a fleet of coffee makers scales with the number of threads in the
+ * ForkJoinPool that applies it.  sequential applies the batch one event at a time on the benchmark's thread, the way
+ * events are applied to a fleet of CoffeeMakers today.
+ * <p/>
+ * Run with -p parallelism=... to match the number of cores of the machine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBatchBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    @Param({"1000000"})
+    public int devices;
+
+    @Param({"1000000"})
+    public int events;
+
+    private CoffeeMakerFleet fleet;
+    private EventBatch batch;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        fleet = CoffeeMakerFleet.offHeap(devices, new CoffeeMakerFleetBenchmark.NullActuators());
+        pool = new ForkJoinPool(parallelism);
+
+        final Random random = new Random(7);
+        final SensorEvent[] sensorEvents = SensorEvent.values();
+
+        batch = new EventBatch(events);
+        for (int i = 0; i < events; ++i) {
+            batch.add(random.nextInt(devices), sensorEvents[random.nextInt(sensorEvents.length)]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void parallel() {
+        fleet.apply(batch, pool);
+    }
+
+    @Benchmark
+    public void sequential() {
+        for (int i = 0; i < batch.size(); ++i) {
+            fleet.apply(batch.getDevice(i), SensorEvent.valueOf(batch.getEvent(i)));
+        }
+    }
+}
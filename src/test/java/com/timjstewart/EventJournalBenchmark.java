@@ -0,0 +1,97 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the sensor events per second that a CoffeeMaker handles with and without an EventJournal recording them.
+ * <p/>
+ * The pot is lifted and put back over and over, so every event is a transition.  The journal is written to a
+ * temporary directory that is deleted afterwards; with the journal on, a run writes a few gigabytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventJournalBenchmark {
+
+    public enum Journal {
+        Off,
+        On
+    }
+
+    @Param
+    public Journal journal;
+
+    @Param({"1048576"})
+    public int recordsPerSegment;
+
+    private File directory;
+    private EventJournal eventJournal;
+
+    private PotSensor potSensor;
+
+    private int readings;
+
+    @Setup
+    public void setUp() throws IOException {
+        potSensor = new PotSensor();
+
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        final BrewButtonSensor brewButtonSensor = new BrewButtonSensor();
+
+        if (journal == Journal.Off) {
+            new CoffeeMaker(new NullBoiler(), new NullPotWarmer(), waterLevelSensor, potSensor, brewButtonSensor);
+        } else {
+            directory = Files.createTempDirectory("journal").toFile();
+            eventJournal = new EventJournal(directory, recordsPerSegment);
+
+            new JournalingCoffeeMaker(
+                    new CoffeeMaker(new CoffeeMaker.Components(
+                            new NullBoiler(), new NullPotWarmer(), waterLevelSensor, potSensor, brewButtonSensor)),
+                    1, eventJournal)
+                    .listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+        }
+
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (eventJournal != null) {
+            eventJournal.close();
+
+            for (File segment : directory.listFiles()) {
+                segment.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Benchmark
+    public void detect() {
+        potSensor.detect((++readings & 1) == 0 ? PotSensor.State.Empty : PotSensor.State.Gone);
+    }
+}
@@ -0,0 +1,146 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class EventJournalTest {
+
+    private static final int WARM_UP_APPENDS = 200000;
+    private static final int MEASURED_APPENDS = 100000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), "journal");
+    }
+
+    @Test
+    public void readsBackEveryRecordAcrossSegments() throws IOException {
+        try (EventJournal journal = new EventJournal(directory, 4)) {
+            for (int i = 0; i < 10; ++i) {
+                journal.append(1000 + i, i, SensorEvent.valueOf(i % 7),
+                        TransitionTable.state(i % 5), TransitionTable.state((i + 1) % 5));
+            }
+            assertEquals(10, journal.getAppended());
+        }
+
+        assertEquals(3, directory.list().length);
+
+        final EventJournal.Reader reader = EventJournal.read(directory);
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(reader.next());
+            assertEquals(1000 + i, reader.getTimestamp());
+            assertEquals(i, reader.getDevice());
+            assertEquals(SensorEvent.valueOf(i % 7), reader.getEvent());
+            assertEquals(TransitionTable.state(i % 5), reader.getFrom());
+            assertEquals(TransitionTable.state((i + 1) % 5), reader.getTo());
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void reopeningAJournalCarriesOnAfterItsSegments() throws IOException {
+        try (EventJournal journal = new EventJournal(directory, 4)) {
+            journal.append(1, 1, SensorEvent.PotEmpty, CoffeeMaker.State.Initial, CoffeeMaker.State.Initial);
+        }
+        try (EventJournal journal = new EventJournal(directory, 4)) {
+            journal.append(2, 2, SensorEvent.PotGone, CoffeeMaker.State.Initial, CoffeeMaker.State.Initial);
+        }
+
+        final EventJournal.Reader reader = EventJournal.read(directory);
+        assertTrue(reader.next());
+        assertEquals(1, reader.getDevice());
+        assertTrue(reader.next());
+        assertEquals(2, reader.getDevice());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void journalsEventsInTheOrderTheyTookEffect() throws IOException {
+        final PotSensor potSensor = new PotSensor();
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        final BrewButtonSensor brewButtonSensor = new BrewButtonSensor();
+
+        try (EventJournal journal = new EventJournal(directory, 1024)) {
+            final JournalingCoffeeMaker coffeeMaker = new JournalingCoffeeMaker(
+                    new CoffeeMaker(new CoffeeMaker.Components(new BoilerSpy(), new PotWarmerSpy(),
+                            waterLevelSensor, potSensor, brewButtonSensor)),
+                    42, journal);
+            coffeeMaker.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+            potSensor.detect(PotSensor.State.Empty);
+            waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+            brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+            assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        }
+
+        final EventJournal.Reader reader = EventJournal.read(directory);
+        assertRecord(reader, SensorEvent.PotEmpty, CoffeeMaker.State.Initial, CoffeeMaker.State.Initial);
+        assertRecord(reader, SensorEvent.WaterLevelNotEmpty, CoffeeMaker.State.Initial, CoffeeMaker.State.Initial);
+        assertRecord(reader, SensorEvent.BrewButtonPressed, CoffeeMaker.State.Initial, CoffeeMaker.State.Brewing);
+        assertRecord(reader, SensorEvent.BrewButtonNotPressed, CoffeeMaker.State.Brewing, CoffeeMaker.State.Brewing);
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void appendingDoesNotAllocate() throws IOException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        try (EventJournal journal = new EventJournal(directory, WARM_UP_APPENDS + MEASURED_APPENDS)) {
+            for (int i = 0; i < WARM_UP_APPENDS; ++i) {
+                append(journal, i);
+            }
+
+            final long threadId = Thread.currentThread().getId();
+            final long before = threads.getThreadAllocatedBytes(threadId);
+
+            for (int i = 0; i < MEASURED_APPENDS; ++i) {
+                append(journal, i);
+            }
+
+            // the JIT and JUnit allocate a few bytes on this thread now and then; an append that allocated anything
+            // would account for at least 16 bytes each
+            final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+            assertTrue("bytes allocated by " + MEASURED_APPENDS + " appends: " + allocated,
+                    allocated < MEASURED_APPENDS);
+        }
+    }
+
+    private static void append(final EventJournal journal, final int i) {
+        journal.append(i, i, SensorEvent.PotGone, CoffeeMaker.State.Brewing, CoffeeMaker.State.BrewingInterrupted);
+    }
+
+    private static void assertRecord(final EventJournal.Reader reader,
+                                     final SensorEvent event,
+                                     final CoffeeMaker.State from,
+                                     final CoffeeMaker.State to) {
+        assertTrue(reader.next());
+        assertEquals(42, reader.getDevice());
+        assertEquals(event, reader.getEvent());
+        assertEquals(from, reader.getFrom());
+        assertEquals(to, reader.getTo());
+    }
+}
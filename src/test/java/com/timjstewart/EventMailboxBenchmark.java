@@ -0,0 +1,199 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.CoalescingBoiler;
+import com.timjstewart.actuator.CoalescingPotWarmer;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures how long a sensor's thread spends in detect when the actuators are slow, with the CoffeeMaker listening to
+ * its sensors directly (Synchronous) and behind an EventMailbox drained by a single thread.
+ * <p/>
+ * Every event of the sneak-a-cup cycle commands the Boiler, unless the Boiler coalesces the commands of each batch.
+ * The mailbox's batches, dropped and coalesced events, batch sizes and queue depth are reported as secondary results
+ * (see MailboxCounters).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventMailboxBenchmark {
+
+    public enum Delivery {
+        Synchronous,
+        Block,
+        DropOldest,
+        Coalesce
+    }
+
+    @Param
+    public Delivery delivery;
+
+    // how long each actuator command takes
+    @Param({"0", "10000"})
+    public long actuatorNanos;
+
+    // whether the actuators are wrapped in CoalescingActuators (which the mailbox coalesces over each batch)
+    @Param({"false", "true"})
+    public boolean coalesce;
+
+    private PotSensor potSensor;
+    private ExecutorService executor;
+    private EventMailbox mailbox;
+
+    private int readings;
+
+    // the mailbox's counts as of the start of the iteration
+    private long deliveredBefore;
+    private long batchesBefore;
+    private long droppedBefore;
+    private long coalescedBefore;
+
+    @Setup
+    public void setUp() {
+        potSensor = new PotSensor();
+
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        final BrewButtonSensor brewButtonSensor = new BrewButtonSensor();
+        final SlowActuator actuator = new SlowActuator(actuatorNanos);
+
+        Boiler boiler = actuator;
+        PotWarmer potWarmer = actuator;
+        if (coalesce) {
+            boiler = new CoalescingBoiler(actuator);
+            potWarmer = new CoalescingPotWarmer(actuator);
+        }
+
+        if (delivery == Delivery.Synchronous) {
+            new CoffeeMaker(boiler, potWarmer, waterLevelSensor, potSensor, brewButtonSensor);
+        } else {
+            executor = Executors.newSingleThreadExecutor();
+
+            mailbox = new EventMailbox(executor, 1024, EventMailbox.Backpressure.valueOf(delivery.name()), 64);
+            mailbox.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+            new CoffeeMaker(boiler, potWarmer,
+                    mailbox.getWaterLevelSensor(), mailbox.getPotSensor(), mailbox.getBrewButton());
+
+            if (coalesce) {
+                mailbox.coalesce((CoalescingBoiler) boiler, (CoalescingPotWarmer) potWarmer);
+            }
+        }
+
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+        // the CoffeeMaker must be Brewing before the benchmark starts moving the pot, or its Guard Conditions will fail
+        while (mailbox != null && mailbox.getDelivered() < 3) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * the mailbox's metrics per iteration, which JMH reports next to the time per detect: the batches, dropped and
+     * coalesced events and average batch size of the iteration, the largest batch so far and the queue depth at its end
+     * <p/>
+     * JMH sums counters over the measurement iterations, so each iteration records its share of their mean.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class MailboxCounters {
+        public double batches;
+        public double dropped;
+        public double coalesced;
+        public double averageBatch;
+        public double largestBatch;
+        public double queueDepth;
+    }
+
+    @Setup(Level.Iteration)
+    public void countBefore() {
+        if (mailbox != null) {
+            deliveredBefore = mailbox.getDelivered();
+            batchesBefore = mailbox.getBatches();
+            droppedBefore = mailbox.getDropped();
+            coalescedBefore = mailbox.getCoalesced();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void countAfter(final MailboxCounters counters, final IterationParams iteration) {
+        if (mailbox != null) {
+            final double share = 1.0 / iteration.getCount();
+            final long delivered = mailbox.getDelivered() - deliveredBefore;
+            final long batches = mailbox.getBatches() - batchesBefore;
+
+            counters.batches = batches * share;
+            counters.dropped = (mailbox.getDropped() - droppedBefore) * share;
+            counters.coalesced = (mailbox.getCoalesced() - coalescedBefore) * share;
+            counters.averageBatch = batches == 0 ? 0 : (double) delivered / batches * share;
+            counters.largestBatch = mailbox.getLargestBatch() * share;
+            counters.queueDepth = mailbox.getQueueDepth() * share;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void detect() {
+        potSensor.detect((++readings & 1) == 0 ? PotSensor.State.Empty : PotSensor.State.Gone);
+    }
+
+    /**
+     * an actuator that takes a while to carry out its commands, without using any CPU
+     */
+    static class SlowActuator implements Boiler, PotWarmer {
+
+        private final long nanos;
+
+        SlowActuator(final long nanos) {
+            this.nanos = nanos;
+        }
+
+        @Override
+        public void turnOn() {
+            command();
+        }
+
+        @Override
+        public void turnOff() {
+            command();
+        }
+
+        private void command() {
+            if (nanos > 0) {
+                LockSupport.parkNanos(nanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.CoalescingBoiler;
+import com.timjstewart.actuator.CoalescingPotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * an Executor that runs its tasks when it's told to
+ */
+class ManualExecutor implements Executor {
+
+    private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+    }
+
+    int pending() {
+        return tasks.size();
+    }
+
+    void runAll() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+}
+
+/**
+ * a ManualExecutor that rejects its tasks while it's told to
+ */
+class RejectingExecutor implements Executor {
+
+    final ManualExecutor delegate = new ManualExecutor();
+
+    boolean rejecting;
+
+    @Override
+    public void execute(Runnable task) {
+        if (rejecting) {
+            throw new RejectedExecutionException("rejecting tasks");
+        }
+        delegate.execute(task);
+    }
+}
+
+/**
+ * remembers the events it is told about
+ */
+class SensorEventRecorder implements SensorListener {
+
+    final List<SensorEvent> events = new ArrayList<SensorEvent>();
+
+    @Override
+    public void onBrewButtonStatusChanged(BrewButtonSensor.State newState) {
+        events.add(SensorEvent.of(newState));
+    }
+
+    @Override
+    public void onPotStatusChanged(PotSensor.State newState) {
+        events.add(SensorEvent.of(newState));
+    }
+
+    @Override
+    public void onWaterLevelChanged(WaterLevelSensor.State newState) {
+        events.add(SensorEvent.of(newState));
+    }
+}
+
+public class EventMailboxTest {
+
+    private ManualExecutor executor;
+
+    private PotSensor potSensor;
+    private WaterLevelSensor waterLevelSensor;
+    private BrewButtonSensor brewButtonSensor;
+
+    @Before
+    public void setUp() {
+        executor = new ManualExecutor();
+
+        potSensor = new PotSensor();
+        waterLevelSensor = new WaterLevelSensor();
+        brewButtonSensor = new BrewButtonSensor();
+    }
+
+    @Test
+    public void deliversEventsToTheCoffeeMakerOnTheExecutor() {
+        final BoilerSpy boilerSpy = new BoilerSpy();
+        final PotWarmerSpy potWarmerSpy = new PotWarmerSpy();
+
+        final EventMailbox mailbox = new EventMailbox(executor, 16, EventMailbox.Backpressure.Block, 16);
+        mailbox.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        final CoffeeMaker coffeeMaker = new CoffeeMaker(boilerSpy, potWarmerSpy,
+                mailbox.getWaterLevelSensor(), mailbox.getPotSensor(), mailbox.getBrewButton());
+
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+        assertEquals(CoffeeMaker.State.Initial, coffeeMaker.getState());
+        assertEquals(3, mailbox.getQueueDepth());
+        assertEquals(1, executor.pending());
+
+        executor.runAll();
+
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertTrue(boilerSpy.isOn());
+
+        // the Brew button reset was passed on to the Brew button and delivered straight away rather than queued
+        assertEquals(BrewButtonSensor.State.NotPressed, mailbox.getBrewButton().getBrewButtonState());
+        assertEquals(BrewButtonSensor.State.NotPressed, brewButtonSensor.getBrewButtonState());
+        assertEquals(0, mailbox.getQueueDepth());
+        assertEquals(3, mailbox.getDelivered());
+        assertEquals(1, mailbox.getBatches());
+    }
+
+    @Test
+    public void deliversEachBrewButtonResetOnce() {
+        final SensorEventRecorder recorder = new SensorEventRecorder();
+        final SensorEventRecorder sourceRecorder = new SensorEventRecorder();
+
+        final EventMailbox mailbox = new EventMailbox(executor, 16, EventMailbox.Backpressure.Block, 16);
+        mailbox.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        // the recorders hear about each press before the CoffeeMaker resets the Brew button
+        mailbox.getBrewButton().addListener(recorder);
+        brewButtonSensor.addListener(sourceRecorder);
+        new CoffeeMaker(new BoilerSpy(), new PotWarmerSpy(),
+                mailbox.getWaterLevelSensor(), mailbox.getPotSensor(), mailbox.getBrewButton());
+
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        executor.runAll();
+
+        assertEquals(Arrays.asList(SensorEvent.BrewButtonPressed, SensorEvent.BrewButtonNotPressed), recorder.events);
+        assertEquals(Arrays.asList(SensorEvent.BrewButtonPressed, SensorEvent.BrewButtonNotPressed),
+                sourceRecorder.events);
+    }
+
+    @Test
+    public void coalescesTheActuatorCommandsOfABatch() {
+        final CommandLog log = new CommandLog();
+        final CoalescingBoiler boiler = new CoalescingBoiler(log.boiler);
+        final CoalescingPotWarmer potWarmer = new CoalescingPotWarmer(log.potWarmer);
+
+        final EventMailbox mailbox = new EventMailbox(executor, 16, EventMailbox.Backpressure.Block, 16);
+        mailbox.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        final CoffeeMaker coffeeMaker = new CoffeeMaker(boiler, potWarmer,
+                mailbox.getWaterLevelSensor(), mailbox.getPotSensor(), mailbox.getBrewButton());
+        mailbox.coalesce(boiler, potWarmer);
+
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        executor.runAll();
+
+        // sneak a cup: the Boiler is turned off and back on again within one batch
+        potSensor.detect(PotSensor.State.Gone);
+        potSensor.detect(PotSensor.State.Empty);
+        executor.runAll();
+
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertEquals("Boiler:on ", log.toString());
+        assertEquals(2, boiler.getSaved());
+    }
+
+    @Test
+    public void evaluatesGuardConditionsWithTheReadingsAsOfTheEvent() {
+        final BoilerSpy boilerSpy = new BoilerSpy();
+        final PotWarmerSpy potWarmerSpy = new PotWarmerSpy();
+
+        final EventMailbox mailbox = new EventMailbox(executor, 16, EventMailbox.Backpressure.Block, 16);
+        mailbox.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        final CoffeeMaker coffeeMaker = new CoffeeMaker(boilerSpy, potWarmerSpy,
+                mailbox.getWaterLevelSensor(), mailbox.getPotSensor(), mailbox.getBrewButton());
+
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+        // the reservoir is filled after the Brew button was pressed but before the press is delivered
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+
+        executor.runAll();
+
+        // the press was delivered while the reservoir was still empty, so there was no water to brew with
+        assertEquals(CoffeeMaker.State.Initial, coffeeMaker.getState());
+        assertFalse(boilerSpy.isOn());
+        assertEquals(WaterLevelSensor.State.NotEmpty, mailbox.getWaterLevelSensor().getWaterLevel());
+    }
+
+    @Test
+    public void startsWithTheReadingsThatTheSensorsHaveAlreadyReported() {
+        final BoilerSpy boilerSpy = new BoilerSpy();
+        final PotWarmerSpy potWarmerSpy = new PotWarmerSpy();
+
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+
+        final EventMailbox mailbox = new EventMailbox(executor, 16, EventMailbox.Backpressure.Block, 16);
+        mailbox.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        final CoffeeMaker coffeeMaker = new CoffeeMaker(boilerSpy, potWarmerSpy,
+                mailbox.getWaterLevelSensor(), mailbox.getPotSensor(), mailbox.getBrewButton());
+
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        executor.runAll();
+
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertTrue(boilerSpy.isOn());
+    }
+
+    @Test
+    public void aRejectedTaskIsSubmittedAgainByTheNextEvent() {
+        final RejectingExecutor rejecting = new RejectingExecutor();
+        final SensorEventRecorder recorder = new SensorEventRecorder();
+
+        final EventMailbox mailbox = new EventMailbox(rejecting, 16, EventMailbox.Backpressure.Block, 16);
+        mailbox.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+        mailbox.getPotSensor().addListener(recorder);
+
+        final List<Throwable> uncaught = new ArrayList<Throwable>();
+        final Thread thread = Thread.currentThread();
+        final Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                uncaught.add(e);
+            }
+        });
+        try {
+            rejecting.rejecting = true;
+            potSensor.detect(PotSensor.State.Gone);
+        } finally {
+            thread.setUncaughtExceptionHandler(handler);
+        }
+
+        assertEquals(1, mailbox.getRejected());
+        assertEquals(1, uncaught.size());
+        assertTrue(uncaught.get(0) instanceof RejectedExecutionException);
+        assertEquals(1, mailbox.getQueueDepth());
+
+        rejecting.rejecting = false;
+        potSensor.detect(PotSensor.State.Empty);
+        rejecting.delegate.runAll();
+
+        assertEquals(Arrays.asList(SensorEvent.PotGone, SensorEvent.PotEmpty), recorder.events);
+        assertEquals(0, mailbox.getQueueDepth());
+    }
+
+    @Test(timeout = 5000)
+    public void aBlockedSensorParksUntilTheTaskMakesRoom() throws InterruptedException {
+        // the sensor's thread submits a task too once it has room, so the tasks are handed over through a thread-safe
+        // queue
+        final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<Runnable>();
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        };
+        final SensorEventRecorder recorder = new SensorEventRecorder();
+
+        final EventMailbox mailbox = new EventMailbox(executor, 2, EventMailbox.Backpressure.Block, 16);
+        mailbox.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+        mailbox.getPotSensor().addListener(recorder);
+
+        potSensor.detect(PotSensor.State.Gone);
+        potSensor.detect(PotSensor.State.Empty);
+
+        final Thread sensor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                potSensor.detect(PotSensor.State.NonEmpty);
+            }
+        });
+        sensor.start();
+
+        // parked without a timeout, rather than checking for room over and over
+        while (sensor.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        tasks.take().run();
+        sensor.join();
+        tasks.take().run();
+
+        assertEquals(Arrays.asList(SensorEvent.PotGone, SensorEvent.PotEmpty, SensorEvent.PotNonEmpty),
+                recorder.events);
+        assertEquals(0, mailbox.getQueueDepth());
+    }
+
+    @Test(timeout = 5000)
+    public void aBlockedSensorSubmitsARejectedTaskAgain() {
+        // rejects the tasks submitted while the mailbox fills up and runs the rest on the thread that submits them
+        final Executor rejectsTwice = new Executor() {
+            private int rejections = 2;
+
+            @Override
+            public void execute(Runnable task) {
+                if (rejections > 0) {
+                    --rejections;
+                    throw new RejectedExecutionException("rejecting tasks");
+                }
+                task.run();
+            }
+        };
+        final SensorEventRecorder recorder = new SensorEventRecorder();
+
+        final EventMailbox mailbox = new EventMailbox(rejectsTwice, 2, EventMailbox.Backpressure.Block, 16);
+        mailbox.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+        mailbox.getPotSensor().addListener(recorder);
+
+        final Thread thread = Thread.currentThread();
+        final Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                // the rejection is expected
+            }
+        });
+        try {
+            potSensor.detect(PotSensor.State.Gone);
+            potSensor.detect(PotSensor.State.Empty);
+
+            // the mailbox is full and nothing is delivering its events
+            potSensor.detect(PotSensor.State.NonEmpty);
+        } finally {
+            thread.setUncaughtExceptionHandler(handler);
+        }
+
+        assertEquals(2, mailbox.getRejected());
+        assertEquals(Arrays.asList(SensorEvent.PotGone, SensorEvent.PotEmpty, SensorEvent.PotNonEmpty),
+                recorder.events);
+        assertEquals(0, mailbox.getQueueDepth());
+    }
+
+    @Test
+    public void deliversLargeBacklogsInBatches() {
+        final SensorEventRecorder recorder = new SensorEventRecorder();
+        final EventMailbox mailbox = mailbox(recorder, 16, EventMailbox.Backpressure.Block, 4);
+
+        for (int i = 0; i < 10; ++i) {
+            potSensor.detect(PotSensor.State.Gone);
+        }
+
+        executor.runAll();
+
+        assertEquals(10, recorder.events.size());
+        assertEquals(3, mailbox.getBatches());
+        assertEquals(4, mailbox.getLargestBatch());
+        assertEquals(10.0 / 3, mailbox.getAverageBatchSize(), 0.001);
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestEvents() {
+        final SensorEventRecorder recorder = new SensorEventRecorder();
+        final EventMailbox mailbox = mailbox(recorder, 2, EventMailbox.Backpressure.DropOldest, 16);
+
+        potSensor.detect(PotSensor.State.Gone);
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.NonEmpty);
+
+        executor.runAll();
+
+        assertEquals(2, mailbox.getDropped());
+        assertEquals(Arrays.asList(SensorEvent.WaterLevelNotEmpty, SensorEvent.PotNonEmpty), recorder.events);
+    }
+
+    @Test
+    public void coalesceKeepsTheLatestEventOfEachSensor() {
+        final SensorEventRecorder recorder = new SensorEventRecorder();
+        final EventMailbox mailbox = mailbox(recorder, 2, EventMailbox.Backpressure.Coalesce, 16);
+
+        potSensor.detect(PotSensor.State.Gone);
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+        potSensor.detect(PotSensor.State.NonEmpty);
+
+        assertEquals(4, mailbox.getQueueDepth());
+
+        executor.runAll();
+
+        assertEquals(1, mailbox.getCoalesced());
+        assertEquals(Arrays.asList(SensorEvent.PotGone, SensorEvent.WaterLevelNotEmpty, SensorEvent.PotNonEmpty,
+                SensorEvent.WaterLevelEmpty), recorder.events);
+    }
+
+    private EventMailbox mailbox(final SensorListener listener,
+                                 final int capacity,
+                                 final EventMailbox.Backpressure backpressure,
+                                 final int maxBatchSize) {
+        final EventMailbox mailbox = new EventMailbox(executor, capacity, backpressure, maxBatchSize);
+        mailbox.listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+        mailbox.getWaterLevelSensor().addListener(listener);
+        mailbox.getPotSensor().addListener(listener);
+        mailbox.getBrewButton().addListener(listener);
+        return mailbox;
+    }
+}
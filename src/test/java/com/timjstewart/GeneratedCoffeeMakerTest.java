@@ -0,0 +1,44 @@
+package com.timjstewart;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * checks the GeneratedCoffeeMaker (generated from CoffeeMakerSpec, which CoffeeMakerSpecWriterTest checks against the
+ * AbstractState classes) against CoffeeMaker itself; CoffeeMakerTest runs its scenarios against it too
+ */
+public class GeneratedCoffeeMakerTest {
+
+    @Test
+    public void declaresTheSameStatesAsCoffeeMaker() {
+        final GeneratedCoffeeMaker.State[] generated = GeneratedCoffeeMaker.State.values();
+        final CoffeeMaker.State[] handwritten = CoffeeMaker.State.values();
+
+        assertEquals(handwritten.length, generated.length);
+        for (int i = 0; i < generated.length; ++i) {
+            assertEquals(handwritten[i].name(), generated[i].name());
+        }
+    }
+
+    @Test
+    public void behavesExactlyLikeCoffeeMakerForEverySequenceOfEventsAndTimeouts() {
+        SensorEventSequences.assertBehavesLikeCoffeeMakerIncludingTimeouts(
+                (boiler, potWarmer, waterLevel, pot, brewButton) -> {
+                    final GeneratedCoffeeMaker coffeeMaker =
+                            new GeneratedCoffeeMaker(boiler, potWarmer, waterLevel, pot, brewButton);
+
+                    return new SensorEventSequences.Subject() {
+                        @Override
+                        public Enum<?> getState() {
+                            return coffeeMaker.getState();
+                        }
+
+                        @Override
+                        public void onTimeout() {
+                            coffeeMaker.onTimeout();
+                        }
+                    };
+                });
+    }
+}
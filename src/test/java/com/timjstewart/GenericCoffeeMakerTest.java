@@ -0,0 +1,74 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.ActuatorFailure;
+import com.timjstewart.fsm.StateMachine;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GenericCoffeeMakerTest {
+
+    @Test
+    public void behavesExactlyLikeCoffeeMakerForEverySequenceOfEvents() {
+        SensorEventSequences.assertBehavesLikeCoffeeMaker((boiler, potWarmer, waterLevel, pot, brewButton) ->
+                new GenericCoffeeMaker(boiler, potWarmer, waterLevel, pot, brewButton)::getState);
+    }
+
+    @Test
+    public void tellsTheObserverAboutEveryEvent() {
+        final CoffeeMakerMetrics metrics = new CoffeeMakerMetrics();
+
+        final PotSensor potSensor = new PotSensor();
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        final BrewButtonSensor brewButton = new BrewButtonSensor();
+
+        final GenericCoffeeMaker coffeeMaker = new GenericCoffeeMaker(
+                new CoffeeMaker.Components(new BoilerSpy(), new PotWarmerSpy(), waterLevelSensor, potSensor,
+                        brewButton),
+                (from, event, to) -> metrics.recorder().recordEvent(from, event, to));
+
+        waterLevelSensor.addListener(coffeeMaker);
+        potSensor.addListener(coffeeMaker);
+        brewButton.addListener(coffeeMaker);
+
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButton.detect(BrewButtonSensor.State.Pressed);
+
+        assertEquals(1, metrics.getTransitions(
+                CoffeeMaker.State.Initial, SensorEvent.WaterLevelNotEmpty, CoffeeMaker.State.Initial));
+        assertEquals(1, metrics.getTransitions(
+                CoffeeMaker.State.Initial, SensorEvent.BrewButtonPressed, CoffeeMaker.State.Brewing));
+        assertEquals(1, metrics.getTransitions(
+                CoffeeMaker.State.Brewing, SensorEvent.BrewButtonNotPressed, CoffeeMaker.State.Brewing));
+    }
+
+    @Test
+    public void tellsTheObserverAboutAFailure() {
+        final StringBuilder transitions = new StringBuilder();
+        final BoilerSpy boilerSpy = new BoilerSpy();
+
+        final GenericCoffeeMaker coffeeMaker = new GenericCoffeeMaker(
+                new CoffeeMaker.Components(boilerSpy, new PotWarmerSpy(), new WaterLevelSensor(), new PotSensor(),
+                        new BrewButtonSensor()),
+                new StateMachine.Observer<CoffeeMaker.State, SensorEvent>() {
+                    @Override
+                    public void onEvent(CoffeeMaker.State from, SensorEvent event, CoffeeMaker.State to) {
+                    }
+
+                    @Override
+                    public void onTransition(CoffeeMaker.State from, Object cause, CoffeeMaker.State to) {
+                        transitions.append(from).append(" --").append(cause).append("--> ").append(to);
+                    }
+                });
+
+        final ActuatorFailure failure = new ActuatorFailure(ActuatorFailure.Role.Boiler, boilerSpy,
+                true, ActuatorFailure.Kind.Failed, null);
+        coffeeMaker.onActuatorFailed(failure);
+
+        assertEquals("Initial --" + failure + "--> Failed", transitions.toString());
+    }
+}
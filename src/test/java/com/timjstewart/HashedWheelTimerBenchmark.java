@@ -0,0 +1,63 @@
+package com.timjstewart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of re-arming a timer, as a TimedCoffeeMaker does whenever it changes state, with a fleet's worth
+ * of timers pending.  One benchmark operation cancels one device's timer and schedules another one in its place, so
+ * the number of pending timers stays the same; the cost shouldn't depend on how many there are.
+ * <p/>
+ * The clock doesn't move, so no timer expires and the deadlines are spread over the wheel by their delays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HashedWheelTimerBenchmark {
+
+    private static final HashedWheelTimer.Listener IGNORE = new HashedWheelTimer.Listener() {
+        @Override
+        public void onTimerExpired(final long key) {
+        }
+    };
+
+    @Param({"1000", "1000000"})
+    public int pending;
+
+    private HashedWheelTimer timer;
+    private long[] handles;
+    private int device;
+
+    @Setup
+    public void setUp() {
+        timer = new HashedWheelTimer(new SteppingTicker(), 1, TimeUnit.SECONDS, 4096, pending);
+        handles = new long[pending];
+
+        for (int i = 0; i < pending; ++i) {
+            handles[i] = timer.schedule(IGNORE, i, 1 + i % 3600, TimeUnit.SECONDS);
+        }
+    }
+
+    @Benchmark
+    public long rearm() {
+        // a stride that is coprime with the number of devices visits them all in an order that defeats the caches
+        device = (device + 7919) % pending;
+
+        timer.cancel(handles[device]);
+        return handles[device] = timer.schedule(IGNORE, device, 1 + device % 3600, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,205 @@
+package com.timjstewart;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * a HashedWheelTimer.Listener that remembers the keys of the timers that expired, in order
+ */
+class ExpiryRecorder implements HashedWheelTimer.Listener {
+
+    final List<Long> keys = new ArrayList<Long>();
+
+    @Override
+    public void onTimerExpired(final long key) {
+        keys.add(key);
+    }
+}
+
+public class HashedWheelTimerTest {
+
+    private static final int WHEEL_SIZE = 8;
+
+    private SteppingTicker ticker;
+    private HashedWheelTimer timer;
+    private ExpiryRecorder recorder;
+
+    @Before
+    public void setUp() {
+        ticker = new SteppingTicker();
+        timer = new HashedWheelTimer(ticker, 1, TimeUnit.MILLISECONDS, WHEEL_SIZE, 2);
+        recorder = new ExpiryRecorder();
+    }
+
+    @Test
+    public void timersExpireOnceTheirDelayHasPassedButNotBefore() {
+        timer.schedule(recorder, 1, 3, TimeUnit.MILLISECONDS);
+        timer.schedule(recorder, 2, 5, TimeUnit.MILLISECONDS);
+
+        step(TimeUnit.MICROSECONDS.toNanos(2999));
+        assertEquals(0, timer.advance());
+
+        step(TimeUnit.MICROSECONDS.toNanos(1));
+        assertEquals(1, timer.advance());
+        assertEquals(list(1), recorder.keys);
+
+        step(TimeUnit.MILLISECONDS.toNanos(2));
+        assertEquals(1, timer.advance());
+        assertEquals(list(1, 2), recorder.keys);
+        assertEquals(0, timer.getPending());
+    }
+
+    @Test
+    public void aDelayThatIsntAWholeNumberOfTicksIsRoundedUp() {
+        step(TimeUnit.MICROSECONDS.toNanos(500));
+        timer.schedule(recorder, 1, 1, TimeUnit.MILLISECONDS);
+
+        step(TimeUnit.MICROSECONDS.toNanos(500));
+        timer.advance();
+        assertTrue(recorder.keys.isEmpty());
+
+        step(TimeUnit.MICROSECONDS.toNanos(1000));
+        timer.advance();
+        assertEquals(list(1), recorder.keys);
+    }
+
+    @Test
+    public void cancelledTimersDontExpire() {
+        final long first = timer.schedule(recorder, 1, 2, TimeUnit.MILLISECONDS);
+        timer.schedule(recorder, 2, 2, TimeUnit.MILLISECONDS);
+        final long third = timer.schedule(recorder, 3, 2, TimeUnit.MILLISECONDS);
+
+        assertTrue(timer.cancel(first));
+        assertTrue(timer.cancel(third));
+        assertFalse(timer.cancel(third));
+        assertFalse(timer.cancel(HashedWheelTimer.NO_TIMER));
+        assertEquals(1, timer.getPending());
+
+        step(TimeUnit.MILLISECONDS.toNanos(2));
+        timer.advance();
+
+        assertEquals(list(2), recorder.keys);
+    }
+
+    @Test
+    public void cancellingATimerThatHasExpiredDoesNothingEvenIfItsSlotIsReused() {
+        final long expired = timer.schedule(recorder, 1, 1, TimeUnit.MILLISECONDS);
+        step(TimeUnit.MILLISECONDS.toNanos(1));
+        timer.advance();
+
+        timer.schedule(recorder, 2, 1, TimeUnit.MILLISECONDS);
+        assertFalse(timer.cancel(expired));
+
+        step(TimeUnit.MILLISECONDS.toNanos(1));
+        timer.advance();
+
+        assertEquals(list(1, 2), recorder.keys);
+    }
+
+    @Test
+    public void timersFurtherAwayThanARevolutionWaitForTheirOwnRevolution() {
+        timer.schedule(recorder, 1, WHEEL_SIZE + 1, TimeUnit.MILLISECONDS);
+        timer.schedule(recorder, 2, 1, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < WHEEL_SIZE; ++i) {
+            step(TimeUnit.MILLISECONDS.toNanos(1));
+            timer.advance();
+        }
+        assertEquals(list(2), recorder.keys);
+
+        step(TimeUnit.MILLISECONDS.toNanos(1));
+        timer.advance();
+        assertEquals(list(2, 1), recorder.keys);
+    }
+
+    @Test
+    public void advancingMoreThanARevolutionAtOnceExpiresEverythingThatIsDue() {
+        timer.schedule(recorder, 1, 3, TimeUnit.MILLISECONDS);
+        timer.schedule(recorder, 2, 3 * WHEEL_SIZE, TimeUnit.MILLISECONDS);
+        timer.schedule(recorder, 3, 5 * WHEEL_SIZE, TimeUnit.MILLISECONDS);
+
+        step(TimeUnit.MILLISECONDS.toNanos(4 * WHEEL_SIZE));
+        assertEquals(2, timer.advance());
+        assertEquals(1, timer.getPending());
+
+        // the wheel carries on from where the clock is now
+        timer.schedule(recorder, 4, 1, TimeUnit.MILLISECONDS);
+        step(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(1, timer.advance());
+        assertTrue(recorder.keys.contains(4L));
+        assertFalse(recorder.keys.contains(3L));
+    }
+
+    @Test
+    public void listenersCanScheduleAndCancelTimersWhileTimersExpire() {
+        final long[] sibling = new long[1];
+
+        final HashedWheelTimer.Listener rescheduler = new HashedWheelTimer.Listener() {
+            @Override
+            public void onTimerExpired(final long key) {
+                recorder.onTimerExpired(key);
+
+                // cancel the other timer in the same bucket and schedule another one
+                timer.cancel(sibling[0]);
+                timer.schedule(recorder, key + 10, 1, TimeUnit.MILLISECONDS);
+            }
+        };
+        timer.schedule(rescheduler, 1, 1, TimeUnit.MILLISECONDS);
+        sibling[0] = timer.schedule(recorder, 2, 1, TimeUnit.MILLISECONDS);
+
+        step(TimeUnit.MILLISECONDS.toNanos(1));
+        timer.advance();
+
+        // whichever of them was told first, the other one doesn't expire
+        assertTrue(recorder.keys.equals(list(1)) || recorder.keys.equals(list(2, 1)));
+
+        step(TimeUnit.MILLISECONDS.toNanos(1));
+        timer.advance();
+        assertEquals(11L, (long) recorder.keys.get(recorder.keys.size() - 1));
+        assertEquals(0, timer.getPending());
+    }
+
+    @Test
+    public void growsToHoldAsManyTimersAsAreScheduled() {
+        final int timers = 10000;
+        final long[] handles = new long[timers];
+
+        for (int i = 0; i < timers; ++i) {
+            handles[i] = timer.schedule(recorder, i, 1 + i % 100, TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < timers; i += 2) {
+            assertTrue(timer.cancel(handles[i]));
+        }
+        assertEquals(timers / 2, timer.getPending());
+
+        step(TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(timers / 2, timer.advance());
+
+        for (long key : recorder.keys) {
+            assertEquals(1, key % 2);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void theWheelSizeMustBeAPowerOfTwo() {
+        new HashedWheelTimer(ticker, 1, TimeUnit.MILLISECONDS, 6, 1);
+    }
+
+    private void step(final long nanos) {
+        ticker.nanos += nanos;
+    }
+
+    private static List<Long> list(final long... keys) {
+        final List<Long> list = new ArrayList<Long>();
+        for (long key : keys) {
+            list.add(key);
+        }
+        return list;
+    }
+}
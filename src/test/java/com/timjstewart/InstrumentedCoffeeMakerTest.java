@@ -0,0 +1,249 @@
+package com.timjstewart;
+
+import com.google.common.base.Ticker;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * a Ticker that only moves when it's told to
+ */
+class SteppingTicker extends Ticker {
+
+    long nanos;
+
+    @Override
+    public long read() {
+        return nanos;
+    }
+}
+
+/**
+ * a Boiler that takes the specified number of nanoseconds (by a SteppingTicker) to carry out each command
+ */
+class SlowBoilerSpy extends BoilerSpy {
+
+    private final SteppingTicker ticker;
+    private final long nanos;
+
+    SlowBoilerSpy(final SteppingTicker ticker, final long nanos) {
+        this.ticker = ticker;
+        this.nanos = nanos;
+    }
+
+    @Override
+    public void turnOn() {
+        ticker.nanos += nanos;
+        super.turnOn();
+    }
+
+    @Override
+    public void turnOff() {
+        ticker.nanos += nanos;
+        super.turnOff();
+    }
+}
+
+public class InstrumentedCoffeeMakerTest {
+
+    private SteppingTicker ticker;
+    private CoffeeMakerMetrics metrics;
+
+    private PotSensor potSensor;
+    private WaterLevelSensor waterLevelSensor;
+    private BrewButtonSensor brewButtonSensor;
+
+    private InstrumentedCoffeeMaker coffeeMaker;
+
+    @Before
+    public void setUp() {
+        ticker = new SteppingTicker();
+        metrics = new CoffeeMakerMetrics(ticker, 1);
+
+        potSensor = new PotSensor();
+        waterLevelSensor = new WaterLevelSensor();
+        brewButtonSensor = new BrewButtonSensor();
+
+        coffeeMaker = new InstrumentedCoffeeMaker(new SlowBoilerSpy(ticker, 1000), new PotWarmerSpy(),
+                waterLevelSensor, potSensor, brewButtonSensor, metrics);
+    }
+
+    @Test
+    public void countsEveryEdgeTaken() {
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        potSensor.detect(PotSensor.State.Gone);
+        potSensor.detect(PotSensor.State.Empty);
+        potSensor.detect(PotSensor.State.Gone);
+
+        assertEquals(1, metrics.getTransitions(
+                CoffeeMaker.State.Initial, SensorEvent.WaterLevelNotEmpty, CoffeeMaker.State.Initial));
+        assertEquals(1, metrics.getTransitions(
+                CoffeeMaker.State.Initial, SensorEvent.BrewButtonPressed, CoffeeMaker.State.Brewing));
+        // the CoffeeMaker resets the Brew button once it's brewing
+        assertEquals(1, metrics.getTransitions(
+                CoffeeMaker.State.Brewing, SensorEvent.BrewButtonNotPressed, CoffeeMaker.State.Brewing));
+        assertEquals(2, metrics.getTransitions(
+                CoffeeMaker.State.Brewing, SensorEvent.PotGone, CoffeeMaker.State.BrewingInterrupted));
+        assertEquals(1, metrics.getTransitions(
+                CoffeeMaker.State.BrewingInterrupted, SensorEvent.PotEmpty, CoffeeMaker.State.Brewing));
+        assertEquals(0, metrics.getTransitions(
+                CoffeeMaker.State.Brewing, SensorEvent.WaterLevelEmpty, CoffeeMaker.State.Warming));
+    }
+
+    @Test
+    public void measuresTimeInEachState() {
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        ticker.nanos += 500;
+        // turning the Boiler on takes 1000ns, which counts towards the Initial state
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        ticker.nanos += 20000;
+        potSensor.detect(PotSensor.State.Gone);
+
+        assertEquals(1500, metrics.getTimeInState(CoffeeMaker.State.Initial));
+        assertEquals(21000, metrics.getTimeInState(CoffeeMaker.State.Brewing));
+        assertEquals(0, metrics.getTimeInState(CoffeeMaker.State.BrewingInterrupted));
+    }
+
+    @Test
+    public void recordsLatencyIncludingActuatorCalls() {
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        potSensor.detect(PotSensor.State.Gone);
+
+        final LatencyHistogram pot = metrics.getLatency(SensorEvent.Sensor.Pot);
+        assertEquals(2, pot.getCount());
+        assertEquals(1, pot.getBucket(0));
+        assertEquals(1, pot.getBucket(LatencyHistogram.bucket(1000)));
+        assertEquals(1023, pot.getPercentile(100));
+        assertEquals(1, pot.getPercentile(50));
+
+        // the press (which turns the Boiler on) and the reset
+        assertEquals(2, metrics.getLatency(SensorEvent.Sensor.BrewButton).getCount());
+        assertEquals(1, metrics.getLatency(SensorEvent.Sensor.WaterLevel).getCount());
+    }
+
+    @Test
+    public void restoringStartsANewStay() {
+        ticker.nanos += 700;
+        coffeeMaker.restore(CoffeeMaker.State.Brewing, WaterLevelSensor.State.NotEmpty, PotSensor.State.Empty, null);
+        ticker.nanos += 300;
+        potSensor.detect(PotSensor.State.Gone);
+
+        assertEquals(0, metrics.getTimeInState(CoffeeMaker.State.Initial));
+        // the stay starts once reconciling has turned the Boiler on; turning it off again takes 1000ns
+        assertEquals(1300, metrics.getTimeInState(CoffeeMaker.State.Brewing));
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final CoffeeMakerMetrics systemMetrics = new CoffeeMakerMetrics();
+        final InstrumentedCoffeeMaker instrumented = new InstrumentedCoffeeMaker(new BoilerSpy(), new PotWarmerSpy(),
+                new WaterLevelSensor(), new PotSensor(), new BrewButtonSensor(), systemMetrics);
+        instrumented.onWaterLevelChanged(WaterLevelSensor.State.NotEmpty);
+        instrumented.onPotStatusChanged(PotSensor.State.Empty);
+        instrumented.onBrewButtonStatusChanged(BrewButtonSensor.State.Pressed);
+
+        // warm up, so that the JIT compiles the handlers
+        for (int i = 0; i < 20000; ++i) {
+            sneakACup(instrumented);
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1000; ++i) {
+            sneakACup(instrumented);
+        }
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("recording 2000 events allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void samplesLatencies() {
+        final CoffeeMakerMetrics sampled = new CoffeeMakerMetrics(ticker, 4);
+        final InstrumentedCoffeeMaker instrumented = new InstrumentedCoffeeMaker(new BoilerSpy(), new PotWarmerSpy(),
+                new WaterLevelSensor(), new PotSensor(), new BrewButtonSensor(), sampled);
+
+        for (int i = 0; i < 10; ++i) {
+            instrumented.onPotStatusChanged(PotSensor.State.Gone);
+        }
+
+        // the first event is timed and then every fourth
+        assertEquals(3, sampled.getLatency(SensorEvent.Sensor.Pot).getCount());
+        assertEquals(10, sampled.getTransitions(
+                CoffeeMaker.State.Initial, SensorEvent.PotGone, CoffeeMaker.State.Initial));
+    }
+
+    @Test
+    public void addsUpEveryThreadsCounters() throws InterruptedException {
+        final Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                coffeeMaker.onPotStatusChanged(PotSensor.State.Gone);
+            }
+        });
+        other.start();
+        other.join();
+
+        coffeeMaker.onPotStatusChanged(PotSensor.State.Gone);
+
+        assertEquals(2, metrics.getTransitions(
+                CoffeeMaker.State.Initial, SensorEvent.PotGone, CoffeeMaker.State.Initial));
+        assertEquals(2, metrics.getLatency(SensorEvent.Sensor.Pot).getCount());
+    }
+
+    @Test
+    public void countsEveryEventOfThreadsThatShareAStripe() throws InterruptedException {
+        final int threads = 8;
+        final int events = 10000;
+
+        final Thread[] recorders = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            // each thread has a coffee maker of its own, but more threads than processors have to share stripes
+            final CoffeeMaker coffeeMaker = new InstrumentedCoffeeMaker(new BoilerSpy(), new PotWarmerSpy(),
+                    new WaterLevelSensor(), new PotSensor(), new BrewButtonSensor(), metrics);
+
+            recorders[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int event = 0; event < events; ++event) {
+                        coffeeMaker.onPotStatusChanged(PotSensor.State.Gone);
+                    }
+                }
+            });
+        }
+
+        for (Thread recorder : recorders) {
+            recorder.start();
+        }
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+
+        assertEquals(threads * events, metrics.getTransitions(
+                CoffeeMaker.State.Initial, SensorEvent.PotGone, CoffeeMaker.State.Initial));
+    }
+
+    private static void sneakACup(final CoffeeMaker coffeeMaker) {
+        coffeeMaker.onPotStatusChanged(PotSensor.State.Gone);
+        coffeeMaker.onPotStatusChanged(PotSensor.State.Empty);
+    }
+}
@@ -0,0 +1,87 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a water level event of a reservoir shared by a number of brew heads, one of which is brewing.
+ * One benchmark operation is one reservoir reading; the readings alternate so that each one is a change.
+ * <p/>
+ * Composite runs the heads as the regions of a MultiBrewer, which fans each event out to the heads that can react to
+ * it; Listeners has a CoffeeMaker per head, each of which listens to the reservoir itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiBrewerBenchmark {
+
+    /**
+     * the ways of wiring the heads to the reservoir that are being compared
+     */
+    public enum Wiring {
+        Composite,
+        Listeners
+    }
+
+    @Param
+    public Wiring wiring;
+
+    @Param({"4", "16"})
+    public int heads;
+
+    private WaterLevelSensor reservoir;
+    private boolean empty;
+
+    @Setup
+    public void setUp() {
+        reservoir = new WaterLevelSensor();
+
+        final PotSensor[] potSensors = new PotSensor[heads];
+        final BrewButtonSensor[] brewButtons = new BrewButtonSensor[heads];
+        final MultiBrewer.Head[] brewHeads = new MultiBrewer.Head[heads];
+
+        for (int i = 0; i < heads; ++i) {
+            potSensors[i] = new PotSensor();
+            brewButtons[i] = new BrewButtonSensor();
+            brewHeads[i] = new MultiBrewer.Head(new NullBoiler(), new NullPotWarmer(), potSensors[i], brewButtons[i]);
+
+            if (wiring == Wiring.Listeners) {
+                new CoffeeMaker(new NullBoiler(), new NullPotWarmer(), reservoir, potSensors[i], brewButtons[i]);
+            }
+        }
+
+        if (wiring == Wiring.Composite) {
+            new MultiBrewer(reservoir, brewHeads);
+        }
+
+        // the first head brews until the reservoir runs dry; once it's warming, no event changes any head's state
+        reservoir.detect(WaterLevelSensor.State.NotEmpty);
+        potSensors[0].detect(PotSensor.State.Empty);
+        brewButtons[0].detect(BrewButtonSensor.State.Pressed);
+        reservoir.detect(WaterLevelSensor.State.Empty);
+        empty = true;
+    }
+
+    @Benchmark
+    public void event() {
+        empty = !empty;
+        reservoir.detect(empty ? WaterLevelSensor.State.Empty : WaterLevelSensor.State.NotEmpty);
+    }
+}
@@ -0,0 +1,220 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MultiBrewerTest {
+
+    private static final int HEADS = 3;
+
+    private WaterLevelSensor reservoir;
+
+    private BoilerSpy[] boilers;
+    private PotWarmerSpy[] potWarmers;
+    private PotSensor[] potSensors;
+    private BrewButtonSensor[] brewButtons;
+    private MultiBrewer.Head[] heads;
+
+    @Before
+    public void setUp() {
+        reservoir = new WaterLevelSensor();
+
+        boilers = new BoilerSpy[HEADS];
+        potWarmers = new PotWarmerSpy[HEADS];
+        potSensors = new PotSensor[HEADS];
+        brewButtons = new BrewButtonSensor[HEADS];
+        heads = new MultiBrewer.Head[HEADS];
+
+        for (int i = 0; i < HEADS; ++i) {
+            boilers[i] = new BoilerSpy();
+            potWarmers[i] = new PotWarmerSpy();
+            potSensors[i] = new PotSensor();
+            brewButtons[i] = new BrewButtonSensor();
+            heads[i] = new MultiBrewer.Head(boilers[i], potWarmers[i], potSensors[i], brewButtons[i]);
+        }
+    }
+
+    @Test
+    public void headsBrewIndependently() {
+        final MultiBrewer brewer = new MultiBrewer(reservoir, heads);
+
+        reservoir.detect(WaterLevelSensor.State.NotEmpty);
+        potSensors[0].detect(PotSensor.State.Empty);
+        potSensors[1].detect(PotSensor.State.Empty);
+
+        brewButtons[0].detect(BrewButtonSensor.State.Pressed);
+        brewButtons[2].detect(BrewButtonSensor.State.Pressed);
+
+        assertEquals(CoffeeMaker.State.Brewing, brewer.getState(0));
+        assertEquals(CoffeeMaker.State.Initial, brewer.getState(1));
+        // no pot under the third head
+        assertEquals(CoffeeMaker.State.Initial, brewer.getState(2));
+
+        assertTrue(boilers[0].isOn());
+        assertFalse(boilers[1].isOn());
+        assertFalse(boilers[2].isOn());
+
+        potSensors[0].detect(PotSensor.State.Gone);
+
+        assertEquals(CoffeeMaker.State.BrewingInterrupted, brewer.getState(0));
+        assertEquals(CoffeeMaker.State.Initial, brewer.getState(1));
+    }
+
+    @Test
+    public void theReservoirRunningDryStopsEveryHeadThatIsBrewing() {
+        final MultiBrewer brewer = new MultiBrewer(reservoir, heads);
+
+        reservoir.detect(WaterLevelSensor.State.NotEmpty);
+        potSensors[0].detect(PotSensor.State.Empty);
+        potSensors[1].detect(PotSensor.State.Empty);
+        potSensors[2].detect(PotSensor.State.Empty);
+        brewButtons[0].detect(BrewButtonSensor.State.Pressed);
+        brewButtons[1].detect(BrewButtonSensor.State.Pressed);
+
+        reservoir.detect(WaterLevelSensor.State.Empty);
+
+        assertEquals(CoffeeMaker.State.Warming, brewer.getState(0));
+        assertEquals(CoffeeMaker.State.Warming, brewer.getState(1));
+        assertEquals(CoffeeMaker.State.Initial, brewer.getState(2));
+
+        for (int i = 0; i < 2; ++i) {
+            assertFalse(boilers[i].isOn());
+            assertTrue(potWarmers[i].isOn());
+        }
+
+        // the heads read the shared reservoir for their Guard Conditions
+        brewButtons[2].detect(BrewButtonSensor.State.Pressed);
+        assertEquals(CoffeeMaker.State.Initial, brewer.getState(2));
+    }
+
+    @Test
+    public void waterLevelEventsOnlyReachTheStatesThatReactToThem() {
+        for (CoffeeMaker.State state : CoffeeMaker.State.values()) {
+            assertEquals(state == CoffeeMaker.State.Brewing,
+                    MultiBrewer.affects(WaterLevelSensor.State.Empty, state));
+            assertFalse(MultiBrewer.affects(WaterLevelSensor.State.NotEmpty, state));
+        }
+    }
+
+    @Test
+    public void headsCanTransitionInParallel() throws InterruptedException {
+        final ManualExecutor executor = new ManualExecutor();
+        final MultiBrewer brewer = new MultiBrewer(reservoir, executor, 16, heads);
+
+        reservoir.detect(WaterLevelSensor.State.NotEmpty);
+        potSensors[0].detect(PotSensor.State.Empty);
+        brewButtons[0].detect(BrewButtonSensor.State.Pressed);
+        potSensors[1].detect(PotSensor.State.Empty);
+
+        // the events are queued for each head, and each head with events gets a task of its own
+        assertEquals(CoffeeMaker.State.Initial, brewer.getState(0));
+        assertEquals(HEADS, executor.pending());
+
+        executor.runAll();
+
+        assertEquals(CoffeeMaker.State.Brewing, brewer.getState(0));
+        assertEquals(CoffeeMaker.State.Initial, brewer.getState(1));
+        assertTrue(boilers[0].isOn());
+
+        reservoir.detect(WaterLevelSensor.State.Empty);
+        executor.runAll();
+
+        assertEquals(CoffeeMaker.State.Warming, brewer.getState(0));
+        assertTrue(potWarmers[0].isOn());
+    }
+
+    @Test
+    public void headsInParallelSeeTheReservoirAsOfEachEvent() {
+        final ManualExecutor executor = new ManualExecutor();
+        final MultiBrewer brewer = new MultiBrewer(reservoir, executor, 16, heads);
+
+        reservoir.detect(WaterLevelSensor.State.Empty);
+        potSensors[0].detect(PotSensor.State.Empty);
+        brewButtons[0].detect(BrewButtonSensor.State.Pressed);
+
+        // the reservoir is filled before the head has been told about the press
+        reservoir.detect(WaterLevelSensor.State.NotEmpty);
+        executor.runAll();
+
+        // the press came while the reservoir was empty
+        assertEquals(CoffeeMaker.State.Initial, brewer.getState(0));
+        assertFalse(boilers[0].isOn());
+
+        brewButtons[0].detect(BrewButtonSensor.State.Pressed);
+        executor.runAll();
+
+        assertEquals(CoffeeMaker.State.Brewing, brewer.getState(0));
+        assertEquals(BrewButtonSensor.State.NotPressed, brewButtons[0].getBrewButtonState());
+    }
+
+    @Test
+    public void headsInParallelStartWithTheReservoirsReading() {
+        final ManualExecutor executor = new ManualExecutor();
+
+        // the reservoir was filled before the MultiBrewer was created
+        reservoir.detect(WaterLevelSensor.State.NotEmpty);
+        final MultiBrewer brewer = new MultiBrewer(reservoir, executor, 16, heads);
+
+        potSensors[0].detect(PotSensor.State.Empty);
+        brewButtons[0].detect(BrewButtonSensor.State.Pressed);
+        executor.runAll();
+
+        assertEquals(CoffeeMaker.State.Brewing, brewer.getState(0));
+        assertTrue(boilers[0].isOn());
+    }
+
+    @Test
+    public void eachHeadKeepsItsEventsInOrderOnAThreadPool() throws InterruptedException {
+        final ForkJoinPool pool = new ForkJoinPool(HEADS);
+        final MultiBrewer brewer = new MultiBrewer(reservoir, pool, 1024, heads);
+
+        reservoir.detect(WaterLevelSensor.State.NotEmpty);
+
+        // a queued press reads the PotSensor when it's delivered, so every head has to be brewing before its pot is
+        // taken away
+        for (int i = 0; i < HEADS; ++i) {
+            potSensors[i].detect(PotSensor.State.Empty);
+            brewButtons[i].detect(BrewButtonSensor.State.Pressed);
+        }
+        assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS));
+        for (int i = 0; i < HEADS; ++i) {
+            assertEquals(CoffeeMaker.State.Brewing, brewer.getState(i));
+        }
+
+        final Thread[] threads = new Thread[HEADS];
+        for (int i = 0; i < HEADS; ++i) {
+            final int head = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // sneak a cup, over and over
+                    for (int cup = 0; cup < 10000; ++cup) {
+                        potSensors[head].detect(PotSensor.State.Gone);
+                        potSensors[head].detect(PotSensor.State.Empty);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // a mailbox resubmits its task until it's empty, so wait for the pool to run out of tasks
+        assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS));
+        pool.shutdown();
+
+        for (int i = 0; i < HEADS; ++i) {
+            assertEquals(CoffeeMaker.State.Brewing, brewer.getState(i));
+            assertTrue(boilers[i].isOn());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.timjstewart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how quickly a ReplayEngine replays a journal of EVENTS random sensor events spread over a number of devices,
+ * from a fresh engine (so creating each device's CoffeeMaker is included).  The journal is written to a temporary
+ * directory that is deleted afterwards.  The result is the time per event; each invocation replays the whole journal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class ReplayEngineBenchmark {
+
+    private static final int EVENTS = 10000000;
+
+    @Param({"1000", "1000000"})
+    public int devices;
+
+    private File directory;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("replay-benchmark").toFile();
+
+        final SensorEvent[] events = SensorEvent.values();
+        final Random random = new Random(42);
+
+        try (EventJournal journal = new EventJournal(directory, 1 << 22)) {
+            for (int i = 0; i < EVENTS; ++i) {
+                journal.append(i, random.nextInt(devices), events[random.nextInt(events.length)],
+                        CoffeeMaker.State.Initial, CoffeeMaker.State.Initial);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        final File[] segments = directory.listFiles();
+        if (segments != null) {
+            for (File segment : segments) {
+                segment.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public ReplayEngine replay() {
+        final ReplayEngine engine = new ReplayEngine();
+        engine.replay(directory);
+        return engine;
+    }
+}
@@ -0,0 +1,143 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ReplayEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), "journal");
+    }
+
+    @Test
+    public void replaysAJournalIntoTheStatesItRecorded() throws IOException {
+        final BoilerSpy boilerSpy = new BoilerSpy();
+        final PotWarmerSpy potWarmerSpy = new PotWarmerSpy();
+
+        try (EventJournal journal = new EventJournal(directory, 16)) {
+            final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+            final PotSensor potSensor = new PotSensor();
+            final BrewButtonSensor brewButtonSensor = new BrewButtonSensor();
+
+            new JournalingCoffeeMaker(new CoffeeMaker(new CoffeeMaker.Components(
+                    new BoilerSpy(), new PotWarmerSpy(), waterLevelSensor, potSensor, brewButtonSensor)), 7, journal)
+                    .listenTo(waterLevelSensor, potSensor, brewButtonSensor);
+
+            waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+            potSensor.detect(PotSensor.State.Empty);
+            brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+            potSensor.detect(PotSensor.State.Gone);
+            potSensor.detect(PotSensor.State.Empty);
+            waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+        }
+
+        final ReplayEngine engine = new ReplayEngine(boilerSpy, potWarmerSpy);
+
+        assertEquals(7, engine.replay(directory));
+
+        assertEquals(7, engine.getEvents());
+        assertEquals(0, engine.getMismatches());
+        assertEquals(1, engine.getDevices());
+        assertEquals(CoffeeMaker.State.Warming, engine.getState(7));
+        assertNull(engine.getState(8));
+
+        assertEquals(2, engine.getCommands(ActuatorCommand.BoilerOn));
+        assertEquals(2, engine.getCommands(ActuatorCommand.BoilerOff));
+        assertEquals(1, engine.getCommands(ActuatorCommand.PotWarmerOn));
+        assertEquals(0, engine.getCommands(ActuatorCommand.PotWarmerOff));
+
+        // the commands are passed on to the stand-in actuators
+        assertFalse(boilerSpy.isOn());
+        assertTrue(potWarmerSpy.isOn());
+    }
+
+    @Test
+    public void measuresDwellsByTheEventsClock() {
+        final ReplayEngine engine = new ReplayEngine();
+
+        engine.replay(0, 1, SensorEvent.WaterLevelNotEmpty);
+        engine.replay(0, 1, SensorEvent.PotEmpty);
+        engine.replay(5, 2, SensorEvent.BrewButtonPressed);
+        engine.replay(10, 1, SensorEvent.BrewButtonPressed);
+        engine.replay(15, 1, SensorEvent.BrewButtonNotPressed);
+        engine.replay(40, 1, SensorEvent.PotGone);
+        engine.replay(45, 1, SensorEvent.PotEmpty);
+        assertEquals(CoffeeMaker.State.Warming, engine.replay(100, 1, SensorEvent.WaterLevelEmpty));
+
+        final ReplayEngine.Dwell initial = engine.getDwell(CoffeeMaker.State.Initial);
+        assertEquals(1, initial.getCount());
+        assertEquals(10, initial.getTotal());
+
+        final ReplayEngine.Dwell brewing = engine.getDwell(CoffeeMaker.State.Brewing);
+        assertEquals(2, brewing.getCount());
+        assertEquals(85, brewing.getTotal());
+        assertEquals(30, brewing.getMin());
+        assertEquals(55, brewing.getMax());
+        assertEquals(42.5, brewing.getMean(), 0);
+
+        assertEquals(5, engine.getDwell(CoffeeMaker.State.BrewingInterrupted).getTotal());
+
+        // neither device has left the state it's in now
+        assertEquals(0, engine.getDwell(CoffeeMaker.State.Warming).getCount());
+        assertEquals(0, engine.getDwell(CoffeeMaker.State.Warming).getMax());
+        assertEquals(CoffeeMaker.State.Initial, engine.getState(2));
+    }
+
+    @Test
+    public void countsJournaledEventsThatLeadSomewhereElse() throws IOException {
+        try (EventJournal journal = new EventJournal(directory, 16)) {
+            journal.append(1, 1, SensorEvent.WaterLevelNotEmpty, CoffeeMaker.State.Initial, CoffeeMaker.State.Initial);
+            // without a pot, pressing the Brew button can't start a brew
+            journal.append(2, 1, SensorEvent.BrewButtonPressed, CoffeeMaker.State.Initial, CoffeeMaker.State.Brewing);
+        }
+
+        final ReplayEngine engine = new ReplayEngine();
+        engine.replay(directory);
+
+        assertEquals(2, engine.getEvents());
+        assertEquals(1, engine.getMismatches());
+    }
+
+    @Test
+    public void replaysDeterministically() throws IOException {
+        try (EventJournal journal = new EventJournal(directory, 64)) {
+            final SensorEvent[] events = SensorEvent.values();
+            for (int i = 0; i < 1000; ++i) {
+                journal.append(i, i % 10, events[(i * 31 + i / 10) % events.length],
+                        CoffeeMaker.State.Initial, CoffeeMaker.State.Initial);
+            }
+        }
+
+        final ReplayEngine first = new ReplayEngine();
+        first.replay(directory);
+        final ReplayEngine second = new ReplayEngine();
+        second.replay(directory);
+
+        for (CoffeeMaker.State state : CoffeeMaker.State.values()) {
+            assertEquals(first.getDwell(state).getCount(), second.getDwell(state).getCount());
+            assertEquals(first.getDwell(state).getTotal(), second.getDwell(state).getTotal());
+        }
+        for (ActuatorCommand command : ActuatorCommand.values()) {
+            assertEquals(first.getCommands(command), second.getCommands(command));
+        }
+        for (int device = 0; device < 10; ++device) {
+            assertEquals(first.getState(device), second.getState(device));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.actuator.PotWarmer;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+
+import static org.junit.Assert.*;
+
+/**
+ * records the commands issued to a Boiler and a PotWarmer, in order
+ */
+class CommandLog {
+
+    final StringBuilder commands = new StringBuilder();
+
+    final Boiler boiler = new Boiler() {
+        @Override
+        public void turnOn() {
+            commands.append("Boiler:on ");
+        }
+
+        @Override
+        public void turnOff() {
+            commands.append("Boiler:off ");
+        }
+    };
+
+    final PotWarmer potWarmer = new PotWarmer() {
+        @Override
+        public void turnOn() {
+            commands.append("PotWarmer:on ");
+        }
+
+        @Override
+        public void turnOff() {
+            commands.append("PotWarmer:off ");
+        }
+    };
+
+    @Override
+    public String toString() {
+        return commands.toString();
+    }
+}
+
+/**
+ * checks an implementation of the Coffee Maker FSM against CoffeeMaker by feeding both of them every sequence of sensor
+ * events (and, for an implementation that can time out, timeouts) that is long enough to reach every state and leave
+ * it again by every event
+ */
+final class SensorEventSequences {
+
+    /**
+     * the coffee maker being checked
+     */
+    interface Subject {
+
+        /**
+         * @return the state of the coffee maker, which is compared with CoffeeMaker's by name, because
+         * GeneratedCoffeeMaker has a State of its own
+         */
+        Enum<?> getState();
+
+        /**
+         * tells the coffee maker that it has been in its state for too long (see CoffeeMaker.onTimeout)
+         */
+        default void onTimeout() {
+            throw new UnsupportedOperationException("the coffee maker can't time out");
+        }
+    }
+
+    /**
+     * creates the coffee maker being checked
+     */
+    interface Factory {
+
+        /**
+         * @return a new coffee maker that listens to the specified sensors
+         */
+        Subject create(Boiler boiler,
+                       PotWarmer potWarmer,
+                       WaterLevelSensor waterLevelSensor,
+                       PotSensor potSensor,
+                       BrewButtonSensor brewButton);
+    }
+
+    // long enough to reach every state and leave it again by every event
+    private static final int SEQUENCE_LENGTH = 7;
+
+    private static final SensorEvent[] EVENTS = SensorEvent.values();
+
+    // the step of a sequence that times the coffee makers out rather than reporting an event
+    private static final int TIMEOUT = EVENTS.length;
+
+    private SensorEventSequences() {
+    }
+
+    /**
+     * asserts that the coffee makers that the specified Factory creates end up in the same state as CoffeeMaker and
+     * issue the same commands in the same order, after every event of every sequence
+     */
+    static void assertBehavesLikeCoffeeMaker(final Factory factory) {
+        assertBehavesLikeCoffeeMaker(factory, EVENTS.length);
+    }
+
+    /**
+     * asserts the same as assertBehavesLikeCoffeeMaker, with sequences that time the coffee makers out between events
+     * too
+     */
+    static void assertBehavesLikeCoffeeMakerIncludingTimeouts(final Factory factory) {
+        assertBehavesLikeCoffeeMaker(factory, EVENTS.length + 1);
+    }
+
+    /**
+     * @param steps the number of different steps a sequence can take: the events and, if it's one more, TIMEOUT
+     */
+    private static void assertBehavesLikeCoffeeMaker(final Factory factory, final int steps) {
+        final int[] sequence = new int[SEQUENCE_LENGTH];
+
+        int sequences = 0;
+        do {
+            assertEquivalent(factory, sequence);
+            ++sequences;
+        } while (increment(sequence, steps));
+
+        assertEquals((int) Math.pow(steps, SEQUENCE_LENGTH), sequences);
+    }
+
+    private static void assertEquivalent(final Factory factory, final int[] sequence) {
+        final CommandLog expectedCommands = new CommandLog();
+        final PotSensor expectedPotSensor = new PotSensor();
+        final WaterLevelSensor expectedWaterLevelSensor = new WaterLevelSensor();
+        final BrewButtonSensor expectedBrewButton = new BrewButtonSensor();
+
+        final CoffeeMaker expected = new CoffeeMaker(expectedCommands.boiler, expectedCommands.potWarmer,
+                expectedWaterLevelSensor, expectedPotSensor, expectedBrewButton);
+
+        final CommandLog actualCommands = new CommandLog();
+        final PotSensor actualPotSensor = new PotSensor();
+        final WaterLevelSensor actualWaterLevelSensor = new WaterLevelSensor();
+        final BrewButtonSensor actualBrewButton = new BrewButtonSensor();
+
+        final Subject actual = factory.create(actualCommands.boiler, actualCommands.potWarmer,
+                actualWaterLevelSensor, actualPotSensor, actualBrewButton);
+
+        for (int i = 0; i < sequence.length; ++i) {
+            if (sequence[i] == TIMEOUT) {
+                expected.onTimeout();
+                actual.onTimeout();
+            } else {
+                final SensorEvent event = EVENTS[sequence[i]];
+
+                event.detect(expectedPotSensor, expectedWaterLevelSensor, expectedBrewButton);
+                event.detect(actualPotSensor, actualWaterLevelSensor, actualBrewButton);
+            }
+
+            if (!expected.getState().name().equals(actual.getState().name()) ||
+                    !expectedCommands.toString().equals(actualCommands.toString())) {
+                assertEquals(describe(sequence, i), expected.getState().name(), actual.getState().name());
+                assertEquals(describe(sequence, i), expectedCommands.toString(), actualCommands.toString());
+            }
+        }
+    }
+
+    private static boolean increment(final int[] sequence, final int steps) {
+        for (int i = sequence.length - 1; i >= 0; --i) {
+            if (++sequence[i] < steps) {
+                return true;
+            }
+            sequence[i] = 0;
+        }
+        return false;
+    }
+
+    private static String describe(final int[] sequence, final int last) {
+        final StringBuilder description = new StringBuilder("after");
+        for (int i = 0; i <= last; ++i) {
+            description.append(' ').append(sequence[i] == TIMEOUT ? "Timeout" : EVENTS[sequence[i]]);
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,211 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+
+import static org.junit.Assert.*;
+
+public class SensorFrameDecoderTest {
+
+    private static final int DEVICES = 4;
+
+    private FleetCommandLog commands;
+    private CoffeeMakerFleet fleet;
+    private SensorFrameDecoder decoder;
+
+    private Pipe pipe;
+
+    @Before
+    public void setUp() throws IOException {
+        commands = new FleetCommandLog(DEVICES);
+        fleet = CoffeeMakerFleet.onHeap(DEVICES, commands);
+        decoder = new SensorFrameDecoder(SensorFrameDecoder.to(fleet), 16);
+
+        pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pipe.sink().close();
+        pipe.source().close();
+    }
+
+    @Test
+    public void dispatchesEachFrameToItsDevice() throws IOException {
+        send(frames(2, SensorEvent.WaterLevelNotEmpty, SensorEvent.PotEmpty, SensorEvent.BrewButtonPressed));
+        send(frames(3, SensorEvent.PotGone));
+
+        assertEquals(4, decoder.readFrom(pipe.source()));
+
+        assertEquals(CoffeeMaker.State.Brewing, fleet.getState(2));
+        assertEquals("Boiler:on ", commands.toString(2));
+
+        assertEquals(PotSensor.State.Gone, fleet.getPot(3));
+        assertEquals(CoffeeMaker.State.Initial, fleet.getState(0));
+
+        assertEquals(4, decoder.getDecoded());
+        assertEquals(0, decoder.getRejected());
+    }
+
+    @Test
+    public void putsFramesThatAreSplitAcrossReadsBackTogether() throws IOException {
+        final ByteBuffer frames = frames(1, SensorEvent.WaterLevelNotEmpty, SensorEvent.PotEmpty);
+
+        // the first frame and the device id of the second
+        frames.limit(SensorFrameDecoder.FRAME_SIZE + 8);
+        send(frames);
+        assertEquals(1, decoder.readFrom(pipe.source()));
+        assertEquals(0, decoder.readFrom(pipe.source()));
+
+        frames.limit(frames.capacity());
+        send(frames);
+        assertEquals(1, decoder.readFrom(pipe.source()));
+
+        assertEquals(WaterLevelSensor.State.NotEmpty, fleet.getWaterLevel(1));
+        assertEquals(PotSensor.State.Empty, fleet.getPot(1));
+    }
+
+    @Test
+    public void decodesMoreFramesThanFitInItsBuffer() throws IOException {
+        final SensorEvent[] events = new SensorEvent[40];
+        for (int i = 0; i < events.length; ++i) {
+            events[i] = i % 2 == 0 ? SensorEvent.PotGone : SensorEvent.PotEmpty;
+        }
+        send(frames(0, events));
+
+        int frames = 0;
+        while (frames < events.length) {
+            final int decoded = decoder.readFrom(pipe.source());
+            assertTrue(decoded <= 16);
+            frames += decoded;
+        }
+
+        assertEquals(events.length, frames);
+        assertEquals(PotSensor.State.Empty, fleet.getPot(0));
+    }
+
+    @Test
+    public void rejectsFramesWithAnUnknownSensorStateOrDevice() throws IOException {
+        final ByteBuffer frames = ByteBuffer.allocate(4 * SensorFrameDecoder.FRAME_SIZE);
+        frames.putLong(0).put((byte) SensorEvent.Sensor.values().length).put((byte) 0);
+        frames.putLong(0).put((byte) SensorEvent.Sensor.Pot.ordinal()).put((byte) PotSensor.State.values().length);
+        frames.putLong(DEVICES).put((byte) SensorEvent.Sensor.Pot.ordinal()).put((byte) 0);
+        SensorFrameDecoder.encode(frames, 0, SensorEvent.PotNonEmpty);
+        frames.flip();
+        send(frames);
+
+        assertEquals(4, decoder.readFrom(pipe.source()));
+
+        assertEquals(3, decoder.getRejected());
+        assertEquals(PotSensor.State.NonEmpty, fleet.getPot(0));
+    }
+
+    @Test
+    public void rejectsAFrameThatTheStreamEndsInTheMiddleOf() throws IOException {
+        final ByteBuffer frames = frames(0, SensorEvent.PotEmpty, SensorEvent.PotGone);
+        frames.limit(frames.capacity() - 1);
+        send(frames);
+        pipe.sink().close();
+
+        assertEquals(1, decoder.readFrom(pipe.source()));
+        assertEquals(-1, decoder.readFrom(pipe.source()));
+
+        assertEquals(1, decoder.getRejected());
+        assertEquals(PotSensor.State.Empty, fleet.getPot(0));
+    }
+
+    @Test
+    public void dispatchesToTheSensorsOfCoffeeMakers() throws IOException {
+        final BoilerSpy boilerSpy = new BoilerSpy();
+        final CoffeeMaker.Components components = new CoffeeMaker.Components(boilerSpy, new PotWarmerSpy(),
+                new WaterLevelSensor(), new PotSensor(), new BrewButtonSensor());
+        final CoffeeMaker coffeeMaker = new CoffeeMaker(components.getBoiler(), components.getPotWarmer(),
+                components.getWaterLevelSensor(), components.getPotSensor(), components.getBrewButton());
+
+        decoder = new SensorFrameDecoder(SensorFrameDecoder.to(components), 16);
+
+        send(frames(0, SensorEvent.WaterLevelNotEmpty, SensorEvent.PotEmpty, SensorEvent.BrewButtonPressed));
+        assertEquals(3, decoder.readFrom(pipe.source()));
+
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertTrue(boilerSpy.isOn());
+        assertEquals(BrewButtonSensor.State.NotPressed, components.getBrewButton().getBrewButtonState());
+    }
+
+    @Test
+    public void dispatchesToTheCoffeeMakersOfARegistry() throws IOException {
+        final DeviceRegistry<CoffeeMaker.Components> registry = new DeviceRegistry<CoffeeMaker.Components>(1);
+
+        final BoilerSpy boilerSpy = new BoilerSpy();
+        final CoffeeMaker.Components components = new CoffeeMaker.Components(boilerSpy, new PotWarmerSpy(),
+                new WaterLevelSensor(), new PotSensor(), new BrewButtonSensor());
+        final CoffeeMaker coffeeMaker = new CoffeeMaker(components.getBoiler(), components.getPotWarmer(),
+                components.getWaterLevelSensor(), components.getPotSensor(), components.getBrewButton());
+
+        final long device = 0x5ca1ab1e0000L;
+        registry.register(device, components);
+
+        decoder = new SensorFrameDecoder(SensorFrameDecoder.to(registry), 16);
+
+        send(frames(device, SensorEvent.WaterLevelNotEmpty, SensorEvent.PotEmpty, SensorEvent.BrewButtonPressed));
+        send(frames(device + 1, SensorEvent.PotGone));
+        assertEquals(4, decoder.readFrom(pipe.source()));
+
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertTrue(boilerSpy.isOn());
+        assertEquals(1, decoder.getRejected());
+    }
+
+    @Test
+    public void aFrameWhoseDispatchThrowsDoesNotLoseTheFramesAfterIt() throws IOException {
+        final IllegalStateException failure = new IllegalStateException("the device is broken");
+
+        decoder = new SensorFrameDecoder(new SensorFrameDecoder.Dispatcher() {
+            @Override
+            public boolean dispatch(final long device, final SensorEvent event) {
+                if (device == 1) {
+                    throw failure;
+                }
+                fleet.apply((int) device, event);
+                return true;
+            }
+        }, 16);
+
+        send(frames(1, SensorEvent.PotEmpty));
+        send(frames(2, SensorEvent.PotEmpty));
+
+        try {
+            decoder.readFrom(pipe.source());
+            fail("the dispatcher's exception wasn't thrown");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+
+        assertEquals(1, decoder.decode());
+        assertEquals(PotSensor.State.Empty, fleet.getPot(2));
+    }
+
+    private void send(final ByteBuffer frames) throws IOException {
+        while (frames.hasRemaining()) {
+            pipe.sink().write(frames);
+        }
+    }
+
+    private static ByteBuffer frames(final long device, final SensorEvent... events) {
+        final ByteBuffer frames = ByteBuffer.allocate(events.length * SensorFrameDecoder.FRAME_SIZE);
+        for (SensorEvent event : events) {
+            SensorFrameDecoder.encode(frames, device, event);
+        }
+        frames.flip();
+        return frames;
+    }
+}
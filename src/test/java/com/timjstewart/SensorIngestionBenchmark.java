@@ -0,0 +1,175 @@
+package com.timjstewart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rate at which a SensorFrameDecoder ingests frames into a CoffeeMakerFleet.
+ * <p/>
+ * Each operation is one frame, so the scores are frames per microsecond.  The frames are sent in batches, for random
+ * devices of the fleet, over a channel that holds them in memory (the cost of decoding and dispatching alone), over a
+ * Pipe and over a loopback socket; the batch is written and read by the same thread.  Run with -prof gc to confirm that
+ * decoding doesn't allocate (gc.alloc.rate.norm).
+ * <p/>
+ * <pre>mvn -P benchmarks verify -Djmh.args="SensorIngestionBenchmark -prof gc"</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensorIngestionBenchmark {
+
+    private static final int FRAMES = 1024;
+
+    private static final int DEVICES = 100000;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private SensorFrameDecoder decoder;
+
+    // the batch of frames, encoded
+    private ByteBuffer frames;
+
+    private ReplayChannel memory;
+
+    private Pipe pipe;
+
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private SocketChannel connection;
+
+    @Setup
+    public void setUp() throws IOException {
+        final CoffeeMakerFleet fleet = CoffeeMakerFleet.offHeap(DEVICES, new CoffeeMakerFleetBenchmark.NullActuators());
+        decoder = new SensorFrameDecoder(SensorFrameDecoder.to(fleet), capacity);
+
+        final Random random = new Random(42);
+        final SensorEvent[] events = SensorEvent.values();
+
+        frames = ByteBuffer.allocateDirect(FRAMES * SensorFrameDecoder.FRAME_SIZE);
+        for (int i = 0; i < FRAMES; ++i) {
+            SensorFrameDecoder.encode(frames, random.nextInt(DEVICES), events[random.nextInt(events.length)]);
+        }
+        frames.flip();
+
+        memory = new ReplayChannel(frames);
+
+        pipe = Pipe.open();
+
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        client.socket().setTcpNoDelay(true);
+        connection = server.accept();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pipe.sink().close();
+        pipe.source().close();
+
+        client.close();
+        connection.close();
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long memory() throws IOException {
+        memory.rewind();
+        return ingest(memory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long pipe() throws IOException {
+        send(pipe.sink());
+        return ingest(pipe.source());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long loopback() throws IOException {
+        send(client);
+        return ingest(connection);
+    }
+
+    private void send(final WritableByteChannel channel) throws IOException {
+        frames.rewind();
+        while (frames.hasRemaining()) {
+            channel.write(frames);
+        }
+    }
+
+    private long ingest(final ReadableByteChannel channel) throws IOException {
+        for (int decoded = 0; decoded < FRAMES; ) {
+            decoded += decoder.readFrom(channel);
+        }
+        return decoder.getDecoded();
+    }
+
+    /**
+     * a channel that reads from a buffer in memory
+     */
+    static final class ReplayChannel implements ReadableByteChannel {
+
+        private final ByteBuffer source;
+
+        ReplayChannel(final ByteBuffer source) {
+            this.source = source.duplicate();
+        }
+
+        void rewind() {
+            source.rewind();
+        }
+
+        @Override
+        public int read(final ByteBuffer destination) {
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+
+            final int bytes = Math.min(source.remaining(), destination.remaining());
+            final int limit = source.limit();
+            source.limit(source.position() + bytes);
+            destination.put(source);
+            source.limit(limit);
+            return bytes;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
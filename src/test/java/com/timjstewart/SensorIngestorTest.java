@@ -0,0 +1,206 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.PotSensor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class SensorIngestorTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private static final int DEVICES = 100;
+
+    private CoffeeMakerFleet fleet;
+    private SensorIngestor ingestor;
+    private Thread thread;
+
+    @Before
+    public void setUp() throws IOException {
+        fleet = CoffeeMakerFleet.onHeap(DEVICES, new FleetCommandLog(DEVICES));
+        ingestor = new SensorIngestor(SensorFrameDecoder.to(fleet), 64);
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        if (thread != null) {
+            ingestor.stop();
+            thread.join(TIMEOUT_MILLIS);
+        }
+        ingestor.close();
+    }
+
+    @Test
+    public void ingestsFramesFromDevicesConnectedOverLoopbackSockets() throws IOException, InterruptedException {
+        final InetSocketAddress address =
+                ingestor.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        thread = ingestor.start(Executors.defaultThreadFactory());
+
+        try (SocketChannel first = SocketChannel.open(address);
+             SocketChannel second = SocketChannel.open(address)) {
+
+            // each device's frames go over a single connection, but the connections' frames interleave
+            for (int device = 0; device < DEVICES; ++device) {
+                send(device % 2 == 0 ? first : second, device,
+                        SensorEvent.WaterLevelNotEmpty, SensorEvent.PotEmpty, SensorEvent.BrewButtonPressed);
+            }
+
+            awaitFrames(3 * DEVICES);
+            assertEquals(2, ingestor.getConnections());
+        }
+
+        stop();
+
+        for (int device = 0; device < DEVICES; ++device) {
+            assertEquals(CoffeeMaker.State.Brewing, fleet.getState(device));
+        }
+        assertEquals(0, ingestor.getRejected());
+    }
+
+    @Test
+    public void ingestsFramesFromAPipe() throws IOException, InterruptedException {
+        final Pipe pipe = Pipe.open();
+        ingestor.read(pipe.source());
+        thread = ingestor.start(Executors.defaultThreadFactory());
+
+        send(pipe.sink(), 7, SensorEvent.PotEmpty, SensorEvent.PotGone, SensorEvent.PotNonEmpty);
+        send(pipe.sink(), DEVICES, SensorEvent.PotEmpty);
+        awaitFrames(4);
+
+        stop();
+
+        assertEquals(PotSensor.State.NonEmpty, fleet.getPot(7));
+        assertEquals(1, ingestor.getRejected());
+        pipe.sink().close();
+    }
+
+    @Test
+    public void closesAConnectionThatTheDeviceClosed() throws IOException, InterruptedException {
+        final InetSocketAddress address =
+                ingestor.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        thread = ingestor.start(Executors.defaultThreadFactory());
+
+        try (SocketChannel connection = SocketChannel.open(address)) {
+            send(connection, 0, SensorEvent.PotEmpty);
+            awaitFrames(1);
+        }
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (ingestor.getConnections() != 0) {
+            assertTrue("the connection wasn't closed", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void stoppingLeavesTheFramesThatHaventBeenReadInTheirConnections() throws IOException, InterruptedException {
+        final SensorFrameDecoder.Dispatcher fleetDispatcher = SensorFrameDecoder.to(fleet);
+
+        // more frames than a single read can hold, and an ingestor that is stopped by the first frame it dispatches
+        final int capacity = 4;
+        final int frames = 3 * capacity;
+        ingestor = new SensorIngestor(new SensorFrameDecoder.Dispatcher() {
+            @Override
+            public boolean dispatch(long device, SensorEvent event) {
+                ingestor.stop();
+                return fleetDispatcher.dispatch(device, event);
+            }
+        }, capacity);
+
+        final Pipe first = Pipe.open();
+        final Pipe second = Pipe.open();
+        ingestor.read(first.source());
+        ingestor.read(second.source());
+
+        for (int i = 0; i < frames; ++i) {
+            send(first.sink(), 1, SensorEvent.PotEmpty);
+            send(second.sink(), 2, SensorEvent.PotEmpty);
+        }
+
+        thread = ingestor.start(Executors.defaultThreadFactory());
+        thread.join(TIMEOUT_MILLIS);
+        assertFalse(thread.isAlive());
+        thread = null;
+
+        // the connections are still open and the frames that weren't dispatched are still waiting to be read
+        assertEquals(2, ingestor.getConnections());
+        assertTrue(first.source().isOpen());
+        assertTrue(second.source().isOpen());
+        assertEquals(2 * frames, ingestor.getFrames() + unread(first.source()) + unread(second.source()));
+
+        first.sink().close();
+        second.sink().close();
+    }
+
+    @Test
+    public void anIngestorStoppedBeforeItRunsDoesntRun() throws IOException, InterruptedException {
+        final Pipe pipe = Pipe.open();
+        ingestor.read(pipe.source());
+        send(pipe.sink(), 7, SensorEvent.PotEmpty);
+
+        ingestor.stop();
+        thread = ingestor.start(Executors.defaultThreadFactory());
+        thread.join(TIMEOUT_MILLIS);
+        assertFalse(thread.isAlive());
+        thread = null;
+
+        assertEquals(0, ingestor.getFrames());
+        pipe.sink().close();
+    }
+
+    private void awaitFrames(final long frames) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (ingestor.getFrames() < frames) {
+            assertTrue("only " + ingestor.getFrames() + " frames were ingested",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private void stop() throws InterruptedException {
+        ingestor.stop();
+        thread.join(TIMEOUT_MILLIS);
+        assertFalse(thread.isAlive());
+        thread = null;
+    }
+
+    /**
+     * @return the number of frames waiting to be read from the specified channel, which must be non-blocking
+     */
+    private static long unread(final ReadableByteChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(SensorFrameDecoder.FRAME_SIZE);
+
+        long bytes = 0;
+        int read;
+        while ((read = channel.read(buffer)) > 0) {
+            bytes += read;
+            buffer.clear();
+        }
+        return bytes / SensorFrameDecoder.FRAME_SIZE;
+    }
+
+    private static void send(final WritableByteChannel channel, final long device, final SensorEvent... events)
+            throws IOException {
+        final ByteBuffer frames = ByteBuffer.allocate(events.length * SensorFrameDecoder.FRAME_SIZE);
+        for (SensorEvent event : events) {
+            SensorFrameDecoder.encode(frames, device, event);
+        }
+        frames.flip();
+
+        while (frames.hasRemaining()) {
+            channel.write(frames);
+        }
+    }
+}
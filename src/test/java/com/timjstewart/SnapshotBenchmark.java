@@ -0,0 +1,145 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a restarted controller takes to get a fleet of coffee makers back into the states they were in,
+ * from files on disk.
+ * <p/>
+ * ReplayJournal re-derives the states by reading an EventJournal of the sensor traffic (eventsPerDevice events per
+ * device) and applying it to a new CoffeeMakerFleet.  CoffeeMakers reads a Snapshot and restores a CoffeeMaker (with
+ * its own sensors) per device; Fleet reads the same Snapshot and restores a CoffeeMakerFleet in bulk.  Every restore
+ * reconciles every device's actuators; the actuators ignore the commands.
+ * <p/>
+ * The journal of a long-running fleet holds far more events per device than this, so ReplayJournal flatters replaying.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class SnapshotBenchmark {
+
+    public enum Startup {
+        ReplayJournal,
+        CoffeeMakers,
+        Fleet
+    }
+
+    @Param
+    public Startup startup;
+
+    @Param({"1000000"})
+    public int devices;
+
+    @Param({"16"})
+    public int eventsPerDevice;
+
+    private File directory;
+    private File journal;
+    private File snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("snapshot-benchmark").toFile();
+        journal = new File(directory, "journal");
+        snapshot = new File(directory, "fleet.snapshot");
+
+        final SensorEvent[] events = SensorEvent.values();
+        final Random random = new Random(42);
+
+        final CoffeeMakerFleet fleet = CoffeeMakerFleet.onHeap(devices, new CoffeeMakerFleetBenchmark.NullActuators());
+
+        if (startup == Startup.ReplayJournal) {
+            try (EventJournal eventJournal = new EventJournal(journal, 1 << 22)) {
+                for (int i = 0; i < eventsPerDevice; ++i) {
+                    for (int device = 0; device < devices; ++device) {
+                        final SensorEvent event = events[random.nextInt(events.length)];
+                        final CoffeeMaker.State from = fleet.getState(device);
+                        fleet.apply(device, event);
+                        eventJournal.append(i, device, event, from, fleet.getState(device));
+                    }
+                }
+            }
+        } else {
+            for (int i = 0; i < eventsPerDevice; ++i) {
+                for (int device = 0; device < devices; ++device) {
+                    fleet.apply(device, events[random.nextInt(events.length)]);
+                }
+            }
+            Snapshot.of(fleet).writeTo(snapshot);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Benchmark
+    public Object restart() throws IOException {
+        switch (startup) {
+            case ReplayJournal: {
+                final CoffeeMakerFleet fleet =
+                        CoffeeMakerFleet.onHeap(devices, new CoffeeMakerFleetBenchmark.NullActuators());
+                final EventJournal.Reader reader = EventJournal.read(journal);
+                while (reader.next()) {
+                    fleet.apply((int) reader.getDevice(), reader.getEvent());
+                }
+                return fleet;
+            }
+
+            case CoffeeMakers: {
+                final Snapshot restored = Snapshot.readFrom(snapshot);
+                final NullBoiler boiler = new NullBoiler();
+                final NullPotWarmer potWarmer = new NullPotWarmer();
+                final CoffeeMaker[] coffeeMakers = new CoffeeMaker[devices];
+                for (int device = 0; device < devices; ++device) {
+                    coffeeMakers[device] = new CoffeeMaker(
+                            boiler, potWarmer, new WaterLevelSensor(), new PotSensor(), new BrewButtonSensor());
+                }
+                restored.restore(coffeeMakers);
+                return coffeeMakers;
+            }
+
+            case Fleet: {
+                final CoffeeMakerFleet fleet =
+                        CoffeeMakerFleet.onHeap(devices, new CoffeeMakerFleetBenchmark.NullActuators());
+                fleet.restore(Snapshot.readFrom(snapshot));
+                return fleet;
+            }
+        }
+        throw new IllegalStateException("unknown startup: " + startup);
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
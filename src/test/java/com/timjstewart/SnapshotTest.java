@@ -0,0 +1,217 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    private BoilerSpy boilerSpy;
+    private PotWarmerSpy potWarmerSpy;
+
+    private PotSensor potSensor;
+    private WaterLevelSensor waterLevelSensor;
+    private BrewButtonSensor brewButtonSensor;
+
+    private CoffeeMaker coffeeMaker;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "coffee-makers.snapshot");
+
+        boilerSpy = new BoilerSpy();
+        potWarmerSpy = new PotWarmerSpy();
+
+        potSensor = new PotSensor();
+        waterLevelSensor = new WaterLevelSensor();
+        brewButtonSensor = new BrewButtonSensor();
+
+        coffeeMaker = new CoffeeMaker(boilerSpy, potWarmerSpy, waterLevelSensor, potSensor, brewButtonSensor);
+    }
+
+    @Test
+    public void restoresABrewingCoffeeMakerAndTurnsItsBoilerBackOn() throws IOException {
+        brew(waterLevelSensor, potSensor, brewButtonSensor);
+
+        Snapshot.of(coffeeMaker).writeTo(file);
+
+        final BoilerSpy restartedBoiler = new BoilerSpy();
+        final PotWarmerSpy restartedPotWarmer = new PotWarmerSpy();
+        final PotSensor restartedPotSensor = new PotSensor();
+        final WaterLevelSensor restartedWaterLevelSensor = new WaterLevelSensor();
+        final BrewButtonSensor restartedBrewButton = new BrewButtonSensor();
+        final CoffeeMaker restarted = new CoffeeMaker(restartedBoiler, restartedPotWarmer,
+                restartedWaterLevelSensor, restartedPotSensor, restartedBrewButton);
+
+        Snapshot.readFrom(file).restore(restarted);
+
+        assertEquals(CoffeeMaker.State.Brewing, restarted.getState());
+        assertEquals(WaterLevelSensor.State.NotEmpty, restartedWaterLevelSensor.getWaterLevel());
+        assertEquals(PotSensor.State.Empty, restartedPotSensor.getState());
+        assertEquals(BrewButtonSensor.State.NotPressed, restartedBrewButton.getBrewButtonState());
+        assertTrue(restartedBoiler.isOn());
+        assertFalse(restartedPotWarmer.isOn());
+
+        // the restored coffee maker carries on where the original left off
+        restartedWaterLevelSensor.detect(WaterLevelSensor.State.Empty);
+        assertEquals(CoffeeMaker.State.Warming, restarted.getState());
+        assertFalse(restartedBoiler.isOn());
+        assertTrue(restartedPotWarmer.isOn());
+    }
+
+    @Test
+    public void reconcilesActuatorsThatWereLeftOnWithTheRestoredState() {
+        brew(waterLevelSensor, potSensor, brewButtonSensor);
+        potSensor.detect(PotSensor.State.Gone);
+        final Snapshot snapshot = Snapshot.of(coffeeMaker);
+
+        boilerSpy.on = true;
+        potWarmerSpy.on = true;
+
+        snapshot.restore(coffeeMaker);
+
+        assertEquals(CoffeeMaker.State.BrewingInterrupted, coffeeMaker.getState());
+        assertFalse(boilerSpy.isOn());
+        assertFalse(potWarmerSpy.isOn());
+    }
+
+    @Test
+    public void restoringDoesNotNotifyTheSensorsListeners() {
+        // the CoffeeMaker listens to the sensors that are restored, so a notification would move it out of Initial
+        waterLevelSensor.restore(WaterLevelSensor.State.NotEmpty);
+        potSensor.restore(PotSensor.State.Empty);
+
+        assertEquals(CoffeeMaker.State.Initial, coffeeMaker.getState());
+        assertEquals(PotSensor.State.Empty, potSensor.getState());
+    }
+
+    @Test
+    public void restoresAFleetInBulk() throws IOException {
+        final CoffeeMakerFleet fleet = CoffeeMakerFleet.offHeap(3, new FleetCommandLog(3));
+        fleet.onPotStatusChanged(1, PotSensor.State.Empty);
+        fleet.onWaterLevelChanged(1, WaterLevelSensor.State.NotEmpty);
+        fleet.onBrewButtonStatusChanged(1, BrewButtonSensor.State.Pressed);
+        fleet.onWaterLevelChanged(1, WaterLevelSensor.State.Empty);
+        fleet.onPotStatusChanged(2, PotSensor.State.Gone);
+
+        Snapshot.of(fleet).writeTo(file);
+
+        final FleetCommandLog log = new FleetCommandLog(3);
+        final CoffeeMakerFleet restarted = CoffeeMakerFleet.onHeap(3, log);
+        restarted.restore(Snapshot.readFrom(file));
+
+        for (int device = 0; device < 3; ++device) {
+            assertEquals(fleet.getState(device), restarted.getState(device));
+            assertEquals(fleet.getWaterLevel(device), restarted.getWaterLevel(device));
+            assertEquals(fleet.getPot(device), restarted.getPot(device));
+        }
+
+        assertEquals(CoffeeMaker.State.Warming, restarted.getState(1));
+        assertEquals("Boiler:off PotWarmer:off ", log.toString(0));
+        assertEquals("Boiler:off PotWarmer:on ", log.toString(1));
+        assertEquals("Boiler:off PotWarmer:off ", log.toString(2));
+    }
+
+    @Test
+    public void recordsAPressedBrewButtonAsNotPressed() {
+        final byte entry = Snapshot.pack(CoffeeMaker.State.Initial, null, null, BrewButtonSensor.State.Pressed);
+
+        assertEquals(BrewButtonSensor.State.NotPressed, Snapshot.brewButton(entry));
+        assertNull(Snapshot.brewButton(Snapshot.pack(CoffeeMaker.State.Initial, null, null, null)));
+    }
+
+    @Test
+    public void packsEveryCombinationOfStateAndReadings() {
+        for (CoffeeMaker.State state : CoffeeMaker.State.values()) {
+            for (WaterLevelSensor.State waterLevel : withNull(WaterLevelSensor.State.values())) {
+                for (PotSensor.State pot : withNull(PotSensor.State.values())) {
+                    final byte entry = Snapshot.pack(state, waterLevel, pot, BrewButtonSensor.State.NotPressed);
+
+                    assertEquals(state, Snapshot.state(entry));
+                    assertEquals(waterLevel, Snapshot.waterLevel(entry));
+                    assertEquals(pot, Snapshot.pot(entry));
+                    assertEquals(BrewButtonSensor.State.NotPressed, Snapshot.brewButton(entry));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsACorruptSnapshot() throws IOException {
+        Snapshot.of(coffeeMaker).writeTo(file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // the coffee maker's byte follows the 20-byte header
+            raf.seek(20);
+            raf.write(0x07);
+        }
+
+        Snapshot.readFrom(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsATruncatedSnapshot() throws IOException {
+        Snapshot.of(coffeeMaker, coffeeMaker).writeTo(file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+
+        Snapshot.readFrom(file);
+    }
+
+    @Test
+    public void writerKeepsThePreviousSnapshotWhenOneFails() throws IOException {
+        final Snapshot[] next = {Snapshot.of(coffeeMaker)};
+        final SnapshotWriter writer = new SnapshotWriter(new Callable<Snapshot>() {
+            @Override
+            public Snapshot call() {
+                if (next[0] == null) {
+                    throw new IllegalStateException("the coffee makers are busy");
+                }
+                return next[0];
+            }
+        }, file);
+
+        writer.run();
+        next[0] = null;
+        writer.run();
+
+        assertEquals(1, writer.getWritten());
+        assertEquals(1, writer.getFailed());
+        assertTrue(writer.getLastFailure() instanceof IllegalStateException);
+        assertEquals(1, Snapshot.readFrom(file).size());
+    }
+
+    private static void brew(final WaterLevelSensor waterLevelSensor,
+                             final PotSensor potSensor,
+                             final BrewButtonSensor brewButtonSensor) {
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+    }
+
+    private static <T> T[] withNull(final T[] values) {
+        final T[] withNull = Arrays.copyOf(values, values.length + 1);
+        System.arraycopy(withNull, 0, withNull, 1, values.length);
+        withNull[0] = null;
+        return withNull;
+    }
+}
@@ -0,0 +1,51 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.Boiler;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpecializedCoffeeMakerTest {
+
+    @Test
+    public void behavesExactlyLikeCoffeeMakerForEverySequenceOfEvents() {
+        SensorEventSequences.assertBehavesLikeCoffeeMaker((boiler, potWarmer, waterLevel, pot, brewButton) ->
+                new SpecializedCoffeeMaker(boiler, potWarmer, waterLevel, pot, brewButton)::getState);
+    }
+
+    @Test
+    public void anActuatorsExceptionIsNotWrapped() {
+        final IllegalStateException failure = new IllegalStateException("the boiler is broken");
+
+        final PotSensor potSensor = new PotSensor();
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        final BrewButtonSensor brewButton = new BrewButtonSensor();
+
+        final SpecializedCoffeeMaker coffeeMaker = new SpecializedCoffeeMaker(new Boiler() {
+            @Override
+            public void turnOn() {
+                throw failure;
+            }
+
+            @Override
+            public void turnOff() {
+            }
+        }, new PotWarmerSpy(), waterLevelSensor, potSensor, brewButton);
+
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+
+        try {
+            brewButton.detect(BrewButtonSensor.State.Pressed);
+            fail("the boiler's exception wasn't thrown");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+
+        // the transition didn't complete
+        assertEquals(CoffeeMaker.State.Initial, coffeeMaker.getState());
+    }
+}
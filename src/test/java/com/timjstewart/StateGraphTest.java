@@ -0,0 +1,157 @@
+package com.timjstewart;
+
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+
+import static org.junit.Assert.*;
+
+public class StateGraphTest {
+
+    // the report that the AbstractState classes are expected to produce; after an intentional change of behavior,
+    // regenerate it by running StateGraph and saving its output here
+    private static final String GOLDEN_FILE = "state-graph.txt";
+
+    private static StateGraph graph;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void explore() {
+        graph = StateGraph.explore();
+    }
+
+    @Test
+    public void theGraphMatchesTheGoldenFile() throws IOException {
+        assertEquals("the states' behavior has changed; if that was intended, regenerate " + GOLDEN_FILE,
+                golden(), graph.report());
+    }
+
+    @Test
+    public void exploresFromANewCoffeeMaker() {
+        final StateGraph.Configuration initial = graph.getConfigurations().get(0);
+
+        assertEquals(CoffeeMaker.State.Initial, initial.getState());
+        assertNull(initial.getWaterLevel());
+        assertNull(initial.getPot());
+        assertNull(initial.getBrewButton());
+
+        assertEquals(graph.getConfigurations().size() * SensorEvent.values().length, graph.getTransitions().size());
+    }
+
+    @Test
+    public void everyStateIsReachable() {
+        assertEquals(EnumSet.noneOf(CoffeeMaker.State.class), graph.getUnreachableStates());
+    }
+
+    @Test
+    public void exploresTheFailedConfigurationsThatAnActuatorFailureLeadsTo() {
+        for (StateGraph.Configuration configuration : graph.getConfigurations()) {
+            assertTrue(graph.getConfigurations().contains(new StateGraph.Configuration(CoffeeMaker.State.Failed,
+                    configuration.getWaterLevel(), configuration.getPot(), configuration.getBrewButton())));
+        }
+
+        // pressing the Brew button acknowledges the failure
+        assertEquals(EnumSet.complementOf(EnumSet.of(SensorEvent.BrewButtonPressed)),
+                graph.getIgnoredEvents(CoffeeMaker.State.Failed));
+    }
+
+    @Test
+    public void theBrewButtonIsNeverLeftPressed() {
+        for (StateGraph.Configuration configuration : graph.getConfigurations()) {
+            assertNotEquals(BrewButtonSensor.State.Pressed, configuration.getBrewButton());
+        }
+    }
+
+    @Test
+    public void findsTheEventsThatNeverHaveAnEffect() {
+        assertEquals(EnumSet.of(SensorEvent.WaterLevelNotEmpty, SensorEvent.BrewButtonNotPressed),
+                graph.getDeadEvents());
+
+        assertTrue(graph.getIgnoredEvents(CoffeeMaker.State.Brewing).contains(SensorEvent.BrewButtonPressed));
+        assertFalse(graph.getIgnoredEvents(CoffeeMaker.State.Brewing).contains(SensorEvent.PotGone));
+    }
+
+    @Test
+    public void recordsTheCommandsOfEachTransition() {
+        for (StateGraph.Transition transition : graph.getTransitions()) {
+            final StateGraph.Configuration from = transition.getFrom();
+
+            if (from.getState() == CoffeeMaker.State.Brewing
+                    && transition.getEvent() == SensorEvent.WaterLevelEmpty) {
+                assertEquals(CoffeeMaker.State.Warming, transition.getTo().getState());
+                assertEquals(ActuatorCommand.BoilerOff.mask() | ActuatorCommand.PotWarmerOn.mask(),
+                        transition.getCommands());
+            }
+        }
+    }
+
+    @Test
+    public void theCompiledTableAgreesWithTheStates() {
+        assertTrue(graph.verify(TransitionTable.compiled()).isEmpty());
+    }
+
+    @Test
+    public void anExportedTableCanDriveACoffeeMaker() throws IOException {
+        final File file = new File(folder.getRoot(), "coffee-maker.table");
+        graph.export(TransitionTable.compiled(), file);
+
+        final TransitionTable table = TransitionTable.readFrom(file);
+        assertTrue(graph.verify(table).isEmpty());
+
+        final BoilerSpy boiler = new BoilerSpy();
+        final PotWarmerSpy potWarmer = new PotWarmerSpy();
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor();
+        final PotSensor potSensor = new PotSensor();
+        final BrewButtonSensor brewButton = new BrewButtonSensor();
+        final TableDrivenCoffeeMaker coffeeMaker =
+                new TableDrivenCoffeeMaker(table, boiler, potWarmer, waterLevelSensor, potSensor, brewButton);
+
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButton.detect(BrewButtonSensor.State.Pressed);
+
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertTrue(boiler.isOn());
+    }
+
+    @Test(expected = IOException.class)
+    public void aCorruptTableIsRejected() throws IOException {
+        final File file = new File(folder.getRoot(), "coffee-maker.table");
+        TransitionTable.compiled().writeTo(file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // the first entry follows the 24-byte header
+            raf.seek(24);
+            raf.write(0x01);
+        }
+
+        TransitionTable.readFrom(file);
+    }
+
+    private static String golden() throws IOException {
+        try (InputStream in = StateGraphTest.class.getResourceAsStream(GOLDEN_FILE)) {
+            assertNotNull(GOLDEN_FILE + " is missing", in);
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.timjstewart;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TableDrivenCoffeeMakerTest {
+
+    @Test
+    public void behavesExactlyLikeCoffeeMakerForEverySequenceOfEvents() {
+        SensorEventSequences.assertBehavesLikeCoffeeMaker((boiler, potWarmer, waterLevel, pot, brewButton) ->
+                new TableDrivenCoffeeMaker(boiler, potWarmer, waterLevel, pot, brewButton)::getState);
+    }
+
+    @Test
+    public void everyTransitionIsCompiled() {
+        final TransitionTable table = TransitionTable.compiled();
+
+        boolean[] reached = new boolean[TransitionTable.STATES];
+
+        for (int state = 0; state < TransitionTable.STATES; ++state) {
+            for (int event = 0; event < TransitionTable.EVENTS; ++event) {
+                for (int waterLevel = 0; waterLevel < TransitionTable.WATER_LEVELS; ++waterLevel) {
+                    for (int pot = 0; pot < TransitionTable.POTS; ++pot) {
+                        reached[TransitionTable.nextState(table.lookup(state, event, waterLevel, pot))] = true;
+                    }
+                }
+            }
+        }
+
+        for (CoffeeMaker.State state : CoffeeMaker.State.values()) {
+            assertTrue(state + " is never transitioned to", reached[state.ordinal()]);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.ActuatorFailure;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimedCoffeeMakerTest {
+
+    private static final long WARMING_MINUTES = 30;
+    private static final long INTERRUPTED_MINUTES = 5;
+
+    private SteppingTicker ticker;
+    private HashedWheelTimer timer;
+
+    private PotSensor potSensor;
+    private WaterLevelSensor waterLevelSensor;
+    private BrewButtonSensor brewButton;
+    private BoilerSpy boiler;
+    private PotWarmerSpy potWarmer;
+
+    private TimedCoffeeMaker coffeeMaker;
+
+    @Before
+    public void setUp() {
+        ticker = new SteppingTicker();
+        timer = new HashedWheelTimer(ticker, 1, TimeUnit.SECONDS, 512, 16);
+
+        potSensor = new PotSensor();
+        waterLevelSensor = new WaterLevelSensor();
+        brewButton = new BrewButtonSensor();
+        boiler = new BoilerSpy();
+        potWarmer = new PotWarmerSpy();
+
+        coffeeMaker = new TimedCoffeeMaker(boiler, potWarmer, waterLevelSensor, potSensor, brewButton, timer,
+                TimedCoffeeMaker.Timeouts.none()
+                        .with(CoffeeMaker.State.Warming, WARMING_MINUTES, TimeUnit.MINUTES)
+                        .with(CoffeeMaker.State.BrewingInterrupted, INTERRUPTED_MINUTES, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void statesWithoutATimeoutLastForever() {
+        assertFalse(coffeeMaker.isTimerPending());
+
+        brew();
+        assertFalse(coffeeMaker.isTimerPending());
+
+        elapse(24 * 60);
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertTrue(boiler.isOn());
+    }
+
+    @Test
+    public void warmingTurnsThePotWarmerOffAfterItsTimeout() {
+        brew();
+        waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+        assertEquals(CoffeeMaker.State.Warming, coffeeMaker.getState());
+        assertTrue(coffeeMaker.isTimerPending());
+
+        elapse(WARMING_MINUTES - 1);
+        assertEquals(CoffeeMaker.State.Warming, coffeeMaker.getState());
+        assertTrue(potWarmer.isOn());
+
+        elapse(1);
+        assertEquals(CoffeeMaker.State.Initial, coffeeMaker.getState());
+        assertFalse(potWarmer.isOn());
+        assertFalse(coffeeMaker.isTimerPending());
+        assertEquals(0, timer.getPending());
+    }
+
+    @Test
+    public void anInterruptedBrewIsAbandonedIfThePotDoesntComeBack() {
+        brew();
+        potSensor.detect(PotSensor.State.Gone);
+        assertEquals(CoffeeMaker.State.BrewingInterrupted, coffeeMaker.getState());
+        assertFalse(boiler.isOn());
+
+        elapse(INTERRUPTED_MINUTES);
+        assertEquals(CoffeeMaker.State.Initial, coffeeMaker.getState());
+
+        // the pot coming back no longer resumes the brew
+        potSensor.detect(PotSensor.State.NonEmpty);
+        assertEquals(CoffeeMaker.State.Initial, coffeeMaker.getState());
+        assertFalse(boiler.isOn());
+    }
+
+    @Test
+    public void leavingAStateCancelsItsTimeout() {
+        brew();
+        potSensor.detect(PotSensor.State.Gone);
+        elapse(INTERRUPTED_MINUTES - 1);
+
+        // sneak a cup: the pot comes back in time and brewing resumes
+        potSensor.detect(PotSensor.State.NonEmpty);
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertEquals(0, timer.getPending());
+
+        elapse(INTERRUPTED_MINUTES);
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+        assertTrue(boiler.isOn());
+    }
+
+    @Test
+    public void reenteringAStateRestartsItsTimeout() {
+        brew();
+        potSensor.detect(PotSensor.State.Gone);
+        elapse(INTERRUPTED_MINUTES - 1);
+        potSensor.detect(PotSensor.State.NonEmpty);
+        potSensor.detect(PotSensor.State.Gone);
+
+        elapse(INTERRUPTED_MINUTES - 1);
+        assertEquals(CoffeeMaker.State.BrewingInterrupted, coffeeMaker.getState());
+        assertEquals(1, timer.getPending());
+
+        elapse(1);
+        assertEquals(CoffeeMaker.State.Initial, coffeeMaker.getState());
+    }
+
+    @Test
+    public void anActuatorFailureCancelsTheTimeout() {
+        brew();
+        waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+
+        coffeeMaker.onActuatorFailed(new ActuatorFailure(ActuatorFailure.Role.PotWarmer, potWarmer,
+                true, ActuatorFailure.Kind.TimedOut, null));
+        assertEquals(CoffeeMaker.State.Failed, coffeeMaker.getState());
+        assertEquals(0, timer.getPending());
+    }
+
+    @Test
+    public void aRestoredStateTimesOutAfterItsWholeTimeout() {
+        elapse(10);
+        coffeeMaker.restore(CoffeeMaker.State.Warming, WaterLevelSensor.State.Empty, PotSensor.State.NonEmpty, null);
+        assertTrue(potWarmer.isOn());
+
+        elapse(WARMING_MINUTES - 1);
+        assertEquals(CoffeeMaker.State.Warming, coffeeMaker.getState());
+
+        elapse(1);
+        assertEquals(CoffeeMaker.State.Initial, coffeeMaker.getState());
+        assertFalse(potWarmer.isOn());
+    }
+
+    @Test
+    public void aFleetCanShareOneTimer() {
+        final int coffeeMakers = 1000;
+        final TimedCoffeeMaker[] fleet = new TimedCoffeeMaker[coffeeMakers];
+        final TimedCoffeeMaker.Timeouts timeouts = TimedCoffeeMaker.Timeouts.none()
+                .with(CoffeeMaker.State.Warming, WARMING_MINUTES, TimeUnit.MINUTES);
+
+        for (int i = 0; i < coffeeMakers; ++i) {
+            fleet[i] = new TimedCoffeeMaker(new NullBoiler(), new NullPotWarmer(), new WaterLevelSensor(),
+                    new PotSensor(), new BrewButtonSensor(), timer, timeouts);
+        }
+
+        // half of them start warming 10 minutes before the other half
+        for (int i = 0; i < coffeeMakers; ++i) {
+            if (i == coffeeMakers / 2) {
+                elapse(10);
+            }
+            fleet[i].restore(CoffeeMaker.State.Warming, WaterLevelSensor.State.Empty, PotSensor.State.NonEmpty, null);
+        }
+        assertEquals(coffeeMakers, timer.getPending());
+
+        elapse(WARMING_MINUTES - 10);
+        assertEquals(coffeeMakers / 2, timer.getPending());
+
+        for (int i = 0; i < coffeeMakers; ++i) {
+            assertEquals(i < coffeeMakers / 2 ? CoffeeMaker.State.Initial : CoffeeMaker.State.Warming,
+                    fleet[i].getState());
+        }
+    }
+
+    private void brew() {
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButton.detect(BrewButtonSensor.State.Pressed);
+        assertEquals(CoffeeMaker.State.Brewing, coffeeMaker.getState());
+    }
+
+    /**
+     * moves the simulated clock on by the specified number of minutes, a second at a time, as an event loop would
+     */
+    private void elapse(final long minutes) {
+        for (long second = 0; second < TimeUnit.MINUTES.toSeconds(minutes); ++second) {
+            ticker.nanos += TimeUnit.SECONDS.toNanos(1);
+            timer.advance();
+        }
+    }
+}
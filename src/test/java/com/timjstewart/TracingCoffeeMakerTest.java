@@ -0,0 +1,197 @@
+package com.timjstewart;
+
+import com.timjstewart.actuator.ActuatorFailure;
+import com.timjstewart.sensor.BrewButtonSensor;
+import com.timjstewart.sensor.PotSensor;
+import com.timjstewart.sensor.WaterLevelSensor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TracingCoffeeMakerTest {
+
+    private SteppingTicker ticker;
+    private FlightRecorder recorder;
+
+    private BoilerSpy boilerSpy;
+    private PotWarmerSpy potWarmerSpy;
+
+    private PotSensor potSensor;
+    private WaterLevelSensor waterLevelSensor;
+    private BrewButtonSensor brewButtonSensor;
+
+    private TracingCoffeeMaker coffeeMaker;
+
+    @Before
+    public void setUp() {
+        ticker = new SteppingTicker();
+        recorder = new FlightRecorder(4, ticker);
+
+        boilerSpy = new BoilerSpy();
+        potWarmerSpy = new PotWarmerSpy();
+
+        potSensor = new PotSensor();
+        waterLevelSensor = new WaterLevelSensor();
+        brewButtonSensor = new BrewButtonSensor();
+
+        coffeeMaker = new TracingCoffeeMaker(boilerSpy, potWarmerSpy, waterLevelSensor, potSensor, brewButtonSensor,
+                recorder);
+    }
+
+    @Test
+    public void tracesStateChangesWithTheirCommands() {
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        ticker.nanos = 100;
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        ticker.nanos = 200;
+        potSensor.detect(PotSensor.State.Gone);
+        ticker.nanos = 300;
+        waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+        potSensor.detect(PotSensor.State.Empty);
+
+        // the commands still reach the actuators
+        assertFalse(boilerSpy.isOn());
+
+        final List<FlightRecorder.Trace> traces = recorder.dump();
+        assertEquals(3, traces.size());
+
+        assertEquals("#0 Initial --BrewButtonPressed--> Brewing BoilerOn", traces.get(0).toString());
+        assertEquals(100, traces.get(0).getTimestamp());
+
+        assertEquals("#1 Brewing --PotGone--> BrewingInterrupted BoilerOff", traces.get(1).toString());
+        assertEquals(200, traces.get(1).getTimestamp());
+
+        // the pot came back empty with no water left
+        final FlightRecorder.Trace abandoned = traces.get(2);
+        assertEquals(CoffeeMaker.State.BrewingInterrupted, abandoned.getFrom());
+        assertEquals(TransitionTracer.Cause.Event, abandoned.getCause());
+        assertEquals(SensorEvent.PotEmpty, abandoned.getEvent());
+        assertEquals(CoffeeMaker.State.Initial, abandoned.getTo());
+        assertEquals(0, abandoned.getCommands());
+        assertEquals(300, abandoned.getTimestamp());
+    }
+
+    @Test
+    public void tracesTransitionsCausedByActuatorFailures() {
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+
+        coffeeMaker.onActuatorFailed(new ActuatorFailure(ActuatorFailure.Role.Boiler, boilerSpy,
+                true, ActuatorFailure.Kind.TimedOut, null));
+
+        final FlightRecorder.Trace failure = recorder.dump().get(1);
+        assertEquals(TransitionTracer.Cause.ActuatorFailure, failure.getCause());
+        assertNull(failure.getEvent());
+        assertEquals(CoffeeMaker.State.Failed, failure.getTo());
+        assertTrue(ActuatorCommand.BoilerOff.in(failure.getCommands()));
+        assertTrue(ActuatorCommand.PotWarmerOff.in(failure.getCommands()));
+        assertEquals("#1 Brewing --ActuatorFailure--> Failed BoilerOff PotWarmerOff", failure.toString());
+    }
+
+    @Test
+    public void tracesTransitionsCausedByTimeouts() {
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+
+        coffeeMaker.onTimeout();
+
+        final FlightRecorder.Trace timeout = recorder.dump().get(2);
+        assertEquals(TransitionTracer.Cause.Timeout, timeout.getCause());
+        assertNull(timeout.getEvent());
+        assertEquals(CoffeeMaker.State.Initial, timeout.getTo());
+        assertEquals("#2 Warming --Timeout--> Initial PotWarmerOff", timeout.toString());
+    }
+
+    @Test
+    public void keepsOnlyTheLatestTransitions() {
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        potSensor.detect(PotSensor.State.Empty);
+        brewButtonSensor.detect(BrewButtonSensor.State.Pressed);
+        for (int i = 0; i < 5; ++i) {
+            potSensor.detect(PotSensor.State.Gone);
+            potSensor.detect(PotSensor.State.Empty);
+        }
+
+        assertEquals(11, recorder.getRecorded());
+
+        final List<FlightRecorder.Trace> traces = recorder.dump();
+        assertEquals(4, traces.size());
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(7 + i, traces.get(i).getSequence());
+        }
+        assertEquals(CoffeeMaker.State.Brewing, traces.get(3).getTo());
+    }
+
+    @Test
+    public void recordsFromManyThreadsAtOnce() throws InterruptedException {
+        final FlightRecorder shared = new FlightRecorder(1024, ticker);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            // each thread records a transition of its own, so that a trace mixing two of them would be noticed
+            final CoffeeMaker.State state = CoffeeMaker.State.values()[t];
+            final SensorEvent event = SensorEvent.values()[t];
+
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; ++i) {
+                        shared.onTransition(state, TransitionTracer.Cause.Event, event, state, 1 << state.ordinal());
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, shared.getRecorded());
+
+        // a writer that was lapped while it was stalled drops its transition
+        final List<FlightRecorder.Trace> traces = shared.dump();
+        assertTrue(traces.size() > 1000 && traces.size() <= 1024);
+
+        long sequence = -1;
+        for (FlightRecorder.Trace trace : traces) {
+            assertTrue(trace.getSequence() > sequence);
+            sequence = trace.getSequence();
+
+            assertEquals(trace.getFrom(), trace.getTo());
+            assertEquals(trace.getFrom().ordinal(), trace.getEvent().ordinal());
+            assertEquals(1 << trace.getFrom().ordinal(), trace.getCommands());
+        }
+    }
+
+    @Test
+    public void samplesOneTransitionInN() {
+        final FlightRecorder sampled = new FlightRecorder(1 << 16, ticker);
+        final SamplingTracer sampler = new SamplingTracer(10, sampled);
+
+        for (int i = 0; i < 100000; ++i) {
+            sampler.onTransition(CoffeeMaker.State.Brewing, TransitionTracer.Cause.Event, SensorEvent.PotGone,
+                    CoffeeMaker.State.BrewingInterrupted, 0);
+        }
+
+        // 10000 on average; the odds of straying this far are negligible
+        assertTrue(sampled.getRecorded() > 9000 && sampled.getRecorded() < 11000);
+    }
+
+    @Test
+    public void samplingEveryTransitionPassesThemAllOn() {
+        final SamplingTracer sampler = new SamplingTracer(1, recorder);
+
+        sampler.onTransition(CoffeeMaker.State.Initial, TransitionTracer.Cause.Event, SensorEvent.BrewButtonPressed,
+                CoffeeMaker.State.Brewing, 0);
+        sampler.onTransition(CoffeeMaker.State.Brewing, TransitionTracer.Cause.Event, SensorEvent.PotGone,
+                CoffeeMaker.State.BrewingInterrupted, 0);
+
+        assertEquals(2, recorder.getRecorded());
+    }
+}
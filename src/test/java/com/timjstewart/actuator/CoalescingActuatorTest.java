@@ -0,0 +1,109 @@
+package com.timjstewart.actuator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * a Boiler that records the commands it's given and can be told to fail
+ */
+class RecordingBoiler implements Boiler {
+
+    final StringBuilder commands = new StringBuilder();
+
+    boolean failing;
+
+    @Override
+    public void turnOn() {
+        command("on ");
+    }
+
+    @Override
+    public void turnOff() {
+        command("off ");
+    }
+
+    private void command(final String command) {
+        if (failing) {
+            throw new IllegalStateException("the Boiler is broken");
+        }
+        commands.append(command);
+    }
+}
+
+public class CoalescingActuatorTest {
+
+    private RecordingBoiler boiler;
+    private CoalescingBoiler coalescing;
+
+    @Before
+    public void setUp() {
+        boiler = new RecordingBoiler();
+        coalescing = new CoalescingBoiler(boiler);
+    }
+
+    @Test
+    public void skipsCommandsThatDoNotChangeTheActuator() {
+        coalescing.turnOff();
+        coalescing.turnOff();
+        coalescing.turnOn();
+        coalescing.turnOn();
+        coalescing.turnOff();
+
+        assertEquals("off on off ", boiler.commands.toString());
+        assertEquals(5, coalescing.getCommands());
+        assertEquals(3, coalescing.getIssued());
+        assertEquals(2, coalescing.getSaved());
+    }
+
+    @Test
+    public void issuesOnlyTheLastCommandOfABatch() {
+        coalescing.turnOn();
+
+        coalescing.beginBatch();
+        coalescing.turnOff();
+        coalescing.turnOn();
+        coalescing.endBatch();
+
+        coalescing.beginBatch();
+        coalescing.turnOn();
+        coalescing.turnOff();
+        coalescing.beginBatch();
+        coalescing.turnOn();
+        coalescing.turnOff();
+        coalescing.endBatch();
+
+        assertEquals("on ", boiler.commands.toString());
+
+        coalescing.endBatch();
+
+        assertEquals("on off ", boiler.commands.toString());
+        assertEquals(7, coalescing.getCommands());
+        assertEquals(5, coalescing.getSaved());
+    }
+
+    @Test
+    public void passesTheNextCommandOnAfterAFailure() {
+        coalescing.turnOn();
+
+        boiler.failing = true;
+        try {
+            coalescing.turnOff();
+            fail("the Boiler didn't fail");
+        } catch (IllegalStateException e) {
+            // the Boiler may or may not have turned off
+        }
+
+        boiler.failing = false;
+        coalescing.turnOff();
+        coalescing.turnOff();
+
+        assertEquals("on off ", boiler.commands.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endBatchWithoutBeginBatchFails() {
+        coalescing.endBatch();
+    }
+}
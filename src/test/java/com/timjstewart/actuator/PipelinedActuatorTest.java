@@ -0,0 +1,148 @@
+package com.timjstewart.actuator;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * an AsyncActuator whose commands complete when the test says so
+ */
+class ManualAsyncActuator implements AsyncActuator {
+
+    final List<SettableFuture<Void>> commands = new ArrayList<SettableFuture<Void>>();
+    final List<Boolean> ons = new ArrayList<Boolean>();
+
+    @Override
+    public ListenableFuture<?> turnOn() {
+        return command(true);
+    }
+
+    @Override
+    public ListenableFuture<?> turnOff() {
+        return command(false);
+    }
+
+    private ListenableFuture<?> command(final boolean on) {
+        final SettableFuture<Void> command = SettableFuture.create();
+        commands.add(command);
+        ons.add(on);
+        return command;
+    }
+}
+
+public class PipelinedActuatorTest {
+
+    private static final long TIMEOUT_MILLIS = 100;
+
+    private ManualAsyncActuator asyncActuator;
+    private ScheduledExecutorService scheduler;
+
+    // the tasks that report failures, which the test runs
+    private BlockingQueue<Runnable> failureTasks;
+
+    private PipelinedActuator actuator;
+    private List<ActuatorFailure> failures;
+
+    @Before
+    public void setUp() {
+        asyncActuator = new ManualAsyncActuator();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        failureTasks = new LinkedBlockingQueue<Runnable>();
+        failures = new ArrayList<ActuatorFailure>();
+
+        actuator = new PipelinedActuator(ActuatorFailure.Role.Boiler, asyncActuator, scheduler,
+                TIMEOUT_MILLIS, TimeUnit.MILLISECONDS, new Executor() {
+                    @Override
+                    public void execute(Runnable task) {
+                        failureTasks.add(task);
+                    }
+                });
+
+        actuator.addListener(new ActuatorFailure.Listener() {
+            @Override
+            public void onActuatorFailed(ActuatorFailure failure) {
+                failures.add(failure);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void issuesCommandsWithoutWaitingForThemToComplete() {
+        actuator.turnOn();
+        actuator.turnOff();
+        actuator.turnOn();
+
+        assertEquals(3, asyncActuator.commands.size());
+        assertEquals(3, actuator.getInFlight());
+        assertSame(asyncActuator.commands.get(2), actuator.getLastCompletion());
+
+        for (SettableFuture<Void> command : asyncActuator.commands) {
+            command.set(null);
+        }
+
+        assertEquals(0, actuator.getInFlight());
+        assertEquals(3, actuator.getCompleted());
+        assertTrue(failureTasks.isEmpty());
+    }
+
+    @Test
+    public void reportsFailedCommands() throws InterruptedException {
+        actuator.turnOn();
+
+        final IllegalStateException cause = new IllegalStateException("the relay is stuck");
+        asyncActuator.commands.get(0).setException(cause);
+
+        runNextFailureTask();
+
+        assertEquals(1, failures.size());
+        assertSame(actuator, failures.get(0).getActuator());
+        assertEquals(ActuatorFailure.Role.Boiler, failures.get(0).getRole());
+        assertTrue(failures.get(0).isOn());
+        assertEquals(ActuatorFailure.Kind.Failed, failures.get(0).getKind());
+        assertSame(cause, failures.get(0).getCause());
+        assertEquals(1, actuator.getFailed());
+    }
+
+    @Test
+    public void reportsCommandsThatTimeOutOnce() throws InterruptedException {
+        actuator.turnOff();
+
+        runNextFailureTask();
+
+        // completing the command after it has timed out changes nothing
+        asyncActuator.commands.get(0).set(null);
+
+        assertEquals(1, failures.size());
+        assertFalse(failures.get(0).isOn());
+        assertEquals(ActuatorFailure.Kind.TimedOut, failures.get(0).getKind());
+        assertTrue(asyncActuator.commands.get(0).isCancelled());
+
+        assertEquals(1, actuator.getTimedOut());
+        assertEquals(0, actuator.getCompleted());
+        assertEquals(0, actuator.getInFlight());
+    }
+
+    private void runNextFailureTask() throws InterruptedException {
+        final Runnable task = failureTasks.poll(10 * TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull("no failure was reported", task);
+        task.run();
+    }
+}
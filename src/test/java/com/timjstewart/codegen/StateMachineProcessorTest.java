@@ -0,0 +1,112 @@
+package com.timjstewart.codegen;
+
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StateMachineProcessorTest {
+
+    private static final String TRANSITIONS =
+            "@Transition(from = \"Idle\", on = \"BrewButton.Pressed\", commands = \"BoilerOn\", to = \"Broken\")\n";
+
+    @Test
+    public void generatesASpecInTheListenersPackage() throws IOException {
+        final DiagnosticCollector<JavaFileObject> diagnostics = compile("com.timjstewart",
+                "@StateMachineSpec(name = \"Tiny\", states = {\"Idle\", \"Broken\"}, failed = \"Broken\")\n"
+                        + TRANSITIONS);
+
+        assertTrue(diagnostics.getDiagnostics().toString(), errors(diagnostics).isEmpty());
+    }
+
+    @Test
+    public void rejectsASpecOutsideTheListenersPackage() throws IOException {
+        final DiagnosticCollector<JavaFileObject> diagnostics = compile("com.example",
+                "@StateMachineSpec(name = \"Tiny\", states = {\"Idle\", \"Broken\"}, failed = \"Broken\")\n"
+                        + TRANSITIONS);
+
+        assertEquals(Collections.singletonList("a spec must be in package com.timjstewart, whose package-private "
+                + "SensorListener the generated class implements"), errors(diagnostics));
+    }
+
+    @Test
+    public void rejectsAFailedStateThatIsNotDeclared() throws IOException {
+        final DiagnosticCollector<JavaFileObject> diagnostics = compile("com.timjstewart",
+                "@StateMachineSpec(name = \"Tiny\", states = {\"Idle\", \"Broken\"}, failed = \"Stuck\")\n"
+                        + TRANSITIONS);
+
+        assertEquals(Collections.singletonList("there is no failed state 'Stuck'"), errors(diagnostics));
+    }
+
+    @Test
+    public void generatesATransitionOnTimeout() throws IOException {
+        final DiagnosticCollector<JavaFileObject> diagnostics = compile("com.timjstewart",
+                "@StateMachineSpec(name = \"Tiny\", states = {\"Idle\", \"Broken\"}, failed = \"Broken\")\n"
+                        + TRANSITIONS
+                        + "@Transition(from = \"Broken\", on = \"Timeout\", to = \"Idle\")\n");
+
+        assertTrue(diagnostics.getDiagnostics().toString(), errors(diagnostics).isEmpty());
+    }
+
+    /**
+     * compiles a spec interface in the specified package with the processor
+     */
+    private static DiagnosticCollector<JavaFileObject> compile(final String packageName, final String annotations)
+            throws IOException {
+        final String source = "package " + packageName + ";\n\n"
+                + "import com.timjstewart.codegen.StateMachineSpec;\n"
+                + "import com.timjstewart.codegen.Transition;\n\n"
+                + annotations
+                + "interface TinySpec {\n}\n";
+
+        final URI uri = URI.create("string:///" + packageName.replace('.', '/') + "/TinySpec.java");
+        final JavaFileObject spec = new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        final File output = Files.createTempDirectory("generated").toFile();
+
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, null)) {
+            files.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(output));
+            files.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(output));
+
+            final JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics,
+                    Arrays.asList("-classpath", System.getProperty("java.class.path")), null,
+                    Collections.singletonList(spec));
+            task.setProcessors(Collections.singletonList(new StateMachineProcessor()));
+            task.call();
+        }
+        return diagnostics;
+    }
+
+    private static List<String> errors(final DiagnosticCollector<JavaFileObject> diagnostics) {
+        final List<String> errors = new ArrayList<String>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(null));
+            }
+        }
+        return errors;
+    }
+}
@@ -0,0 +1,204 @@
+package com.timjstewart.fsm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * the context of a coin-operated turnstile
+ */
+class Turnstile {
+
+    int coins;
+    int alarms;
+}
+
+public class StateMachineTest {
+
+    enum State {
+        Locked,
+        Unlocked
+    }
+
+    enum Event {
+        Coin,
+        Push
+    }
+
+    private static final Definition<State, Event, Turnstile> TURNSTILE =
+            Definition.<State, Event, Turnstile>builder(State.class, Event.class, State.Locked)
+                    .on(State.Locked, Event.Coin, (turnstile, event) -> {
+                        ++turnstile.coins;
+                        return State.Unlocked;
+                    })
+                    .on(State.Locked, Event.Push, (turnstile, event) -> {
+                        ++turnstile.alarms;
+                        return State.Locked;
+                    })
+                    .on(State.Unlocked, Event.Push, (turnstile, event) -> State.Locked)
+                    .build();
+
+    @Test
+    public void startsInTheInitialState() {
+        assertEquals(State.Locked, new StateMachine<State, Event, Turnstile>(TURNSTILE, new Turnstile()).getState());
+    }
+
+    @Test
+    public void takesTheActionForTheStateAndEvent() {
+        final Turnstile turnstile = new Turnstile();
+        final StateMachine<State, Event, Turnstile> machine =
+                new StateMachine<State, Event, Turnstile>(TURNSTILE, turnstile);
+
+        assertEquals(State.Locked, machine.fire(Event.Push));
+        assertEquals(1, turnstile.alarms);
+
+        assertEquals(State.Unlocked, machine.fire(Event.Coin));
+        assertEquals(State.Unlocked, machine.getState());
+        assertEquals(1, turnstile.coins);
+
+        assertEquals(State.Locked, machine.fire(Event.Push));
+        assertEquals(1, turnstile.alarms);
+    }
+
+    @Test
+    public void eventsWithoutAnActionLeaveTheStateAsItWas() {
+        final Turnstile turnstile = new Turnstile();
+        final StateMachine<State, Event, Turnstile> machine =
+                new StateMachine<State, Event, Turnstile>(TURNSTILE, turnstile);
+
+        machine.fire(Event.Coin);
+        assertEquals(State.Unlocked, machine.fire(Event.Coin));
+        assertEquals(1, turnstile.coins);
+    }
+
+    @Test
+    public void machinesShareTheDefinitionButNotTheirState() {
+        final StateMachine<State, Event, Turnstile> first =
+                new StateMachine<State, Event, Turnstile>(TURNSTILE, new Turnstile());
+        final StateMachine<State, Event, Turnstile> second =
+                new StateMachine<State, Event, Turnstile>(TURNSTILE, new Turnstile());
+
+        first.fire(Event.Coin);
+
+        assertEquals(State.Unlocked, first.getState());
+        assertEquals(State.Locked, second.getState());
+        assertEquals(0, second.getContext().coins);
+    }
+
+    @Test
+    public void tellsTheObserverAboutEveryEvent() {
+        final StringBuilder events = new StringBuilder();
+        final StateMachine<State, Event, Turnstile> machine = new StateMachine<State, Event, Turnstile>(
+                TURNSTILE, new Turnstile(),
+                (from, event, to) -> events.append(from).append(" --").append(event).append("--> ").append(to)
+                        .append('\n'));
+
+        machine.fire(Event.Coin);
+        machine.fire(Event.Coin);
+        machine.fire(Event.Push);
+
+        assertEquals("Locked --Coin--> Unlocked\n" +
+                "Unlocked --Coin--> Unlocked\n" +
+                "Unlocked --Push--> Locked\n", events.toString());
+    }
+
+    @Test
+    public void tellsTheObserverAboutAnEventBeforeTakingItsAction() {
+        final StringBuilder events = new StringBuilder();
+        final Turnstile turnstile = new Turnstile();
+        final StateMachine<State, Event, Turnstile> machine = new StateMachine<State, Event, Turnstile>(
+                TURNSTILE, turnstile,
+                new StateMachine.Observer<State, Event>() {
+                    @Override
+                    public void beforeEvent(State state, Event event) {
+                        events.append(state).append(" --").append(event).append(" coins=").append(turnstile.coins);
+                    }
+
+                    @Override
+                    public void onEvent(State from, Event event, State to) {
+                        events.append("--> ").append(to).append(" coins=").append(turnstile.coins);
+                    }
+                });
+
+        machine.fire(Event.Coin);
+
+        assertEquals("Locked --Coin coins=0--> Unlocked coins=1", events.toString());
+    }
+
+    @Test
+    public void tellsTheObserverAboutATransitionWithACause() {
+        final StringBuilder transitions = new StringBuilder();
+        final Turnstile turnstile = new Turnstile();
+        final StateMachine<State, Event, Turnstile> machine = new StateMachine<State, Event, Turnstile>(
+                TURNSTILE, turnstile,
+                new StateMachine.Observer<State, Event>() {
+                    @Override
+                    public void onEvent(State from, Event event, State to) {
+                        transitions.append(event);
+                    }
+
+                    @Override
+                    public void onTransition(State from, Object cause, State to) {
+                        transitions.append(from).append(" --").append(cause).append("--> ").append(to);
+                    }
+                });
+
+        assertEquals(State.Unlocked, machine.transition(State.Unlocked, "maintenance"));
+
+        assertEquals(State.Unlocked, machine.getState());
+        assertEquals(0, turnstile.coins);
+        assertEquals("Locked --maintenance--> Unlocked", transitions.toString());
+
+        // the machine carries on from the state it was put in
+        assertEquals(State.Locked, machine.fire(Event.Push));
+    }
+
+    @Test
+    public void restoringAStateTakesNoAction() {
+        final StringBuilder events = new StringBuilder();
+        final Turnstile turnstile = new Turnstile();
+        final StateMachine<State, Event, Turnstile> machine = new StateMachine<State, Event, Turnstile>(
+                TURNSTILE, turnstile,
+                (from, event, to) -> events.append(event));
+
+        machine.restore(State.Unlocked);
+
+        assertEquals(State.Unlocked, machine.getState());
+        assertEquals(0, turnstile.coins);
+        assertEquals("", events.toString());
+    }
+
+    @Test
+    public void anActionCanHandleEveryEventOfAState() {
+        final Definition<State, Event, Turnstile> alwaysLocked =
+                Definition.<State, Event, Turnstile>builder(State.class, Event.class, State.Locked)
+                        .onAny(State.Locked, (turnstile, event) -> {
+                            ++turnstile.alarms;
+                            return State.Locked;
+                        })
+                        .build();
+
+        final Turnstile turnstile = new Turnstile();
+        final StateMachine<State, Event, Turnstile> machine =
+                new StateMachine<State, Event, Turnstile>(alwaysLocked, turnstile);
+
+        machine.fire(Event.Coin);
+        machine.fire(Event.Push);
+
+        assertEquals(2, turnstile.alarms);
+        assertSame(alwaysLocked.getAction(State.Locked, Event.Coin), alwaysLocked.getAction(State.Locked, Event.Push));
+    }
+
+    @Test
+    public void changingTheBuilderDoesNotChangeABuiltDefinition() {
+        final Definition.Builder<State, Event, Turnstile> builder =
+                Definition.builder(State.class, Event.class, State.Locked);
+
+        final Definition<State, Event, Turnstile> before = builder.build();
+        builder.on(State.Locked, Event.Coin, (turnstile, event) -> State.Unlocked);
+
+        assertEquals(State.Locked, new StateMachine<State, Event, Turnstile>(before, new Turnstile()).fire(Event.Coin));
+        assertEquals(State.Unlocked,
+                new StateMachine<State, Event, Turnstile>(builder.build(), new Turnstile()).fire(Event.Coin));
+    }
+}
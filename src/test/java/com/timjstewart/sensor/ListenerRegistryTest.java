@@ -0,0 +1,138 @@
+package com.timjstewart.sensor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ListenerRegistryTest {
+
+    private PotSensor potSensor;
+
+    // the names of the Listeners in the order they were notified
+    private List<String> notified;
+
+    @Before
+    public void setUp() {
+        potSensor = new PotSensor();
+        notified = new ArrayList<String>();
+    }
+
+    @Test
+    public void notifiesListenersInTheOrderTheyWereAdded() {
+        for (String name : Arrays.asList("c", "a", "d", "b")) {
+            potSensor.addListener(named(name));
+        }
+
+        potSensor.detect(PotSensor.State.Empty);
+
+        assertEquals(Arrays.asList("c", "a", "d", "b"), notified);
+    }
+
+    @Test
+    public void addsAListenerOnlyOnce() {
+        final ListenerRegistry<PotSensor.Listener> registry =
+                new ListenerRegistry<PotSensor.Listener>(PotSensor.Listener.class);
+        final PotSensor.Listener listener = named("a");
+
+        assertTrue(registry.add(listener));
+        assertFalse(registry.add(listener));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void removedListenersAreNotNotified() {
+        final PotSensor.Listener a = named("a");
+        final PotSensor.Listener b = named("b");
+        final PotSensor.Listener c = named("c");
+
+        potSensor.addListener(a);
+        potSensor.addListener(b);
+        potSensor.addListener(c);
+        potSensor.removeListener(b);
+
+        potSensor.detect(PotSensor.State.Empty);
+
+        assertEquals(Arrays.asList("a", "c"), notified);
+
+        final ListenerRegistry<PotSensor.Listener> registry =
+                new ListenerRegistry<PotSensor.Listener>(PotSensor.Listener.class);
+        assertFalse(registry.remove(a));
+    }
+
+    @Test
+    public void listenersAddedDuringANotificationAreNotifiedOfTheNextOne() {
+        potSensor.addListener(new PotSensor.Listener() {
+            @Override
+            public void onPotStatusChanged(PotSensor.State status) {
+                notified.add("adder");
+                potSensor.addListener(named("added"));
+            }
+        });
+
+        potSensor.detect(PotSensor.State.Empty);
+        assertEquals(Arrays.asList("adder"), notified);
+
+        potSensor.detect(PotSensor.State.Gone);
+        assertEquals(Arrays.asList("adder", "adder", "added"), notified);
+    }
+
+    @Test
+    public void listenersRemovedDuringANotificationAreStillNotifiedOfIt() {
+        final PotSensor.Listener removed = named("removed");
+
+        potSensor.addListener(new PotSensor.Listener() {
+            @Override
+            public void onPotStatusChanged(PotSensor.State status) {
+                notified.add("remover");
+                potSensor.removeListener(removed);
+            }
+        });
+        potSensor.addListener(removed);
+
+        potSensor.detect(PotSensor.State.Empty);
+        potSensor.detect(PotSensor.State.Gone);
+
+        assertEquals(Arrays.asList("remover", "removed", "remover"), notified);
+    }
+
+    @Test
+    public void everyListenerIsNotifiedOfTheDetectedStateEvenIfAListenerChangesIt() {
+        final BrewButtonSensor brewButton = new BrewButtonSensor();
+        final List<BrewButtonSensor.State> states = new ArrayList<BrewButtonSensor.State>();
+
+        // the way a CoffeeMaker resets the Brew button
+        brewButton.addListener(new BrewButtonSensor.Listener() {
+            @Override
+            public void onBrewButtonStatusChanged(BrewButtonSensor.State status) {
+                if (status == BrewButtonSensor.State.Pressed) {
+                    brewButton.detect(BrewButtonSensor.State.NotPressed);
+                }
+            }
+        });
+        brewButton.addListener(new BrewButtonSensor.Listener() {
+            @Override
+            public void onBrewButtonStatusChanged(BrewButtonSensor.State status) {
+                states.add(status);
+            }
+        });
+
+        brewButton.detect(BrewButtonSensor.State.Pressed);
+
+        assertEquals(Arrays.asList(BrewButtonSensor.State.NotPressed, BrewButtonSensor.State.Pressed), states);
+        assertEquals(BrewButtonSensor.State.NotPressed, brewButton.getBrewButtonState());
+    }
+
+    private PotSensor.Listener named(final String name) {
+        return new PotSensor.Listener() {
+            @Override
+            public void onPotStatusChanged(PotSensor.State status) {
+                notified.add(name);
+            }
+        };
+    }
+}
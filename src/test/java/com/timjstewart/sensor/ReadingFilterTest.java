@@ -0,0 +1,194 @@
+package com.timjstewart.sensor;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * a Ticker that only moves when it's told to
+ */
+class ManualTicker extends Ticker {
+
+    private long nanos;
+
+    @Override
+    public long read() {
+        return nanos;
+    }
+
+    void advance(final long duration, final TimeUnit unit) {
+        nanos += unit.toNanos(duration);
+    }
+}
+
+public class ReadingFilterTest {
+
+    private ManualTicker ticker;
+
+    // the readings that the PotSensor's Listener was told about
+    private List<PotSensor.State> readings;
+
+    @Before
+    public void setUp() {
+        ticker = new ManualTicker();
+        readings = new ArrayList<PotSensor.State>();
+    }
+
+    @Test
+    public void passesOnEveryReadingByDefault() {
+        final PotSensor potSensor = potSensor(new ReadingFilter<PotSensor.State>(PotSensor.State.class, ticker));
+
+        potSensor.detect(PotSensor.State.Empty);
+        potSensor.detect(PotSensor.State.Empty);
+
+        assertEquals(Arrays.asList(PotSensor.State.Empty, PotSensor.State.Empty), readings);
+    }
+
+    @Test
+    public void suppressesUnchangedReadings() {
+        final ReadingFilter<PotSensor.State> filter =
+                new ReadingFilter<PotSensor.State>(PotSensor.State.class, ticker).suppressUnchanged();
+        final PotSensor potSensor = potSensor(filter);
+
+        potSensor.detect(PotSensor.State.Empty);
+        potSensor.detect(PotSensor.State.Empty);
+        potSensor.detect(PotSensor.State.NonEmpty);
+        potSensor.detect(PotSensor.State.NonEmpty);
+        potSensor.detect(PotSensor.State.NonEmpty);
+
+        assertEquals(Arrays.asList(PotSensor.State.Empty, PotSensor.State.NonEmpty), readings);
+        assertEquals(3, filter.getUnchanged());
+        assertEquals(3, filter.getSuppressed());
+    }
+
+    @Test
+    public void holdsBackADebouncedStateUntilItHasPersisted() {
+        final ReadingFilter<PotSensor.State> filter = new ReadingFilter<PotSensor.State>(PotSensor.State.class, ticker)
+                .debounce(PotSensor.State.Gone, 200, TimeUnit.MILLISECONDS);
+        final PotSensor potSensor = potSensor(filter);
+
+        potSensor.detect(PotSensor.State.Empty);
+
+        potSensor.detect(PotSensor.State.Gone);
+        ticker.advance(150, TimeUnit.MILLISECONDS);
+        potSensor.detect(PotSensor.State.Gone);
+
+        assertEquals(Arrays.asList(PotSensor.State.Empty), readings);
+        assertEquals(PotSensor.State.Empty, potSensor.getState());
+
+        ticker.advance(50, TimeUnit.MILLISECONDS);
+        potSensor.detect(PotSensor.State.Gone);
+
+        assertEquals(Arrays.asList(PotSensor.State.Empty, PotSensor.State.Gone), readings);
+        assertEquals(PotSensor.State.Gone, potSensor.getState());
+        assertEquals(2, filter.getDebounced());
+    }
+
+    @Test
+    public void forgetsADebouncedStateThatFlapsBack() {
+        final ReadingFilter<PotSensor.State> filter = new ReadingFilter<PotSensor.State>(PotSensor.State.class, ticker)
+                .suppressUnchanged()
+                .debounce(PotSensor.State.Gone, 200, TimeUnit.MILLISECONDS);
+        final PotSensor potSensor = potSensor(filter);
+
+        potSensor.detect(PotSensor.State.Empty);
+
+        for (int i = 0; i < 10; ++i) {
+            potSensor.detect(PotSensor.State.Gone);
+            ticker.advance(100, TimeUnit.MILLISECONDS);
+            potSensor.detect(PotSensor.State.Empty);
+            ticker.advance(100, TimeUnit.MILLISECONDS);
+        }
+
+        potSensor.poll();
+
+        assertEquals(Arrays.asList(PotSensor.State.Empty), readings);
+        assertEquals(10, filter.getDebounced());
+        assertEquals(10, filter.getUnchanged());
+        assertEquals(20, filter.getSuppressed());
+    }
+
+    @Test
+    public void pollPassesOnAReadingWhoseWindowHasElapsed() {
+        final PotSensor potSensor = potSensor(new ReadingFilter<PotSensor.State>(PotSensor.State.class, ticker)
+                .debounce(PotSensor.State.Gone, 200, TimeUnit.MILLISECONDS));
+
+        potSensor.detect(PotSensor.State.Gone);
+
+        potSensor.poll();
+        assertTrue(readings.isEmpty());
+
+        ticker.advance(200, TimeUnit.MILLISECONDS);
+        potSensor.poll();
+        potSensor.poll();
+
+        assertEquals(Arrays.asList(PotSensor.State.Gone), readings);
+    }
+
+    @Test
+    public void statesCanHaveDifferentWindows() {
+        final WaterLevelSensor waterLevelSensor = new WaterLevelSensor(
+                new ReadingFilter<WaterLevelSensor.State>(WaterLevelSensor.State.class, ticker)
+                        .debounce(WaterLevelSensor.State.Empty, 1, TimeUnit.SECONDS)
+                        .debounce(WaterLevelSensor.State.NotEmpty, 10, TimeUnit.MILLISECONDS));
+
+        waterLevelSensor.detect(WaterLevelSensor.State.NotEmpty);
+        ticker.advance(10, TimeUnit.MILLISECONDS);
+        waterLevelSensor.poll();
+
+        assertEquals(WaterLevelSensor.State.NotEmpty, waterLevelSensor.getWaterLevel());
+
+        waterLevelSensor.detect(WaterLevelSensor.State.Empty);
+        ticker.advance(10, TimeUnit.MILLISECONDS);
+        waterLevelSensor.poll();
+
+        assertEquals(WaterLevelSensor.State.NotEmpty, waterLevelSensor.getWaterLevel());
+
+        ticker.advance(990, TimeUnit.MILLISECONDS);
+        waterLevelSensor.poll();
+
+        assertEquals(WaterLevelSensor.State.Empty, waterLevelSensor.getWaterLevel());
+    }
+
+    @Test
+    public void tellsTheListenersWhileHoldingTheFiltersLock() {
+        final ReadingFilter<PotSensor.State> filter = new ReadingFilter<PotSensor.State>(PotSensor.State.class, ticker)
+                .debounce(PotSensor.State.Gone, 200, TimeUnit.MILLISECONDS);
+
+        // a poll on another thread can't tell the Listeners about a reading between a detect's accept and its
+        // notification
+        final List<Boolean> locked = new ArrayList<Boolean>();
+        final PotSensor potSensor = new PotSensor(filter);
+        potSensor.addListener(new PotSensor.Listener() {
+            @Override
+            public void onPotStatusChanged(PotSensor.State status) {
+                locked.add(Thread.holdsLock(filter));
+            }
+        });
+
+        potSensor.detect(PotSensor.State.Empty);
+        potSensor.detect(PotSensor.State.Gone);
+        ticker.advance(200, TimeUnit.MILLISECONDS);
+        potSensor.poll();
+
+        assertEquals(Arrays.asList(true, true), locked);
+    }
+
+    private PotSensor potSensor(final ReadingFilter<PotSensor.State> filter) {
+        final PotSensor potSensor = new PotSensor(filter);
+        potSensor.addListener(new PotSensor.Listener() {
+            @Override
+            public void onPotStatusChanged(PotSensor.State status) {
+                readings.add(status);
+            }
+        });
+        return potSensor;
+    }
+}
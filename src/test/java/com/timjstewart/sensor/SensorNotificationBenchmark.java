@@ -0,0 +1,83 @@
+package com.timjstewart.sensor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what it costs a PotSensor to notify its Listeners of a reading, for 1 to 64 Listeners.
+ * <p/>
+ * detect notifies them the way PotSensor does, from its ListenerRegistry; hashSet notifies the same Listeners from a
+ * HashSet, the way PotSensor used to.  Run with -prof gc to check for allocation; in this loop the JIT can usually
+ * eliminate the HashSet's iterator, but it isn't guaranteed to in every caller.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensorNotificationBenchmark {
+
+    @Param({"1", "4", "16", "64"})
+    public int listeners;
+
+    private PotSensor potSensor;
+    private Set<PotSensor.Listener> hashSet;
+
+    private int readings;
+
+    @Setup
+    public void setUp() {
+        potSensor = new PotSensor();
+        hashSet = new HashSet<PotSensor.Listener>();
+
+        for (int i = 0; i < listeners; ++i) {
+            final CountingListener listener = new CountingListener();
+            potSensor.addListener(listener);
+            hashSet.add(listener);
+        }
+    }
+
+    @Benchmark
+    public void detect() {
+        potSensor.detect(nextReading());
+    }
+
+    @Benchmark
+    public void hashSet() {
+        final PotSensor.State newState = nextReading();
+        for (PotSensor.Listener listener : hashSet) {
+            listener.onPotStatusChanged(newState);
+        }
+    }
+
+    private PotSensor.State nextReading() {
+        return (++readings & 1) == 0 ? PotSensor.State.Empty : PotSensor.State.Gone;
+    }
+
+    /**
+     * a Listener that does as little as possible without being optimized away
+     */
+    static class CountingListener implements PotSensor.Listener {
+
+        int notifications;
+
+        @Override
+        public void onPotStatusChanged(PotSensor.State status) {
+            ++notifications;
+        }
+    }
+}